@@ -1,5 +1,10 @@
 package es.potter;
 
+import es.potter.servicio.ColaReplicacion;
+import es.potter.servicio.LiderReplicacion;
+import es.potter.servicio.MigracionShard;
+import es.potter.servicio.ModoSinConexion;
+import es.potter.servicio.ProgramadorSincronizacion;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
@@ -10,6 +15,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Locale;
 import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Clase principal de la aplicación JavaFX.
@@ -46,6 +52,17 @@ public class HogwartsApp extends Application {
             ResourceBundle bundle = ResourceBundle.getBundle("es.potter.mensajes", locale);
             logger.debug("Resource bundle cargado para locale: {}", locale);
 
+            // Usar el reparto de las casas que dejó en el MASTER la última migración (sin esperar a un MASTER caído)
+            MigracionShard.cargarReparto().completeOnTimeout(false, 5, TimeUnit.SECONDS).join();
+            // Reanudar la replicación que quedara pendiente de la sesión anterior
+            ColaReplicacion.iniciar();
+            // Reenviar al MASTER lo que se escribiera sin conexión en la sesión anterior
+            ModoSinConexion.iniciar();
+            // Elegir entre todos los equipos abiertos el único que sincroniza en segundo plano
+            LiderReplicacion.iniciar();
+            // Mantener las réplicas al día con sincronizaciones incrementales en segundo plano
+            ProgramadorSincronizacion.iniciar();
+
             // Cargar archivo FXML con la definición de la interfaz
             logger.debug("Cargando archivo FXML: fxml/ventanaPrincipal.fxml");
             FXMLLoader fxmlLoader = new FXMLLoader(getClass().getResource("/es/potter/fxml/ventanaPrincipal.fxml"), bundle);
@@ -3,22 +3,20 @@ package es.potter.control;
 import es.potter.model.Alumno;
 import es.potter.servicio.ServicioHogwarts;
 import javafx.application.Platform;
-import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.stage.Stage;
 
 import java.util.Locale;
-import java.util.Map;
 import java.util.ResourceBundle;
 
 /**
  * Controlador para la ventana modal de creación de un nuevo alumno.
  * Gestiona la interacción con los campos del formulario, validación y
  * la comunicación con el servicio que persiste el nuevo alumno.
- * Actualiza la vista principal mediante callbacks proporcionados.
- * Ahora filtra la adición de alumnos según la casa visible en la tabla principal
- * para evitar que se muestren temporalmente en otras casas.
+ * Al guardar, pide a la vista principal que recargue su lista a través del servicio, que ya
+ * incluye las escrituras propias aún no replicadas; así el alumno aparece solo en las vistas
+ * que le corresponden y una sola vez.
  *
  * @author Marco, Erlantz
  * @version 1.1
@@ -50,20 +48,8 @@ public class ControladorNuevoAlumno {
     /** Bundle de recursos para mensajes internacionalizados */
     private final ResourceBundle bundle = ResourceBundle.getBundle("es.potter.mensajes", Locale.getDefault());
 
-    /** Lista observable de alumnos en la vista principal */
-    private ObservableList<Alumno> listaAlumnosPrincipal;
-
-    /** Mapa de alumnos a checkboxes para selección en la tabla principal */
-    private Map<Alumno, CheckBox> checkBoxMapPrincipal;
-
-    /** Callback para actualizar el estado de botones en la vista principal */
-    private Runnable actualizarBotonesCallback;
-
-    /** Callback para refrescar la tabla de alumnos en la vista principal */
-    private Runnable refrescarTablaCallback;
-
-    /** Casa actualmente visible en la tabla principal */
-    private String casaVisible;
+    /** Callback para recargar la lista de la vista principal desde el servicio */
+    private Runnable recargarVistaCallback;
 
     /**
      * Inicializa los elementos gráficos luego de cargarse el FXML.
@@ -81,24 +67,14 @@ public class ControladorNuevoAlumno {
     }
 
     /**
-     * Configura referencias y callbacks desde el controlador principal.
-     * Además recibe la casa actualmente visible para filtrar la lista.
+     * Configura el callback del controlador principal.
      *
-     * @param listaAlumnos Lista observable con los alumnos actuales.
-     * @param checkBoxMap Mapa que relaciona alumnos y checkboxes.
-     * @param actualizarBotones Callback para actualizar botones.
-     * @param refrescarTabla Callback para refrescar vista tabla.
-     * @param casaVisible Nombre de la casa actualmente visible en la tabla.
+     * @param recargarVista Callback que recarga la lista visible a través del servicio.
      *
      * @author Marco
      */
-    public void setParentData(ObservableList<Alumno> listaAlumnos, Map<Alumno, CheckBox> checkBoxMap,
-                              Runnable actualizarBotones, Runnable refrescarTabla, String casaVisible) {
-        this.listaAlumnosPrincipal = listaAlumnos;
-        this.checkBoxMapPrincipal = checkBoxMap;
-        this.actualizarBotonesCallback = actualizarBotones;
-        this.refrescarTablaCallback = refrescarTabla;
-        this.casaVisible = casaVisible; // Guardamos la casa visible
+    public void setParentData(Runnable recargarVista) {
+        this.recargarVistaCallback = recargarVista;
     }
 
     /**
@@ -116,8 +92,7 @@ public class ControladorNuevoAlumno {
     /**
      * Acción para validar y guardar un nuevo alumno.
      * Válida que los campos obligatorios no estén vacíos.
-     * Llama al servicio para persistir el alumno y actualiza la vista principal.
-     * Solo añade el alumno a la lista visible si coincide con la casa mostrada.
+     * Llama al servicio para persistir el alumno y recarga la vista principal a través del servicio.
      * Muestra alertas informativas o de error según el resultado.
      *
      * @author Marco
@@ -143,23 +118,8 @@ public class ControladorNuevoAlumno {
         ServicioHogwarts.nuevoAlumno(alumno)
                 .thenAccept(exito -> Platform.runLater(() -> {
                     if (exito) {
-                        // Añadir a la lista visible solo si la casa coincide con la que se muestra
-                        if (listaAlumnosPrincipal != null) {
-                            if (casaVisible.equalsIgnoreCase(casa) || casaVisible.equalsIgnoreCase("Hogwarts")) {
-                                listaAlumnosPrincipal.add(alumno);
-                            }
-                        }
-
-                        if (checkBoxMapPrincipal != null) {
-                            CheckBox cb = new CheckBox();
-                            cb.selectedProperty().addListener((obs, oldVal, newVal) -> {
-                                if (actualizarBotonesCallback != null) actualizarBotonesCallback.run();
-                            });
-                            checkBoxMapPrincipal.put(alumno, cb);
-                        }
-
-                        if (actualizarBotonesCallback != null) actualizarBotonesCallback.run();
-                        if (refrescarTablaCallback != null) refrescarTablaCallback.run();
+                        // La lista del servicio ya incluye el alumno nuevo, aunque su casa aún no lo tenga
+                        if (recargarVistaCallback != null) recargarVistaCallback.run();
 
                         mandarAlertas(Alert.AlertType.INFORMATION, bundle.getString("alumnoGuardado"), bundle.getString("alumnoGuardadoHeader"));
 
@@ -1,8 +1,10 @@
 
 package es.potter.control;
 
+import es.potter.database.MapaShards;
 import es.potter.database.TipoBaseDatos;
 import es.potter.model.Alumno;
+import es.potter.servicio.RetrasoReplica;
 import es.potter.servicio.ServicioHogwarts;
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
@@ -35,9 +37,9 @@ import org.slf4j.LoggerFactory;
 import java.awt.*;
 import java.io.IOException;
 import java.net.URI;
+import java.text.MessageFormat;
 import java.util.*;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
 
 /**
  * Controlador principal de la aplicación HogwartsApp.
@@ -131,6 +133,15 @@ public class ControladorPrincipal {
     /** Timeline para la animación del caldero */
     private Timeline loadingAnimation;
 
+    /** Etiqueta con el retraso de cada casa, junto a su botón */
+    private final Map<TipoBaseDatos, Label> etiquetasRetraso = new EnumMap<>(TipoBaseDatos.class);
+
+    /** Timeline que refresca periódicamente el retraso de las réplicas */
+    private Timeline refrescoRetraso;
+
+    /** Indica si hay una medición del retraso en curso */
+    private boolean midiendoRetraso = false;
+
     /** Lista filtrada utilizada para búsquedas en tabla */
     private FilteredList<Alumno> filteredList;
 
@@ -156,6 +167,7 @@ public class ControladorPrincipal {
         configurarAnchosColumnas();
         inicializarBotones();
         configurarAnimacionCarga();
+        configurarRetrasoReplicas();
 
         // Inicializar con modo claro
         rootPane.getStyleClass().add("modo-claro");
@@ -305,6 +317,93 @@ public class ControladorPrincipal {
         }
     }
 
+    /**
+     * Añade a cada botón de casa una etiqueta con el retraso de su réplica
+     * y programa su actualización cada pocos segundos.
+     *
+     * @author Wara
+     */
+    private void configurarRetrasoReplicas() {
+        Map<TipoBaseDatos, Button> botones = Map.of(
+                TipoBaseDatos.GRYFFINDOR, btnGryffindor,
+                TipoBaseDatos.SLYTHERIN, btnSlytherin,
+                TipoBaseDatos.RAVENCLAW, btnRavenclaw,
+                TipoBaseDatos.HUFFLEPUFF, btnHufflepuff);
+
+        botones.forEach((casa, boton) -> {
+            Label etiqueta = new Label(bundle.getString("retrasoSinDatos"));
+            etiqueta.getStyleClass().add("retraso-replica");
+            etiqueta.setTooltip(new Tooltip(bundle.getString("tooltipRetrasoReplica")));
+            boton.setGraphic(etiqueta);
+            boton.setContentDisplay(ContentDisplay.RIGHT);
+            boton.setGraphicTextGap(8);
+            etiquetasRetraso.put(casa, etiqueta);
+        });
+
+        refrescoRetraso = new Timeline(new KeyFrame(Duration.seconds(3), e -> actualizarRetrasoReplicas()));
+        refrescoRetraso.setCycleCount(Timeline.INDEFINITE);
+        refrescoRetraso.play();
+        actualizarRetrasoReplicas();
+    }
+
+    /**
+     * Mide el retraso de las réplicas y actualiza las etiquetas de los botones de casa.
+     * Si la medición anterior aún no ha terminado, no lanza otra.
+     *
+     * @author Wara
+     */
+    private void actualizarRetrasoReplicas() {
+        if (midiendoRetraso) {
+            return;
+        }
+        midiendoRetraso = true;
+
+        ServicioHogwarts.medirRetrasoReplicas()
+                .whenComplete((retrasos, ex) -> Platform.runLater(() -> {
+                    midiendoRetraso = false;
+                    if (ex != null) {
+                        logger.debug("No se pudo medir el retraso de las réplicas: {}", ex.getMessage());
+                        return;
+                    }
+                    etiquetasRetraso.forEach((casa, etiqueta) -> {
+                        // Una casa repartida en varios backends muestra el más atrasado
+                        RetrasoReplica retraso = MapaShards.getBackends(casa).stream()
+                                .map(retrasos::get)
+                                .filter(Objects::nonNull)
+                                .max(Comparator.comparingLong(RetrasoReplica::pendientes))
+                                .orElse(null);
+                        etiqueta.setText(retraso == null ? bundle.getString("retrasoSinDatos") : formatearRetraso(retraso));
+                        etiqueta.getStyleClass().remove("atrasada");
+                        if (retraso != null && !retraso.alDia()) {
+                            etiqueta.getStyleClass().add("atrasada");
+                        }
+                    });
+                }));
+    }
+
+    /**
+     * Formatea el retraso de una réplica para mostrarlo junto a su botón.
+     *
+     * @param retraso retraso medido
+     * @return texto con las operaciones pendientes y el tiempo desde la última aplicación
+     *
+     * @author Wara
+     */
+    private String formatearRetraso(RetrasoReplica retraso) {
+        long ms = retraso.msDesdeUltimaAplicacion();
+        String tiempo;
+        if (ms < 0) {
+            tiempo = bundle.getString("retrasoSinDatos");
+        } else if (ms < 60_000) {
+            tiempo = (ms / 1000) + " s";
+        } else if (ms < 3_600_000) {
+            tiempo = (ms / 60_000) + " min";
+        } else {
+            tiempo = (ms / 3_600_000) + " h";
+        }
+        return MessageFormat.format(bundle.getString("retrasoReplica"), retraso.pendientes(), tiempo);
+    }
+
     /**
      * Filtra el contenido de la tabla en función del texto introducido en el campo de búsqueda.
      *
@@ -423,7 +522,7 @@ public class ControladorPrincipal {
      * Elimina los alumnos seleccionados tras mostrar un mensaje de confirmación.
      * Esta función:
      * 1. Muestra una alerta al usuario para confirmar la eliminación.
-     * 2. Ejecuta las eliminaciones de forma asíncrona utilizando CompletableFuture.
+     * 2. Elimina todos los seleccionados en bloque y de forma asíncrona (una transacción por base de datos).
      * 3. Actualiza la interfaz (tabla y botones) en el hilo de JavaFX una vez finalizado el proceso.
      * Se eliminan los alumnos de todas las bases de datos (master y slaves).
      * Si ocurre un error, se muestra una alerta de tipo ERROR.
@@ -455,16 +554,8 @@ public class ControladorPrincipal {
         loadingImageView.setVisible(true);
         loadingAnimation.play();
 
-        // Eliminar cada alumno del sistema Master-Slave
-        List<CompletableFuture<Boolean>> eliminaciones = new ArrayList<>();
-        for (Alumno alumno : alumnosSeleccionados) {
-            eliminaciones.add(ServicioHogwarts.eliminarAlumno(alumno));
-        }
-
-        // Esperar a que todas las eliminaciones terminen
-        CompletableFuture.allOf(eliminaciones.toArray(new CompletableFuture[0]))
-                .thenApply(v -> eliminaciones.stream()
-                        .allMatch(CompletableFuture::join))
+        // Eliminar todos los seleccionados en bloque (una transacción por base de datos)
+        ServicioHogwarts.eliminarAlumnos(alumnosSeleccionados)
                 .thenAccept(todasExitosas -> Platform.runLater(() -> {
                     loadingAnimation.stop();
                     loadingImageView.setVisible(false);
@@ -707,20 +798,8 @@ public class ControladorPrincipal {
             Parent root = loader.load();
 
             ControladorNuevoAlumno controladorAniadir = loader.getController();
-            // Callback actualizado para limpiar correctamente el checkbox "seleccionar todos"
-            controladorAniadir.setParentData(
-                    listaAlumnos,
-                    checkBoxMap,
-                    this::actualizarEstadoBotones,
-                    () -> {
-                        tablaAlumnos.refresh();
-                        // Limpiar checkbox de "seleccionar todos" al cerrar modal
-                        if (checkBox.getGraphic() != null && checkBox.getGraphic() instanceof CheckBox seleccionarTodosCheckBox) {
-                            seleccionarTodosCheckBox.setSelected(false);
-                        }
-                    },
-                    baseDatosActual.esCasa() ? baseDatosActual.obtenerNombreCasa() : "Hogwarts" // <-- quinto argumento: la casa visible
-            );
+            // Recargar por el servicio: incluye el alumno nuevo solo si es de la vista actual
+            controladorAniadir.setParentData(() -> cargarAlumnosPorCasa(baseDatosActual));
 
             // Aplicar el tema actual al modal
             if (modoOscuroActivo) {
@@ -765,6 +844,7 @@ public class ControladorPrincipal {
 
     /**
      * Carga y muestra los alumnos según la casa o base de datos indicada.
+     * En la carga inicial se muestra antes la última lista guardada en disco, si la hay.
      *
      * @param tipoBase Tipo de base de datos a cargar (MariaDB, Gryffindor...)
      * @param esCargaInicial Se inicia la primera vez o se recarga la lista
@@ -775,6 +855,15 @@ public class ControladorPrincipal {
         baseDatosActual = tipoBase;
         listaAlumnos.clear();
 
+        // Al arrancar, pintar la última lista guardada mientras llega la del MASTER
+        if (esCargaInicial) {
+            ObservableList<Alumno> instantanea = ServicioHogwarts.cargarInstantanea(tipoBase);
+            if (instantanea != null) {
+                listaAlumnos.setAll(instantanea);
+                actualizarEstilosCasa();
+            }
+        }
+
         // Mostrar animación de carga
         loadingImageView.setVisible(true);
         loadingAnimation.play();
@@ -805,11 +894,10 @@ public class ControladorPrincipal {
 
                         mandarAlertas(Alert.AlertType.ERROR, bundle.getString("errorCargarAlumnos"), bundle.getString("noPuedeCargarAlumnos") + " " + tipoBase, ex.getMessage());
 
-                        // Si es la carga inicial, cerrar la aplicación
+                        // Ni el MASTER ni SQLite respondieron: la aplicación sigue abierta
+                        // para poder reintentar cambiando de casa o recargando
                         if (esCargaInicial) {
-                            logger.error("Error crítico en la carga inicial de alumnos. Cerrando aplicación...");
-                            Platform.exit();
-                            System.exit(1);
+                            logger.error("Error en la carga inicial de alumnos: no responde ninguna base de datos");
                         }
                     });
                     return null;
@@ -0,0 +1,432 @@
+package es.potter.dao;
+
+import es.potter.database.ConexionFactory;
+import es.potter.database.TipoBaseDatos;
+import es.potter.model.OperacionAlumno;
+import es.potter.model.TipoOperacion;
+import es.potter.util.Propiedades;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Etapa de commit agrupado (group commit) delante de cada base de datos.
+ * <p>
+ * Las escrituras que llegan a una misma {@link TipoBaseDatos} dentro de una ventana
+ * corta de tiempo (o hasta alcanzar un tamaño máximo de lote) se ejecutan con una
+ * sola conexión y una sola transacción, en el mismo orden en que llegaron.
+ * Cada llamante recibe su propio {@link CompletableFuture} con el resultado de su operación.
+ * </p>
+ * <p>
+ * Si la transacción del lote falla, se deshace y cada operación se reintenta en su
+ * propia transacción sobre la misma conexión, de modo que un alumno erróneo no
+ * arrastra al resto del lote.
+ * </p>
+ * <p>
+ * En MariaDB y Oracle el lote viaja en un solo envío (ver {@link ViajeUnico}) por una conexión
+ * que la etapa mantiene abierta entre lotes, así que cada lote cuesta una ida y vuelta en vez de
+ * conectar, una por sentencia y el commit. La conexión se comprueba si lleva un rato parada y se
+ * descarta ante cualquier error. Si se corta durante un envío, antes de reintentar nada se comprueba
+ * por otra conexión si el lote llegó a confirmarse, para no escribirlo dos veces.
+ * </p>
+ * CONFIGURACIÓN (opcional en configuration.properties):
+ * - commit.agrupado.ventana.ms: tiempo máximo de espera para formar un lote (por defecto 5)
+ * - commit.agrupado.lote.max: número máximo de operaciones por transacción (por defecto 50)
+ * - latencia.conexion.inactiva.ms: tiempo parada tras el que la conexión se comprueba antes de usarla (por defecto 30000)
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-03
+ */
+public class CommitAgrupado {
+
+    /** Logger para registrar eventos y errores del commit agrupado */
+    private static final Logger logger = LoggerFactory.getLogger(CommitAgrupado.class);
+
+    /** Ventana de agrupación en milisegundos */
+    private static final int VENTANA_MS = Propiedades.getEntero("commit.agrupado.ventana.ms", 5);
+
+    /** Tamaño máximo de cada lote */
+    private static final int LOTE_MAX = Math.max(1, Propiedades.getEntero("commit.agrupado.lote.max", 50));
+
+    /** Tiempo parada tras el que la conexión persistente se comprueba antes de reutilizarla */
+    private static final int INACTIVA_MS = Propiedades.getEntero("latencia.conexion.inactiva.ms", 30000);
+
+    /** Segundos de espera al comprobar la conexión persistente */
+    private static final int VALIDACION_S = 2;
+
+    /** Una etapa por base de datos */
+    private static final Map<TipoBaseDatos, CommitAgrupado> ETAPAS = new EnumMap<>(TipoBaseDatos.class);
+
+    /** Base de datos a la que escribe esta etapa */
+    private final TipoBaseDatos tipo;
+
+    /** Operaciones pendientes de escribir */
+    private final ConcurrentLinkedQueue<Pendiente> pendientes = new ConcurrentLinkedQueue<>();
+
+    /** Número de operaciones pendientes (evita recorrer la cola para contarla) */
+    private final AtomicInteger numPendientes = new AtomicInteger();
+
+    /** Indica si ya hay un vaciado programado */
+    private final AtomicBoolean vaciadoProgramado = new AtomicBoolean(false);
+
+    /** Hilo único por base de datos: serializa los lotes y conserva el orden de llegada */
+    private final ScheduledExecutorService ejecutor;
+
+    /** Conexión que se mantiene abierta entre lotes enviados de una vez (solo la usa el hilo de la etapa) */
+    private Connection conexion;
+
+    /** Último uso de la conexión persistente (System.currentTimeMillis) */
+    private long ultimoUso;
+
+    /**
+     * Operación a la espera de ser escrita junto con su futuro de resultado.
+     *
+     * @param operacion operación a escribir
+     * @param resultado futuro que se completa al terminar la escritura
+     */
+    private record Pendiente(OperacionAlumno operacion, CompletableFuture<Boolean> resultado) {}
+
+    /**
+     * Crea la etapa de commit agrupado de una base de datos.
+     *
+     * @param tipo base de datos destino
+     *
+     * @author Wara
+     */
+    private CommitAgrupado(TipoBaseDatos tipo) {
+        this.tipo = tipo;
+        this.ejecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread hilo = new Thread(r, "commit-agrupado-" + tipo.name().toLowerCase());
+            hilo.setDaemon(true);
+            return hilo;
+        });
+    }
+
+    /**
+     * Obtiene la etapa de commit agrupado de una base de datos, creándola la primera vez.
+     *
+     * @param tipo base de datos destino
+     * @return etapa asociada a esa base de datos
+     *
+     * @author Wara
+     */
+    public static synchronized CommitAgrupado de(TipoBaseDatos tipo) {
+        return ETAPAS.computeIfAbsent(tipo, CommitAgrupado::new);
+    }
+
+    /**
+     * Encola una operación para escribirla en el siguiente lote.
+     *
+     * @param operacion operación a escribir
+     * @return CompletableFuture con true si la operación se confirmó, false si falló.
+     *         Se completa excepcionalmente si no se pudo conectar con la base de datos.
+     *
+     * @author Wara
+     */
+    public CompletableFuture<Boolean> encolar(OperacionAlumno operacion) {
+        CompletableFuture<Boolean> resultado = new CompletableFuture<>();
+        pendientes.add(new Pendiente(operacion, resultado));
+
+        if (numPendientes.incrementAndGet() >= LOTE_MAX) {
+            // Lote lleno: no esperar a que venza la ventana
+            ejecutor.execute(this::vaciar);
+        } else if (vaciadoProgramado.compareAndSet(false, true)) {
+            ejecutor.schedule(this::vaciar, VENTANA_MS, TimeUnit.MILLISECONDS);
+        }
+        return resultado;
+    }
+
+    /**
+     * Obtiene el número de operaciones que esperan a ser escritas.
+     *
+     * @return operaciones pendientes en esta etapa
+     *
+     * @author Wara
+     */
+    public int getPendientes() {
+        return numPendientes.get();
+    }
+
+    /**
+     * Extrae un lote de la cola y lo escribe. Se ejecuta siempre en el hilo de la etapa.
+     *
+     * @author Wara
+     */
+    private void vaciar() {
+        vaciadoProgramado.set(false);
+
+        List<Pendiente> lote = new ArrayList<>();
+        Pendiente siguiente;
+        while (lote.size() < LOTE_MAX && (siguiente = pendientes.poll()) != null) {
+            lote.add(siguiente);
+        }
+        numPendientes.addAndGet(-lote.size());
+
+        if (!lote.isEmpty()) {
+            escribirLote(lote);
+        }
+
+        // Si han quedado operaciones sin vaciado programado, volver a programar
+        if (numPendientes.get() > 0 && vaciadoProgramado.compareAndSet(false, true)) {
+            ejecutor.schedule(this::vaciar, VENTANA_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Escribe un lote completo en una única transacción.
+     * Si falla, se deshace y se ejecuta cada operación por separado.
+     *
+     * @param lote operaciones a escribir
+     *
+     * @author Wara
+     */
+    private void escribirLote(List<Pendiente> lote) {
+        if (ViajeUnico.admite(tipo)) {
+            escribirLoteEnUnEnvio(lote);
+            return;
+        }
+
+        Connection conn;
+        try {
+            conn = ConexionFactory.getConnection(tipo);
+        } catch (SQLException e) {
+            RuntimeException error = new RuntimeException("Error al conectar con " + tipo, e);
+            lote.forEach(p -> p.resultado().completeExceptionally(error));
+            return;
+        }
+
+        try (conn) {
+            conn.setAutoCommit(false); // Una transacción para todo el lote
+
+            try {
+                for (Pendiente p : lote) {
+                    DaoAlumno.ejecutarOperacion(conn, p.operacion(), tipo);
+                }
+                conn.commit();
+                logger.debug("Lote de {} operaciones confirmado en {}", lote.size(), tipo);
+                lote.forEach(p -> p.resultado().complete(true));
+            } catch (SQLException e) {
+                rollback(conn);
+                if (lote.size() == 1) {
+                    logger.error("Rollback en {} para {}: {}", tipo, lote.getFirst().operacion(), e.getMessage());
+                    lote.getFirst().resultado().complete(false);
+                } else {
+                    logger.warn("Lote de {} operaciones fallido en {}, se reintenta una a una: {}",
+                            lote.size(), tipo, e.getMessage());
+                    escribirUnaAUna(conn, lote);
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Error en la conexión con {} durante el lote: {}", tipo, e.getMessage());
+        } finally {
+            // Ningún llamante debe quedarse esperando
+            lote.forEach(p -> p.resultado().complete(false));
+        }
+    }
+
+    /**
+     * Escribe un lote completo en una única transacción enviada de una vez por la conexión persistente.
+     * Si falla, se reintenta cada operación por separado sobre la misma conexión.
+     *
+     * @param lote operaciones a escribir
+     *
+     * @author Wara
+     */
+    private void escribirLoteEnUnEnvio(List<Pendiente> lote) {
+        Connection conn;
+        try {
+            conn = conexionPersistente();
+        } catch (SQLException e) {
+            RuntimeException error = new RuntimeException("Error al conectar con " + tipo, e);
+            lote.forEach(p -> p.resultado().completeExceptionally(error));
+            return;
+        }
+
+        try {
+            ViajeUnico viaje = new ViajeUnico(tipo);
+            for (Pendiente p : lote) {
+                DaoAlumno.fusionarOperacion(viaje, p.operacion(), tipo);
+            }
+            viaje.ejecutar(conn, lote.size());
+            logger.debug("Lote de {} operaciones confirmado en {} en un solo envío", lote.size(), tipo);
+            lote.forEach(p -> p.resultado().complete(true));
+        } catch (SQLException e) {
+            descartarSiNoResponde();
+            if (conexion == null && confirmadoEnServidor(lote)) {
+                // La respuesta se perdió después del COMMIT: el lote está escrito y no se repite
+                logger.warn("Se perdió la conexión con {} tras confirmar un lote de {} operaciones: {}",
+                        tipo, lote.size(), e.getMessage());
+                lote.forEach(p -> p.resultado().complete(true));
+            } else if (lote.size() == 1) {
+                logger.error("Rollback en {} para {}: {}", tipo, lote.getFirst().operacion(), e.getMessage());
+            } else if (conexion == null) {
+                logger.error("Lote de {} operaciones perdido con la conexión con {}: {}",
+                        lote.size(), tipo, e.getMessage());
+            } else {
+                logger.warn("Lote de {} operaciones fallido en {}, se reintenta una a una: {}",
+                        lote.size(), tipo, e.getMessage());
+                reintentarUnaAUna(conn, lote);
+            }
+        } finally {
+            ultimoUso = System.currentTimeMillis();
+            // Ningún llamante debe quedarse esperando
+            lote.forEach(p -> p.resultado().complete(false));
+        }
+    }
+
+    /**
+     * Reintenta por separado las operaciones de un lote enviado de una vez que falló.
+     * Si la conexión ya no sirve, se descarta y las operaciones quedan como fallidas.
+     *
+     * @param conn conexión persistente en autocommit
+     * @param lote operaciones a escribir
+     *
+     * @author Wara
+     */
+    private void reintentarUnaAUna(Connection conn, List<Pendiente> lote) {
+        try {
+            conn.setAutoCommit(false);
+            escribirUnaAUna(conn, lote);
+            conn.setAutoCommit(true);
+        } catch (SQLException e) {
+            logger.error("Error en la conexión con {} durante el lote: {}", tipo, e.getMessage());
+            cerrarConexion();
+        }
+    }
+
+    /**
+     * Obtiene la conexión persistente de la etapa, abriéndola si no hay ninguna o la anterior
+     * ya no responde.
+     *
+     * @return conexión abierta en autocommit
+     * @throws SQLException si no se puede conectar
+     *
+     * @author Wara
+     */
+    private Connection conexionPersistente() throws SQLException {
+        if (conexion != null) {
+            boolean comprobar = System.currentTimeMillis() - ultimoUso > INACTIVA_MS;
+            if (!comprobar || conexion.isValid(VALIDACION_S)) {
+                ViajeUnico.registrarConexionReutilizada(tipo, comprobar);
+                return conexion;
+            }
+            logger.info("La conexión persistente con {} ya no responde, se abre otra", tipo);
+            cerrarConexion();
+        }
+        conexion = ConexionFactory.getConnectionUnEnvio(tipo);
+        return conexion;
+    }
+
+    /**
+     * Comprueba, por una conexión nueva, si un lote enviado de una vez llegó a confirmarse aunque
+     * la respuesta no volviera (se cortó la conexión después del COMMIT). El envío es atómico, así
+     * que está confirmado si cada alumno del lote tiene el contenido que le dejó su última operación.
+     *
+     * @param lote operaciones del envío fallido, en orden
+     * @return true si el lote está escrito; false si no lo está o no se pudo comprobar
+     *
+     * @author Wara
+     */
+    private boolean confirmadoEnServidor(List<Pendiente> lote) {
+        Map<String, Long> esperadas = new HashMap<>();
+        for (Pendiente p : lote) {
+            OperacionAlumno operacion = p.operacion();
+            esperadas.put(operacion.getId(), operacion.getTipo() == TipoOperacion.ELIMINAR
+                    ? DaoHuellas.SIN_HUELLA
+                    : DaoAlumno.copiarConId(operacion.getAlumno(), operacion.getId()).calcularHuella());
+        }
+
+        try (Connection conn = ConexionFactory.getConnection(tipo)) {
+            for (Map.Entry<String, Long> esperada : esperadas.entrySet()) {
+                if (DaoAlumno.huellaActual(conn, esperada.getKey()) != esperada.getValue()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (SQLException e) {
+            logger.error("No se pudo comprobar en {} si el lote llegó a confirmarse: {}", tipo, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Descarta la conexión persistente si tras un fallo ya no responde (por ejemplo, se cortó la VPN).
+     *
+     * @author Wara
+     */
+    private void descartarSiNoResponde() {
+        try {
+            if (conexion != null && !conexion.isValid(VALIDACION_S)) {
+                cerrarConexion();
+            }
+        } catch (SQLException e) {
+            cerrarConexion();
+        }
+    }
+
+    /**
+     * Cierra y olvida la conexión persistente de la etapa.
+     *
+     * @author Wara
+     */
+    private void cerrarConexion() {
+        try {
+            conexion.close();
+        } catch (SQLException e) {
+            logger.debug("Error cerrando la conexión persistente con {}: {}", tipo, e.getMessage());
+        }
+        conexion = null;
+    }
+
+    /**
+     * Ejecuta cada operación del lote en su propia transacción sobre la misma conexión.
+     *
+     * @param conn conexión abierta con autocommit desactivado
+     * @param lote operaciones a escribir
+     *
+     * @author Wara
+     */
+    private void escribirUnaAUna(Connection conn, List<Pendiente> lote) {
+        for (Pendiente p : lote) {
+            try {
+                DaoAlumno.ejecutarOperacion(conn, p.operacion(), tipo);
+                conn.commit();
+                p.resultado().complete(true);
+            } catch (SQLException e) {
+                rollback(conn);
+                logger.error("Rollback en {} para {}: {}", tipo, p.operacion(), e.getMessage());
+                p.resultado().complete(false);
+            }
+        }
+    }
+
+    /**
+     * Deshace la transacción en curso registrando el error si el rollback falla.
+     *
+     * @param conn conexión con la transacción abierta
+     *
+     * @author Wara
+     */
+    private void rollback(Connection conn) {
+        try {
+            conn.rollback();
+        } catch (SQLException ex) {
+            logger.error("Error en rollback en {}: {}", tipo, ex.getMessage());
+        }
+    }
+}
@@ -1,16 +1,27 @@
 package es.potter.dao;
 
 import es.potter.database.ConexionFactory;
+import es.potter.database.GestorEsquema;
+import es.potter.database.MotorBaseDatos;
 import es.potter.database.TipoBaseDatos;
 import es.potter.model.Alumno;
+import es.potter.model.OperacionAlumno;
+import es.potter.model.TipoOperacion;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 
@@ -18,6 +29,7 @@ import java.util.concurrent.CompletableFuture;
  * DaoAlumno gestiona el acceso a datos de alumnos en la base de datos.
  * Implementa operaciones CRUD asíncronas para manipular alumnos en distintas bases de datos.
  * Utiliza transacciones para garantizar la integridad de los datos.
+ * Las escrituras se agrupan por base de datos mediante {@link CommitAgrupado}.
  * Emplea UUID para generar identificadores únicos de alumnos.
  * Los métodos retornan CompletableFuture para operaciones no bloqueantes.
  * Se recomienda manejar las excepciones verificadas con logging adecuado.
@@ -30,6 +42,28 @@ public class DaoAlumno {
     /** Logger para registrar eventos y errores de la conexión */
     private static final Logger logger = LoggerFactory.getLogger(DaoAlumno.class);
 
+    /** Máximo de IDs por consulta IN */
+    private static final int BLOQUE_IDS = 500;
+
+    /** Código de error de SQLite al violar una restricción */
+    private static final int SQLITE_CONSTRAINT = 19;
+
+    /** Sentencia que borra un alumno por su ID */
+    private static final String SQL_ELIMINAR = "DELETE FROM alumnos WHERE id = ?";
+
+    /** Sentencia que borra un alumno buscándolo solo en la partición de su casa */
+    private static final String SQL_ELIMINAR_EN_CASA = "DELETE FROM alumnos WHERE id = ? AND casa = ?";
+
+    /** Sentencia que reserva el ID de un alta en el MASTER particionado (falla si ya está reservado) */
+    private static final String SQL_RESERVAR_ID = "INSERT INTO " + GestorEsquema.TABLA_IDS + " (id) VALUES (?)";
+
+    /** Sentencia que libera el ID de un alumno borrado del MASTER particionado */
+    private static final String SQL_LIBERAR_ID = "DELETE FROM " + GestorEsquema.TABLA_IDS + " WHERE id = ?";
+
+    /** Sentencia que guarda en el MASTER el instante de la última escritura de un alumno */
+    private static final String SQL_MARCAR_MODIFICADO = "UPDATE alumnos SET " + GestorEsquema.COLUMNA_MODIFICADO
+            + " = ? WHERE id = ?";
+
     /*-------------------------------------------*/
     /*           MÉTODOS PÚBLICOS CRUD           */
     /*-------------------------------------------*/
@@ -61,9 +95,135 @@ public class DaoAlumno {
         });
     }
 
+    /**
+     * Carga los alumnos de una casa desde una base de datos. En el MASTER particionado por casa
+     * (ver {@link GestorEsquema#isMasterParticionado()}) solo se lee la partición de esa casa.
+     *
+     * @param casa Nombre de la casa (ej: "Gryffindor")
+     * @param tipo Tipo de base de datos desde donde cargar los datos
+     * @return CompletableFuture con una lista observable de los alumnos de la casa
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<ObservableList<Alumno>> cargarAlumnosDeCasa(String casa, TipoBaseDatos tipo) {
+        String sql = "SELECT id, nombre, apellidos, curso, casa, patronus FROM alumnos WHERE casa = ?";
+
+        return ConexionFactory.getConnectionAsync(tipo).thenApply(conn -> {
+            ObservableList<Alumno> lista = FXCollections.observableArrayList();
+
+            try (conn; PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setString(1, casa);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        lista.add(mapearAlumno(rs));
+                    }
+                }
+                logger.info("Cargados {} alumnos de {} desde {}", lista.size(), casa, tipo);
+            } catch (SQLException e) {
+                logger.error("Error cargando alumnos de {}: {}", casa, e.getMessage());
+                throw new RuntimeException(e);
+            }
+            return lista;
+        });
+    }
+
+    /**
+     * Cuenta los alumnos de una casa en una base de datos (en el MASTER particionado, solo
+     * recorre la partición de la casa).
+     *
+     * @param casa Nombre de la casa
+     * @param tipo Tipo de base de datos
+     * @return CompletableFuture con el número de alumnos de la casa
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Long> contarAlumnosDeCasa(String casa, TipoBaseDatos tipo) {
+        String sql = "SELECT COUNT(*) FROM alumnos WHERE casa = ?";
+
+        return ConexionFactory.getConnectionAsync(tipo).thenApply(conn -> {
+            try (conn; PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setString(1, casa);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : 0L;
+                }
+            } catch (SQLException e) {
+                logger.error("Error contando alumnos de {}: {}", casa, e.getMessage());
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Carga solo los alumnos cuyos IDs se indican. Las consultas se trocean en bloques
+     * para no superar el límite de parámetros de ningún motor (Oracle admite 1000 en un IN).
+     *
+     * @param ids IDs de los alumnos a cargar
+     * @param tipo Tipo de base de datos desde donde cargar los datos
+     * @return CompletableFuture con la lista de alumnos encontrados
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<List<Alumno>> cargarAlumnosPorId(Collection<String> ids, TipoBaseDatos tipo) {
+        return cargarAlumnosPorId(ids, null, tipo);
+    }
+
+    /**
+     * Carga solo los alumnos de una casa cuyos IDs se indican. Filtrar además por casa permite
+     * al MASTER particionado buscar los IDs solo en la partición de esa casa.
+     *
+     * @param ids IDs de los alumnos a cargar
+     * @param casa Nombre de la casa de los alumnos, o null si no se conoce
+     * @param tipo Tipo de base de datos desde donde cargar los datos
+     * @return CompletableFuture con la lista de alumnos encontrados
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<List<Alumno>> cargarAlumnosPorId(Collection<String> ids, String casa,
+                                                                     TipoBaseDatos tipo) {
+        if (ids.isEmpty()) {
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+        List<String> pendientes = new ArrayList<>(ids);
+
+        return ConexionFactory.getConnectionAsync(tipo).thenApply(conn -> {
+            List<Alumno> lista = new ArrayList<>();
+
+            try (conn) {
+                for (int desde = 0; desde < pendientes.size(); desde += BLOQUE_IDS) {
+                    List<String> bloque = pendientes.subList(desde, Math.min(desde + BLOQUE_IDS, pendientes.size()));
+                    String sql = "SELECT id, nombre, apellidos, curso, casa, patronus FROM alumnos WHERE "
+                            + (casa != null ? "casa = ? AND " : "")
+                            + "id IN (" + String.join(",", Collections.nCopies(bloque.size(), "?")) + ")";
+
+                    try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                        int primero = 1;
+                        if (casa != null) {
+                            stmt.setString(primero++, casa);
+                        }
+                        for (int i = 0; i < bloque.size(); i++) {
+                            stmt.setString(primero + i, bloque.get(i));
+                        }
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            while (rs.next()) {
+                                lista.add(mapearAlumno(rs));
+                            }
+                        }
+                    }
+                }
+                logger.debug("Cargados {} de {} alumnos pedidos desde {}", lista.size(), ids.size(), tipo);
+            } catch (SQLException e) {
+                logger.error("Error cargando alumnos por ID: {}", e.getMessage());
+                throw new RuntimeException(e);
+            }
+            return lista;
+        });
+    }
+
     /**
      * Inserta un nuevo alumno en la base de datos con control transaccional.
      * Si el alumno no tiene ID, se genera uno único basado en UUID y prefijo de casa.
+     * La escritura pasa por el {@link CommitAgrupado} de la base de datos, que la
+     * confirma junto a las demás escrituras concurrentes en una sola transacción.
      *
      * @param alumno Alumno a insertar
      * @param tipo Tipo de base de datos destino
@@ -72,148 +232,598 @@ public class DaoAlumno {
      * @author Wara
      */
     public static CompletableFuture<Boolean> nuevoAlumno(Alumno alumno, TipoBaseDatos tipo) {
-        String sql = "INSERT INTO alumnos (id, nombre, apellidos, curso, casa, patronus) VALUES (?,?,?,?,?,?)";
+        // Generar ID único con UUID (solo si no tiene) antes de encolar
+        asignarId(alumno);
 
-        return ConexionFactory.getConnectionAsync(tipo).thenApply(conn -> {
-            try {
-                conn.setAutoCommit(false); // Iniciar transacción
-
-                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                    // Generar ID único con UUID (solo si no tiene)
-                    if (alumno.getId() == null || alumno.getId().isEmpty()) {
-                        String id = generarId(alumno);
-                        alumno.setId(id);
+        return CommitAgrupado.de(tipo)
+                .encolar(new OperacionAlumno(TipoOperacion.INSERTAR, alumno.getId(), alumno))
+                .thenApply(exito -> {
+                    if (exito) {
+                        logger.info("Alumno con ID {} creado correctamente en {}", alumno.getId(), tipo);
                     }
+                    return exito;
+                });
+    }
+
+    /**
+     * Asigna un ID nuevo al alumno si todavía no tiene uno.
+     *
+     * @param alumno Alumno al que asignar el ID
+     *
+     * @author Wara
+     */
+    public static void asignarId(Alumno alumno) {
+        if (alumno.getId() == null || alumno.getId().isEmpty()) {
+            alumno.setId(generarId(alumno));
+        }
+    }
 
-                    stmt.setString(1, alumno.getId());
-                    stmt.setString(2, alumno.getNombre());
-                    stmt.setString(3, alumno.getApellidos());
-                    stmt.setInt(4, alumno.getCurso());
-                    stmt.setString(5, alumno.getCasa());
-                    stmt.setString(6, alumno.getPatronus());
+    /**
+     * Elimina un alumno específico identificado por su ID en la base de datos.
+     * Ejecuta la operación dentro de una transacción (agrupada) para seguridad y consistencia.
+     *
+     * @param alumno Alumno a eliminar
+     * @param tipo Tipo de base de datos donde se eliminará
+     * @return CompletableFuture con true si la eliminación fue exitosa, false en caso contrario
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Boolean> eliminarAlumno(Alumno alumno, TipoBaseDatos tipo) {
+        return CommitAgrupado.de(tipo)
+                .encolar(new OperacionAlumno(TipoOperacion.ELIMINAR, alumno.getId(), alumno))
+                .thenApply(exito -> {
+                    if (exito) {
+                        logger.info("Alumno con ID {} eliminado correctamente de {}", alumno.getId(), tipo);
+                    }
+                    return exito;
+                });
+    }
 
-                    stmt.executeUpdate();
-                    conn.commit(); // Commit transacción
+    /**
+     * Actualiza los datos de un alumno existente identificado por su ID.
+     * Realiza la actualización en una transacción (agrupada) para mantener la integridad.
+     *
+     * @param id ID del alumno a modificar
+     * @param alumno Objeto Alumno con los datos modificados
+     * @param tipo Tipo de base de datos donde se modificará el registro
+     * @return CompletableFuture con true si la actualización fue exitosa, false en caso contrario
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Boolean> modificarAlumno(String id, Alumno alumno, TipoBaseDatos tipo) {
+        return CommitAgrupado.de(tipo)
+                .encolar(new OperacionAlumno(TipoOperacion.MODIFICAR, id, alumno))
+                .thenApply(exito -> {
+                    if (exito) {
+                        logger.info("Alumno con ID {} modificado correctamente en {}", id, tipo);
+                    }
+                    return exito;
+                });
+    }
 
-                    logger.info("Alumno con ID {} creado correctamente en {}", alumno.getId(), tipo);
+    /**
+     * Ejecuta varias operaciones en una base de datos en una sola transacción: o se confirman
+     * todas o ninguna. En el MASTER cada operación deja además su cambio registrado.
+     *
+     * @param operaciones Operaciones a ejecutar, en orden
+     * @param tipo Base de datos destino
+     * @return CompletableFuture con true si se confirmaron todas.
+     *         Se completa excepcionalmente si no se pudo conectar con la base.
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Boolean> ejecutarEnBloque(List<OperacionAlumno> operaciones, TipoBaseDatos tipo) {
+        return ConexionFactory.getConnectionAsync(tipo).thenApply(conn -> {
+            try (conn) {
+                conn.setAutoCommit(false);
+                try {
+                    for (OperacionAlumno operacion : operaciones) {
+                        ejecutarOperacion(conn, operacion, tipo);
+                    }
+                    conn.commit();
+                    logger.info("{} operaciones confirmadas en bloque en {}", operaciones.size(), tipo);
                     return true;
+                } catch (SQLException e) {
+                    conn.rollback();
+                    logger.error("Rollback en {} del bloque de {} operaciones: {}", tipo, operaciones.size(), e.getMessage());
+                    return false;
                 }
             } catch (SQLException e) {
-                try {
-                    conn.rollback(); // Rollback sí hay error
-                    logger.error("Rollback en {} al crear alumno con ID {}: {}", tipo, alumno.getId(), e.getMessage());
-                } catch (SQLException ex) {
-                    logger.error("Error en rollback al crear alumno: {}", ex.getMessage());
-                }
+                logger.error("Error en la conexión con {} durante el bloque: {}", tipo, e.getMessage());
                 return false;
-            } finally {
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                    logger.error("Error cerrando conexión tras creación de alumno: {}", e.getMessage());
-                }
             }
         });
     }
 
     /**
-     * Elimina un alumno específico identificado por su ID en la base de datos.
-     * Ejecuta la operación dentro de una transacción para seguridad y consistencia.
+     * Aplica un lote de operaciones en una réplica en una sola transacción.
+     * Cada operación se aplica de forma idempotente (ver {@link #aplicarEnReplica}),
+     * así que un lote que se reintenta tras un fallo deja la réplica igual.
      *
-     * @param alumno Alumno a eliminar
-     * @param tipo Tipo de base de datos donde se eliminará
-     * @return CompletableFuture con true si la eliminación fue exitosa, false en caso contrario
+     * @param operaciones Operaciones a aplicar, en orden
+     * @param tipo Réplica destino
+     * @return CompletableFuture con true si el lote completo quedó confirmado.
+     *         Se completa excepcionalmente si no se pudo conectar con la réplica.
      *
      * @author Wara
      */
-    public static CompletableFuture<Boolean> eliminarAlumno(Alumno alumno, TipoBaseDatos tipo) {
-        String sql = "DELETE FROM alumnos WHERE id = ?";
+    public static CompletableFuture<Boolean> replicar(List<OperacionAlumno> operaciones, TipoBaseDatos tipo) {
+        if (ViajeUnico.admite(tipo)) {
+            return replicarEnUnEnvio(operaciones, tipo);
+        }
+        return replicar(operaciones, tipo, false);
+    }
+
+    /**
+     * Aplica un lote de operaciones de sincronización en una réplica, como {@link #replicar(List, TipoBaseDatos)},
+     * pero comprobando en la misma transacción el token de líder de la réplica
+     * (ver {@link DaoCambios#vallar(Connection, TipoBaseDatos)}): si la sincroniza un líder posterior,
+     * el lote se rechaza sin tocarla.
+     *
+     * @param operaciones Operaciones a aplicar, en orden
+     * @param tipo Réplica destino
+     * @return CompletableFuture con true si el lote completo quedó confirmado.
+     *         Se completa excepcionalmente si no se pudo conectar con la réplica.
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Boolean> replicarVallado(List<OperacionAlumno> operaciones, TipoBaseDatos tipo) {
+        return replicar(operaciones, tipo, true);
+    }
 
+    /**
+     * Aplica un lote de operaciones en una réplica en una transacción JDBC.
+     *
+     * @param operaciones Operaciones a aplicar, en orden
+     * @param tipo Réplica destino
+     * @param vallado true para comprobar antes el token de líder de la réplica
+     * @return CompletableFuture con true si el lote completo quedó confirmado.
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Boolean> replicar(List<OperacionAlumno> operaciones, TipoBaseDatos tipo,
+                                                       boolean vallado) {
         return ConexionFactory.getConnectionAsync(tipo).thenApply(conn -> {
             try {
                 conn.setAutoCommit(false); // Iniciar transacción
+                if (vallado) {
+                    DaoCambios.vallar(conn, tipo);
+                }
 
-                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                    stmt.setString(1, alumno.getId());
-
-                    stmt.executeUpdate();
-                    conn.commit(); // Commit transacción
-
-                    logger.info("Alumno con ID {} eliminado correctamente de {}", alumno.getId(), tipo);
-                    return true;
+                for (OperacionAlumno operacion : operaciones) {
+                    aplicarEnReplica(conn, operacion, tipo);
                 }
+
+                conn.commit(); // Commit transacción
+                logger.debug("Replicadas {} operaciones en {}", operaciones.size(), tipo);
+                return true;
             } catch (SQLException e) {
                 try {
                     conn.rollback();
-                    logger.error("Rollback en {} al eliminar alumno con ID {}: {}", tipo, alumno.getId(), e.getMessage());
+                    logger.error("Rollback en {} al replicar {} operaciones: {}", tipo, operaciones.size(), e.getMessage());
                 } catch (SQLException ex) {
-                    logger.error("Error en rollback al eliminar alumno: {}", ex.getMessage());
+                    logger.error("Error en rollback al replicar: {}", ex.getMessage());
                 }
                 return false;
             } finally {
                 try {
                     conn.close();
                 } catch (SQLException e) {
-                    logger.error("Error cerrando conexión tras eliminación de alumno: {}", e.getMessage());
+                    logger.error("Error cerrando conexión tras replicar: {}", e.getMessage());
                 }
             }
         });
     }
 
+    /*-------------------------------------------*/
+    /*       EJECUCIÓN SOBRE UNA CONEXIÓN        */
+    /*-------------------------------------------*/
+
     /**
-     * Actualiza los datos de un alumno existente identificado por su ID.
-     * Realiza la actualización en una transacción para mantener la integridad.
+     * Ejecuta una operación sobre una conexión ya abierta, sin confirmar la transacción.
+     * El llamante decide cuándo hacer commit o rollback, lo que permite agrupar
+     * varias operaciones en una misma transacción.
+     * En el MASTER además registra el cambio en alumnos_cambios (antes de escribir, para guardar la
+     * casa que tenía el alumno), guarda la fecha de la escritura en
+     * alumnos.modificado y, si está particionado, reserva o libera el ID en alumnos_ids para que un
+     * ID no se repita en dos casas.
      *
-     * @param id ID del alumno a modificar
-     * @param alumno Objeto Alumno con los datos modificados
-     * @param tipo Tipo de base de datos donde se modificará el registro
-     * @return CompletableFuture con true si la actualización fue exitosa, false en caso contrario
+     * @param conn Conexión abierta (normalmente con autocommit desactivado)
+     * @param operacion Operación a ejecutar
+     * @param tipo Base de datos a la que pertenece la conexión
+     * @throws SQLException Si la sentencia falla
      *
      * @author Wara
      */
-    public static CompletableFuture<Boolean> modificarAlumno(String id, Alumno alumno, TipoBaseDatos tipo) {
-        String sql = "UPDATE alumnos SET nombre = ?, apellidos = ?, curso = ?, casa = ?, patronus = ? WHERE id = ?";
+    static void ejecutarOperacion(Connection conn, OperacionAlumno operacion, TipoBaseDatos tipo) throws SQLException {
+        if (reservaIds(operacion, tipo)) {
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    operacion.getTipo() == TipoOperacion.INSERTAR ? SQL_RESERVAR_ID : SQL_LIBERAR_ID)) {
+                stmt.setString(1, operacion.getId());
+                stmt.executeUpdate();
+            }
+        }
 
-        return ConexionFactory.getConnectionAsync(tipo).thenApply(conn -> {
-            try {
-                conn.setAutoCommit(false); // Iniciar transacción
+        // En el MASTER cada escritura deja su cambio registrado en la misma transacción, antes de
+        // escribir para que el registro vea la casa que tenía el alumno
+        if (tipo == TipoBaseDatos.MARIADB) {
+            DaoCambios.registrarCambio(conn, operacion);
+        }
 
-                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                    stmt.setString(1, alumno.getNombre());
-                    stmt.setString(2, alumno.getApellidos());
-                    stmt.setInt(3, alumno.getCurso());
-                    stmt.setString(4, alumno.getCasa());
-                    stmt.setString(5, alumno.getPatronus());
-                    stmt.setString(6, id);
+        switch (operacion.getTipo()) {
+            case INSERTAR -> insertar(conn, operacion.getAlumno(), tipo);
+            case MODIFICAR -> modificar(conn, operacion.getId(), operacion.getAlumno(), tipo);
+            case ELIMINAR -> eliminar(conn, operacion.getId(), casaParaPoda(operacion, tipo));
+        }
 
-                    stmt.executeUpdate();
-                    conn.commit(); // Commit transacción
+        if (marcaModificado(operacion, tipo)) {
+            try (PreparedStatement stmt = conn.prepareStatement(SQL_MARCAR_MODIFICADO)) {
+                stmt.setLong(1, System.currentTimeMillis());
+                stmt.setString(2, operacion.getId());
+                stmt.executeUpdate();
+            }
+        }
+    }
 
-                    logger.info("Alumno con ID {} modificado correctamente en {}", id, tipo);
-                    return true;
-                }
+    /**
+     * Aplica una operación en una réplica de forma idempotente, sin confirmar la transacción.
+     * Las altas y modificaciones se aplican como "borrar e insertar", de modo que repetir
+     * la operación o aplicarla sobre una réplica desfasada deja siempre la misma fila.
+     * Si el {@link FiltroIds} de la réplica asegura que el alumno no está, el DELETE previo
+     * se omite; si aun así el INSERT choca con una fila existente, se repite con el DELETE.
+     *
+     * @param conn Conexión abierta con la réplica
+     * @param operacion Operación a aplicar
+     * @param tipo Réplica a la que pertenece la conexión
+     * @throws SQLException Si la sentencia falla
+     *
+     * @author Wara
+     */
+    static void aplicarEnReplica(Connection conn, OperacionAlumno operacion, TipoBaseDatos tipo) throws SQLException {
+        if (operacion.getTipo() == TipoOperacion.ELIMINAR) {
+            eliminar(conn, operacion.getId(), null);
+            return;
+        }
+
+        Alumno alumno = copiarConId(operacion.getAlumno(), operacion.getId());
+        if (!FiltroIds.puedeExistir(tipo, operacion.getId())) {
+            try {
+                insertar(conn, alumno, tipo);
+                return;
             } catch (SQLException e) {
-                try {
-                    conn.rollback();
-                    logger.error("Rollback en {} al modificar alumno con ID {}: {}", tipo, id, e.getMessage());
-                } catch (SQLException ex) {
-                    logger.error("Error en rollback: {}", ex.getMessage());
+                if (!esClaveDuplicada(e, tipo)) {
+                    throw e;
                 }
-                return false;
-            } finally {
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                    logger.error("Error cerrando conexión tras modificación de alumno: {}", e.getMessage());
+                logger.debug("{} ya estaba en {} aunque no figuraba en su filtro de IDs", operacion.getId(), tipo);
+            }
+        }
+        eliminar(conn, operacion.getId(), null);
+        insertar(conn, alumno, tipo);
+    }
+
+    /**
+     * Calcula la huella de la fila actual de un alumno sobre una conexión abierta.
+     * Se calcula a partir del contenido, así que sirve también en bases sin columna huella.
+     *
+     * @param conn Conexión abierta
+     * @param id ID del alumno
+     * @return huella de la fila, o {@link DaoHuellas#SIN_HUELLA} si el alumno no existe
+     * @throws SQLException Si la consulta falla
+     *
+     * @author Wara
+     */
+    static long huellaActual(Connection conn, String id) throws SQLException {
+        String sql = "SELECT id, nombre, apellidos, curso, casa, patronus FROM alumnos WHERE id = ?";
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, id);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? mapearAlumno(rs).calcularHuella() : DaoHuellas.SIN_HUELLA;
+            }
+        }
+    }
+
+    /**
+     * Ejecuta el INSERT de un alumno sobre una conexión abierta.
+     * Si la base tiene columna huella, la rellena con la huella del contenido.
+     *
+     * @param conn Conexión abierta
+     * @param alumno Alumno a insertar (con ID asignado)
+     * @param tipo Base de datos de la conexión
+     * @throws SQLException Si la sentencia falla
+     *
+     * @author Wara
+     */
+    private static void insertar(Connection conn, Alumno alumno, TipoBaseDatos tipo) throws SQLException {
+        boolean conHuella = GestorEsquema.tieneHuella(tipo);
+
+        try (PreparedStatement stmt = conn.prepareStatement(sqlInsertar(conHuella))) {
+            ViajeUnico.enlazar(stmt, Arrays.asList(valoresInsertar(alumno, conHuella)));
+            stmt.executeUpdate();
+        }
+        FiltroIds.registrar(tipo, alumno.getId());
+    }
+
+    /**
+     * Ejecuta el UPDATE de un alumno sobre una conexión abierta.
+     * Si la base tiene columna huella, la actualiza junto con los datos.
+     *
+     * @param conn Conexión abierta
+     * @param id ID del alumno a modificar
+     * @param alumno Datos nuevos del alumno
+     * @param tipo Base de datos de la conexión
+     * @throws SQLException Si la sentencia falla
+     *
+     * @author Wara
+     */
+    private static void modificar(Connection conn, String id, Alumno alumno, TipoBaseDatos tipo) throws SQLException {
+        boolean conHuella = GestorEsquema.tieneHuella(tipo);
+
+        try (PreparedStatement stmt = conn.prepareStatement(sqlModificar(conHuella))) {
+            ViajeUnico.enlazar(stmt, Arrays.asList(valoresModificar(id, alumno, conHuella)));
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Ejecuta el DELETE de un alumno sobre una conexión abierta.
+     *
+     * @param conn Conexión abierta
+     * @param id ID del alumno a eliminar
+     * @param casa Casa del alumno para buscarlo primero solo en su partición, o null para buscarlo en toda la tabla
+     * @throws SQLException Si la sentencia falla
+     *
+     * @author Wara
+     */
+    private static void eliminar(Connection conn, String id, String casa) throws SQLException {
+        if (casa != null) {
+            try (PreparedStatement stmt = conn.prepareStatement(SQL_ELIMINAR_EN_CASA)) {
+                stmt.setString(1, id);
+                stmt.setString(2, casa);
+                if (stmt.executeUpdate() > 0) {
+                    return;
                 }
             }
-        });
+            // La casa conocida ya no era la suya (otro equipo la cambió): buscarlo en toda la tabla
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(SQL_ELIMINAR)) {
+            stmt.setString(1, id);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Indica si una operación reserva o libera su ID en alumnos_ids: las altas y bajas en el MASTER
+     * cuando tiene esa tabla (ver {@link GestorEsquema#isMasterConReservaIds()}). Las modificaciones
+     * no cambian el ID, así que no la tocan.
+     *
+     * @param operacion Operación a ejecutar
+     * @param tipo Base de datos destino
+     * @return true si hay que reservar (alta) o liberar (baja) el ID en la misma transacción
+     *
+     * @author Wara
+     */
+    private static boolean reservaIds(OperacionAlumno operacion, TipoBaseDatos tipo) {
+        return tipo == TipoBaseDatos.MARIADB && GestorEsquema.isMasterConReservaIds()
+                && operacion.getTipo() != TipoOperacion.MODIFICAR;
+    }
+
+    /**
+     * Indica si una operación debe guardar la fecha de la escritura en alumnos.modificado: las altas
+     * y modificaciones en el MASTER cuando tiene esa columna (ver {@link GestorEsquema#isMasterConModificado()}).
+     *
+     * @param operacion Operación a ejecutar
+     * @param tipo Base de datos destino
+     * @return true si hay que actualizar la fecha de modificación en la misma transacción
+     *
+     * @author Wara
+     */
+    private static boolean marcaModificado(OperacionAlumno operacion, TipoBaseDatos tipo) {
+        return tipo == TipoBaseDatos.MARIADB && GestorEsquema.isMasterConModificado()
+                && operacion.getTipo() != TipoOperacion.ELIMINAR;
+    }
+
+    /**
+     * Obtiene la casa con la que acotar el DELETE de un alumno a su partición del MASTER.
+     * Solo se usa cuando el MASTER está particionado y la operación trae los datos del alumno;
+     * las modificaciones no se acotan porque el alumno puede estar cambiando de casa.
+     *
+     * @param operacion Operación de borrado
+     * @param tipo Base de datos destino
+     * @return nombre de la casa, o null si el DELETE debe buscar en toda la tabla
+     *
+     * @author Wara
+     */
+    private static String casaParaPoda(OperacionAlumno operacion, TipoBaseDatos tipo) {
+        if (tipo != TipoBaseDatos.MARIADB || !GestorEsquema.isMasterParticionado() || operacion.getAlumno() == null) {
+            return null;
+        }
+        return operacion.getAlumno().getCasa();
+    }
+
+    /*-------------------------------------------*/
+    /*          EJECUCIÓN EN UN SOLO ENVÍO       */
+    /*-------------------------------------------*/
+
+    /**
+     * Añade a un envío las sentencias de una operación, igual que {@link #ejecutarOperacion}
+     * pero sin ejecutarlas todavía. En el MASTER incluye el registro del cambio, la fecha de
+     * modificación y la reserva del ID.
+     *
+     * @param viaje Envío que reúne las sentencias de la transacción
+     * @param operacion Operación a añadir
+     * @param tipo Base de datos destino
+     *
+     * @author Wara
+     */
+    static void fusionarOperacion(ViajeUnico viaje, OperacionAlumno operacion, TipoBaseDatos tipo) {
+        if (reservaIds(operacion, tipo)) {
+            viaje.aniadir(operacion.getTipo() == TipoOperacion.INSERTAR ? SQL_RESERVAR_ID : SQL_LIBERAR_ID,
+                    operacion.getId());
+        }
+        if (tipo == TipoBaseDatos.MARIADB) {
+            DaoCambios.fusionarCambio(viaje, operacion);
+        }
+
+        boolean conHuella = GestorEsquema.tieneHuella(tipo);
+        switch (operacion.getTipo()) {
+            case INSERTAR -> viaje.aniadir(sqlInsertar(conHuella), valoresInsertar(operacion.getAlumno(), conHuella));
+            case MODIFICAR -> viaje.aniadir(sqlModificar(conHuella),
+                    valoresModificar(operacion.getId(), operacion.getAlumno(), conHuella));
+            case ELIMINAR -> viaje.aniadir(SQL_ELIMINAR, operacion.getId());
+        }
+
+        if (marcaModificado(operacion, tipo)) {
+            viaje.aniadir(SQL_MARCAR_MODIFICADO, System.currentTimeMillis(), operacion.getId());
+        }
+    }
+
+    /**
+     * Añade a un envío las sentencias que aplican una operación en una réplica de forma idempotente.
+     * Como todo va en un solo envío, las altas y modificaciones llevan siempre el DELETE previo:
+     * no hay ida y vuelta que ahorrar consultando el {@link FiltroIds}.
+     *
+     * @param viaje Envío que reúne las sentencias de la transacción
+     * @param operacion Operación a aplicar
+     * @param tipo Réplica destino
+     *
+     * @author Wara
+     */
+    static void fusionarEnReplica(ViajeUnico viaje, OperacionAlumno operacion, TipoBaseDatos tipo) {
+        viaje.aniadir(SQL_ELIMINAR, operacion.getId());
+        if (operacion.getTipo() == TipoOperacion.ELIMINAR) {
+            return;
+        }
+
+        boolean conHuella = GestorEsquema.tieneHuella(tipo);
+        Alumno alumno = copiarConId(operacion.getAlumno(), operacion.getId());
+        viaje.aniadir(sqlInsertar(conHuella), valoresInsertar(alumno, conHuella));
+        FiltroIds.registrar(tipo, alumno.getId());
     }
 
     /*-------------------------------------------*/
     /*            MÉTODOS PRIVADOS               */
     /*-------------------------------------------*/
 
+    /**
+     * Obtiene la sentencia INSERT de un alumno.
+     *
+     * @param conHuella true si la base tiene columna huella
+     * @return sentencia con sus parámetros
+     *
+     * @author Wara
+     */
+    private static String sqlInsertar(boolean conHuella) {
+        return conHuella
+                ? "INSERT INTO alumnos (id, nombre, apellidos, curso, casa, patronus, huella) VALUES (?,?,?,?,?,?,?)"
+                : "INSERT INTO alumnos (id, nombre, apellidos, curso, casa, patronus) VALUES (?,?,?,?,?,?)";
+    }
+
+    /**
+     * Obtiene los valores de los parámetros del INSERT de un alumno.
+     *
+     * @param alumno Alumno a insertar (con ID asignado)
+     * @param conHuella true si la base tiene columna huella
+     * @return valores en el orden de {@link #sqlInsertar(boolean)}
+     *
+     * @author Wara
+     */
+    private static Object[] valoresInsertar(Alumno alumno, boolean conHuella) {
+        Object[] valores = {alumno.getId(), alumno.getNombre(), alumno.getApellidos(), alumno.getCurso(),
+                alumno.getCasa(), alumno.getPatronus()};
+        if (!conHuella) {
+            return valores;
+        }
+        Object[] conLaHuella = Arrays.copyOf(valores, valores.length + 1);
+        conLaHuella[valores.length] = alumno.calcularHuella();
+        return conLaHuella;
+    }
+
+    /**
+     * Obtiene la sentencia UPDATE de un alumno.
+     *
+     * @param conHuella true si la base tiene columna huella
+     * @return sentencia con sus parámetros
+     *
+     * @author Wara
+     */
+    private static String sqlModificar(boolean conHuella) {
+        return conHuella
+                ? "UPDATE alumnos SET nombre = ?, apellidos = ?, curso = ?, casa = ?, patronus = ?, huella = ? WHERE id = ?"
+                : "UPDATE alumnos SET nombre = ?, apellidos = ?, curso = ?, casa = ?, patronus = ? WHERE id = ?";
+    }
+
+    /**
+     * Obtiene los valores de los parámetros del UPDATE de un alumno.
+     *
+     * @param id ID del alumno a modificar
+     * @param alumno Datos nuevos del alumno
+     * @param conHuella true si la base tiene columna huella
+     * @return valores en el orden de {@link #sqlModificar(boolean)}
+     *
+     * @author Wara
+     */
+    private static Object[] valoresModificar(String id, Alumno alumno, boolean conHuella) {
+        if (conHuella) {
+            // La huella se calcula con el ID de destino, que es el que queda en la fila
+            long huella = copiarConId(alumno, id).calcularHuella();
+            return new Object[]{alumno.getNombre(), alumno.getApellidos(), alumno.getCurso(), alumno.getCasa(),
+                    alumno.getPatronus(), huella, id};
+        }
+        return new Object[]{alumno.getNombre(), alumno.getApellidos(), alumno.getCurso(), alumno.getCasa(),
+                alumno.getPatronus(), id};
+    }
+
+    /**
+     * Aplica un lote de operaciones en una réplica remota enviando toda la transacción de una vez
+     * (ver {@link ViajeUnico}), en lugar de una ida y vuelta por sentencia.
+     *
+     * @param operaciones Operaciones a aplicar, en orden
+     * @param tipo Réplica destino (MariaDB u Oracle)
+     * @return CompletableFuture con true si el lote completo quedó confirmado
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Boolean> replicarEnUnEnvio(List<OperacionAlumno> operaciones, TipoBaseDatos tipo) {
+        return CompletableFuture.supplyAsync(() -> {
+            Connection conn;
+            try {
+                conn = ConexionFactory.getConnectionUnEnvio(tipo);
+            } catch (SQLException e) {
+                throw new RuntimeException("Error al conectar con " + tipo, e);
+            }
+
+            try (conn) {
+                ViajeUnico viaje = new ViajeUnico(tipo);
+                for (OperacionAlumno operacion : operaciones) {
+                    fusionarEnReplica(viaje, operacion, tipo);
+                }
+                viaje.ejecutar(conn, operaciones.size());
+                logger.debug("Replicadas {} operaciones en {} en un solo envío", operaciones.size(), tipo);
+                return true;
+            } catch (SQLException e) {
+                logger.error("Rollback en {} al replicar {} operaciones: {}", tipo, operaciones.size(), e.getMessage());
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Indica si un error de SQL se debe a una clave primaria duplicada.
+     * SQLite no rellena el SQLState, así que se reconoce por su código de error.
+     *
+     * @param e Error de la sentencia
+     * @param tipo Base de datos en la que falló
+     * @return true si la fila ya existía
+     *
+     * @author Wara
+     */
+    private static boolean esClaveDuplicada(SQLException e, TipoBaseDatos tipo) {
+        return e instanceof SQLIntegrityConstraintViolationException
+                || (e.getSQLState() != null && e.getSQLState().startsWith("23"))
+                || (tipo.getMotor() == MotorBaseDatos.SQLITE && e.getErrorCode() == SQLITE_CONSTRAINT);
+    }
+
     /**
      * Crea un objeto Alumno a partir de la fila actual del ResultSet.
      *
@@ -223,7 +833,7 @@ public class DaoAlumno {
      *
      * @author Wara
      */
-    private static Alumno mapearAlumno(ResultSet rs) throws SQLException {
+    static Alumno mapearAlumno(ResultSet rs) throws SQLException {
         Alumno alumno = new Alumno();
         alumno.setId(rs.getString("id"));
         alumno.setNombre(rs.getString("nombre"));
@@ -234,6 +844,25 @@ public class DaoAlumno {
         return alumno;
     }
 
+    /**
+     * Crea una copia del alumno con el ID indicado.
+     *
+     * @param alumno Alumno original
+     * @param id ID que tendrá la copia
+     * @return copia del alumno
+     *
+     * @author Wara
+     */
+    static Alumno copiarConId(Alumno alumno, String id) {
+        if (id.equals(alumno.getId())) {
+            return alumno;
+        }
+        Alumno copia = new Alumno(alumno.getNombre(), alumno.getApellidos(), alumno.getCurso(),
+                alumno.getCasa(), alumno.getPatronus());
+        copia.setId(id);
+        return copia;
+    }
+
     /**
      * Genera un identificador único para un alumno.
      * El formato es el prefijo de la casa en mayúsculas,
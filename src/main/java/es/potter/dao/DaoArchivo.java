@@ -0,0 +1,179 @@
+package es.potter.dao;
+
+import es.potter.database.ConexionFactory;
+import es.potter.database.GestorEsquema;
+import es.potter.database.TipoBaseDatos;
+import es.potter.model.Alumno;
+import es.potter.model.OperacionAlumno;
+import es.potter.model.TipoOperacion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * DaoArchivo mueve alumnos del MASTER a la tabla alumnos_archivo y busca en ella.
+ * FUNCIONAMIENTO:
+ * - Un alumno se puede archivar si está en el último curso (o más) y su última escritura en el
+ *   MASTER (columna alumnos.modificado) es anterior a una fecha dada
+ * - Sin esa columna (MASTER sin migrar, ver {@link es.potter.database.MigracionEsquema}) no se
+ *   archiva nadie: el registro de cambios se poda y no sirve para saber cuánto lleva un alumno sin cambios
+ * - Archivar un alumno es, en una transacción del MASTER, copiarlo al archivo y borrarlo de alumnos
+ *   como cualquier otra baja (queda en el registro de cambios, así que las réplicas también lo borran)
+ * - El archivo solo existe en el MASTER y solo se consulta a petición
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class DaoArchivo {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(DaoArchivo.class);
+
+    /**
+     * Busca en el MASTER alumnos que se pueden archivar.
+     *
+     * @param cursoMinimo curso a partir del cual un alumno se considera graduado
+     * @param sinCambiosDesde instante (ms) desde el que no debe haberse modificado
+     * @param limite máximo de alumnos a devolver
+     * @return CompletableFuture con los alumnos candidatos, vacío si el MASTER no tiene la columna modificado
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<List<Alumno>> buscarArchivables(int cursoMinimo, long sinCambiosDesde, int limite) {
+        String sql = "SELECT id, nombre, apellidos, curso, casa, patronus FROM alumnos"
+                + " WHERE curso >= ? AND " + GestorEsquema.COLUMNA_MODIFICADO + " < ? LIMIT ?";
+
+        return ConexionFactory.getConnectionAsync(TipoBaseDatos.MARIADB).thenApply(conn -> {
+            List<Alumno> lista = new ArrayList<>();
+
+            try (conn) {
+                // La columna se comprueba al conectar, así que se mira ya con la conexión abierta
+                if (!GestorEsquema.isMasterConModificado()) {
+                    logger.info("El MASTER no tiene la columna {}: no se archiva ningún alumno",
+                            GestorEsquema.COLUMNA_MODIFICADO);
+                    return lista;
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    stmt.setInt(1, cursoMinimo);
+                    stmt.setLong(2, sinCambiosDesde);
+                    stmt.setInt(3, limite);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            lista.add(DaoAlumno.mapearAlumno(rs));
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                logger.error("Error buscando alumnos archivables: {}", e.getMessage());
+                throw new RuntimeException(e);
+            }
+            return lista;
+        });
+    }
+
+    /**
+     * Archiva un lote de alumnos en una sola transacción del MASTER. Cada alumno se copia tal como
+     * está en ese momento y solo si sigue cumpliendo el curso mínimo y la inactividad; los que ya
+     * no existen, cambiaron de curso o se modificaron desde que se buscaron se dejan como están.
+     *
+     * @param alumnos alumnos a archivar
+     * @param cursoMinimo curso a partir del cual un alumno se considera graduado
+     * @param sinCambiosDesde instante (ms) desde el que no debe haberse modificado
+     * @return CompletableFuture con las bajas realmente hechas (con los datos archivados), para
+     *         replicarlas en los slaves; se completa excepcionalmente si falla el lote
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<List<OperacionAlumno>> archivar(List<Alumno> alumnos, int cursoMinimo,
+                                                                   long sinCambiosDesde) {
+        String copiar = "REPLACE INTO " + GestorEsquema.TABLA_ARCHIVO
+                + " (id, nombre, apellidos, curso, casa, patronus, archivado)"
+                + " SELECT id, nombre, apellidos, curso, casa, patronus, ? FROM alumnos"
+                + " WHERE id = ? AND curso >= ? AND " + GestorEsquema.COLUMNA_MODIFICADO + " < ?";
+        String leer = "SELECT id, nombre, apellidos, curso, casa, patronus FROM " + GestorEsquema.TABLA_ARCHIVO
+                + " WHERE id = ?";
+
+        return ConexionFactory.getConnectionAsync(TipoBaseDatos.MARIADB).thenApply(conn -> {
+            List<OperacionAlumno> bajas = new ArrayList<>();
+
+            try (conn) {
+                conn.setAutoCommit(false);
+                try (PreparedStatement stmtCopiar = conn.prepareStatement(copiar);
+                     PreparedStatement stmtLeer = conn.prepareStatement(leer)) {
+                    long ahora = System.currentTimeMillis();
+                    for (Alumno alumno : alumnos) {
+                        stmtCopiar.setLong(1, ahora);
+                        stmtCopiar.setString(2, alumno.getId());
+                        stmtCopiar.setInt(3, cursoMinimo);
+                        stmtCopiar.setLong(4, sinCambiosDesde);
+                        if (stmtCopiar.executeUpdate() == 0) {
+                            continue;
+                        }
+
+                        // La baja lleva los datos archivados, que son los que tenía la fila al borrarla
+                        stmtLeer.setString(1, alumno.getId());
+                        try (ResultSet rs = stmtLeer.executeQuery()) {
+                            rs.next();
+                            OperacionAlumno baja = new OperacionAlumno(TipoOperacion.ELIMINAR, alumno.getId(),
+                                    DaoAlumno.mapearAlumno(rs));
+                            DaoAlumno.ejecutarOperacion(conn, baja, TipoBaseDatos.MARIADB);
+                            bajas.add(baja);
+                        }
+                    }
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                }
+                logger.info("{} de {} alumnos archivados en el MASTER", bajas.size(), alumnos.size());
+            } catch (SQLException e) {
+                logger.error("Error archivando un lote de {} alumnos: {}", alumnos.size(), e.getMessage());
+                throw new RuntimeException(e);
+            }
+            return bajas;
+        });
+    }
+
+    /**
+     * Busca alumnos archivados por ID exacto o por parte del nombre o de los apellidos.
+     *
+     * @param texto texto a buscar
+     * @param limite máximo de alumnos a devolver
+     * @return CompletableFuture con los alumnos archivados encontrados, ordenados por apellidos
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<List<Alumno>> buscar(String texto, int limite) {
+        String sql = "SELECT id, nombre, apellidos, curso, casa, patronus FROM " + GestorEsquema.TABLA_ARCHIVO
+                + " WHERE id = ? OR nombre LIKE ? OR apellidos LIKE ? ORDER BY apellidos, nombre LIMIT ?";
+        String patron = "%" + texto.trim().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+
+        return ConexionFactory.getConnectionAsync(TipoBaseDatos.MARIADB).thenApply(conn -> {
+            List<Alumno> lista = new ArrayList<>();
+
+            try (conn; PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setString(1, texto.trim());
+                stmt.setString(2, patron);
+                stmt.setString(3, patron);
+                stmt.setInt(4, limite);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        lista.add(DaoAlumno.mapearAlumno(rs));
+                    }
+                }
+                logger.debug("{} alumnos archivados encontrados para '{}'", lista.size(), texto);
+            } catch (SQLException e) {
+                logger.error("Error buscando en el archivo: {}", e.getMessage());
+                throw new RuntimeException(e);
+            }
+            return lista;
+        });
+    }
+}
@@ -0,0 +1,709 @@
+package es.potter.dao;
+
+import es.potter.database.ConexionFactory;
+import es.potter.database.GestorEsquema;
+import es.potter.database.MapaShards;
+import es.potter.database.TipoBaseDatos;
+import es.potter.model.Alumno;
+import es.potter.model.CambioAlumno;
+import es.potter.model.OperacionAlumno;
+import es.potter.model.TipoOperacion;
+import es.potter.util.Propiedades;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * DaoCambios gestiona el registro de cambios (outbox) del MASTER y las marcas de agua de las réplicas.
+ * FUNCIONAMIENTO:
+ * - Cada insert/update/delete en el MASTER añade una fila a alumnos_cambios en la misma transacción
+ * - Cada réplica guarda en replica_marca el último número de secuencia que ha aplicado
+ * - La sincronización incremental lee solo los cambios posteriores a la marca y los aplica en orden
+ * - Cada cambio guarda también la casa que tenía el alumno antes de la escritura (casa_anterior), así
+ *   que el backend de una casa ve también las bajas y los alumnos que se van a otra casa
+ * - El seq (AUTO_INCREMENT) se asigna al insertar pero solo se ve al confirmar: un hueco en la
+ *   secuencia puede ser una transacción aún abierta, así que las marcas no lo saltan a la ligera
+ *   (ver {@link #ultimoSeq()} y {@link #leerSecuencias(long, long)})
+ * - Los cambios que ya tienen todas las réplicas se recortan (ver {@link #recortar(long, long, int)})
+ * - Cada marca guarda el token del líder que la escribió; un líder depuesto no puede pisarla, ni escribir
+ *   alumnos en esa réplica al sincronizarla (ver {@link #vallar(Connection, TipoBaseDatos)})
+ * - El vallado solo se aplica a los backends compartidos de las casas y solo con la elección de líder
+ *   activa: SQLite es un archivo local de cada equipo y lo sincroniza siempre la propia instancia, y con
+ *   {@code lider.activo=false} cada instancia sincroniza por su cuenta como antes, aunque un líder
+ *   anterior dejara su token en la réplica
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-04
+ */
+public class DaoCambios {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(DaoCambios.class);
+
+    /** Valor devuelto cuando una réplica todavía no tiene marca de agua */
+    public static final long SIN_MARCA = -1;
+
+    /** Cambios más recientes en los que se buscan huecos al calcular una marca inicial */
+    private static final int VENTANA_HUECOS = 1000;
+
+    /** Indica si se elige líder; sin elección de líder las escrituras de sincronización no se vallan */
+    private static final boolean VALLADO = Boolean.parseBoolean(Propiedades.getValor("lider.activo", "true"));
+
+    /** Token del último arrendamiento de líder obtenido por esta instancia, o 0 si nunca fue líder */
+    private static volatile long tokenLider = 0;
+
+    /** Sentencia que registra un cambio en el MASTER */
+    private static final String SQL_REGISTRAR = "INSERT INTO " + GestorEsquema.TABLA_CAMBIOS
+            + " (id_alumno, operacion, nombre, apellidos, curso, casa, patronus, fecha) VALUES (?,?,?,?,?,?,?,?)";
+
+    /** Sentencia que registra un cambio en el MASTER con la casa que tiene el alumno antes de la escritura */
+    private static final String SQL_REGISTRAR_CON_CASA_ANTERIOR = "INSERT INTO " + GestorEsquema.TABLA_CAMBIOS
+            + " (id_alumno, operacion, nombre, apellidos, curso, casa, patronus, fecha, "
+            + GestorEsquema.COLUMNA_CASA_ANTERIOR + ") SELECT ?,?,?,?,?,?,?,?, (SELECT casa FROM alumnos WHERE id = ?)";
+
+    /*-------------------------------------------*/
+    /*          REGISTRO EN EL MASTER            */
+    /*-------------------------------------------*/
+
+    /**
+     * Registra un cambio en alumnos_cambios usando la transacción abierta en la conexión.
+     * Debe llamarse antes de escribir el alumno: si el MASTER tiene la columna casa_anterior,
+     * se rellena con la casa de la fila tal como está en ese momento.
+     *
+     * @param conn Conexión con el MASTER (la misma que ejecuta la escritura)
+     * @param operacion Operación que se va a escribir
+     * @throws SQLException Si falla el INSERT
+     *
+     * @author Wara
+     */
+    static void registrarCambio(Connection conn, OperacionAlumno operacion) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sqlRegistrar())) {
+            ViajeUnico.enlazar(stmt, Arrays.asList(valoresCambio(operacion)));
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Añade a un envío el registro de un cambio, igual que {@link #registrarCambio} pero sin
+     * ejecutarlo todavía: viaja junto con la escritura del alumno (ver {@link ViajeUnico}),
+     * y también debe añadirse antes que ella.
+     *
+     * @param viaje Envío de la transacción de escritura
+     * @param operacion Operación que se está escribiendo
+     *
+     * @author Wara
+     */
+    static void fusionarCambio(ViajeUnico viaje, OperacionAlumno operacion) {
+        viaje.aniadir(sqlRegistrar(), valoresCambio(operacion));
+    }
+
+    /**
+     * Obtiene el último número de secuencia del MASTER que puede usarse como marca de agua inicial:
+     * el último antes del primer hueco entre los cambios más recientes. Un hueco reciente puede ser
+     * una transacción que aún no ha confirmado; si la marca lo saltara, ese cambio no se aplicaría nunca.
+     * Los cambios posteriores a la marca se vuelven a aplicar después, lo que es seguro porque
+     * aplicar un cambio es idempotente.
+     *
+     * @return CompletableFuture con el seq, o 0 si el registro está vacío
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Long> ultimoSeq() {
+        String sql = "SELECT seq FROM " + GestorEsquema.TABLA_CAMBIOS + " ORDER BY seq DESC LIMIT ?";
+
+        return ConexionFactory.getConnectionAsync(TipoBaseDatos.MARIADB).thenApply(conn -> {
+            List<Long> recientes = new ArrayList<>();
+
+            try (conn; PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setInt(1, VENTANA_HUECOS);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        recientes.add(rs.getLong(1));
+                    }
+                }
+            } catch (SQLException e) {
+                logger.error("Error leyendo el último cambio del MASTER: {}", e.getMessage());
+                throw new RuntimeException(e);
+            }
+            if (recientes.isEmpty()) {
+                return 0L;
+            }
+
+            // De la más antigua a la más reciente, hasta el primer hueco
+            long marca = recientes.getLast();
+            for (int i = recientes.size() - 2; i >= 0 && recientes.get(i) == marca + 1; i--) {
+                marca = recientes.get(i);
+            }
+            if (marca != recientes.getFirst()) {
+                logger.debug("Hueco tras el seq {} del MASTER (último {}): la marca inicial no lo salta",
+                        marca, recientes.getFirst());
+            }
+            return marca;
+        });
+    }
+
+    /**
+     * Obtiene los números de secuencia visibles en el MASTER dentro de un tramo, para detectar huecos.
+     * Solo lee la clave primaria.
+     *
+     * @param desdeSeq principio del tramo (excluido)
+     * @param hastaSeq final del tramo (incluido)
+     * @return CompletableFuture con los seq del tramo, ordenados
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<List<Long>> leerSecuencias(long desdeSeq, long hastaSeq) {
+        String sql = "SELECT seq FROM " + GestorEsquema.TABLA_CAMBIOS + " WHERE seq > ? AND seq <= ? ORDER BY seq";
+
+        return ConexionFactory.getConnectionAsync(TipoBaseDatos.MARIADB).thenApply(conn -> {
+            List<Long> secuencias = new ArrayList<>();
+
+            try (conn; PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setLong(1, desdeSeq);
+                stmt.setLong(2, hastaSeq);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        secuencias.add(rs.getLong(1));
+                    }
+                }
+            } catch (SQLException e) {
+                logger.error("Error leyendo la secuencia de cambios del MASTER: {}", e.getMessage());
+                throw new RuntimeException(e);
+            }
+            return secuencias;
+        });
+    }
+
+    /**
+     * Obtiene el primer número de secuencia que conserva el registro del MASTER.
+     * Una réplica con la marca por debajo puede haberse perdido cambios ya recortados.
+     *
+     * @return CompletableFuture con el primer seq, o 0 si el registro está vacío
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Long> primerSeq() {
+        String sql = "SELECT COALESCE(MIN(seq), 0) FROM " + GestorEsquema.TABLA_CAMBIOS;
+
+        return ConexionFactory.getConnectionAsync(TipoBaseDatos.MARIADB).thenApply(conn -> {
+            try (conn; PreparedStatement stmt = conn.prepareStatement(sql); ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0L;
+            } catch (SQLException e) {
+                logger.error("Error leyendo el primer cambio del MASTER: {}", e.getMessage());
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Borra del registro del MASTER los cambios que ya tienen todas las réplicas, por tandas
+     * para no bloquear la tabla mucho tiempo. Solo borra los que además son anteriores a una fecha,
+     * para dar margen a las réplicas que sincronizan de vez en cuando.
+     *
+     * @param hastaSeq último seq que se puede borrar (la marca más baja de las réplicas)
+     * @param anteriorA instante (ms): solo se borran los cambios registrados antes
+     * @param tanda filas por DELETE
+     * @return CompletableFuture con el número de cambios borrados
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Integer> recortar(long hastaSeq, long anteriorA, int tanda) {
+        String sql = "DELETE FROM " + GestorEsquema.TABLA_CAMBIOS + " WHERE seq <= ? AND fecha < ? ORDER BY seq LIMIT ?";
+
+        return ConexionFactory.getConnectionAsync(TipoBaseDatos.MARIADB).thenApply(conn -> {
+            int total = 0;
+
+            try (conn; PreparedStatement stmt = conn.prepareStatement(sql)) {
+                int borradas;
+                do {
+                    stmt.setLong(1, hastaSeq);
+                    stmt.setLong(2, anteriorA);
+                    stmt.setInt(3, tanda);
+                    borradas = stmt.executeUpdate();
+                    total += borradas;
+                } while (borradas == tanda);
+                if (total > 0) {
+                    logger.info("Registro de cambios recortado: {} cambios hasta el seq {}", total, hastaSeq);
+                }
+            } catch (SQLException e) {
+                logger.error("Error recortando el registro de cambios: {}", e.getMessage());
+                throw new RuntimeException(e);
+            }
+            return total;
+        });
+    }
+
+    /**
+     * Lee un lote de cambios del MASTER posteriores a una marca de agua, en orden de secuencia.
+     *
+     * @param desdeSeq marca de agua (se devuelven los cambios con seq mayor)
+     * @param casa nombre de la casa para filtrar (cambios de alumnos que son o eran de ella), o null para todos
+     * @param limite número máximo de cambios a devolver
+     * @return CompletableFuture con los cambios ordenados por seq
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<List<CambioAlumno>> leerCambios(long desdeSeq, String casa, int limite) {
+        boolean conCasaAnterior = GestorEsquema.isMasterConCasaAnterior();
+        String sql = "SELECT seq, id_alumno, operacion, nombre, apellidos, curso, casa, patronus, fecha"
+                + (conCasaAnterior ? ", " + GestorEsquema.COLUMNA_CASA_ANTERIOR : "")
+                + " FROM " + GestorEsquema.TABLA_CAMBIOS
+                + " WHERE seq > ?" + (casa != null ? filtroCasa(conCasaAnterior) : "")
+                + " ORDER BY seq LIMIT ?";
+
+        return ConexionFactory.getConnectionAsync(TipoBaseDatos.MARIADB).thenApply(conn -> {
+            List<CambioAlumno> cambios = new ArrayList<>();
+
+            try (conn; PreparedStatement stmt = conn.prepareStatement(sql)) {
+                int i = 1;
+                stmt.setLong(i++, desdeSeq);
+                if (casa != null) {
+                    stmt.setString(i++, casa);
+                    if (conCasaAnterior) {
+                        stmt.setString(i++, casa);
+                    }
+                }
+                stmt.setInt(i, limite);
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        cambios.add(mapearCambio(rs, conCasaAnterior));
+                    }
+                }
+                logger.debug("Leídos {} cambios del MASTER desde seq {}", cambios.size(), desdeSeq);
+            } catch (SQLException e) {
+                logger.error("Error leyendo cambios del MASTER: {}", e.getMessage());
+                throw new RuntimeException(e);
+            }
+            return cambios;
+        });
+    }
+
+    /**
+     * Cuenta, para cada réplica, los cambios del MASTER posteriores a su marca de agua.
+     * Todas las cuentas se hacen con una sola conexión; los backends de una casa solo cuentan los
+     * cambios de alumnos que son o eran de su casa (índices idx_cambios_casa_seq e idx_cambios_casa_anterior_seq). Si la casa está repartida en varios backends
+     * (ver {@link MapaShards}), cada uno cuenta los de toda la casa: es una cota superior.
+     *
+     * @param marcas marca de agua de cada réplica
+     * @return CompletableFuture con los cambios pendientes de cada réplica
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Map<TipoBaseDatos, Long>> contarPosteriores(Map<TipoBaseDatos, Long> marcas) {
+        String sqlTodos = "SELECT COUNT(*) FROM " + GestorEsquema.TABLA_CAMBIOS + " WHERE seq > ?";
+        boolean conCasaAnterior = GestorEsquema.isMasterConCasaAnterior();
+        String sqlCasa = sqlTodos + filtroCasa(conCasaAnterior);
+
+        return ConexionFactory.getConnectionAsync(TipoBaseDatos.MARIADB).thenApply(conn -> {
+            Map<TipoBaseDatos, Long> pendientes = new EnumMap<>(TipoBaseDatos.class);
+
+            try (conn) {
+                for (Map.Entry<TipoBaseDatos, Long> marca : marcas.entrySet()) {
+                    TipoBaseDatos replica = marca.getKey();
+                    TipoBaseDatos casa = MapaShards.casaDe(replica);
+                    try (PreparedStatement stmt = conn.prepareStatement(casa != null ? sqlCasa : sqlTodos)) {
+                        stmt.setLong(1, marca.getValue());
+                        if (casa != null) {
+                            stmt.setString(2, casa.obtenerNombreCasa());
+                            if (conCasaAnterior) {
+                                stmt.setString(3, casa.obtenerNombreCasa());
+                            }
+                        }
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            pendientes.put(replica, rs.next() ? rs.getLong(1) : 0L);
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                logger.error("Error contando cambios pendientes en el MASTER: {}", e.getMessage());
+                throw new RuntimeException(e);
+            }
+            return pendientes;
+        });
+    }
+
+    /*-------------------------------------------*/
+    /*          MARCAS EN LAS RÉPLICAS           */
+    /*-------------------------------------------*/
+
+    /**
+     * Lee la marca de agua de una réplica.
+     *
+     * @param replica base de datos réplica
+     * @return CompletableFuture con el último seq aplicado, o {@link #SIN_MARCA} si nunca se sincronizó
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Long> leerMarca(TipoBaseDatos replica) {
+        String sql = "SELECT ultimo_seq FROM " + GestorEsquema.TABLA_MARCA + " WHERE replica = ?";
+
+        return ConexionFactory.getConnectionAsync(replica).thenApply(conn -> {
+            try (conn; PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setString(1, replica.name());
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : SIN_MARCA;
+                }
+            } catch (SQLException e) {
+                logger.error("Error leyendo la marca de {}: {}", replica, e.getMessage());
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Fija la marca de agua de una réplica (por ejemplo, tras una sincronización completa).
+     *
+     * @param replica base de datos réplica
+     * @param seq último seq del MASTER que la réplica ya contiene
+     * @return CompletableFuture con true si se guardó la marca
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Boolean> fijarMarca(TipoBaseDatos replica, long seq) {
+        return ConexionFactory.getConnectionAsync(replica).thenApply(conn -> {
+            try (conn) {
+                escribirMarca(conn, replica, seq);
+                logger.info("Marca de {} fijada en seq {}", replica, seq);
+                return true;
+            } catch (SQLException e) {
+                logger.error("Error fijando la marca de {}: {}", replica, e.getMessage());
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Baja la marca de agua de una réplica hasta un seq, o la crea en él si no tiene, para que la
+     * sincronización incremental vuelva a aplicar lo posterior. Nunca la sube: bajarla solo hace
+     * repetir cambios idempotentes, así que no se valla por el token de líder.
+     *
+     * @param replica base de datos réplica
+     * @param seq seq hasta el que se baja
+     * @return CompletableFuture con true si la marca quedó como mucho en ese seq
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Boolean> bajarMarca(TipoBaseDatos replica, long seq) {
+        String update = "UPDATE " + GestorEsquema.TABLA_MARCA + " SET ultimo_seq = ?, fecha = ?"
+                + " WHERE replica = ? AND ultimo_seq > ?";
+        String insert = "INSERT INTO " + GestorEsquema.TABLA_MARCA + " (replica, ultimo_seq, fecha) VALUES (?,?,?)";
+
+        return ConexionFactory.getConnectionAsync(replica).thenApply(conn -> {
+            try (conn) {
+                long ahora = System.currentTimeMillis();
+                try (PreparedStatement stmt = conn.prepareStatement(update)) {
+                    stmt.setLong(1, seq);
+                    stmt.setLong(2, ahora);
+                    stmt.setString(3, replica.name());
+                    stmt.setLong(4, seq);
+                    stmt.executeUpdate();
+                }
+                if (leerMarca(conn, replica) == SIN_MARCA) {
+                    try (PreparedStatement stmt = conn.prepareStatement(insert)) {
+                        stmt.setString(1, replica.name());
+                        stmt.setLong(2, seq);
+                        stmt.setLong(3, ahora);
+                        stmt.executeUpdate();
+                    }
+                }
+                logger.info("Marca de {} bajada como mucho a seq {}", replica, seq);
+                return true;
+            } catch (SQLException e) {
+                logger.error("Error bajando la marca de {}: {}", replica, e.getMessage());
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Aplica un lote de cambios en una réplica y avanza su marca de agua, todo en una transacción.
+     * Si algo falla, la réplica y su marca quedan como estaban y el lote se puede repetir.
+     *
+     * @param cambios cambios ordenados por seq
+     * @param replica base de datos réplica
+     * @return CompletableFuture con true si el lote se aplicó completo
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Boolean> aplicarCambios(List<CambioAlumno> cambios, TipoBaseDatos replica) {
+        if (cambios.isEmpty()) {
+            return CompletableFuture.completedFuture(true);
+        }
+        return aplicarCambios(cambios, replica, cambios.getLast().getSeq());
+    }
+
+    /**
+     * Aplica un lote de cambios en una réplica y lleva su marca de agua hasta un seq dado,
+     * todo en una transacción. Sirve para los backends de una casa repartida, que solo aplican
+     * los cambios de sus alumnos pero avanzan la marca por todo el lote leído.
+     *
+     * @param cambios cambios ordenados por seq (puede estar vacío)
+     * @param replica base de datos réplica
+     * @param ultimoSeq seq hasta el que avanza la marca
+     * @return CompletableFuture con true si el lote se aplicó completo
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Boolean> aplicarCambios(List<CambioAlumno> cambios, TipoBaseDatos replica,
+                                                            long ultimoSeq) {
+        return ConexionFactory.getConnectionAsync(replica).thenApply(conn -> {
+            try {
+                conn.setAutoCommit(false); // Iniciar transacción
+
+                for (CambioAlumno cambio : cambios) {
+                    DaoAlumno.aplicarEnReplica(conn, cambio.getOperacion(), replica);
+                }
+                escribirMarca(conn, replica, ultimoSeq);
+
+                conn.commit(); // Commit transacción
+                logger.info("Aplicados {} cambios en {} (marca {})", cambios.size(), replica, ultimoSeq);
+                return true;
+            } catch (SQLException e) {
+                try {
+                    conn.rollback();
+                    logger.error("Rollback en {} al aplicar cambios hasta seq {}: {}", replica, ultimoSeq, e.getMessage());
+                } catch (SQLException ex) {
+                    logger.error("Error en rollback al aplicar cambios: {}", ex.getMessage());
+                }
+                return false;
+            } finally {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    logger.error("Error cerrando conexión tras aplicar cambios: {}", e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Fija el token de líder con el que esta instancia escribe las marcas de agua.
+     * Solo puede crecer: un token anterior se ignora.
+     *
+     * @param token token del arrendamiento obtenido
+     *
+     * @author Wara
+     */
+    public static synchronized void setTokenLider(long token) {
+        if (token > tokenLider) {
+            tokenLider = token;
+        }
+    }
+
+    /*-------------------------------------------*/
+    /*            MÉTODOS PRIVADOS               */
+    /*-------------------------------------------*/
+
+    /**
+     * Guarda la marca de agua de una réplica usando la conexión (y transacción) recibida.
+     * Si la réplica se valla (ver {@link #vallada}), la marca solo se escribe si ningún líder posterior al token de esta
+     * instancia (0 si nunca fue líder) la ha escrito ya: un líder que perdió el arrendamiento sin
+     * enterarse, o una instancia que nunca lo tuvo, no puede pisar el trabajo del líder actual.
+     *
+     * @param conn Conexión abierta con la réplica
+     * @param replica base de datos réplica
+     * @param seq último seq aplicado
+     * @throws SQLException Si falla la escritura o la marca es de un líder posterior
+     *
+     * @author Wara
+     */
+    static void escribirMarca(Connection conn, TipoBaseDatos replica, long seq) throws SQLException {
+        long token = tokenLider;
+        boolean vallado = vallada(replica);
+        String columna = GestorEsquema.COLUMNA_TOKEN;
+        String update = "UPDATE " + GestorEsquema.TABLA_MARCA + " SET ultimo_seq = ?, fecha = ?"
+                + (vallado ? ", " + columna + " = ? WHERE replica = ? AND (" + columna + " IS NULL OR " + columna + " <= ?)"
+                : " WHERE replica = ?");
+        String insert = "INSERT INTO " + GestorEsquema.TABLA_MARCA + " (replica, ultimo_seq, fecha"
+                + (vallado ? ", " + columna + ") VALUES (?,?,?,?)" : ") VALUES (?,?,?)");
+        long ahora = System.currentTimeMillis();
+
+        try (PreparedStatement stmt = conn.prepareStatement(update)) {
+            int i = 1;
+            stmt.setLong(i++, seq);
+            stmt.setLong(i++, ahora);
+            if (vallado) {
+                stmt.setLong(i++, token);
+            }
+            stmt.setString(i++, replica.name());
+            if (vallado) {
+                stmt.setLong(i, token);
+            }
+            if (stmt.executeUpdate() > 0) {
+                return;
+            }
+        }
+        if (vallado && leerMarca(conn, replica) != SIN_MARCA) {
+            throw new SQLException("La marca de " + replica + " ya la escribió un líder posterior al token " + token);
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(insert)) {
+            stmt.setString(1, replica.name());
+            stmt.setLong(2, seq);
+            stmt.setLong(3, ahora);
+            if (vallado) {
+                stmt.setLong(4, token);
+            }
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Comprueba, dentro de la transacción recibida, que ningún líder posterior al token de esta instancia
+     * (0 si nunca fue líder) ha escrito en la réplica, y deja en ella ese token. Se llama antes de
+     * cualquier escritura de sincronización (diferencias, carga masiva): si la comprobación falla, la
+     * transacción no debe confirmarse. Una réplica sin marca o sin columna token no se puede vallar, y
+     * SQLite o cualquier réplica con la elección de líder desactivada no se vallan (ver {@link #vallada}).
+     *
+     * @param conn Conexión abierta con la réplica, con la transacción de la escritura
+     * @param replica base de datos réplica
+     * @throws SQLException Si falla la escritura o la réplica es de un líder posterior
+     *
+     * @author Wara
+     */
+    static void vallar(Connection conn, TipoBaseDatos replica) throws SQLException {
+        if (!vallada(replica)) {
+            return;
+        }
+        long token = tokenLider;
+        String columna = GestorEsquema.COLUMNA_TOKEN;
+        String sql = "UPDATE " + GestorEsquema.TABLA_MARCA + " SET " + columna + " = ? WHERE replica = ?"
+                + " AND (" + columna + " IS NULL OR " + columna + " <= ?)";
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setLong(1, token);
+            stmt.setString(2, replica.name());
+            stmt.setLong(3, token);
+            if (stmt.executeUpdate() > 0) {
+                return;
+            }
+        }
+        if (leerMarca(conn, replica) != SIN_MARCA) {
+            throw new SQLException(replica + " ya la sincroniza un líder posterior al token " + token);
+        }
+    }
+
+    /**
+     * Obtiene la sentencia que registra un cambio, con casa_anterior si el MASTER tiene la columna.
+     *
+     * @return sentencia con sus parámetros
+     *
+     * @author Wara
+     */
+    private static String sqlRegistrar() {
+        return GestorEsquema.isMasterConCasaAnterior() ? SQL_REGISTRAR_CON_CASA_ANTERIOR : SQL_REGISTRAR;
+    }
+
+    /**
+     * Obtiene los valores de los parámetros del registro de un cambio.
+     *
+     * @param operacion Operación que se va a escribir
+     * @return valores en el orden de {@link #sqlRegistrar()}
+     *
+     * @author Wara
+     */
+    private static Object[] valoresCambio(OperacionAlumno operacion) {
+        Alumno alumno = operacion.getAlumno();
+        Object[] valores = alumno != null
+                ? new Object[]{operacion.getId(), operacion.getTipo().name(), alumno.getNombre(), alumno.getApellidos(),
+                        alumno.getCurso(), alumno.getCasa(), alumno.getPatronus(), System.currentTimeMillis()}
+                : new Object[]{operacion.getId(), operacion.getTipo().name(), null, null, null, null, null,
+                        System.currentTimeMillis()};
+        if (!GestorEsquema.isMasterConCasaAnterior()) {
+            return valores;
+        }
+        Object[] conCasaAnterior = Arrays.copyOf(valores, valores.length + 1);
+        conCasaAnterior[valores.length] = operacion.getId();
+        return conCasaAnterior;
+    }
+
+    /**
+     * Obtiene el filtro de los cambios que interesan al backend de una casa: los de alumnos que
+     * quedan en ella y, si el MASTER guarda casa_anterior, también los que estaban en ella.
+     *
+     * @param conCasaAnterior true si el MASTER tiene la columna casa_anterior
+     * @return condición con uno o dos parámetros (el nombre de la casa)
+     *
+     * @author Wara
+     */
+    private static String filtroCasa(boolean conCasaAnterior) {
+        return conCasaAnterior
+                ? " AND (casa = ? OR " + GestorEsquema.COLUMNA_CASA_ANTERIOR + " = ?)"
+                : " AND casa = ?";
+    }
+
+    /**
+     * Indica si las escrituras de sincronización en una réplica se vallan con el token del líder:
+     * solo los backends de las casas, compartidos por todas las instancias, con columna token y con
+     * la elección de líder activa. SQLite es local de cada equipo y no se disputa con nadie.
+     *
+     * @param replica base de datos réplica
+     * @return true si hay que comprobar y dejar el token del líder
+     *
+     * @author Wara
+     */
+    private static boolean vallada(TipoBaseDatos replica) {
+        return VALLADO && replica != TipoBaseDatos.SQLITE && GestorEsquema.tieneToken(replica);
+    }
+
+    /**
+     * Lee la marca de agua de una réplica usando una conexión abierta.
+     *
+     * @param conn Conexión abierta con la réplica
+     * @param replica base de datos réplica
+     * @return último seq aplicado, o {@link #SIN_MARCA}
+     * @throws SQLException Si falla la consulta
+     *
+     * @author Wara
+     */
+    private static long leerMarca(Connection conn, TipoBaseDatos replica) throws SQLException {
+        String sql = "SELECT ultimo_seq FROM " + GestorEsquema.TABLA_MARCA + " WHERE replica = ?";
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, replica.name());
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : SIN_MARCA;
+            }
+        }
+    }
+
+    /**
+     * Crea un cambio a partir de la fila actual del ResultSet.
+     *
+     * @param rs ResultSet posicionado en una fila de alumnos_cambios
+     * @param conCasaAnterior true si la consulta trae la columna casa_anterior
+     * @return Cambio mapeado
+     * @throws SQLException Sí ocurre error leyendo datos
+     *
+     * @author Wara
+     */
+    private static CambioAlumno mapearCambio(ResultSet rs, boolean conCasaAnterior) throws SQLException {
+        String id = rs.getString("id_alumno");
+        TipoOperacion tipo = TipoOperacion.valueOf(rs.getString("operacion"));
+
+        Alumno alumno = null;
+        if (rs.getString("nombre") != null) {
+            alumno = new Alumno();
+            alumno.setId(id);
+            alumno.setNombre(rs.getString("nombre"));
+            alumno.setApellidos(rs.getString("apellidos"));
+            alumno.setCurso(rs.getInt("curso"));
+            alumno.setCasa(rs.getString("casa"));
+            alumno.setPatronus(rs.getString("patronus"));
+        }
+
+        return new CambioAlumno(rs.getLong("seq"), rs.getLong("fecha"), new OperacionAlumno(tipo, id, alumno),
+                conCasaAnterior ? rs.getString(GestorEsquema.COLUMNA_CASA_ANTERIOR) : null);
+    }
+}
@@ -0,0 +1,332 @@
+package es.potter.dao;
+
+import es.potter.database.ConexionFactory;
+import es.potter.database.GestorEsquema;
+import es.potter.database.MapaShards;
+import es.potter.database.TipoBaseDatos;
+import es.potter.model.Alumno;
+import es.potter.util.Propiedades;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * DaoCargaMasiva copia de golpe la foto del MASTER en una réplica vacía o que se quiere rehacer.
+ * CARGA NATIVA (volcado a un archivo CSV y cargador propio de cada motor):
+ * - H2: INSERT ... SELECT FROM CSVREAD
+ * - Derby: SYSCS_UTIL.SYSCS_IMPORT_DATA
+ * El archivo lo lee el servidor de base de datos, no el driver: solo funciona si el directorio del volcado
+ * (carga.masiva.directorio) es visible para él con la misma ruta (base embebida, mismo equipo o directorio
+ * compartido). Si no, el cargador falla y se carga por lotes.
+ * HSQLDB no se carga de forma nativa: sus tablas de texto solo admiten rutas absolutas si el servidor
+ * arranca con textdb.allow_full_path, que la aplicación no controla.
+ * CARGA POR LOTES (SQLite, Oracle, HSQLDB, o si la nativa falla): lectura en streaming del MASTER
+ * e INSERT en lotes JDBC dentro de una sola transacción.
+ * En ambos casos la tabla alumnos de la réplica se vacía antes y solo recibe los alumnos
+ * que le corresponden según el {@link MapaShards}, y antes se comprueba el token de líder de la réplica
+ * (ver {@link DaoCambios#vallar(Connection, TipoBaseDatos)}).
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class DaoCargaMasiva {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(DaoCargaMasiva.class);
+
+    /** Filas por lote JDBC */
+    private static final int LOTE = Math.max(1, Propiedades.getEntero("carga.masiva.lote", 1000));
+
+    /** Filas que se piden al MASTER en cada viaje al leer en streaming */
+    private static final int FILAS_POR_LECTURA = 1000;
+
+    /** Columnas del volcado, en orden; la huella va siempre la última */
+    private static final String COLUMNAS = "id, nombre, apellidos, curso, casa, patronus";
+
+    /**
+     * Recibe cada alumno leído del MASTER.
+     *
+     * @author Wara
+     */
+    @FunctionalInterface
+    private interface Receptor {
+
+        /**
+         * Procesa un alumno.
+         *
+         * @param alumno alumno leído
+         * @throws SQLException si falla la escritura en una base
+         * @throws IOException si falla la escritura en el archivo
+         */
+        void recibir(Alumno alumno) throws SQLException, IOException;
+    }
+
+    /**
+     * Indica si el motor de una base tiene cargador nativo desde archivo.
+     *
+     * @param tipo base de datos destino
+     * @return true para H2 y Derby
+     *
+     * @author Wara
+     */
+    public static boolean tieneCargaNativa(TipoBaseDatos tipo) {
+        return switch (tipo.getMotor()) {
+            case H2, DERBY -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Vuelca a un archivo CSV los alumnos del MASTER que corresponden a una réplica.
+     * Los nulos se escriben como un campo vacío sin comillas, que es como los leen los dos cargadores.
+     *
+     * @param destino réplica a la que va el volcado
+     * @param archivo archivo a escribir (se sobrescribe)
+     * @return CompletableFuture con el número de alumnos volcados
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Long> volcar(TipoBaseDatos destino, Path archivo) {
+        return ConexionFactory.getConnectionAsync(TipoBaseDatos.MARIADB).thenApply(conn -> {
+            long[] filas = {0};
+            try (conn; BufferedWriter salida = Files.newBufferedWriter(archivo, StandardCharsets.UTF_8)) {
+                leerMaster(conn, destino, alumno -> {
+                    salida.write(campo(alumno.getId()) + "," + campo(alumno.getNombre()) + ","
+                            + campo(alumno.getApellidos()) + "," + alumno.getCurso() + ","
+                            + campo(alumno.getCasa()) + "," + campo(alumno.getPatronus()) + ","
+                            + alumno.calcularHuella());
+                    salida.write('\n');
+                    filas[0]++;
+                });
+                logger.info("Volcados {} alumnos del MASTER para {} en {}", filas[0], destino, archivo);
+                return filas[0];
+            } catch (SQLException | IOException e) {
+                logger.error("Error volcando el MASTER para {}: {}", destino, e.getMessage());
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Vacía la tabla alumnos de una réplica y la carga desde un volcado con el cargador nativo de su motor.
+     *
+     * @param destino réplica destino
+     * @param archivo volcado hecho con {@link #volcar(TipoBaseDatos, Path)}
+     * @return CompletableFuture que se completa al confirmar la carga.
+     *         Se completa excepcionalmente si el motor no tiene cargador o el cargador falla.
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Void> cargarArchivo(TipoBaseDatos destino, Path archivo) {
+        String ruta = archivo.toAbsolutePath().toString().replace('\\', '/').replace("'", "''");
+
+        return ConexionFactory.getConnectionAsync(destino).thenAccept(conn -> {
+            boolean conHuella = GestorEsquema.tieneHuella(destino);
+            String columnas = COLUMNAS + (conHuella ? ", " + GestorEsquema.COLUMNA_HUELLA : "");
+
+            try (conn) {
+                switch (destino.getMotor()) {
+                    case H2 -> cargarH2(conn, destino, ruta, columnas, conHuella);
+                    case DERBY -> cargarDerby(conn, destino, ruta, columnas, conHuella);
+                    default -> throw new SQLException("El motor " + destino.getMotor() + " no tiene carga nativa");
+                }
+                FiltroIds.invalidar(destino);
+                logger.info("Carga nativa en {} completada desde {}", destino, archivo);
+            } catch (SQLException e) {
+                logger.warn("Carga nativa en {} fallida: {}", destino, e.getMessage());
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Vacía la tabla alumnos de una réplica y copia en ella los alumnos del MASTER que le corresponden,
+     * leyendo en streaming e insertando en lotes JDBC dentro de una transacción.
+     *
+     * @param destino réplica destino
+     * @return CompletableFuture con el número de alumnos copiados
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Long> copiarPorLotes(TipoBaseDatos destino) {
+        return ConexionFactory.getConnectionAsync(destino).thenApply(conn -> {
+            boolean conHuella = GestorEsquema.tieneHuella(destino);
+            String sql = "INSERT INTO alumnos (" + COLUMNAS + (conHuella ? ", " + GestorEsquema.COLUMNA_HUELLA : "")
+                    + ") VALUES (?,?,?,?,?,?" + (conHuella ? ",?" : "") + ")";
+            long[] filas = {0};
+
+            try (conn; Connection master = ConexionFactory.getConnection(TipoBaseDatos.MARIADB)) {
+                conn.setAutoCommit(false); // Iniciar transacción
+                try (Statement vaciar = conn.createStatement(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    DaoCambios.vallar(conn, destino);
+                    vaciar.executeUpdate("DELETE FROM alumnos");
+
+                    leerMaster(master, destino, alumno -> {
+                        stmt.setString(1, alumno.getId());
+                        stmt.setString(2, alumno.getNombre());
+                        stmt.setString(3, alumno.getApellidos());
+                        stmt.setInt(4, alumno.getCurso());
+                        stmt.setString(5, alumno.getCasa());
+                        stmt.setString(6, alumno.getPatronus());
+                        if (conHuella) {
+                            stmt.setLong(7, alumno.calcularHuella());
+                        }
+                        stmt.addBatch();
+                        if (++filas[0] % LOTE == 0) {
+                            stmt.executeBatch();
+                        }
+                    });
+                    stmt.executeBatch();
+                    conn.commit(); // Commit transacción
+                } catch (SQLException | IOException e) {
+                    conn.rollback();
+                    throw e;
+                }
+                FiltroIds.invalidar(destino);
+                logger.info("Copiados por lotes {} alumnos del MASTER a {}", filas[0], destino);
+                return filas[0];
+            } catch (SQLException | IOException e) {
+                logger.error("Error en la carga por lotes de {}: {}", destino, e.getMessage());
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /*-------------------------------------------*/
+    /*            MÉTODOS PRIVADOS               */
+    /*-------------------------------------------*/
+
+    /**
+     * Lee en streaming los alumnos del MASTER que corresponden a una réplica.
+     *
+     * @param master conexión con el MASTER
+     * @param destino réplica para la que se leen
+     * @param receptor destino de cada alumno
+     * @throws SQLException si falla la lectura o el receptor
+     * @throws IOException si falla el receptor
+     *
+     * @author Wara
+     */
+    private static void leerMaster(Connection master, TipoBaseDatos destino, Receptor receptor)
+            throws SQLException, IOException {
+        TipoBaseDatos casa = MapaShards.casaDe(destino);
+        String sql = "SELECT " + COLUMNAS + " FROM alumnos" + (casa != null ? " WHERE casa = ?" : "");
+
+        try (PreparedStatement stmt = master.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            stmt.setFetchSize(FILAS_POR_LECTURA);
+            if (casa != null) {
+                stmt.setString(1, casa.obtenerNombreCasa());
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    String id = rs.getString("id");
+                    if (casa != null && !MapaShards.aloja(destino, id)) {
+                        continue;
+                    }
+                    Alumno alumno = new Alumno();
+                    alumno.setId(id);
+                    alumno.setNombre(rs.getString("nombre"));
+                    alumno.setApellidos(rs.getString("apellidos"));
+                    alumno.setCurso(rs.getInt("curso"));
+                    alumno.setCasa(rs.getString("casa"));
+                    alumno.setPatronus(rs.getString("patronus"));
+                    receptor.recibir(alumno);
+                }
+            }
+        }
+    }
+
+    /**
+     * Escribe un campo de texto en CSV: entre comillas dobles, duplicando las que contenga.
+     *
+     * @param valor valor del campo
+     * @return campo listo para el CSV (vacío y sin comillas si es null)
+     *
+     * @author Wara
+     */
+    private static String campo(String valor) {
+        return valor == null ? "" : "\"" + valor.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Carga en H2 con CSVREAD.
+     *
+     * @param conn conexión con la réplica
+     * @param destino réplica
+     * @param ruta ruta del volcado, ya escapada
+     * @param columnas columnas a cargar
+     * @param conHuella true si la tabla tiene huella
+     * @throws SQLException si falla la carga
+     *
+     * @author Wara
+     */
+    private static void cargarH2(Connection conn, TipoBaseDatos destino, String ruta, String columnas, boolean conHuella) throws SQLException {
+        String sql = "INSERT INTO alumnos (" + columnas + ") SELECT ID, NOMBRE, APELLIDOS, CAST(CURSO AS INT), CASA, PATRONUS"
+                + (conHuella ? ", CAST(HUELLA AS BIGINT)" : "")
+                + " FROM CSVREAD('" + ruta + "', 'ID,NOMBRE,APELLIDOS,CURSO,CASA,PATRONUS,HUELLA',"
+                + " 'charset=UTF-8 fieldSeparator=,')";
+        enTransaccion(conn, destino, sql);
+    }
+
+    /**
+     * Carga en Derby con SYSCS_IMPORT_DATA, que además sustituye el contenido de la tabla.
+     * La importación confirma por su cuenta, así que el token de líder se comprueba justo antes.
+     *
+     * @param conn conexión con la réplica
+     * @param destino réplica
+     * @param ruta ruta del volcado
+     * @param columnas columnas a cargar
+     * @param conHuella true si la tabla tiene huella
+     * @throws SQLException si falla la carga
+     *
+     * @author Wara
+     */
+    private static void cargarDerby(Connection conn, TipoBaseDatos destino, String ruta, String columnas,
+                                    boolean conHuella) throws SQLException {
+        DaoCambios.vallar(conn, destino);
+        String sql = "CALL SYSCS_UTIL.SYSCS_IMPORT_DATA(NULL, 'ALUMNOS', ?, ?, ?, ',', '\"', 'UTF-8', 1)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, columnas.toUpperCase().replace(" ", ""));
+            stmt.setString(2, conHuella ? "1,2,3,4,5,6,7" : "1,2,3,4,5,6");
+            stmt.setString(3, ruta.replace("''", "'"));
+            stmt.execute();
+        }
+    }
+
+    /**
+     * Comprueba el token de líder, vacía la tabla alumnos y ejecuta la sentencia de carga en una misma transacción.
+     *
+     * @param conn conexión con la réplica
+     * @param destino réplica
+     * @param sql sentencia de carga
+     * @throws SQLException si falla o la réplica es de un líder posterior; la tabla queda como estaba
+     *
+     * @author Wara
+     */
+    private static void enTransaccion(Connection conn, TipoBaseDatos destino, String sql) throws SQLException {
+        conn.setAutoCommit(false); // Iniciar transacción
+        try (Statement stmt = conn.createStatement()) {
+            DaoCambios.vallar(conn, destino);
+            stmt.executeUpdate("DELETE FROM alumnos");
+            int filas = stmt.executeUpdate(sql);
+            conn.commit(); // Commit transacción
+            logger.debug("Cargadas {} filas", filas);
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        }
+    }
+}
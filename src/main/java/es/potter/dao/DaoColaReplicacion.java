@@ -0,0 +1,362 @@
+package es.potter.dao;
+
+import es.potter.database.SQLiteManager;
+import es.potter.database.TipoBaseDatos;
+import es.potter.model.Alumno;
+import es.potter.model.OperacionAlumno;
+import es.potter.model.TipoOperacion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * DaoColaReplicacion persiste en disco la cola de replicación hacia los slaves.
+ * La cola vive en un archivo SQLite propio (replicacion.db) en el directorio de datos
+ * de la aplicación, separado de hogwarts.db, que es a su vez uno de los destinos.
+ * Cada fila es una operación pendiente para un destino concreto; se borra cuando
+ * el destino la confirma, así que lo que quede en el archivo al cerrar la aplicación
+ * se vuelve a intentar en el siguiente arranque.
+ * Las operaciones que un destino rechaza demasiadas veces se mueven a una tabla aparte
+ * (cola_replicacion_descartada) para revisarlas a mano.
+ * A diferencia del resto de DAOs los métodos son síncronos: los llama el hilo de disco
+ * de la cola, que ya se ejecuta fuera de las escrituras en el MASTER.
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-06
+ */
+public class DaoColaReplicacion {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(DaoColaReplicacion.class);
+
+    /** Archivo de la cola dentro del directorio de datos de la aplicación */
+    private static final String ARCHIVO = "replicacion.db";
+
+    /** Tabla de operaciones pendientes */
+    private static final String TABLA = "cola_replicacion";
+
+    /** Tabla de operaciones descartadas por rechazarlas su destino una y otra vez */
+    public static final String TABLA_DESCARTADAS = "cola_replicacion_descartada";
+
+    /** Indica si la tabla ya se ha comprobado en esta ejecución */
+    private static boolean preparada = false;
+
+    /**
+     * Operación pendiente de replicar.
+     *
+     * @param id posición en la cola (creciente)
+     * @param destino slave al que hay que aplicarla
+     * @param operacion operación a aplicar
+     * @param creado instante en que se encoló (ms)
+     * @param intentos intentos fallidos hasta ahora
+     */
+    public record Entrada(long id, TipoBaseDatos destino, OperacionAlumno operacion, long creado, int intentos) {}
+
+    /**
+     * Guarda una operación al final de la cola.
+     *
+     * @param destino slave destino
+     * @param operacion operación a replicar
+     * @param creado instante de encolado (ms)
+     * @return entrada guardada, con su posición en la cola
+     * @throws SQLException Si no se pudo escribir en disco
+     *
+     * @author Wara
+     */
+    public static synchronized Entrada insertar(TipoBaseDatos destino, OperacionAlumno operacion, long creado)
+            throws SQLException {
+        String sql = "INSERT INTO " + TABLA
+                + " (destino, operacion, id_alumno, nombre, apellidos, curso, casa, patronus, creado, intentos)"
+                + " VALUES (?,?,?,?,?,?,?,?,?,0)";
+
+        try (Connection conn = conectar();
+             PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setString(1, destino.name());
+            asignarOperacion(stmt, 2, operacion);
+            stmt.setLong(9, creado);
+            stmt.executeUpdate();
+
+            try (ResultSet claves = stmt.getGeneratedKeys()) {
+                if (!claves.next()) {
+                    throw new SQLException("La cola no devolvió la posición de la entrada");
+                }
+                return new Entrada(claves.getLong(1), destino, operacion, creado, 0);
+            }
+        }
+    }
+
+    /**
+     * Guarda varias operaciones al final de la cola en una sola transacción, en el orden dado.
+     *
+     * @param destino slave destino
+     * @param operaciones operaciones a replicar
+     * @param creado instante de encolado (ms)
+     * @return entradas guardadas, con su posición en la cola
+     * @throws SQLException Si no se pudo escribir en disco (no se guarda ninguna)
+     *
+     * @author Wara
+     */
+    public static synchronized List<Entrada> insertarTodas(TipoBaseDatos destino, List<OperacionAlumno> operaciones,
+                                                           long creado) throws SQLException {
+        String sql = "INSERT INTO " + TABLA
+                + " (destino, operacion, id_alumno, nombre, apellidos, curso, casa, patronus, creado, intentos)"
+                + " VALUES (?,?,?,?,?,?,?,?,?,0)";
+        List<Entrada> entradas = new ArrayList<>();
+
+        try (Connection conn = conectar();
+             PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            conn.setAutoCommit(false);
+            try {
+                for (OperacionAlumno operacion : operaciones) {
+                    stmt.setString(1, destino.name());
+                    asignarOperacion(stmt, 2, operacion);
+                    stmt.setLong(9, creado);
+                    stmt.executeUpdate();
+
+                    try (ResultSet claves = stmt.getGeneratedKeys()) {
+                        if (!claves.next()) {
+                            throw new SQLException("La cola no devolvió la posición de la entrada");
+                        }
+                        entradas.add(new Entrada(claves.getLong(1), destino, operacion, creado, 0));
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+        return entradas;
+    }
+
+    /**
+     * Sustituye la operación de una entrada que aún no se ha enviado a su destino
+     * (por ejemplo, al fusionarla con una operación posterior sobre el mismo alumno).
+     * La entrada conserva su posición en la cola.
+     *
+     * @param id posición de la entrada
+     * @param operacion operación que la sustituye
+     * @throws SQLException Si no se pudo escribir en disco
+     *
+     * @author Wara
+     */
+    public static synchronized void reemplazar(long id, OperacionAlumno operacion) throws SQLException {
+        String sql = "UPDATE " + TABLA + " SET operacion = ?, id_alumno = ?, nombre = ?, apellidos = ?, curso = ?,"
+                + " casa = ?, patronus = ? WHERE id = ?";
+
+        try (Connection conn = conectar(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+            asignarOperacion(stmt, 1, operacion);
+            stmt.setLong(8, id);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Carga todas las operaciones pendientes, en orden de llegada.
+     *
+     * @return entradas pendientes
+     * @throws SQLException Si no se pudo leer la cola
+     *
+     * @author Wara
+     */
+    public static synchronized List<Entrada> cargarPendientes() throws SQLException {
+        String sql = "SELECT id, destino, operacion, id_alumno, nombre, apellidos, curso, casa, patronus, creado, intentos"
+                + " FROM " + TABLA + " ORDER BY id";
+        List<Entrada> entradas = new ArrayList<>();
+
+        try (Connection conn = conectar();
+             PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                entradas.add(mapearEntrada(rs));
+            }
+        }
+        return entradas;
+    }
+
+    /**
+     * Borra de la cola las entradas ya aplicadas.
+     *
+     * @param ids posiciones de las entradas
+     * @throws SQLException Si no se pudo escribir en disco
+     *
+     * @author Wara
+     */
+    public static synchronized void eliminar(Collection<Long> ids) throws SQLException {
+        ejecutarPorId("DELETE FROM " + TABLA + " WHERE id = ?", ids);
+    }
+
+    /**
+     * Anota un intento fallido más en las entradas indicadas.
+     *
+     * @param ids posiciones de las entradas
+     * @throws SQLException Si no se pudo escribir en disco
+     *
+     * @author Wara
+     */
+    public static synchronized void anotarIntento(Collection<Long> ids) throws SQLException {
+        ejecutarPorId("UPDATE " + TABLA + " SET intentos = intentos + 1 WHERE id = ?", ids);
+    }
+
+    /**
+     * Mueve una entrada de la cola a la tabla de descartadas, en una transacción.
+     *
+     * @param id posición de la entrada
+     * @throws SQLException Si no se pudo escribir en disco
+     *
+     * @author Wara
+     */
+    public static synchronized void descartar(long id) throws SQLException {
+        String copiar = "INSERT INTO " + TABLA_DESCARTADAS
+                + " (id, destino, operacion, id_alumno, nombre, apellidos, curso, casa, patronus, creado, intentos, descartado)"
+                + " SELECT id, destino, operacion, id_alumno, nombre, apellidos, curso, casa, patronus, creado, intentos + 1, ?"
+                + " FROM " + TABLA + " WHERE id = ?";
+        String borrar = "DELETE FROM " + TABLA + " WHERE id = ?";
+
+        try (Connection conn = conectar();
+             PreparedStatement insert = conn.prepareStatement(copiar);
+             PreparedStatement delete = conn.prepareStatement(borrar)) {
+            conn.setAutoCommit(false);
+            try {
+                insert.setLong(1, System.currentTimeMillis());
+                insert.setLong(2, id);
+                insert.executeUpdate();
+                delete.setLong(1, id);
+                delete.executeUpdate();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /*-------------------------------------------*/
+    /*            MÉTODOS PRIVADOS               */
+    /*-------------------------------------------*/
+
+    /**
+     * Ejecuta una sentencia con un único parámetro id para cada entrada, en una transacción.
+     *
+     * @param sql sentencia con un parámetro
+     * @param ids posiciones de las entradas
+     * @throws SQLException Si la sentencia falla
+     *
+     * @author Wara
+     */
+    private static void ejecutarPorId(String sql, Collection<Long> ids) throws SQLException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        try (Connection conn = conectar(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+            conn.setAutoCommit(false);
+            for (Long id : ids) {
+                stmt.setLong(1, id);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            conn.commit();
+        }
+    }
+
+    /**
+     * Asigna los 7 parámetros de una operación (tipo, ID y datos del alumno) a partir de una posición.
+     *
+     * @param stmt sentencia preparada
+     * @param desde posición del primer parámetro
+     * @param operacion operación a guardar
+     * @throws SQLException Si falla la asignación
+     *
+     * @author Wara
+     */
+    private static void asignarOperacion(PreparedStatement stmt, int desde, OperacionAlumno operacion)
+            throws SQLException {
+        Alumno alumno = operacion.getAlumno();
+        stmt.setString(desde, operacion.getTipo().name());
+        stmt.setString(desde + 1, operacion.getId());
+        if (alumno != null) {
+            stmt.setString(desde + 2, alumno.getNombre());
+            stmt.setString(desde + 3, alumno.getApellidos());
+            stmt.setInt(desde + 4, alumno.getCurso());
+            stmt.setString(desde + 5, alumno.getCasa());
+            stmt.setString(desde + 6, alumno.getPatronus());
+        } else {
+            stmt.setNull(desde + 2, Types.VARCHAR);
+            stmt.setNull(desde + 3, Types.VARCHAR);
+            stmt.setNull(desde + 4, Types.INTEGER);
+            stmt.setNull(desde + 5, Types.VARCHAR);
+            stmt.setNull(desde + 6, Types.VARCHAR);
+        }
+    }
+
+    /**
+     * Abre una conexión con el archivo de la cola, creando la tabla la primera vez.
+     *
+     * @return conexión abierta
+     * @throws SQLException Si no se pudo abrir el archivo
+     *
+     * @author Wara
+     */
+    private static Connection conectar() throws SQLException {
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + SQLiteManager.getArchivoDatos(ARCHIVO));
+
+        if (!preparada) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + TABLA + " ("
+                        + "id INTEGER PRIMARY KEY AUTOINCREMENT, destino TEXT NOT NULL, operacion TEXT NOT NULL, "
+                        + "id_alumno TEXT NOT NULL, nombre TEXT, apellidos TEXT, curso INTEGER, casa TEXT, "
+                        + "patronus TEXT, creado INTEGER NOT NULL, intentos INTEGER NOT NULL)");
+                stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + TABLA_DESCARTADAS + " ("
+                        + "id INTEGER PRIMARY KEY, destino TEXT NOT NULL, operacion TEXT NOT NULL, "
+                        + "id_alumno TEXT NOT NULL, nombre TEXT, apellidos TEXT, curso INTEGER, casa TEXT, "
+                        + "patronus TEXT, creado INTEGER NOT NULL, intentos INTEGER NOT NULL, "
+                        + "descartado INTEGER NOT NULL)");
+            } catch (SQLException e) {
+                conn.close();
+                throw e;
+            }
+            preparada = true;
+            logger.info("Cola de replicación preparada en {}", SQLiteManager.getArchivoDatos(ARCHIVO));
+        }
+        return conn;
+    }
+
+    /**
+     * Crea una entrada a partir de la fila actual del ResultSet.
+     *
+     * @param rs ResultSet posicionado en una fila de la cola
+     * @return entrada mapeada
+     * @throws SQLException Sí ocurre error leyendo datos
+     *
+     * @author Wara
+     */
+    private static Entrada mapearEntrada(ResultSet rs) throws SQLException {
+        String id = rs.getString("id_alumno");
+        TipoOperacion tipo = TipoOperacion.valueOf(rs.getString("operacion"));
+
+        Alumno alumno = null;
+        if (rs.getString("nombre") != null) {
+            alumno = new Alumno();
+            alumno.setId(id);
+            alumno.setNombre(rs.getString("nombre"));
+            alumno.setApellidos(rs.getString("apellidos"));
+            alumno.setCurso(rs.getInt("curso"));
+            alumno.setCasa(rs.getString("casa"));
+            alumno.setPatronus(rs.getString("patronus"));
+        }
+
+        return new Entrada(rs.getLong("id"), TipoBaseDatos.valueOf(rs.getString("destino")),
+                new OperacionAlumno(tipo, id, alumno), rs.getLong("creado"), rs.getInt("intentos"));
+    }
+}
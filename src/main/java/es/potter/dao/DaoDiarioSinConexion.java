@@ -0,0 +1,341 @@
+package es.potter.dao;
+
+import es.potter.database.ConexionFactory;
+import es.potter.database.GestorEsquema;
+import es.potter.database.TipoBaseDatos;
+import es.potter.model.Alumno;
+import es.potter.model.OperacionAlumno;
+import es.potter.model.TipoOperacion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * DaoDiarioSinConexion guarda en SQLite las escrituras hechas mientras el MASTER no responde
+ * y las reenvía al MASTER cuando vuelve.
+ * FUNCIONAMIENTO:
+ * - Cada escritura se aplica en la tabla alumnos de SQLite y se anota en el diario en la misma
+ *   transacción, junto con la huella que tenía el alumno en SQLite antes del cambio (huella base)
+ * - Al reenviar, la entrada se aplica en el MASTER si el alumno sigue como estaba (su huella coincide
+ *   con la base) o si su última versión en el MASTER es anterior a la entrada: SQLite es una réplica
+ *   y puede ir atrasada, así que una huella distinta no basta para hablar de conflicto
+ * - Solo es conflicto si el MASTER registró un cambio del alumno (alumnos_cambios) después de la
+ *   entrada; entonces gana el MASTER y la entrada queda marcada en el diario para revisarla.
+ *   Las fechas son las de cada equipo, así que un reloj muy desajustado puede confundir el orden
+ * - Si el MASTER ya tiene el resultado de la entrada (un reenvío anterior que no llegó a borrarse
+ *   del diario), se da por aplicada sin volver a escribirla
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class DaoDiarioSinConexion {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(DaoDiarioSinConexion.class);
+
+    /** Tabla del diario en SQLite */
+    private static final String TABLA = GestorEsquema.TABLA_DIARIO;
+
+    /**
+     * Escritura anotada en el diario.
+     *
+     * @param seq posición en el diario (creciente)
+     * @param operacion operación hecha sin conexión
+     * @param huellaBase huella del alumno en SQLite antes de la operación
+     * @param creado instante de la operación (ms)
+     */
+    public record Entrada(long seq, OperacionAlumno operacion, long huellaBase, long creado) {}
+
+    /**
+     * Resultado de reenviar un lote del diario al MASTER.
+     *
+     * @param aplicadas operaciones que quedaron en el MASTER (aplicadas ahora o ya presentes)
+     * @param conflictos entradas descartadas porque el MASTER cambió el alumno entretanto
+     */
+    public record Reenvio(List<OperacionAlumno> aplicadas, int conflictos) {}
+
+    /**
+     * Aplica operaciones en SQLite y las anota en el diario, todas en una transacción.
+     *
+     * @param operaciones operaciones a guardar, en orden; las altas deben llevar ya el ID asignado
+     * @return CompletableFuture con true si quedaron guardadas
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Boolean> registrar(List<OperacionAlumno> operaciones) {
+        String sql = "INSERT INTO " + TABLA
+                + " (operacion, id_alumno, nombre, apellidos, curso, casa, patronus, huella_base, creado)"
+                + " VALUES (?,?,?,?,?,?,?,?,?)";
+
+        return ConexionFactory.getConnectionAsync(TipoBaseDatos.SQLITE).thenApply(conn -> {
+            try (conn) {
+                conn.setAutoCommit(false);
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    long ahora = System.currentTimeMillis();
+                    for (OperacionAlumno operacion : operaciones) {
+                        long base = DaoAlumno.huellaActual(conn, operacion.getId());
+                        DaoAlumno.aplicarEnReplica(conn, operacion, TipoBaseDatos.SQLITE);
+
+                        asignarOperacion(stmt, operacion);
+                        stmt.setLong(8, base);
+                        stmt.setLong(9, ahora);
+                        stmt.executeUpdate();
+                    }
+                    conn.commit();
+                    logger.info("{} operaciones guardadas en SQLite y anotadas en el diario sin conexión",
+                            operaciones.size());
+                    return true;
+                } catch (SQLException e) {
+                    conn.rollback();
+                    logger.error("Error anotando {} operaciones en el diario sin conexión: {}",
+                            operaciones.size(), e.getMessage());
+                    return false;
+                }
+            } catch (SQLException e) {
+                logger.error("Error en la conexión con SQLite al anotar en el diario: {}", e.getMessage());
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Carga las primeras entradas del diario pendientes de reenviar (sin conflicto), en orden.
+     *
+     * @param limite número máximo de entradas
+     * @return CompletableFuture con las entradas
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<List<Entrada>> cargarPendientes(int limite) {
+        String sql = "SELECT seq, operacion, id_alumno, nombre, apellidos, curso, casa, patronus, huella_base, creado"
+                + " FROM " + TABLA + " WHERE conflicto = 0 ORDER BY seq LIMIT ?";
+
+        return ConexionFactory.getConnectionAsync(TipoBaseDatos.SQLITE).thenApply(conn -> {
+            List<Entrada> entradas = new ArrayList<>();
+
+            try (conn; PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setInt(1, limite);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        entradas.add(mapearEntrada(rs));
+                    }
+                }
+            } catch (SQLException e) {
+                logger.error("Error leyendo el diario sin conexión: {}", e.getMessage());
+                throw new RuntimeException(e);
+            }
+            return entradas;
+        });
+    }
+
+    /**
+     * Cuenta las entradas del diario pendientes de reenviar.
+     *
+     * @return CompletableFuture con el número de entradas sin conflicto
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Integer> contarPendientes() {
+        String sql = "SELECT COUNT(*) FROM " + TABLA + " WHERE conflicto = 0";
+
+        return ConexionFactory.getConnectionAsync(TipoBaseDatos.SQLITE).thenApply(conn -> {
+            try (conn; PreparedStatement stmt = conn.prepareStatement(sql); ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            } catch (SQLException e) {
+                logger.error("Error contando el diario sin conexión: {}", e.getMessage());
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Reenvía un lote del diario al MASTER en una transacción, detectando conflictos,
+     * y después lo retira del diario (las aplicadas se borran, los conflictos se marcan).
+     *
+     * @param entradas entradas a reenviar, en orden
+     * @return CompletableFuture con lo aplicado y los conflictos. Se completa excepcionalmente
+     *         si no se pudo conectar con el MASTER o la transacción falló.
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Reenvio> reenviar(List<Entrada> entradas) {
+        return ConexionFactory.getConnectionAsync(TipoBaseDatos.MARIADB).thenApply(conn -> {
+            List<OperacionAlumno> aplicadas = new ArrayList<>();
+            List<Long> resueltas = new ArrayList<>();
+            List<Long> conflictos = new ArrayList<>();
+
+            try (conn) {
+                conn.setAutoCommit(false);
+                try {
+                    for (Entrada entrada : entradas) {
+                        OperacionAlumno operacion = entrada.operacion();
+                        long actual = DaoAlumno.huellaActual(conn, operacion.getId());
+
+                        if (actual == huellaResultado(operacion)) {
+                            // Ya estaba aplicada (reenvío repetido o mismo cambio hecho en otro sitio)
+                            aplicadas.add(operacion);
+                            resueltas.add(entrada.seq());
+                        } else if (actual == entrada.huellaBase()
+                                || !cambiadoDesde(conn, operacion.getId(), entrada.creado())) {
+                            // Sin cambios en el MASTER desde la escritura: la diferencia era retraso de SQLite
+                            DaoAlumno.ejecutarOperacion(conn, operacion, TipoBaseDatos.MARIADB);
+                            aplicadas.add(operacion);
+                            resueltas.add(entrada.seq());
+                        } else {
+                            logger.warn("Conflicto al reenviar {}: el alumno cambió en el MASTER después, se conserva el del MASTER",
+                                    operacion);
+                            conflictos.add(entrada.seq());
+                        }
+                    }
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                }
+            } catch (SQLException e) {
+                logger.error("Error reenviando el diario sin conexión al MASTER: {}", e.getMessage());
+                throw new RuntimeException(e);
+            }
+
+            retirar(resueltas, conflictos);
+            return new Reenvio(aplicadas, conflictos.size());
+        });
+    }
+
+    /*-------------------------------------------*/
+    /*            MÉTODOS PRIVADOS               */
+    /*-------------------------------------------*/
+
+    /**
+     * Borra del diario las entradas aplicadas y marca las que tuvieron conflicto.
+     * Si falla, las entradas se volverán a reenviar y se reconocerán como ya aplicadas.
+     *
+     * @param resueltas posiciones de las entradas aplicadas
+     * @param conflictos posiciones de las entradas en conflicto
+     *
+     * @author Wara
+     */
+    private static void retirar(List<Long> resueltas, List<Long> conflictos) {
+        try (Connection conn = ConexionFactory.getConnection(TipoBaseDatos.SQLITE);
+             PreparedStatement borrar = conn.prepareStatement("DELETE FROM " + TABLA + " WHERE seq = ?");
+             PreparedStatement marcar = conn.prepareStatement("UPDATE " + TABLA + " SET conflicto = 1 WHERE seq = ?")) {
+            conn.setAutoCommit(false);
+            for (Long seq : resueltas) {
+                borrar.setLong(1, seq);
+                borrar.addBatch();
+            }
+            for (Long seq : conflictos) {
+                marcar.setLong(1, seq);
+                marcar.addBatch();
+            }
+            borrar.executeBatch();
+            marcar.executeBatch();
+            conn.commit();
+        } catch (SQLException e) {
+            logger.warn("No se pudo retirar del diario un lote ya reenviado: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Comprueba si el MASTER registró algún cambio de un alumno a partir de un instante.
+     *
+     * @param conn conexión con el MASTER
+     * @param id ID del alumno
+     * @param desde instante (ms)
+     * @return true si hay algún cambio del alumno en alumnos_cambios desde ese instante
+     * @throws SQLException si falla la consulta
+     *
+     * @author Wara
+     */
+    private static boolean cambiadoDesde(Connection conn, String id, long desde) throws SQLException {
+        String sql = "SELECT 1 FROM " + GestorEsquema.TABLA_CAMBIOS + " WHERE id_alumno = ? AND fecha >= ? LIMIT 1";
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, id);
+            stmt.setLong(2, desde);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    /**
+     * Calcula la huella que tendrá el alumno en el MASTER tras aplicar la operación.
+     *
+     * @param operacion operación
+     * @return huella resultante, o {@link DaoHuellas#SIN_HUELLA} si es una baja
+     *
+     * @author Wara
+     */
+    private static long huellaResultado(OperacionAlumno operacion) {
+        if (operacion.getTipo() == TipoOperacion.ELIMINAR) {
+            return DaoHuellas.SIN_HUELLA;
+        }
+        return DaoAlumno.copiarConId(operacion.getAlumno(), operacion.getId()).calcularHuella();
+    }
+
+    /**
+     * Asigna los 7 primeros parámetros de una operación (tipo, ID y datos del alumno).
+     *
+     * @param stmt sentencia preparada
+     * @param operacion operación a guardar
+     * @throws SQLException Si falla la asignación
+     *
+     * @author Wara
+     */
+    private static void asignarOperacion(PreparedStatement stmt, OperacionAlumno operacion) throws SQLException {
+        Alumno alumno = operacion.getAlumno();
+        stmt.setString(1, operacion.getTipo().name());
+        stmt.setString(2, operacion.getId());
+        if (alumno != null) {
+            stmt.setString(3, alumno.getNombre());
+            stmt.setString(4, alumno.getApellidos());
+            stmt.setInt(5, alumno.getCurso());
+            stmt.setString(6, alumno.getCasa());
+            stmt.setString(7, alumno.getPatronus());
+        } else {
+            stmt.setNull(3, Types.VARCHAR);
+            stmt.setNull(4, Types.VARCHAR);
+            stmt.setNull(5, Types.INTEGER);
+            stmt.setNull(6, Types.VARCHAR);
+            stmt.setNull(7, Types.VARCHAR);
+        }
+    }
+
+    /**
+     * Crea una entrada a partir de la fila actual del ResultSet.
+     *
+     * @param rs ResultSet posicionado en una fila del diario
+     * @return entrada mapeada
+     * @throws SQLException Sí ocurre error leyendo datos
+     *
+     * @author Wara
+     */
+    private static Entrada mapearEntrada(ResultSet rs) throws SQLException {
+        String id = rs.getString("id_alumno");
+        TipoOperacion tipo = TipoOperacion.valueOf(rs.getString("operacion"));
+
+        Alumno alumno = null;
+        if (rs.getString("nombre") != null) {
+            alumno = new Alumno();
+            alumno.setId(id);
+            alumno.setNombre(rs.getString("nombre"));
+            alumno.setApellidos(rs.getString("apellidos"));
+            alumno.setCurso(rs.getInt("curso"));
+            alumno.setCasa(rs.getString("casa"));
+            alumno.setPatronus(rs.getString("patronus"));
+        }
+
+        return new Entrada(rs.getLong("seq"), new OperacionAlumno(tipo, id, alumno),
+                rs.getLong("huella_base"), rs.getLong("creado"));
+    }
+}
@@ -0,0 +1,131 @@
+package es.potter.dao;
+
+import es.potter.database.ConexionFactory;
+import es.potter.database.GestorEsquema;
+import es.potter.database.TipoBaseDatos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * DaoHuellas calcula en SQL resúmenes por cubos de la tabla alumnos para comparar réplicas.
+ * CUBOS:
+ * - Los IDs tienen el formato XXX-xxxxxxxx; la parte hexadecimal reparte los alumnos de forma uniforme
+ * - Un cubo de nivel N agrupa los IDs cuyos N primeros caracteres hexadecimales coinciden
+ * - El resumen de un cubo es el número de filas y la suma de sus huellas (columna huella)
+ * Solo viajan por la red unas pocas filas de resumen; las filas completas se piden únicamente
+ * para los cubos que no coinciden.
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-05
+ */
+public class DaoHuellas {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(DaoHuellas.class);
+
+    /** Posición (1-based) del primer carácter hexadecimal del ID, tras "XXX-" */
+    private static final int INICIO_HEX = 5;
+
+    /** Valor usado cuando una fila no tiene huella calculada */
+    public static final long SIN_HUELLA = -1;
+
+    /**
+     * Resumen de un cubo: número de filas y suma de huellas.
+     *
+     * @param filas número de alumnos del cubo
+     * @param suma suma de las huellas de esos alumnos
+     */
+    public record Resumen(long filas, long suma) {}
+
+    /**
+     * Calcula los resúmenes de los subcubos de un cubo.
+     *
+     * @param tipo base de datos a resumir
+     * @param casa casa por la que filtrar sin distinguir mayúsculas, o null para todos los alumnos
+     * @param prefijo prefijo hexadecimal del cubo padre ("" para la raíz)
+     * @return CompletableFuture con el resumen de cada subcubo, indexado por su prefijo
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Map<String, Resumen>> resumirCubos(TipoBaseDatos tipo, String casa, String prefijo) {
+        int nivel = prefijo.length() + 1;
+        String cubo = "SUBSTR(id, " + INICIO_HEX + ", " + nivel + ")";
+        String sql = "SELECT " + cubo + " AS cubo, COUNT(*) AS filas, SUM(" + GestorEsquema.COLUMNA_HUELLA + ") AS suma"
+                + " FROM alumnos WHERE 1 = 1"
+                + (casa != null ? " AND UPPER(casa) = ?" : "")
+                + (!prefijo.isEmpty() ? " AND SUBSTR(id, " + INICIO_HEX + ", " + prefijo.length() + ") = ?" : "")
+                + " GROUP BY " + cubo;
+
+        return ConexionFactory.getConnectionAsync(tipo).thenApply(conn -> {
+            Map<String, Resumen> resumenes = new HashMap<>();
+
+            try (conn; PreparedStatement stmt = conn.prepareStatement(sql)) {
+                int i = 1;
+                if (casa != null) {
+                    stmt.setString(i++, casa.toUpperCase(Locale.ROOT));
+                }
+                if (!prefijo.isEmpty()) {
+                    stmt.setString(i, prefijo);
+                }
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        resumenes.put(rs.getString("cubo"), new Resumen(rs.getLong("filas"), rs.getLong("suma")));
+                    }
+                }
+                logger.debug("{}: {} cubos de nivel {} bajo '{}'", tipo, resumenes.size(), nivel, prefijo);
+            } catch (SQLException e) {
+                logger.error("Error resumiendo cubos en {}: {}", tipo, e.getMessage());
+                throw new RuntimeException(e);
+            }
+            return resumenes;
+        });
+    }
+
+    /**
+     * Obtiene el ID y la huella de cada alumno de un cubo (hoja del árbol).
+     *
+     * @param tipo base de datos
+     * @param casa casa por la que filtrar sin distinguir mayúsculas, o null para todos los alumnos
+     * @param prefijo prefijo hexadecimal del cubo
+     * @return CompletableFuture con la huella de cada ID ({@link #SIN_HUELLA} si no está calculada)
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Map<String, Long>> huellasDeCubo(TipoBaseDatos tipo, String casa, String prefijo) {
+        String sql = "SELECT id, " + GestorEsquema.COLUMNA_HUELLA + " FROM alumnos"
+                + " WHERE SUBSTR(id, " + INICIO_HEX + ", " + prefijo.length() + ") = ?"
+                + (casa != null ? " AND UPPER(casa) = ?" : "");
+
+        return ConexionFactory.getConnectionAsync(tipo).thenApply(conn -> {
+            Map<String, Long> huellas = new HashMap<>();
+
+            try (conn; PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setString(1, prefijo);
+                if (casa != null) {
+                    stmt.setString(2, casa.toUpperCase(Locale.ROOT));
+                }
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        long huella = rs.getLong(2);
+                        huellas.put(rs.getString(1), rs.wasNull() ? SIN_HUELLA : huella);
+                    }
+                }
+            } catch (SQLException e) {
+                logger.error("Error leyendo huellas del cubo '{}' en {}: {}", prefijo, tipo, e.getMessage());
+                throw new RuntimeException(e);
+            }
+            return huellas;
+        });
+    }
+}
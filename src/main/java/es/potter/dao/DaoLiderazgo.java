@@ -0,0 +1,260 @@
+package es.potter.dao;
+
+import es.potter.database.ConexionFactory;
+import es.potter.database.GestorEsquema;
+import es.potter.database.TipoBaseDatos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * DaoLiderazgo gestiona en el MASTER el arrendamiento (lease) del líder de un trabajo de fondo.
+ * FUNCIONAMIENTO:
+ * - Cada trabajo tiene una fila en lider_replicacion con su titular, su token y su vencimiento
+ * - Una instancia toma el arrendamiento si está libre o vencido; al tomarlo el token crece en uno
+ * - El titular lo renueva con cada latido; si deja de hacerlo, vence y otra instancia lo toma
+ * - Los vencimientos se calculan con el reloj del MASTER, así que no importa la hora de cada equipo
+ * - Las demás instancias pueden dejar peticiones (por ejemplo, una sincronización completa) que
+ *   el líder atiende y marca como atendidas con su resultado
+ * El token sirve de "fencing token": las réplicas guardan el último que escribió en ellas
+ * (ver {@link DaoCambios#setTokenLider(long)}) y rechazan a un líder anterior.
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class DaoLiderazgo {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(DaoLiderazgo.class);
+
+    /** Valor devuelto cuando no se obtuvo el arrendamiento */
+    public static final long SIN_TOKEN = -1;
+
+    /**
+     * Estado del arrendamiento de un trabajo visto desde cualquier instancia.
+     *
+     * @param titular instancia que tiene o tuvo el arrendamiento, o null si nunca lo tuvo nadie
+     * @param token token del último arrendamiento concedido
+     * @param vigente true si el arrendamiento no ha vencido
+     * @param progreso último progreso publicado por el líder, o null
+     * @param peticion número de la última petición dejada por cualquier instancia
+     * @param atendida número de la última petición atendida por el líder
+     * @param exitoAtendida resultado de la última petición atendida
+     *
+     * @author Wara
+     */
+    public record Estado(String titular, long token, boolean vigente, String progreso,
+                         long peticion, long atendida, boolean exitoAtendida) {}
+
+    /**
+     * Intenta tomar el arrendamiento de un trabajo.
+     *
+     * @param trabajo nombre del trabajo
+     * @param titular identificador de esta instancia
+     * @param duracionMs duración del arrendamiento
+     * @return CompletableFuture con el token obtenido, o {@link #SIN_TOKEN} si lo tiene otra instancia
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Long> adquirir(String trabajo, String titular, long duracionMs) {
+        String crear = "INSERT IGNORE INTO " + GestorEsquema.TABLA_LIDER + " (trabajo, expira) VALUES (?, NOW(3))";
+        String tomar = "UPDATE " + GestorEsquema.TABLA_LIDER
+                + " SET titular = ?, token = token + 1, expira = DATE_ADD(NOW(3), INTERVAL ? MICROSECOND)"
+                + " WHERE trabajo = ? AND (titular IS NULL OR expira < NOW(3))";
+        String leer = "SELECT token FROM " + GestorEsquema.TABLA_LIDER + " WHERE trabajo = ? AND titular = ?";
+
+        return ConexionFactory.getConnectionAsync(TipoBaseDatos.MARIADB).thenApply(conn -> {
+            try (conn) {
+                try (PreparedStatement stmt = conn.prepareStatement(crear)) {
+                    stmt.setString(1, trabajo);
+                    stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(tomar)) {
+                    stmt.setString(1, titular);
+                    stmt.setLong(2, duracionMs * 1000);
+                    stmt.setString(3, trabajo);
+                    if (stmt.executeUpdate() == 0) {
+                        return SIN_TOKEN;
+                    }
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(leer)) {
+                    stmt.setString(1, trabajo);
+                    stmt.setString(2, titular);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        return rs.next() ? rs.getLong(1) : SIN_TOKEN;
+                    }
+                }
+            } catch (SQLException e) {
+                logger.error("Error tomando el arrendamiento de {}: {}", trabajo, e.getMessage());
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Renueva el arrendamiento de un trabajo y publica el progreso del líder.
+     *
+     * @param trabajo nombre del trabajo
+     * @param titular identificador de esta instancia
+     * @param token token del arrendamiento que se renueva
+     * @param duracionMs nueva duración desde ahora
+     * @param progreso texto con el progreso del líder (se recorta a 255 caracteres)
+     * @return CompletableFuture con true si se renovó; false si ya no es de esta instancia
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Boolean> renovar(String trabajo, String titular, long token, long duracionMs,
+                                                     String progreso) {
+        String sql = "UPDATE " + GestorEsquema.TABLA_LIDER
+                + " SET expira = DATE_ADD(NOW(3), INTERVAL ? MICROSECOND), progreso = ?"
+                + " WHERE trabajo = ? AND titular = ? AND token = ? AND expira >= NOW(3)";
+
+        return ConexionFactory.getConnectionAsync(TipoBaseDatos.MARIADB).thenApply(conn -> {
+            try (conn; PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setLong(1, duracionMs * 1000);
+                stmt.setString(2, progreso != null && progreso.length() > 255 ? progreso.substring(0, 255) : progreso);
+                stmt.setString(3, trabajo);
+                stmt.setString(4, titular);
+                stmt.setLong(5, token);
+                return stmt.executeUpdate() > 0;
+            } catch (SQLException e) {
+                logger.error("Error renovando el arrendamiento de {}: {}", trabajo, e.getMessage());
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Libera el arrendamiento de un trabajo para que otra instancia lo tome sin esperar a que venza.
+     * Se ejecuta en el hilo que llama, para poder usarse al cerrar la aplicación.
+     *
+     * @param trabajo nombre del trabajo
+     * @param titular identificador de esta instancia
+     * @param token token del arrendamiento
+     *
+     * @author Wara
+     */
+    public static void liberar(String trabajo, String titular, long token) {
+        String sql = "UPDATE " + GestorEsquema.TABLA_LIDER + " SET titular = NULL, expira = NOW(3)"
+                + " WHERE trabajo = ? AND titular = ? AND token = ?";
+
+        try (Connection conn = ConexionFactory.getConnection(TipoBaseDatos.MARIADB);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, trabajo);
+            stmt.setString(2, titular);
+            stmt.setLong(3, token);
+            if (stmt.executeUpdate() > 0) {
+                logger.info("Arrendamiento de {} liberado (token {})", trabajo, token);
+            }
+        } catch (SQLException e) {
+            logger.warn("No se pudo liberar el arrendamiento de {}: {}", trabajo, e.getMessage());
+        }
+    }
+
+    /**
+     * Lee el estado del arrendamiento de un trabajo.
+     *
+     * @param trabajo nombre del trabajo
+     * @return CompletableFuture con el estado, o null si el trabajo aún no tiene fila
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Estado> leer(String trabajo) {
+        String sql = "SELECT titular, token, expira >= NOW(3) AS vigente, progreso, peticion, atendida, exito_atendida FROM "
+                + GestorEsquema.TABLA_LIDER + " WHERE trabajo = ?";
+
+        return ConexionFactory.getConnectionAsync(TipoBaseDatos.MARIADB).thenApply(conn -> {
+            try (conn; PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setString(1, trabajo);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return null;
+                    }
+                    String titular = rs.getString("titular");
+                    return new Estado(titular, rs.getLong("token"), titular != null && rs.getBoolean("vigente"),
+                            rs.getString("progreso"), rs.getLong("peticion"), rs.getLong("atendida"),
+                            rs.getBoolean("exito_atendida"));
+                }
+            } catch (SQLException e) {
+                logger.error("Error leyendo el arrendamiento de {}: {}", trabajo, e.getMessage());
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Deja una petición para el líder de un trabajo.
+     *
+     * @param trabajo nombre del trabajo
+     * @return CompletableFuture con el número de la petición, que se da por atendida cuando
+     *         {@link Estado#atendida()} lo alcanza
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Long> pedir(String trabajo) {
+        String crear = "INSERT IGNORE INTO " + GestorEsquema.TABLA_LIDER + " (trabajo, expira) VALUES (?, NOW(3))";
+        String pedir = "UPDATE " + GestorEsquema.TABLA_LIDER + " SET peticion = LAST_INSERT_ID(peticion + 1) WHERE trabajo = ?";
+
+        return ConexionFactory.getConnectionAsync(TipoBaseDatos.MARIADB).thenApply(conn -> {
+            try (conn) {
+                try (PreparedStatement stmt = conn.prepareStatement(crear)) {
+                    stmt.setString(1, trabajo);
+                    stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(pedir)) {
+                    stmt.setString(1, trabajo);
+                    stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement("SELECT LAST_INSERT_ID()");
+                     ResultSet rs = stmt.executeQuery()) {
+                    long peticion = rs.next() ? rs.getLong(1) : 0;
+                    logger.info("Petición {} dejada al líder de {}", peticion, trabajo);
+                    return peticion;
+                }
+            } catch (SQLException e) {
+                logger.error("Error dejando una petición al líder de {}: {}", trabajo, e.getMessage());
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * Marca como atendidas las peticiones hasta un número, con su resultado.
+     * Solo lo consigue el titular vigente del arrendamiento.
+     *
+     * @param trabajo nombre del trabajo
+     * @param titular identificador de esta instancia
+     * @param token token del arrendamiento
+     * @param peticion última petición atendida
+     * @param exito resultado del trabajo hecho para atenderla
+     * @return CompletableFuture con true si se marcó
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Boolean> atender(String trabajo, String titular, long token, long peticion,
+                                                     boolean exito) {
+        String sql = "UPDATE " + GestorEsquema.TABLA_LIDER + " SET atendida = ?, exito_atendida = ?"
+                + " WHERE trabajo = ? AND titular = ? AND token = ? AND atendida < ?";
+
+        return ConexionFactory.getConnectionAsync(TipoBaseDatos.MARIADB).thenApply(conn -> {
+            try (conn; PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setLong(1, peticion);
+                stmt.setBoolean(2, exito);
+                stmt.setString(3, trabajo);
+                stmt.setString(4, titular);
+                stmt.setLong(5, token);
+                stmt.setLong(6, peticion);
+                return stmt.executeUpdate() > 0;
+            } catch (SQLException e) {
+                logger.error("Error marcando peticiones atendidas de {}: {}", trabajo, e.getMessage());
+                throw new RuntimeException(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,103 @@
+package es.potter.dao;
+
+import es.potter.database.ConexionFactory;
+import es.potter.database.GestorEsquema;
+import es.potter.database.TipoBaseDatos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * DaoMapaShards guarda en el MASTER el reparto de las casas en backends, para que todos los equipos
+ * usen el mismo tras una migración (ver {@link es.potter.database.MapaShards}).
+ * FUNCIONAMIENTO:
+ * - Cada casa tiene una fila en mapa_shards con sus backends separados por comas, en orden
+ * - Se escribe entero, en una transacción, al confirmar una migración y antes de limpiar los backends antiguos
+ * - Sin filas manda la configuración de cada equipo (shard.&lt;casa&gt; en configuration.properties)
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class DaoMapaShards {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(DaoMapaShards.class);
+
+    /**
+     * Lee el reparto guardado en el MASTER.
+     *
+     * @return CompletableFuture con los backends de cada casa, vacío si nunca se guardó ninguno;
+     *         se completa excepcionalmente si no se pudo leer o tiene nombres desconocidos
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Map<TipoBaseDatos, List<TipoBaseDatos>>> leer() {
+        String sql = "SELECT casa, backends FROM " + GestorEsquema.TABLA_MAPA;
+
+        return ConexionFactory.getConnectionAsync(TipoBaseDatos.MARIADB).thenApply(conn -> {
+            Map<TipoBaseDatos, List<TipoBaseDatos>> mapa = new EnumMap<>(TipoBaseDatos.class);
+
+            try (conn; PreparedStatement stmt = conn.prepareStatement(sql); ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    List<TipoBaseDatos> backends = new ArrayList<>();
+                    for (String nombre : rs.getString("backends").split(",")) {
+                        backends.add(TipoBaseDatos.valueOf(nombre.trim()));
+                    }
+                    mapa.put(TipoBaseDatos.valueOf(rs.getString("casa")), List.copyOf(backends));
+                }
+            } catch (SQLException e) {
+                logger.error("Error leyendo el mapa de shards del MASTER: {}", e.getMessage());
+                throw new RuntimeException(e);
+            }
+            return mapa;
+        });
+    }
+
+    /**
+     * Guarda un reparto en el MASTER, sustituyendo al anterior, en una sola transacción.
+     *
+     * @param mapa backends de cada casa
+     * @return CompletableFuture con true si quedó confirmado
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Boolean> guardar(Map<TipoBaseDatos, List<TipoBaseDatos>> mapa) {
+        String sql = "INSERT INTO " + GestorEsquema.TABLA_MAPA + " (casa, backends, fecha) VALUES (?, ?, ?)"
+                + " ON DUPLICATE KEY UPDATE backends = VALUES(backends), fecha = VALUES(fecha)";
+
+        return ConexionFactory.getConnectionAsync(TipoBaseDatos.MARIADB).thenApply(conn -> {
+            try (conn) {
+                conn.setAutoCommit(false);
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    long ahora = System.currentTimeMillis();
+                    for (Map.Entry<TipoBaseDatos, List<TipoBaseDatos>> entrada : mapa.entrySet()) {
+                        stmt.setString(1, entrada.getKey().name());
+                        stmt.setString(2, entrada.getValue().stream().map(Enum::name).collect(Collectors.joining(",")));
+                        stmt.setLong(3, ahora);
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                }
+                logger.info("Mapa de shards guardado en el MASTER: {}", mapa);
+                return true;
+            } catch (SQLException e) {
+                logger.error("Error guardando el mapa de shards en el MASTER: {}", e.getMessage());
+                return false;
+            }
+        });
+    }
+}
@@ -0,0 +1,317 @@
+package es.potter.dao;
+
+import es.potter.database.ConexionFactory;
+import es.potter.database.TipoBaseDatos;
+import es.potter.util.Propiedades;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * FiltroIds mantiene en memoria un filtro de Bloom con los IDs de alumnos de cada réplica.
+ * Sirve para saber sin consultar la base que un alumno seguro que NO está en ella:
+ * al aplicar un alta en una réplica (ver {@link DaoAlumno#aplicarEnReplica}) se evita el
+ * DELETE previo cuando el ID no está en el filtro, y solo los posibles miembros pasan por él.
+ *
+ * FUNCIONAMIENTO:
+ * - El filtro de una réplica se construye la primera vez que se consulta, en segundo plano,
+ *   leyendo solo la columna id; mientras se construye todos los IDs cuentan como posibles
+ * - Cada INSERT en la réplica añade su ID al filtro (los borrados no se quitan: solo suben
+ *   un poco los falsos positivos)
+ * - Cuando se han añadido más IDs de los previstos, o alguien carga la réplica sin pasar por
+ *   {@link DaoAlumno}, el filtro se descarta y se reconstruye
+ * Un falso negativo (un ID insertado desde otra instancia de la aplicación) no rompe nada:
+ * el INSERT falla por clave duplicada y la operación se repite con el DELETE previo.
+ *
+ * CONFIGURACIÓN (opcional en configuration.properties):
+ * - filtro.ids.activo: usar los filtros (por defecto true)
+ * - filtro.ids.capacidad: IDs mínimos previstos por réplica (por defecto 10000)
+ * - filtro.ids.falsos.positivos: tasa de falsos positivos buscada en tanto por mil (por defecto 10)
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class FiltroIds {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(FiltroIds.class);
+
+    /** Indica si los filtros están activos */
+    private static final boolean ACTIVO = Boolean.parseBoolean(Propiedades.getValor("filtro.ids.activo", "true"));
+
+    /** IDs mínimos previstos por réplica */
+    private static final int CAPACIDAD = Math.max(1000, Propiedades.getEntero("filtro.ids.capacidad", 10000));
+
+    /** Tasa de falsos positivos buscada */
+    private static final double FALSOS_POSITIVOS =
+            Math.min(500, Math.max(1, Propiedades.getEntero("filtro.ids.falsos.positivos", 10))) / 1000.0;
+
+    /** Filas que se piden en cada viaje al leer los IDs */
+    private static final int FILAS_POR_LECTURA = 1000;
+
+    /** Filtro de cada réplica (en construcción o listo) */
+    private static final Map<TipoBaseDatos, Filtro> filtros = new ConcurrentHashMap<>();
+
+    /** Réplicas cuyo filtro se está construyendo */
+    private static final Set<TipoBaseDatos> enConstruccion = ConcurrentHashMap.newKeySet();
+
+    /** DELETE evitados por réplica */
+    private static final Map<TipoBaseDatos, AtomicLong> evitados = new ConcurrentHashMap<>();
+
+    /**
+     * Filtro de Bloom de una réplica. Los bits son atómicos, así que admite
+     * añadir y consultar desde varios hilos sin bloqueos.
+     *
+     * @author Wara
+     */
+    private static final class Filtro {
+
+        /** Bits del filtro */
+        private final AtomicLongArray bits;
+
+        /** Número de bits */
+        private final long tamanio;
+
+        /** Número de funciones hash */
+        private final int hashes;
+
+        /** IDs previstos; al superarlos el filtro se reconstruye */
+        private final long capacidad;
+
+        /** IDs añadidos */
+        private final AtomicLong aniadidos = new AtomicLong();
+
+        /** Indica si ya se leyeron todos los IDs de la réplica */
+        private volatile boolean listo = false;
+
+        /**
+         * Crea un filtro vacío dimensionado para una capacidad y la tasa de falsos positivos configurada.
+         *
+         * @param capacidad IDs previstos
+         *
+         * @author Wara
+         */
+        Filtro(long capacidad) {
+            this.capacidad = capacidad;
+            double ln2 = Math.log(2);
+            long m = (long) Math.ceil(-capacidad * Math.log(FALSOS_POSITIVOS) / (ln2 * ln2));
+            this.tamanio = Math.max(64, (m + 63) / 64 * 64);
+            this.hashes = (int) Math.max(1, Math.round((double) tamanio / capacidad * ln2));
+            this.bits = new AtomicLongArray((int) (tamanio / 64));
+        }
+
+        /**
+         * Añade un ID.
+         *
+         * @param id ID del alumno
+         *
+         * @author Wara
+         */
+        void aniadir(String id) {
+            long h = hash(id);
+            long h1 = h & 0xffffffffL;
+            long h2 = (h >>> 32) | 1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Math.floorMod(h1 + i * h2, tamanio);
+                int palabra = (int) (bit >>> 6);
+                long mascara = 1L << (bit & 63);
+                long actual = bits.get(palabra);
+                while ((actual & mascara) == 0 && !bits.compareAndSet(palabra, actual, actual | mascara)) {
+                    actual = bits.get(palabra);
+                }
+            }
+            aniadidos.incrementAndGet();
+        }
+
+        /**
+         * Indica si un ID puede estar en el filtro.
+         *
+         * @param id ID del alumno
+         * @return false si seguro que no se añadió
+         *
+         * @author Wara
+         */
+        boolean puedeContener(String id) {
+            long h = hash(id);
+            long h1 = h & 0xffffffffL;
+            long h2 = (h >>> 32) | 1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Math.floorMod(h1 + i * h2, tamanio);
+                if ((bits.get((int) (bit >>> 6)) & (1L << (bit & 63))) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Indica si se añadieron más IDs de los previstos.
+         *
+         * @return true si el filtro ya no garantiza la tasa de falsos positivos
+         *
+         * @author Wara
+         */
+        boolean saturado() {
+            return aniadidos.get() > capacidad;
+        }
+
+        /**
+         * Hash de 64 bits de un ID (FNV-1a con mezcla final).
+         *
+         * @param id ID del alumno
+         * @return hash
+         *
+         * @author Wara
+         */
+        private static long hash(String id) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < id.length(); i++) {
+                h ^= id.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+
+    /**
+     * Indica si un alumno puede estar en una réplica.
+     * Si el filtro de la réplica no existe lo empieza a construir en segundo plano.
+     *
+     * @param tipo réplica
+     * @param id ID del alumno
+     * @return false solo si seguro que el alumno no está; true si puede estar o aún no se sabe
+     *
+     * @author Wara
+     */
+    public static boolean puedeExistir(TipoBaseDatos tipo, String id) {
+        if (!ACTIVO || tipo == TipoBaseDatos.MARIADB) {
+            return true;
+        }
+        Filtro filtro = filtros.get(tipo);
+        if (filtro == null) {
+            construir(tipo);
+            return true;
+        }
+        if (!filtro.listo) {
+            return true;
+        }
+        if (filtro.puedeContener(id)) {
+            return true;
+        }
+        evitados.computeIfAbsent(tipo, t -> new AtomicLong()).incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Añade un ID insertado en una réplica a su filtro.
+     * Se llama antes del commit: si la transacción se deshace solo queda un falso positivo.
+     *
+     * @param tipo réplica
+     * @param id ID del alumno insertado
+     *
+     * @author Wara
+     */
+    public static void registrar(TipoBaseDatos tipo, String id) {
+        Filtro filtro = filtros.get(tipo);
+        if (filtro == null) {
+            return;
+        }
+        filtro.aniadir(id);
+        if (filtro.saturado() && filtros.remove(tipo, filtro)) {
+            logger.info("Filtro de IDs de {} saturado, se reconstruirá", tipo);
+        }
+    }
+
+    /**
+     * Descarta el filtro de una réplica, por ejemplo tras cargarla sin pasar por {@link DaoAlumno}.
+     * Se reconstruye la próxima vez que se consulte.
+     *
+     * @param tipo réplica
+     *
+     * @author Wara
+     */
+    public static void invalidar(TipoBaseDatos tipo) {
+        if (filtros.remove(tipo) != null) {
+            logger.debug("Filtro de IDs de {} descartado", tipo);
+        }
+    }
+
+    /**
+     * Obtiene cuántos DELETE se han evitado en una réplica gracias a su filtro.
+     *
+     * @param tipo réplica
+     * @return número de consultas evitadas en esta ejecución
+     *
+     * @author Wara
+     */
+    public static long getEvitados(TipoBaseDatos tipo) {
+        AtomicLong contador = evitados.get(tipo);
+        return contador == null ? 0 : contador.get();
+    }
+
+    /*-------------------------------------------*/
+    /*            MÉTODOS PRIVADOS               */
+    /*-------------------------------------------*/
+
+    /**
+     * Construye en segundo plano el filtro de una réplica leyendo sus IDs.
+     * El filtro se publica antes de leer, para que los INSERT concurrentes ya se añadan a él,
+     * pero no se consulta hasta terminar la lectura.
+     *
+     * @param tipo réplica
+     *
+     * @author Wara
+     */
+    private static void construir(TipoBaseDatos tipo) {
+        if (!enConstruccion.add(tipo)) {
+            return; // Otro hilo ya lo está construyendo
+        }
+
+        ConexionFactory.getConnectionAsync(tipo).thenAccept(conn -> {
+            Filtro filtro = null;
+            try (conn) {
+                long filas;
+                try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM alumnos")) {
+                    filas = rs.next() ? rs.getLong(1) : 0;
+                }
+                filtro = new Filtro(Math.max(CAPACIDAD, 2 * filas));
+                filtros.put(tipo, filtro);
+
+                try (PreparedStatement stmt = conn.prepareStatement("SELECT id FROM alumnos")) {
+                    stmt.setFetchSize(FILAS_POR_LECTURA);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            filtro.aniadir(rs.getString(1));
+                        }
+                    }
+                }
+                filtro.listo = true;
+                logger.info("Filtro de IDs de {} listo: {} IDs, {} bits, {} hashes",
+                        tipo, filtro.aniadidos.get(), filtro.tamanio, filtro.hashes);
+            } catch (SQLException e) {
+                if (filtro != null) {
+                    filtros.remove(tipo, filtro);
+                }
+                logger.warn("No se pudo construir el filtro de IDs de {}: {}", tipo, e.getMessage());
+            }
+        }).whenComplete((v, ex) -> {
+            enConstruccion.remove(tipo);
+            if (ex != null) {
+                logger.debug("Filtro de IDs de {} aplazado: {}", tipo, ex.getMessage());
+            }
+        });
+    }
+}
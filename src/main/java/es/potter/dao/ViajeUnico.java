@@ -0,0 +1,234 @@
+package es.potter.dao;
+
+import es.potter.database.MotorBaseDatos;
+import es.potter.database.TipoBaseDatos;
+import es.potter.util.Propiedades;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ViajeUnico junta las sentencias de una transacción en un único envío al servidor, para las
+ * bases a las que se llega con mucha latencia (VPN). En vez de setAutoCommit, una ida y vuelta
+ * por sentencia y commit, se manda todo de una vez:
+ * - MariaDB: varias sentencias separadas por ';' entre START TRANSACTION y COMMIT
+ *   (por una conexión dedicada con allowMultiQueries, ver
+ *   {@link es.potter.database.ConexionFactory#getConnectionUnEnvio})
+ * - Oracle: un bloque anónimo BEGIN ... COMMIT; END; que se deshace entero si algo falla
+ * Los demás motores (embebidos o en la red local) siguen ejecutando sentencia a sentencia.
+ *
+ * MÉTRICAS: idas y vueltas ahorradas por base de datos. Son una estimación, no una medida: se
+ * calculan frente a la ejecución clásica (una por sentencia, más setAutoCommit y commit; y unas
+ * {@value #VIAJES_CONEXION} por cada conexión que se reutiliza en lugar de abrirse).
+ *
+ * CONFIGURACIÓN (opcional en configuration.properties):
+ * - latencia.fusion: juntar las transacciones en un envío en MariaDB y Oracle (por defecto true)
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class ViajeUnico {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(ViajeUnico.class);
+
+    /** Indica si se juntan las transacciones */
+    private static final boolean ACTIVO = Boolean.parseBoolean(Propiedades.getValor("latencia.fusion", "true"));
+
+    /** Idas y vueltas que se estima que cuesta abrir una conexión (TCP, saludo y autenticación) */
+    public static final int VIAJES_CONEXION = 3;
+
+    /** Operaciones enviadas juntas por base de datos */
+    private static final Map<TipoBaseDatos, AtomicLong> operaciones = new ConcurrentHashMap<>();
+
+    /** Idas y vueltas ahorradas por base de datos (estimación) */
+    private static final Map<TipoBaseDatos, AtomicLong> ahorrados = new ConcurrentHashMap<>();
+
+    /** Base de datos destino */
+    private final TipoBaseDatos tipo;
+
+    /** Sentencias a enviar, en orden */
+    private final List<String> sentencias = new ArrayList<>();
+
+    /** Valores de los parámetros de todas las sentencias, en orden */
+    private final List<Object> valores = new ArrayList<>();
+
+    /**
+     * Crea un envío vacío para una base de datos.
+     *
+     * @param tipo base de datos destino (debe cumplir {@link #admite(TipoBaseDatos)})
+     *
+     * @author Wara
+     */
+    public ViajeUnico(TipoBaseDatos tipo) {
+        this.tipo = tipo;
+    }
+
+    /**
+     * Indica si las transacciones de una base de datos se pueden juntar en un envío.
+     *
+     * @param tipo base de datos
+     * @return true si está activo y el motor es MariaDB u Oracle
+     *
+     * @author Wara
+     */
+    public static boolean admite(TipoBaseDatos tipo) {
+        return ACTIVO && (tipo.getMotor() == MotorBaseDatos.MARIADB || tipo.getMotor() == MotorBaseDatos.ORACLE);
+    }
+
+    /**
+     * Añade una sentencia con sus parámetros.
+     *
+     * @param sql sentencia con parámetros '?' y sin ';' final
+     * @param parametros valores de los parámetros (null se envía como VARCHAR nulo)
+     *
+     * @author Wara
+     */
+    void aniadir(String sql, Object... parametros) {
+        sentencias.add(sql);
+        Collections.addAll(valores, parametros);
+    }
+
+    /**
+     * Envía todas las sentencias en una transacción y una sola ida y vuelta.
+     * La conexión debe estar en autocommit: la transacción la abre y confirma el propio envío.
+     * Si falla, no queda nada aplicado.
+     *
+     * @param conn conexión abierta en autocommit
+     * @param numOperaciones operaciones de alumnos que representan las sentencias (para las métricas)
+     * @throws SQLException si falla alguna sentencia
+     *
+     * @author Wara
+     */
+    void ejecutar(Connection conn, int numOperaciones) throws SQLException {
+        if (sentencias.isEmpty()) {
+            return;
+        }
+        String sql = tipo.getMotor() == MotorBaseDatos.ORACLE
+                ? "BEGIN " + String.join("; ", sentencias) + "; COMMIT; END;"
+                : "START TRANSACTION; " + String.join("; ", sentencias) + "; COMMIT";
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            enlazar(stmt, valores);
+            stmt.execute();
+        } catch (SQLException e) {
+            deshacer(conn);
+            throw e;
+        }
+
+        // Estimación frente al clásico: setAutoCommit + una por sentencia + commit
+        long ahorro = sentencias.size() + 2 - 1;
+        contador(operaciones, tipo).addAndGet(numOperaciones);
+        contador(ahorrados, tipo).addAndGet(ahorro);
+        logger.debug("{} sentencias enviadas juntas a {} (unas {} idas y vueltas ahorradas, estimadas)", sentencias.size(), tipo, ahorro);
+    }
+
+    /**
+     * Enlaza valores con los parámetros de una sentencia, en orden.
+     *
+     * @param stmt sentencia preparada
+     * @param valores valores; null se enlaza como VARCHAR nulo
+     * @throws SQLException si falla el enlace
+     *
+     * @author Wara
+     */
+    static void enlazar(PreparedStatement stmt, List<Object> valores) throws SQLException {
+        for (int i = 0; i < valores.size(); i++) {
+            Object valor = valores.get(i);
+            if (valor == null) {
+                stmt.setNull(i + 1, Types.VARCHAR);
+            } else {
+                stmt.setObject(i + 1, valor);
+            }
+        }
+    }
+
+    /**
+     * Registra que se reutilizó una conexión abierta en lugar de abrir otra (para la estimación).
+     *
+     * @param tipo base de datos
+     * @param validada true si hubo que comprobarla antes (una ida y vuelta)
+     *
+     * @author Wara
+     */
+    static void registrarConexionReutilizada(TipoBaseDatos tipo, boolean validada) {
+        contador(ahorrados, tipo).addAndGet(VIAJES_CONEXION - (validada ? 1 : 0));
+    }
+
+    /**
+     * Obtiene la estimación de idas y vueltas ahorradas en una base de datos desde el arranque.
+     * No se mide la red: se cuenta a partir de las sentencias de cada envío.
+     *
+     * @param tipo base de datos
+     * @return idas y vueltas ahorradas (estimación)
+     *
+     * @author Wara
+     */
+    public static long getViajesAhorradosEstimados(TipoBaseDatos tipo) {
+        AtomicLong contador = ahorrados.get(tipo);
+        return contador == null ? 0 : contador.get();
+    }
+
+    /**
+     * Obtiene la estimación de idas y vueltas ahorradas de media por cada operación enviada junta.
+     *
+     * @param tipo base de datos
+     * @return ahorro medio estimado por operación, o 0 si aún no hubo ninguna
+     *
+     * @author Wara
+     */
+    public static double getAhorroEstimadoPorOperacion(TipoBaseDatos tipo) {
+        AtomicLong contador = operaciones.get(tipo);
+        long total = contador == null ? 0 : contador.get();
+        return total == 0 ? 0.0 : (double) getViajesAhorradosEstimados(tipo) / total;
+    }
+
+    /*-------------------------------------------*/
+    /*            MÉTODOS PRIVADOS               */
+    /*-------------------------------------------*/
+
+    /**
+     * Deshace lo que hubiera quedado a medias tras un fallo. En MariaDB las sentencias posteriores
+     * a la que falla no se ejecutan, pero la transacción queda abierta; el bloque de Oracle ya se
+     * deshace solo.
+     *
+     * @param conn conexión del envío
+     *
+     * @author Wara
+     */
+    private void deshacer(Connection conn) {
+        if (tipo.getMotor() != MotorBaseDatos.MARIADB) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ROLLBACK");
+        } catch (SQLException e) {
+            logger.error("Error deshaciendo el envío fallido en {}: {}", tipo, e.getMessage());
+        }
+    }
+
+    /**
+     * Obtiene el contador de una base de datos, creándolo la primera vez.
+     *
+     * @param contadores contadores por base de datos
+     * @param tipo base de datos
+     * @return contador
+     *
+     * @author Wara
+     */
+    private static AtomicLong contador(Map<TipoBaseDatos, AtomicLong> contadores, TipoBaseDatos tipo) {
+        return contadores.computeIfAbsent(tipo, t -> new AtomicLong());
+    }
+}
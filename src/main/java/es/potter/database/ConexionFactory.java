@@ -7,6 +7,7 @@ import org.slf4j.LoggerFactory;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Properties;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -37,34 +38,107 @@ public class ConexionFactory {
     public static CompletableFuture<Connection> getConnectionAsync(TipoBaseDatos tipo) {
         return CompletableFuture.supplyAsync(() -> {
             try {
-                String url;
-                String user;
-                String password;
-
-                // Caso especial: SQLite embebida
-                if (tipo == TipoBaseDatos.SQLITE) {
-                    url = SQLiteManager.getJdbcUrl();
-                    user = "";
-                    password = "";
-                    logger.debug("Conectando a SQLite embebida: {}", url);
-                } else {
-                    // Bases de datos remotas: leer desde properties
-                    url = Propiedades.getValor(tipo.getPrefijo() + ".url");
-                    user = Propiedades.getValor(tipo.getPrefijo() + ".user");
-                    password = Propiedades.getValor(tipo.getPrefijo() + ".password");
-                    logger.debug("Conectando a: {} ({})", tipo, url);
-                }
-
-                Connection conn = DriverManager.getConnection(url, user, password);
-                logger.info("Conexión establecida exitosamente: {}", tipo);
-                return conn;
+                return getConnection(tipo);
             } catch (Exception e) {
-                logger.error("Error al conectar con la base de datos {}", tipo, e);
                 throw new RuntimeException("Error al conectar con " + tipo, e);
             }
         });
     }
 
+    /**
+     * Obtiene una conexión de forma síncrona a la base de datos.
+     * <p>
+     * Pensado para hilos de trabajo propios (por ejemplo, el commit agrupado)
+     * que ya se ejecutan fuera del hilo de JavaFX y no necesitan otro salto asíncrono.
+     * </p>
+     *
+     * @param tipo el tipo de base de datos
+     * @return la conexión abierta
+     * @throws SQLException si no se puede establecer la conexión
+     *
+     * @author Wara
+     */
+    public static Connection getConnection(TipoBaseDatos tipo) throws SQLException {
+        return conectar(tipo, false);
+    }
+
+    /**
+     * Obtiene una conexión dedicada a los envíos de una transacción entera de una vez
+     * (ver es.potter.dao.ViajeUnico).
+     * <p>
+     * En MariaDB se abre con allowMultiQueries para admitir varias sentencias por envío. Solo
+     * deben usarla quienes envían sentencias fijas con parámetros enlazados; el resto de la
+     * aplicación usa {@link #getConnection(TipoBaseDatos)}, que no lo admite.
+     * </p>
+     *
+     * @param tipo el tipo de base de datos
+     * @return la conexión abierta
+     * @throws SQLException si no se puede establecer la conexión
+     *
+     * @author Wara
+     */
+    public static Connection getConnectionUnEnvio(TipoBaseDatos tipo) throws SQLException {
+        return conectar(tipo, true);
+    }
+
+    /**
+     * Abre una conexión a la base de datos.
+     *
+     * @param tipo el tipo de base de datos
+     * @param unEnvio true para admitir varias sentencias por envío en MariaDB
+     * @return la conexión abierta
+     * @throws SQLException si no se puede establecer la conexión
+     *
+     * @author Wara
+     */
+    private static Connection conectar(TipoBaseDatos tipo, boolean unEnvio) throws SQLException {
+        try {
+            String url;
+            String user;
+            String password;
+
+            // Caso especial: SQLite embebida
+            if (tipo == TipoBaseDatos.SQLITE) {
+                url = SQLiteManager.getJdbcUrl();
+                user = "";
+                password = "";
+                logger.debug("Conectando a SQLite embebida: {}", url);
+            } else {
+                // Bases de datos remotas: leer desde properties (un backend puede apuntar a otro servidor)
+                String prefijo = MapaShards.prefijoConexion(tipo);
+                url = Propiedades.getValor(prefijo + ".url");
+                user = Propiedades.getValor(prefijo + ".user");
+                password = Propiedades.getValor(prefijo + ".password");
+                logger.debug("Conectando a: {} ({})", tipo, url);
+            }
+
+            Properties propiedades = new Properties();
+            if (user != null) {
+                propiedades.setProperty("user", user);
+            }
+            if (password != null) {
+                propiedades.setProperty("password", password);
+            }
+            if (tipo.getMotor() == MotorBaseDatos.MARIADB && unEnvio) {
+                // Permite enviar una transacción entera en un solo viaje (ver es.potter.dao.ViajeUnico)
+                propiedades.setProperty("allowMultiQueries", "true");
+            }
+
+            Connection conn = DriverManager.getConnection(url, propiedades);
+            logger.info("Conexión establecida exitosamente: {}", tipo);
+
+            // La primera conexión a cada base crea las tablas de replicación que falten
+            GestorEsquema.prepararUnaVez(conn, tipo);
+            return conn;
+        } catch (SQLException e) {
+            logger.error("Error al conectar con la base de datos {}", tipo, e);
+            throw e;
+        } catch (RuntimeException e) {
+            logger.error("Error al conectar con la base de datos {}", tipo, e);
+            throw new SQLException("Error al conectar con " + tipo, e);
+        }
+    }
+
     /**
      * Cierra una conexión de forma asíncrona.
      *
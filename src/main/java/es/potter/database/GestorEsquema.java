@@ -0,0 +1,418 @@
+package es.potter.database;
+
+import es.potter.model.Alumno;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Crea las tablas auxiliares de replicación que la aplicación necesita además de {@code alumnos}.
+ * TABLAS:
+ * - MASTER: alumnos_cambios (registro de cambios, una fila por insert/update/delete)
+ * - MASTER: lider_replicacion (arrendamiento del líder que ejecuta la sincronización de fondo)
+ * - MASTER: alumnos_archivo (alumnos graduados sacados de las tablas vivas, ver el archivo de alumnos)
+ * - MASTER: mapa_shards (backends de cada casa tras la última migración, ver {@link MapaShards})
+ * - SLAVES: replica_marca (último cambio del MASTER aplicado en esa réplica y token del líder que lo escribió)
+ * - SQLite: diario_sin_conexion (escrituras hechas sin conexión con el MASTER, pendientes de reenviar)
+ * COLUMNAS:
+ * - alumnos.huella en todas las bases: hash del contenido de la fila (ver {@link Alumno#calcularHuella()}).
+ *   Al conectar solo se comprueba si existe; la añade y la rellena {@link MigracionEsquema}
+ * - alumnos.modificado en el MASTER: instante (ms) de la última escritura de cada alumno, con el que
+ *   se decide qué graduados llevan tiempo sin cambios. La añade y la rellena {@link MigracionEsquema}
+ * - replica_marca.token en las réplicas: token del líder que escribió por última vez (ver el vallado de
+ *   DaoCambios). Las tablas nuevas ya la traen; a las antiguas la añade {@link MigracionEsquema}
+ * PARTICIONES:
+ * - Con {@code master.particion.casa=true}, {@link MigracionEsquema} particiona por casa la tabla alumnos
+ *   del MASTER (LIST COLUMNS, una partición por casa y otra por defecto). La clave primaria pasa a ser
+ *   (id, casa), porque MariaDB exige que incluya la columna de partición; la unicidad del ID la mantiene
+ *   la tabla alumnos_ids, donde cada alta del MASTER reserva su ID en la misma transacción.
+ *   Al conectar solo se comprueba si la tabla está particionada. Las consultas con {@code casa = ?}
+ *   solo leen la partición de esa casa
+ * Las tablas se crean la primera vez que la aplicación se conecta a cada base de datos,
+ * con el dialecto de cada motor, y solo si no existen todavía. Nada de lo que se hace al conectar
+ * reescribe ni recorre tablas con datos: eso es cosa de {@link MigracionEsquema}.
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-04
+ */
+public class GestorEsquema {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(GestorEsquema.class);
+
+    /** Nombre de la tabla de cambios del MASTER */
+    public static final String TABLA_CAMBIOS = "alumnos_cambios";
+
+    /** Nombre de la tabla de marcas de agua de cada réplica */
+    public static final String TABLA_MARCA = "replica_marca";
+
+    /** Nombre de la tabla del arrendamiento de líder (solo MASTER) */
+    public static final String TABLA_LIDER = "lider_replicacion";
+
+    /** Nombre de la tabla de alumnos archivados (solo MASTER) */
+    public static final String TABLA_ARCHIVO = "alumnos_archivo";
+
+    /** Nombre de la tabla con el reparto de las casas en backends (solo MASTER) */
+    public static final String TABLA_MAPA = "mapa_shards";
+
+    /** Nombre de la columna de replica_marca con el token del líder que escribió la marca */
+    public static final String COLUMNA_TOKEN = "token";
+
+    /** Nombre de la tabla de escrituras hechas sin conexión con el MASTER (solo SQLite) */
+    public static final String TABLA_DIARIO = "diario_sin_conexion";
+
+    /** Nombre de la columna con la huella del contenido de cada alumno */
+    public static final String COLUMNA_HUELLA = "huella";
+
+    /** Nombre de la columna del MASTER con el instante de la última escritura de cada alumno */
+    public static final String COLUMNA_MODIFICADO = "modificado";
+
+    /** Nombre de la columna de alumnos_cambios con la casa que tenía el alumno antes del cambio */
+    public static final String COLUMNA_CASA_ANTERIOR = "casa_anterior";
+
+    /** Nombre de la tabla con los IDs reservados por las altas del MASTER particionado */
+    public static final String TABLA_IDS = "alumnos_ids";
+
+    /** Indica si la tabla alumnos del MASTER está particionada por casa */
+    private static volatile boolean masterParticionado = false;
+
+    /** Indica si el MASTER tiene la tabla alumnos_ids y cada alta debe reservar en ella su ID */
+    private static volatile boolean masterConReservaIds = false;
+
+    /** Indica si la tabla alumnos del MASTER tiene la columna modificado */
+    private static volatile boolean masterConModificado = false;
+
+    /** Indica si la tabla alumnos_cambios del MASTER tiene la columna casa_anterior */
+    private static volatile boolean masterConCasaAnterior = false;
+
+    /** Bases de datos ya preparadas en esta ejecución */
+    private static final Set<TipoBaseDatos> preparadas = ConcurrentHashMap.newKeySet();
+
+    /** Cerrojo de cada base de datos, para que preparar una no haga esperar a las demás */
+    private static final Map<TipoBaseDatos, Object> cerrojos = new ConcurrentHashMap<>();
+
+    /** Bases de datos cuya tabla alumnos tiene la columna huella */
+    private static final Set<TipoBaseDatos> conHuella = ConcurrentHashMap.newKeySet();
+
+    /** Réplicas cuya tabla replica_marca tiene la columna token */
+    private static final Set<TipoBaseDatos> conToken = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Prepara las tablas auxiliares de una base de datos si todavía no se hizo en esta ejecución.
+     * Debe llamarse con autocommit activo: en MariaDB el DDL confirma implícitamente
+     * la transacción en curso. Los errores se registran pero no impiden usar la conexión.
+     *
+     * @param conn conexión recién abierta
+     * @param tipo base de datos de la conexión
+     *
+     * @author Wara
+     */
+    public static void prepararUnaVez(Connection conn, TipoBaseDatos tipo) {
+        if (preparadas.contains(tipo)) {
+            return;
+        }
+        synchronized (cerrojos.computeIfAbsent(tipo, t -> new Object())) {
+            if (preparadas.contains(tipo)) {
+                return;
+            }
+            try {
+                preparar(conn, tipo);
+            } catch (SQLException e) {
+                logger.warn("No se pudieron preparar las tablas de replicación en {}: {}", tipo, e.getMessage());
+            }
+            try {
+                if (existeColumna(conn, "alumnos", COLUMNA_HUELLA)) {
+                    conHuella.add(tipo);
+                } else {
+                    logger.info("{} no tiene la columna {}: ejecuta MigracionEsquema para añadirla", tipo, COLUMNA_HUELLA);
+                }
+            } catch (SQLException e) {
+                logger.warn("No se pudo comprobar la columna huella en {}: {}", tipo, e.getMessage());
+            }
+            try {
+                if (tipo == TipoBaseDatos.MARIADB) {
+                    masterParticionado = estaParticionado(conn);
+                    masterConReservaIds = existeTabla(conn, TABLA_IDS);
+                    masterConModificado = existeColumna(conn, "alumnos", COLUMNA_MODIFICADO);
+                    masterConCasaAnterior = existeColumna(conn, TABLA_CAMBIOS, COLUMNA_CASA_ANTERIOR);
+                    if (!masterConCasaAnterior) {
+                        logger.info("El MASTER no tiene la columna {}: ejecuta MigracionEsquema para que los backends"
+                                + " de las casas vean las bajas y los cambios de casa", COLUMNA_CASA_ANTERIOR);
+                    }
+                    if (!masterConModificado) {
+                        logger.info("El MASTER no tiene la columna {}: ejecuta MigracionEsquema para poder archivar",
+                                COLUMNA_MODIFICADO);
+                    }
+                    if (masterParticionado && !masterConReservaIds) {
+                        logger.warn("El MASTER está particionado sin la tabla {}: ejecuta MigracionEsquema para que"
+                                + " los IDs vuelvan a ser únicos", TABLA_IDS);
+                    }
+                }
+            } catch (SQLException e) {
+                logger.warn("No se pudo comprobar si la tabla alumnos del MASTER está particionada: {}", e.getMessage());
+            }
+            try {
+                if (tipo != TipoBaseDatos.MARIADB) {
+                    if (existeColumna(conn, TABLA_MARCA, COLUMNA_TOKEN)) {
+                        conToken.add(tipo);
+                    } else {
+                        logger.info("{} no tiene la columna {} en {}: ejecuta MigracionEsquema para añadirla",
+                                tipo, COLUMNA_TOKEN, TABLA_MARCA);
+                    }
+                }
+            } catch (SQLException e) {
+                logger.warn("No se pudo comprobar la columna token en {}: {}", tipo, e.getMessage());
+            }
+            preparadas.add(tipo);
+        }
+    }
+
+    /**
+     * Indica si la tabla alumnos de una base de datos tiene la columna huella.
+     * Las escrituras solo rellenan la huella cuando la columna existe, para que una base
+     * sin migrar siga funcionando como antes.
+     *
+     * @param tipo base de datos
+     * @return true si la columna huella está disponible
+     *
+     * @author Wara
+     */
+    public static boolean tieneHuella(TipoBaseDatos tipo) {
+        return conHuella.contains(tipo);
+    }
+
+    /**
+     * Indica si la tabla replica_marca de una réplica tiene la columna token.
+     * Sin ella las marcas se escriben sin comprobar el token del líder.
+     *
+     * @param tipo base de datos
+     * @return true si la columna token está disponible
+     *
+     * @author Wara
+     */
+    public static boolean tieneToken(TipoBaseDatos tipo) {
+        return conToken.contains(tipo);
+    }
+
+    /**
+     * Indica si la tabla alumnos del MASTER está particionada por casa, de modo que filtrar
+     * por casa reduce la lectura a una sola partición.
+     *
+     * @return true si el MASTER ya se preparó y está particionado
+     *
+     * @author Wara
+     */
+    public static boolean isMasterParticionado() {
+        return masterParticionado;
+    }
+
+    /**
+     * Indica si cada alta en el MASTER debe reservar su ID en alumnos_ids, la tabla que mantiene
+     * los IDs únicos cuando la clave primaria de alumnos es (id, casa).
+     *
+     * @return true si el MASTER ya se preparó y tiene la tabla alumnos_ids
+     *
+     * @author Wara
+     */
+    public static boolean isMasterConReservaIds() {
+        return masterConReservaIds;
+    }
+
+    /**
+     * Indica si la tabla alumnos del MASTER tiene la columna modificado. Las escrituras del MASTER
+     * solo la rellenan cuando existe, y sin ella no se archiva ningún alumno.
+     *
+     * @return true si el MASTER ya se preparó y tiene la columna modificado
+     *
+     * @author Wara
+     */
+    public static boolean isMasterConModificado() {
+        return masterConModificado;
+    }
+
+    /**
+     * Indica si la tabla alumnos_cambios del MASTER tiene la columna casa_anterior. Sin ella los
+     * backends de las casas solo leen los cambios de los alumnos que quedan en su casa.
+     *
+     * @return true si el MASTER ya se preparó y tiene la columna casa_anterior
+     *
+     * @author Wara
+     */
+    public static boolean isMasterConCasaAnterior() {
+        return masterConCasaAnterior;
+    }
+
+    /**
+     * Crea las tablas auxiliares que falten en una base de datos.
+     *
+     * @param conn conexión abierta
+     * @param tipo base de datos de la conexión
+     * @throws SQLException si falla la consulta de metadatos o el DDL
+     *
+     * @author Wara
+     */
+    private static void preparar(Connection conn, TipoBaseDatos tipo) throws SQLException {
+        MotorBaseDatos motor = tipo.getMotor();
+
+        if (tipo == TipoBaseDatos.MARIADB) {
+            crearSiNoExiste(conn, TABLA_CAMBIOS,
+                    "CREATE TABLE " + TABLA_CAMBIOS + " ("
+                            + "seq BIGINT AUTO_INCREMENT PRIMARY KEY, "
+                            + "id_alumno VARCHAR(12) NOT NULL, "
+                            + "operacion VARCHAR(10) NOT NULL, "
+                            + "nombre VARCHAR(100), "
+                            + "apellidos VARCHAR(100), "
+                            + "curso INT, "
+                            + "casa VARCHAR(50), "
+                            + "patronus VARCHAR(100), "
+                            + "fecha BIGINT NOT NULL, "
+                            + COLUMNA_CASA_ANTERIOR + " VARCHAR(50), "
+                            + "INDEX idx_cambios_casa_seq (casa, seq), "
+                            + "INDEX idx_cambios_casa_anterior_seq (" + COLUMNA_CASA_ANTERIOR + ", seq), "
+                            + "INDEX idx_cambios_alumno_fecha (id_alumno, fecha))");
+            crearSiNoExiste(conn, TABLA_LIDER,
+                    "CREATE TABLE " + TABLA_LIDER + " ("
+                            + "trabajo VARCHAR(50) PRIMARY KEY, "
+                            + "titular VARCHAR(100), "
+                            + "token BIGINT NOT NULL DEFAULT 0, "
+                            + "expira DATETIME(3) NOT NULL, "
+                            + "progreso VARCHAR(255), "
+                            + "peticion BIGINT NOT NULL DEFAULT 0, "
+                            + "atendida BIGINT NOT NULL DEFAULT 0, "
+                            + "exito_atendida BOOLEAN NOT NULL DEFAULT FALSE)");
+            crearSiNoExiste(conn, TABLA_ARCHIVO,
+                    "CREATE TABLE " + TABLA_ARCHIVO + " ("
+                            + "id VARCHAR(12) PRIMARY KEY, "
+                            + "nombre VARCHAR(100), "
+                            + "apellidos VARCHAR(100), "
+                            + "curso INT, "
+                            + "casa VARCHAR(50), "
+                            + "patronus VARCHAR(100), "
+                            + "archivado BIGINT NOT NULL, "
+                            + "INDEX idx_archivo_apellidos (apellidos))");
+            crearSiNoExiste(conn, TABLA_MAPA,
+                    "CREATE TABLE " + TABLA_MAPA + " ("
+                            + "casa VARCHAR(20) PRIMARY KEY, "
+                            + "backends VARCHAR(255) NOT NULL, "
+                            + "fecha BIGINT NOT NULL)");
+        } else {
+            crearSiNoExiste(conn, TABLA_MARCA,
+                    "CREATE TABLE " + TABLA_MARCA + " ("
+                            + "replica " + motor.tipoTexto(20) + " PRIMARY KEY, "
+                            + "ultimo_seq " + motor.tipoEntero64() + " NOT NULL, "
+                            + "fecha " + motor.tipoEntero64() + " NOT NULL, "
+                            + COLUMNA_TOKEN + " " + motor.tipoEntero64() + ")");
+        }
+
+        if (tipo == TipoBaseDatos.SQLITE) {
+            crearSiNoExiste(conn, TABLA_DIARIO,
+                    "CREATE TABLE " + TABLA_DIARIO + " ("
+                            + "seq INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + "operacion TEXT NOT NULL, "
+                            + "id_alumno TEXT NOT NULL, "
+                            + "nombre TEXT, "
+                            + "apellidos TEXT, "
+                            + "curso INTEGER, "
+                            + "casa TEXT, "
+                            + "patronus TEXT, "
+                            + "huella_base INTEGER NOT NULL, "
+                            + "creado INTEGER NOT NULL, "
+                            + "conflicto INTEGER NOT NULL DEFAULT 0)");
+        }
+    }
+
+    /**
+     * Comprueba si la tabla alumnos del MASTER está particionada por casa.
+     *
+     * @param conn conexión con el MASTER
+     * @return true si la tabla está particionada por LIST COLUMNS (casa)
+     * @throws SQLException si falla la consulta
+     *
+     * @author Wara
+     */
+    static boolean estaParticionado(Connection conn) throws SQLException {
+        String consulta = "SELECT COUNT(*) FROM information_schema.PARTITIONS WHERE TABLE_SCHEMA = DATABASE()"
+                + " AND TABLE_NAME = 'alumnos' AND PARTITION_METHOD = 'LIST COLUMNS' AND PARTITION_EXPRESSION LIKE '%casa%'";
+        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(consulta)) {
+            return rs.next() && rs.getLong(1) > 0;
+        }
+    }
+
+    /**
+     * Ejecuta el DDL indicado si la tabla no existe.
+     *
+     * @param conn conexión abierta
+     * @param tabla nombre de la tabla
+     * @param ddl sentencia CREATE TABLE
+     * @throws SQLException si falla el DDL
+     *
+     * @author Wara
+     */
+    static void crearSiNoExiste(Connection conn, String tabla, String ddl) throws SQLException {
+        if (existeTabla(conn, tabla)) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(ddl);
+            logger.info("Tabla {} creada", tabla);
+        }
+    }
+
+    /**
+     * Comprueba si existe una tabla, sin importar cómo guarde el motor las mayúsculas.
+     * Derby, Oracle, H2 y HSQLDB guardan los nombres sin comillas en mayúsculas.
+     *
+     * @param conn conexión abierta
+     * @param tabla nombre de la tabla
+     * @return true si la tabla existe
+     * @throws SQLException si falla la consulta de metadatos
+     *
+     * @author Wara
+     */
+    public static boolean existeTabla(Connection conn, String tabla) throws SQLException {
+        return existeColumna(conn, tabla, null);
+    }
+
+    /**
+     * Comprueba si existe una columna en una tabla (o la propia tabla si la columna es null),
+     * probando el nombre tal cual y en mayúsculas.
+     *
+     * @param conn conexión abierta
+     * @param tabla nombre de la tabla
+     * @param columna nombre de la columna, o null para comprobar solo la tabla
+     * @return true si existe
+     * @throws SQLException si falla la consulta de metadatos
+     *
+     * @author Wara
+     */
+    public static boolean existeColumna(Connection conn, String tabla, String columna) throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        for (String nombre : new String[]{tabla, tabla.toUpperCase()}) {
+            if (columna == null) {
+                try (ResultSet rs = meta.getTables(null, null, nombre, new String[]{"TABLE"})) {
+                    if (rs.next()) {
+                        return true;
+                    }
+                }
+                continue;
+            }
+            for (String col : new String[]{columna, columna.toUpperCase()}) {
+                try (ResultSet rs = meta.getColumns(null, null, nombre, col)) {
+                    if (rs.next()) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,535 @@
+package es.potter.database;
+
+import es.potter.util.Propiedades;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Mapa de shards: en qué slaves (backends) viven los alumnos de cada casa de Hogwarts.
+ * REPARTO:
+ * - Cada casa se asigna a uno o varios backends, que son tipos de {@link TipoBaseDatos}
+ * - Con varios backends, el alumno va al que indica su ranura: el primer carácter hexadecimal
+ *   de su ID (sale de un UUID, así que se reparte de forma uniforme) módulo el número de backends
+ * - La ranura coincide con los cubos de primer nivel de {@code DaoHuellas}, así que cada backend
+ *   se compara con el MASTER solo en los cubos que le tocan
+ * - Por defecto cada casa vive en su propio tipo (Gryffindor en GRYFFINDOR, etc.)
+ * CONFIGURACIÓN (opcional en configuration.properties):
+ * - shard.&lt;casa&gt;: backends de la casa separados por comas (ej: shard.gryffindor=GRYFFINDOR,APACHE_DERBY)
+ * - conexion.&lt;backend&gt;: prefijo de las propiedades de conexión de un backend, para llevarlo
+ *   a otro servidor del mismo motor (ej: conexion.apache_derby=db.derby2 con db.derby2.url=...)
+ * Un mapa no válido (casa sin backends, MASTER o SQLite como backend, un backend en dos casas
+ * o dos backends con la misma conexión) se descarta entero y se usa el reparto por defecto.
+ * MIGRACIÓN: el reparto se puede cambiar en marcha, casa a casa. Durante la migración las escrituras
+ * van también al reparto de destino y, al terminar, se cambia de reparto de una sola vez
+ * (lo coordina {@code MigracionShard}). El reparto migrado se guarda en la tabla mapa_shards del MASTER
+ * y todos los equipos lo adoptan al arrancar y en cada ronda programada (ver {@link #adoptar(Map)}),
+ * así que prevalece sobre la configuración de cada equipo.
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class MapaShards {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(MapaShards.class);
+
+    /** Posición (0-based) del primer carácter hexadecimal del ID, tras "XXX-" */
+    private static final int INICIO_HEX = 4;
+
+    /** Número de ranuras: valores posibles de un carácter hexadecimal */
+    private static final int RANURAS = 16;
+
+    /** Casas de Hogwarts, en el orden en que se muestran y se sincronizan */
+    private static final List<TipoBaseDatos> CASAS = List.of(
+            TipoBaseDatos.GRYFFINDOR,
+            TipoBaseDatos.SLYTHERIN,
+            TipoBaseDatos.RAVENCLAW,
+            TipoBaseDatos.HUFFLEPUFF
+    );
+
+    /** Reparto en uso */
+    private static volatile Reparto actual = new Reparto(leerMapa());
+
+    /** Reparto al que se está migrando, o null si no hay ninguna migración en curso */
+    private static volatile Reparto destino;
+
+    /**
+     * Reparto de las casas en backends. Es inmutable: cambiar el mapa es sustituir un reparto
+     * por otro de una sola vez (ver {@link #confirmarMigracion()}).
+     *
+     * @author Wara
+     */
+    public static final class Reparto {
+
+        /** Backends de cada casa */
+        private final Map<TipoBaseDatos, List<TipoBaseDatos>> backendsPorCasa;
+
+        /** Casa a la que sirve cada backend, en el orden de las casas */
+        private final Map<TipoBaseDatos, TipoBaseDatos> casaPorBackend;
+
+        /**
+         * Crea un reparto.
+         *
+         * @param backendsPorCasa backends de cada casa (ya validados)
+         *
+         * @author Wara
+         */
+        private Reparto(Map<TipoBaseDatos, List<TipoBaseDatos>> backendsPorCasa) {
+            this.backendsPorCasa = Collections.unmodifiableMap(new EnumMap<>(backendsPorCasa));
+            Map<TipoBaseDatos, TipoBaseDatos> inverso = new LinkedHashMap<>();
+            for (TipoBaseDatos casa : CASAS) {
+                for (TipoBaseDatos backend : backendsPorCasa.get(casa)) {
+                    inverso.put(backend, casa);
+                }
+            }
+            this.casaPorBackend = Collections.unmodifiableMap(inverso);
+        }
+
+        /**
+         * Obtiene los backends de cada casa.
+         *
+         * @return mapa inmodificable de casa a backends
+         *
+         * @author Wara
+         */
+        public Map<TipoBaseDatos, List<TipoBaseDatos>> getMapa() {
+            return backendsPorCasa;
+        }
+
+        /**
+         * Obtiene todos los backends de las casas, sin repetidos y en el orden de las casas.
+         *
+         * @return backends que reciben alumnos
+         *
+         * @author Wara
+         */
+        public List<TipoBaseDatos> getBackends() {
+            return new ArrayList<>(casaPorBackend.keySet());
+        }
+
+        /**
+         * Obtiene los backends de una casa.
+         *
+         * @param casa casa de Hogwarts
+         * @return backends de la casa, en el orden configurado
+         *
+         * @author Wara
+         */
+        public List<TipoBaseDatos> getBackends(TipoBaseDatos casa) {
+            return backendsPorCasa.getOrDefault(casa, List.of(casa));
+        }
+
+        /**
+         * Resuelve el backend en el que vive un alumno.
+         *
+         * @param nombreCasa nombre de la casa del alumno
+         * @param id ID del alumno
+         * @return backend que guarda al alumno
+         * @throws IllegalArgumentException si la casa no existe
+         *
+         * @author Wara
+         */
+        public TipoBaseDatos resolver(String nombreCasa, String id) {
+            List<TipoBaseDatos> backends = getBackends(TipoBaseDatos.obtenerTipoBaseDatosPorCasa(nombreCasa));
+            return backends.get(ranura(id) % backends.size());
+        }
+
+        /**
+         * Obtiene la casa a la que sirve un backend.
+         * Una casa que no aparece en el reparto se sirve a sí misma, como antes de repartirla.
+         *
+         * @param backend backend
+         * @return casa del backend, o null si recibe a todos los alumnos (SQLite) o no es de ninguna casa
+         *
+         * @author Wara
+         */
+        public TipoBaseDatos casaDe(TipoBaseDatos backend) {
+            TipoBaseDatos casa = casaPorBackend.get(backend);
+            if (casa == null && backend.esCasa()) {
+                return backend;
+            }
+            return casa;
+        }
+
+        /**
+         * Indica si un backend guarda a un alumno de su casa.
+         *
+         * @param backend backend
+         * @param id ID del alumno
+         * @return true si el alumno le corresponde (siempre para SQLite)
+         *
+         * @author Wara
+         */
+        public boolean aloja(TipoBaseDatos backend, String id) {
+            return alojaRanura(backend, ranura(id));
+        }
+
+        /**
+         * Indica si un backend guarda los alumnos de un cubo de huellas.
+         *
+         * @param backend backend
+         * @param prefijo prefijo hexadecimal del cubo ("" para la raíz)
+         * @return true si el cubo (o parte de él) le corresponde
+         *
+         * @author Wara
+         */
+        public boolean alojaCubo(TipoBaseDatos backend, String prefijo) {
+            if (prefijo.isEmpty()) {
+                return true;
+            }
+            int digito = Character.digit(prefijo.charAt(0), RANURAS);
+            return digito < 0 || alojaRanura(backend, digito);
+        }
+
+        /**
+         * Indica si una ranura corresponde a un backend.
+         *
+         * @param backend backend
+         * @param ranura ranura del alumno o del cubo
+         * @return true si le corresponde (siempre si el backend no está en el reparto)
+         *
+         * @author Wara
+         */
+        private boolean alojaRanura(TipoBaseDatos backend, int ranura) {
+            TipoBaseDatos casa = casaPorBackend.get(backend);
+            if (casa == null) {
+                return true;
+            }
+            List<TipoBaseDatos> backends = backendsPorCasa.get(casa);
+            return backends.get(ranura % backends.size()) == backend;
+        }
+
+        /**
+         * Representación textual del reparto.
+         *
+         * @return String con los backends de cada casa
+         *
+         * @author Wara
+         */
+        @Override
+        public String toString() {
+            return backendsPorCasa.toString();
+        }
+    }
+
+    /**
+     * Obtiene las casas de Hogwarts.
+     *
+     * @return las cuatro casas
+     *
+     * @author Wara
+     */
+    public static List<TipoBaseDatos> getCasas() {
+        return CASAS;
+    }
+
+    /**
+     * Obtiene el reparto en uso.
+     *
+     * @return reparto actual
+     *
+     * @author Wara
+     */
+    public static Reparto getReparto() {
+        return actual;
+    }
+
+    /**
+     * Obtiene todos los backends de las casas, sin repetidos y en el orden de las casas.
+     *
+     * @return backends que reciben alumnos
+     *
+     * @author Wara
+     */
+    public static List<TipoBaseDatos> getBackends() {
+        return actual.getBackends();
+    }
+
+    /**
+     * Obtiene los backends de una casa.
+     *
+     * @param casa casa de Hogwarts
+     * @return backends de la casa, en el orden configurado
+     *
+     * @author Wara
+     */
+    public static List<TipoBaseDatos> getBackends(TipoBaseDatos casa) {
+        return actual.getBackends(casa);
+    }
+
+    /**
+     * Resuelve el backend en el que vive un alumno.
+     *
+     * @param nombreCasa nombre de la casa del alumno
+     * @param id ID del alumno
+     * @return backend que guarda al alumno
+     * @throws IllegalArgumentException si la casa no existe
+     *
+     * @author Wara
+     */
+    public static TipoBaseDatos resolver(String nombreCasa, String id) {
+        return actual.resolver(nombreCasa, id);
+    }
+
+    /**
+     * Obtiene la casa a la que sirve un backend.
+     *
+     * @param backend backend
+     * @return casa del backend, o null si recibe a todos los alumnos (SQLite) o no es de ninguna casa
+     *
+     * @author Wara
+     */
+    public static TipoBaseDatos casaDe(TipoBaseDatos backend) {
+        return actual.casaDe(backend);
+    }
+
+    /**
+     * Indica si un backend guarda a un alumno de su casa.
+     *
+     * @param backend backend
+     * @param id ID del alumno
+     * @return true si el alumno le corresponde (siempre para SQLite)
+     *
+     * @author Wara
+     */
+    public static boolean aloja(TipoBaseDatos backend, String id) {
+        return actual.aloja(backend, id);
+    }
+
+    /**
+     * Indica si un backend guarda los alumnos de un cubo de huellas.
+     *
+     * @param backend backend
+     * @param prefijo prefijo hexadecimal del cubo ("" para la raíz)
+     * @return true si el cubo (o parte de él) le corresponde
+     *
+     * @author Wara
+     */
+    public static boolean alojaCubo(TipoBaseDatos backend, String prefijo) {
+        return actual.alojaCubo(backend, prefijo);
+    }
+
+    /**
+     * Obtiene el prefijo de las propiedades de conexión de un backend.
+     *
+     * @param tipo base de datos
+     * @return prefijo configurado en conexion.&lt;tipo&gt; o, si no hay, el del propio tipo
+     *
+     * @author Wara
+     */
+    public static String prefijoConexion(TipoBaseDatos tipo) {
+        return Propiedades.getValor("conexion." + tipo.name().toLowerCase(), tipo.getPrefijo());
+    }
+
+    // ==================== MIGRACIÓN ====================
+
+    /**
+     * Prepara el cambio de backends de una casa. Mientras dura, las escrituras siguen yendo
+     * al reparto actual y además al nuevo (ver {@link #resolverEnMigracion(String, String)}).
+     *
+     * @param casa casa que cambia de backends
+     * @param backends backends nuevos de la casa
+     * @return reparto de destino
+     * @throws IllegalStateException si ya hay una migración en curso
+     * @throws IllegalArgumentException si el reparto resultante no es válido
+     *
+     * @author Wara
+     */
+    public static synchronized Reparto prepararMigracion(TipoBaseDatos casa, List<TipoBaseDatos> backends) {
+        if (destino != null) {
+            throw new IllegalStateException("Ya hay una migración en curso hacia " + destino);
+        }
+        Map<TipoBaseDatos, List<TipoBaseDatos>> mapa = new EnumMap<>(actual.backendsPorCasa);
+        mapa.put(casa, List.copyOf(new LinkedHashSet<>(backends)));
+        validar(mapa);
+
+        destino = new Reparto(mapa);
+        logger.info("Migración preparada: {} pasa de {} a {}", casa.obtenerNombreCasa(),
+                actual.getBackends(casa), destino.getBackends(casa));
+        return destino;
+    }
+
+    /**
+     * Resuelve el backend al que hay que copiar también una escritura durante una migración.
+     *
+     * @param nombreCasa nombre de la casa del alumno
+     * @param id ID del alumno
+     * @return backend del alumno en el reparto de destino, o null si no hay migración
+     *         o el alumno no cambia de backend
+     *
+     * @author Wara
+     */
+    public static TipoBaseDatos resolverEnMigracion(String nombreCasa, String id) {
+        Reparto nuevo = destino;
+        if (nuevo == null) {
+            return null;
+        }
+        TipoBaseDatos backend = nuevo.resolver(nombreCasa, id);
+        return backend == actual.resolver(nombreCasa, id) ? null : backend;
+    }
+
+    /**
+     * Pasa a usar el reparto de destino. Es un único cambio de referencia: cada lectura
+     * o escritura resuelve con el reparto anterior o con el nuevo, nunca con una mezcla.
+     *
+     * @return reparto anterior
+     * @throws IllegalStateException si no hay ninguna migración en curso
+     *
+     * @author Wara
+     */
+    public static synchronized Reparto confirmarMigracion() {
+        if (destino == null) {
+            throw new IllegalStateException("No hay ninguna migración en curso");
+        }
+        Reparto anterior = actual;
+        actual = destino;
+        destino = null;
+        logger.info("Reparto cambiado a {}", actual);
+        return anterior;
+    }
+
+    /**
+     * Abandona la migración en curso, si la hay. El reparto actual no cambia.
+     *
+     * @author Wara
+     */
+    public static synchronized void cancelarMigracion() {
+        if (destino != null) {
+            logger.info("Migración hacia {} cancelada", destino);
+            destino = null;
+        }
+    }
+
+    /**
+     * Pasa a usar el reparto guardado en el MASTER por una migración, si es distinto del actual.
+     * Las casas que no estén en el mapa guardado conservan sus backends. Si en este equipo
+     * hay una migración en curso, no se cambia nada: la confirmará ella.
+     *
+     * @param guardado backends de cada casa leídos de mapa_shards
+     * @return true si el reparto cambió
+     * @throws IllegalArgumentException si el reparto resultante no es válido
+     *
+     * @author Wara
+     */
+    public static synchronized boolean adoptar(Map<TipoBaseDatos, List<TipoBaseDatos>> guardado) {
+        if (destino != null || guardado.isEmpty()) {
+            return false;
+        }
+        Map<TipoBaseDatos, List<TipoBaseDatos>> mapa = new EnumMap<>(actual.backendsPorCasa);
+        guardado.forEach((casa, backends) -> {
+            if (CASAS.contains(casa)) {
+                mapa.put(casa, List.copyOf(new LinkedHashSet<>(backends)));
+            }
+        });
+        if (mapa.equals(actual.backendsPorCasa)) {
+            return false;
+        }
+        validar(mapa);
+
+        actual = new Reparto(mapa);
+        logger.info("Reparto cambiado al guardado en el MASTER: {}", actual);
+        return true;
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    /**
+     * Calcula la ranura de un alumno a partir de su ID.
+     *
+     * @param id ID del alumno
+     * @return ranura entre 0 y 15
+     *
+     * @author Wara
+     */
+    private static int ranura(String id) {
+        int digito = id != null && id.length() > INICIO_HEX ? Character.digit(id.charAt(INICIO_HEX), RANURAS) : -1;
+        // Un ID sin formato XXX-xxxxxxxx se reparte igual, por su hash
+        return digito >= 0 ? digito : Math.floorMod(id == null ? 0 : id.hashCode(), RANURAS);
+    }
+
+    /**
+     * Lee el mapa de configuration.properties y lo valida.
+     *
+     * @return backends de cada casa, o el reparto por defecto si el configurado no es válido
+     *
+     * @author Wara
+     */
+    private static Map<TipoBaseDatos, List<TipoBaseDatos>> leerMapa() {
+        Map<TipoBaseDatos, List<TipoBaseDatos>> mapa = new EnumMap<>(TipoBaseDatos.class);
+        for (TipoBaseDatos casa : CASAS) {
+            mapa.put(casa, List.of(casa));
+        }
+
+        try {
+            Map<TipoBaseDatos, List<TipoBaseDatos>> leido = new EnumMap<>(TipoBaseDatos.class);
+            for (TipoBaseDatos casa : CASAS) {
+                String valor = Propiedades.getValor("shard." + casa.obtenerNombreCasa().toLowerCase(), casa.name());
+                Set<TipoBaseDatos> backends = new LinkedHashSet<>();
+                for (String nombre : valor.split(",")) {
+                    if (!nombre.isBlank()) {
+                        backends.add(TipoBaseDatos.valueOf(nombre.trim().toUpperCase()));
+                    }
+                }
+                leido.put(casa, List.copyOf(backends));
+            }
+            validar(leido);
+            mapa = leido;
+        } catch (IllegalArgumentException e) {
+            logger.error("Mapa de shards no válido, se usa una base por casa: {}", e.getMessage());
+        }
+
+        mapa.forEach((casa, backends) -> {
+            if (backends.size() > 1 || backends.getFirst() != casa) {
+                logger.info("{} repartida en {}", casa.obtenerNombreCasa(), backends);
+            }
+        });
+        return mapa;
+    }
+
+    /**
+     * Comprueba que un mapa de shards se puede usar.
+     *
+     * @param mapa backends de cada casa
+     * @throws IllegalArgumentException si una casa no tiene backends, un backend es el MASTER o SQLite,
+     *                                  un backend está en dos casas o dos backends comparten conexión
+     *
+     * @author Wara
+     */
+    private static void validar(Map<TipoBaseDatos, List<TipoBaseDatos>> mapa) {
+        Map<TipoBaseDatos, TipoBaseDatos> casas = new EnumMap<>(TipoBaseDatos.class);
+        Map<String, TipoBaseDatos> conexiones = new HashMap<>();
+
+        for (Map.Entry<TipoBaseDatos, List<TipoBaseDatos>> entrada : mapa.entrySet()) {
+            if (entrada.getValue().isEmpty()) {
+                throw new IllegalArgumentException(entrada.getKey().obtenerNombreCasa() + " no tiene backends");
+            }
+            for (TipoBaseDatos backend : entrada.getValue()) {
+                if (backend == TipoBaseDatos.MARIADB || backend == TipoBaseDatos.SQLITE) {
+                    throw new IllegalArgumentException(backend.name() + " no puede guardar una casa");
+                }
+                TipoBaseDatos otraCasa = casas.putIfAbsent(backend, entrada.getKey());
+                if (otraCasa != null) {
+                    throw new IllegalArgumentException(backend.name() + " está en " + otraCasa.obtenerNombreCasa()
+                            + " y en " + entrada.getKey().obtenerNombreCasa());
+                }
+                // Dos backends sobre la misma base se borrarían mutuamente los alumnos al sincronizar
+                TipoBaseDatos otro = conexiones.putIfAbsent(prefijoConexion(backend), backend);
+                if (otro != null) {
+                    throw new IllegalArgumentException(backend.name() + " y " + otro.name()
+                            + " usan la misma conexión (" + prefijoConexion(backend) + ")");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package es.potter.database;
+
+import es.potter.model.Alumno;
+import es.potter.util.Propiedades;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Migración explícita del esquema de las tablas que ya existen: cambios que reescriben o recorren
+ * tablas con datos y que, por eso, no se hacen al conectar (ver {@link GestorEsquema}).
+ *
+ * FUNCIONAMIENTO:
+ * - La ejecuta el administrador, con la aplicación cerrada en todos los equipos o en un momento
+ *   tranquilo, una vez por cada versión que traiga pasos nuevos
+ * - Cada paso comprueba antes si ya está hecho, así que se puede repetir sin peligro
+ * - Sin migrar la aplicación funciona igual que antes: solo se pierde lo que aporta cada paso
+ * - Al terminar, los equipos abiertos ven los cambios al reiniciarse
+ *
+ * PASOS:
+ * - Todas las bases: columna alumnos.huella y su cálculo para las filas existentes, por tandas
+ * - MASTER: índice (id_alumno, fecha) en alumnos_cambios si la tabla se creó sin él
+ * - MASTER: columna alumnos_cambios.casa_anterior y su índice (bajas y cambios de casa en los
+ *   backends de las casas); los cambios ya registrados se quedan sin ella
+ * - MASTER: columna alumnos.modificado, rellena con la fecha del último cambio registrado de cada
+ *   alumno (o la de la migración si no tiene ninguno), por tandas
+ * - MASTER, con master.particion.casa=true: partición de alumnos por casa y tabla alumnos_ids
+ *   con el ID de cada alumno, que mantiene los IDs únicos con la clave primaria (id, casa)
+ * - Réplicas: columna replica_marca.token (vallado del líder) si la tabla se creó sin ella
+ *
+ * USO:
+ * {@code java -cp hogwartsApp-1.0-SNAPSHOT-portable.jar es.potter.database.MigracionEsquema [BASE...]}
+ * Sin argumentos migra el MASTER, los backends de las casas y SQLite.
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class MigracionEsquema {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(MigracionEsquema.class);
+
+    /** Filas por transacción al rellenar una columna */
+    private static final int TANDA = 1000;
+
+    /** Indica si hay que particionar por casa la tabla alumnos del MASTER */
+    private static final boolean PARTICIONAR_MASTER =
+            Boolean.parseBoolean(Propiedades.getValor("master.particion.casa", "false"));
+
+    /** Prefijo del nombre de la partición de cada casa */
+    private static final String PREFIJO_PARTICION = "p_";
+
+    /**
+     * Punto de entrada para el administrador.
+     *
+     * @param args bases de datos a migrar ({@link TipoBaseDatos}), o ninguna para todas
+     * @throws IllegalStateException si alguna base no se pudo migrar
+     *
+     * @author Wara
+     */
+    public static void main(String[] args) {
+        List<TipoBaseDatos> bases = new ArrayList<>();
+        for (String arg : args) {
+            bases.add(TipoBaseDatos.valueOf(arg.trim().toUpperCase()));
+        }
+        if (bases.isEmpty()) {
+            bases.add(TipoBaseDatos.MARIADB);
+            bases.addAll(MapaShards.getBackends());
+            bases.add(TipoBaseDatos.SQLITE);
+        }
+
+        int fallidas = 0;
+        for (TipoBaseDatos tipo : bases) {
+            if (!migrar(tipo)) {
+                fallidas++;
+            }
+        }
+        if (fallidas > 0) {
+            throw new IllegalStateException(fallidas + " bases no se pudieron migrar; revisa el log y repite");
+        }
+        logger.info("Migración del esquema terminada en {} bases", bases.size());
+    }
+
+    /**
+     * Ejecuta los pasos pendientes en una base de datos.
+     *
+     * @param tipo base de datos
+     * @return true si todos los pasos quedaron hechos
+     *
+     * @author Wara
+     */
+    public static boolean migrar(TipoBaseDatos tipo) {
+        logger.info("Migrando el esquema de {}", tipo);
+
+        try (Connection conn = ConexionFactory.getConnection(tipo)) {
+            migrarHuella(conn, tipo.getMotor());
+            if (tipo == TipoBaseDatos.MARIADB) {
+                migrarIndiceCambios(conn);
+                migrarCasaAnterior(conn);
+                migrarModificado(conn);
+                migrarParticiones(conn);
+            } else {
+                migrarToken(conn, tipo.getMotor());
+            }
+            return true;
+        } catch (SQLException | RuntimeException e) {
+            logger.error("No se pudo migrar el esquema de {}: {}", tipo, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    /**
+     * Añade la columna huella a alumnos si falta y calcula la de las filas que no la tengan
+     * (filas anteriores a la columna o escritas por versiones antiguas de la aplicación).
+     * Rellena por tandas, una transacción por tanda, para no bloquear la tabla entera.
+     *
+     * @param conn conexión abierta con autocommit activo
+     * @param motor motor de la base de datos
+     * @throws SQLException si falla el DDL o el relleno
+     *
+     * @author Wara
+     */
+    private static void migrarHuella(Connection conn, MotorBaseDatos motor) throws SQLException {
+        if (!GestorEsquema.existeTabla(conn, "alumnos")) {
+            return;
+        }
+        if (!GestorEsquema.existeColumna(conn, "alumnos", GestorEsquema.COLUMNA_HUELLA)) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute(motor.sqlAniadirColumna("alumnos", GestorEsquema.COLUMNA_HUELLA, motor.tipoEntero64()));
+                logger.info("Columna {} añadida a alumnos", GestorEsquema.COLUMNA_HUELLA);
+            }
+        }
+
+        String select = "SELECT id, nombre, apellidos, curso, casa, patronus FROM alumnos WHERE "
+                + GestorEsquema.COLUMNA_HUELLA + " IS NULL";
+        String update = "UPDATE alumnos SET " + GestorEsquema.COLUMNA_HUELLA + " = ? WHERE id = ?";
+        int rellenadas = 0;
+        int tanda;
+
+        conn.setAutoCommit(false);
+        try (Statement consulta = conn.createStatement(); PreparedStatement stmt = conn.prepareStatement(update)) {
+            consulta.setMaxRows(TANDA);
+            do {
+                tanda = 0;
+                try (ResultSet rs = consulta.executeQuery(select)) {
+                    while (rs.next()) {
+                        Alumno alumno = new Alumno();
+                        alumno.setId(rs.getString("id"));
+                        alumno.setNombre(rs.getString("nombre"));
+                        alumno.setApellidos(rs.getString("apellidos"));
+                        alumno.setCurso(rs.getInt("curso"));
+                        alumno.setCasa(rs.getString("casa"));
+                        alumno.setPatronus(rs.getString("patronus"));
+
+                        stmt.setLong(1, alumno.calcularHuella());
+                        stmt.setString(2, alumno.getId());
+                        stmt.addBatch();
+                        tanda++;
+                    }
+                }
+                if (tanda > 0) {
+                    stmt.executeBatch();
+                }
+                conn.commit();
+                rellenadas += tanda;
+            } while (tanda == TANDA);
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e instanceof SQLException sqlEx ? sqlEx : new SQLException(e);
+        } finally {
+            conn.setAutoCommit(true);
+        }
+
+        if (rellenadas > 0) {
+            logger.info("Huella calculada para {} alumnos existentes", rellenadas);
+        }
+    }
+
+    /**
+     * Crea en alumnos_cambios del MASTER el índice por alumno y fecha si la tabla se creó sin él.
+     *
+     * @param conn conexión con el MASTER con autocommit activo
+     * @throws SQLException si falla el DDL
+     *
+     * @author Wara
+     */
+    private static void migrarIndiceCambios(Connection conn) throws SQLException {
+        if (!GestorEsquema.existeTabla(conn, GestorEsquema.TABLA_CAMBIOS)) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_cambios_alumno_fecha ON " + GestorEsquema.TABLA_CAMBIOS
+                    + " (id_alumno, fecha)");
+        }
+    }
+
+    /**
+     * Añade a alumnos_cambios del MASTER la columna casa_anterior y su índice si la tabla se creó sin
+     * ellos. No se rellena: solo los cambios registrados desde entonces llevan la casa anterior.
+     *
+     * @param conn conexión con el MASTER con autocommit activo
+     * @throws SQLException si falla el DDL
+     *
+     * @author Wara
+     */
+    private static void migrarCasaAnterior(Connection conn) throws SQLException {
+        if (!GestorEsquema.existeTabla(conn, GestorEsquema.TABLA_CAMBIOS)) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            if (!GestorEsquema.existeColumna(conn, GestorEsquema.TABLA_CAMBIOS, GestorEsquema.COLUMNA_CASA_ANTERIOR)) {
+                stmt.execute("ALTER TABLE " + GestorEsquema.TABLA_CAMBIOS + " ADD COLUMN "
+                        + GestorEsquema.COLUMNA_CASA_ANTERIOR + " VARCHAR(50)");
+                logger.info("Columna {} añadida a {}", GestorEsquema.COLUMNA_CASA_ANTERIOR, GestorEsquema.TABLA_CAMBIOS);
+            }
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_cambios_casa_anterior_seq ON " + GestorEsquema.TABLA_CAMBIOS
+                    + " (" + GestorEsquema.COLUMNA_CASA_ANTERIOR + ", seq)");
+        }
+    }
+
+    /**
+     * Añade al MASTER la columna alumnos.modificado si falta y rellena la de las filas que no la
+     * tengan con la fecha de su último cambio en alumnos_cambios. Los alumnos sin cambios
+     * registrados toman la fecha de la migración, así que ninguno cuenta como inactivo por ella.
+     * Rellena por tandas, una transacción por tanda, para no bloquear la tabla entera.
+     *
+     * @param conn conexión con el MASTER con autocommit activo
+     * @throws SQLException si falla el DDL o el relleno
+     *
+     * @author Wara
+     */
+    private static void migrarModificado(Connection conn) throws SQLException {
+        if (!GestorEsquema.existeTabla(conn, "alumnos")) {
+            return;
+        }
+        if (!GestorEsquema.existeColumna(conn, "alumnos", GestorEsquema.COLUMNA_MODIFICADO)) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("ALTER TABLE alumnos ADD COLUMN " + GestorEsquema.COLUMNA_MODIFICADO + " BIGINT");
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_alumnos_modificado ON alumnos ("
+                        + GestorEsquema.COLUMNA_MODIFICADO + ")");
+                logger.info("Columna {} añadida a alumnos", GestorEsquema.COLUMNA_MODIFICADO);
+            }
+        }
+
+        String update = "UPDATE alumnos a SET " + GestorEsquema.COLUMNA_MODIFICADO + " = COALESCE("
+                + "(SELECT MAX(c.fecha) FROM " + GestorEsquema.TABLA_CAMBIOS + " c WHERE c.id_alumno = a.id), ?)"
+                + " WHERE " + GestorEsquema.COLUMNA_MODIFICADO + " IS NULL LIMIT " + TANDA;
+        long ahora = System.currentTimeMillis();
+        int rellenadas = 0;
+        int tanda;
+
+        try (PreparedStatement stmt = conn.prepareStatement(update)) {
+            do {
+                stmt.setLong(1, ahora);
+                tanda = stmt.executeUpdate();
+                rellenadas += tanda;
+            } while (tanda == TANDA);
+        }
+
+        if (rellenadas > 0) {
+            logger.info("Fecha de modificación rellenada para {} alumnos existentes", rellenadas);
+        }
+    }
+
+    /**
+     * Particiona por casa la tabla alumnos del MASTER si la configuración lo pide y aún no lo está:
+     * una partición LIST por casa con su nombre tal cual se guarda en la columna casa, y una por
+     * defecto para cualquier otro valor. Después crea alumnos_ids con el ID de cada alumno, para
+     * que las altas sigan rechazando IDs repetidos aunque la clave primaria pase a ser (id, casa).
+     *
+     * @param conn conexión con el MASTER con autocommit activo
+     * @throws SQLException si falla el DDL o el relleno
+     *
+     * @author Wara
+     */
+    private static void migrarParticiones(Connection conn) throws SQLException {
+        if (!PARTICIONAR_MASTER || !GestorEsquema.existeTabla(conn, "alumnos")) {
+            return;
+        }
+
+        if (!GestorEsquema.estaParticionado(conn)) {
+            StringBuilder particiones = new StringBuilder();
+            for (TipoBaseDatos casa : MapaShards.getCasas()) {
+                particiones.append("PARTITION ").append(PREFIJO_PARTICION).append(casa.name().toLowerCase())
+                        .append(" VALUES IN ('").append(casa.obtenerNombreCasa()).append("'), ");
+            }
+            particiones.append("PARTITION ").append(PREFIJO_PARTICION).append("otras DEFAULT");
+
+            try (Statement stmt = conn.createStatement()) {
+                // La columna de partición no admite NULL en la clave primaria
+                stmt.executeUpdate("UPDATE alumnos SET casa = '' WHERE casa IS NULL");
+                stmt.execute("ALTER TABLE alumnos MODIFY casa VARCHAR(50) NOT NULL DEFAULT '',"
+                        + " DROP PRIMARY KEY, ADD PRIMARY KEY (id, casa)"
+                        + " PARTITION BY LIST COLUMNS (casa) (" + particiones + ")");
+            }
+            logger.info("Tabla alumnos del MASTER particionada por casa");
+        }
+
+        GestorEsquema.crearSiNoExiste(conn, GestorEsquema.TABLA_IDS,
+                "CREATE TABLE " + GestorEsquema.TABLA_IDS + " (id VARCHAR(12) PRIMARY KEY)");
+        try (Statement stmt = conn.createStatement()) {
+            int reservados = stmt.executeUpdate("INSERT IGNORE INTO " + GestorEsquema.TABLA_IDS
+                    + " (id) SELECT id FROM alumnos");
+            if (reservados > 0) {
+                logger.info("{} IDs de alumnos existentes reservados en {}", reservados, GestorEsquema.TABLA_IDS);
+            }
+            // Solo puede haberlos si la tabla se particionó antes de existir alumnos_ids
+            try (ResultSet rs = stmt.executeQuery("SELECT id FROM alumnos GROUP BY id HAVING COUNT(*) > 1")) {
+                while (rs.next()) {
+                    logger.warn("El ID {} está repetido en varias casas del MASTER: resuélvelo a mano", rs.getString(1));
+                }
+            }
+        }
+    }
+
+    /**
+     * Añade la columna token a replica_marca si la tabla se creó sin ella. Las marcas existentes
+     * quedan sin token, así que el primer líder que escriba en la réplica la reclama.
+     *
+     * @param conn conexión con la réplica con autocommit activo
+     * @param motor motor de la base de datos
+     * @throws SQLException si falla el DDL
+     *
+     * @author Wara
+     */
+    private static void migrarToken(Connection conn, MotorBaseDatos motor) throws SQLException {
+        if (!GestorEsquema.existeTabla(conn, GestorEsquema.TABLA_MARCA)
+                || GestorEsquema.existeColumna(conn, GestorEsquema.TABLA_MARCA, GestorEsquema.COLUMNA_TOKEN)) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(motor.sqlAniadirColumna(GestorEsquema.TABLA_MARCA, GestorEsquema.COLUMNA_TOKEN,
+                    motor.tipoEntero64()));
+            logger.info("Columna {} añadida a {}", GestorEsquema.COLUMNA_TOKEN, GestorEsquema.TABLA_MARCA);
+        }
+    }
+}
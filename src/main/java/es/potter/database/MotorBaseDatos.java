@@ -0,0 +1,113 @@
+package es.potter.database;
+
+/**
+ * Motores de base de datos usados por la aplicación y sus diferencias de dialecto SQL.
+ * Varias entradas de {@link TipoBaseDatos} comparten motor (por ejemplo GRYFFINDOR y
+ * APACHE_DERBY usan Derby), así que las particularidades del SQL se resuelven aquí
+ * y no en cada tipo de base de datos.
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-04
+ */
+public enum MotorBaseDatos {
+
+    /** MariaDB / MySQL */
+    MARIADB("BIGINT", "VARCHAR"),
+
+    /** SQLite embebida */
+    SQLITE("INTEGER", "TEXT"),
+
+    /** Apache Derby */
+    DERBY("BIGINT", "VARCHAR"),
+
+    /** HSQLDB (HyperSQL) */
+    HSQLDB("BIGINT", "VARCHAR"),
+
+    /** Oracle */
+    ORACLE("NUMBER(19)", "VARCHAR2"),
+
+    /** H2 */
+    H2("BIGINT", "VARCHAR");
+
+    /** Tipo SQL para enteros de 64 bits */
+    private final String tipoEntero64;
+
+    /** Tipo SQL para cadenas de longitud variable */
+    private final String tipoTexto;
+
+    /**
+     * Constructor del enum.
+     *
+     * @param tipoEntero64 tipo SQL para enteros de 64 bits
+     * @param tipoTexto tipo SQL para cadenas de longitud variable
+     *
+     * @author Wara
+     */
+    MotorBaseDatos(String tipoEntero64, String tipoTexto) {
+        this.tipoEntero64 = tipoEntero64;
+        this.tipoTexto = tipoTexto;
+    }
+
+    /**
+     * Obtiene el tipo SQL para enteros de 64 bits en este motor.
+     *
+     * @return tipo SQL (ej: "BIGINT")
+     *
+     * @author Wara
+     */
+    public String tipoEntero64() {
+        return tipoEntero64;
+    }
+
+    /**
+     * Obtiene el tipo SQL para una cadena de longitud máxima dada.
+     *
+     * @param longitud longitud máxima de la cadena
+     * @return tipo SQL (ej: "VARCHAR(20)"); en SQLite no se indica longitud
+     *
+     * @author Wara
+     */
+    public String tipoTexto(int longitud) {
+        return this == SQLITE ? tipoTexto : tipoTexto + "(" + longitud + ")";
+    }
+
+    /**
+     * Genera la sentencia para añadir una columna a una tabla existente.
+     * Oracle no admite la palabra COLUMN y exige la definición entre paréntesis.
+     *
+     * @param tabla nombre de la tabla
+     * @param columna nombre de la columna nueva
+     * @param tipo tipo SQL de la columna
+     * @return sentencia ALTER TABLE para este motor
+     *
+     * @author Wara
+     */
+    public String sqlAniadirColumna(String tabla, String columna, String tipo) {
+        if (this == ORACLE) {
+            return "ALTER TABLE " + tabla + " ADD (" + columna + " " + tipo + ")";
+        }
+        return "ALTER TABLE " + tabla + " ADD COLUMN " + columna + " " + tipo;
+    }
+
+    /**
+     * Obtiene el motor a partir del prefijo de configuración.
+     *
+     * @param prefijo prefijo en configuration.properties (ej: "db.derby")
+     * @return motor correspondiente
+     * @throws IllegalArgumentException si el prefijo no corresponde a ningún motor
+     *
+     * @author Wara
+     */
+    public static MotorBaseDatos desdePrefijo(String prefijo) {
+        return switch (prefijo) {
+            case "db.mariadb" -> MARIADB;
+            case "db.sqlite" -> SQLITE;
+            case "db.derby" -> DERBY;
+            case "db.hsqldb" -> HSQLDB;
+            case "db.oracle" -> ORACLE;
+            case "db.h2" -> H2;
+            default -> throw new IllegalArgumentException("Prefijo de base de datos desconocido: " + prefijo);
+        };
+    }
+}
@@ -90,6 +90,27 @@ public class SQLiteManager {
         }
     }
 
+    /**
+     * Obtiene la ruta de un archivo auxiliar dentro del directorio de datos de la aplicación,
+     * junto a hogwarts.db (por ejemplo, la cola de replicación).
+     * Crea el directorio si todavía no existe.
+     *
+     * @param nombre Nombre del archivo
+     * @return Ruta absoluta al archivo (puede no existir todavía)
+     * @throws RuntimeException si no se puede crear el directorio
+     */
+    public static Path getArchivoDatos(String nombre) {
+        Path carpetaDatos = getApplicationDataDirectory();
+        try {
+            Files.createDirectories(carpetaDatos);
+        } catch (IOException e) {
+            String errorMsg = "Error al crear el directorio de datos: " + e.getMessage();
+            logger.error(errorMsg, e);
+            throw new RuntimeException(errorMsg, e);
+        }
+        return carpetaDatos.resolve(nombre).toAbsolutePath();
+    }
+
     /**
      * Decide dónde guardar los datos según el sistema operativo.
      * Cada SO tiene su propia convención:
@@ -93,6 +93,17 @@ public enum TipoBaseDatos {
         return nombreCasa;
     }
 
+    /**
+     * Obtiene el motor de base de datos, usado para resolver diferencias de dialecto SQL.
+     *
+     * @return motor de base de datos (ej: DERBY para GRYFFINDOR)
+     *
+     * @author Wara
+     */
+    public MotorBaseDatos getMotor() {
+        return MotorBaseDatos.desdePrefijo(prefijo);
+    }
+
     /**
      * Verifica si este tipo corresponde a una casa de Hogwarts.
      *
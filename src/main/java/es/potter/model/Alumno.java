@@ -1,5 +1,7 @@
 package es.potter.model;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * Representa un alumno de Hogwarts con sus características principales.
  * Esta clase modela la información de un estudiante incluyendo su identificación,
@@ -251,6 +253,30 @@ public class Alumno {
         this.patronus = patronus;
     }
 
+    /**
+     * Calcula la huella del contenido del alumno: un hash de todos sus campos.
+     * Se guarda en la columna {@code huella} de cada base de datos para poder
+     * comparar réplicas sumando huellas en SQL sin transferir las filas.
+     * El valor es siempre positivo y cabe en 31 bits, de modo que la suma de millones
+     * de huellas no desborda un entero de 64 bits en ningún motor.
+     *
+     * @return huella del alumno (0 a 2^31-1)
+     *
+     * @author Wara
+     */
+    public long calcularHuella() {
+        // FNV-1a de 64 bits sobre los campos separados por un carácter de control
+        String contenido = id + '\u001f' + nombre + '\u001f' + apellidos + '\u001f' + curso
+                + '\u001f' + casa + '\u001f' + (patronus == null ? "" : patronus);
+
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : contenido.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xff);
+            hash *= 0x100000001b3L;
+        }
+        return (hash ^ (hash >>> 31) ^ (hash >>> 62)) & 0x7fffffffL;
+    }
+
     /**
      * Representación textual con nombre, casa y curso.
      *
@@ -0,0 +1,99 @@
+package es.potter.model;
+
+/**
+ * Representa una fila del registro de cambios del MASTER.
+ * Cada cambio tiene un número de secuencia creciente que las réplicas usan
+ * como marca de agua para saber qué cambios les faltan por aplicar.
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-04
+ */
+public class CambioAlumno {
+
+    /** Número de secuencia del cambio en el MASTER */
+    private final long seq;
+
+    /** Momento en que se registró el cambio (milisegundos desde epoch) */
+    private final long fecha;
+
+    /** Operación registrada */
+    private final OperacionAlumno operacion;
+
+    /** Casa que tenía el alumno antes del cambio (null si no existía o no se registró) */
+    private final String casaAnterior;
+
+    /**
+     * Crea un cambio leído del registro del MASTER.
+     *
+     * @param seq número de secuencia
+     * @param fecha momento del cambio en milisegundos
+     * @param operacion operación registrada
+     *
+     * @author Wara
+     */
+    public CambioAlumno(long seq, long fecha, OperacionAlumno operacion) {
+        this(seq, fecha, operacion, null);
+    }
+
+    /**
+     * Crea un cambio leído del registro del MASTER junto con la casa anterior del alumno.
+     *
+     * @param seq número de secuencia
+     * @param fecha momento del cambio en milisegundos
+     * @param operacion operación registrada
+     * @param casaAnterior casa que tenía el alumno antes del cambio, o null
+     *
+     * @author Wara
+     */
+    public CambioAlumno(long seq, long fecha, OperacionAlumno operacion, String casaAnterior) {
+        this.seq = seq;
+        this.fecha = fecha;
+        this.operacion = operacion;
+        this.casaAnterior = casaAnterior;
+    }
+
+    /**
+     * Obtiene el número de secuencia del cambio.
+     *
+     * @return número de secuencia
+     *
+     * @author Wara
+     */
+    public long getSeq() {
+        return seq;
+    }
+
+    /**
+     * Obtiene el momento en que se registró el cambio.
+     *
+     * @return milisegundos desde epoch
+     *
+     * @author Wara
+     */
+    public long getFecha() {
+        return fecha;
+    }
+
+    /**
+     * Obtiene la operación registrada.
+     *
+     * @return operación del cambio
+     *
+     * @author Wara
+     */
+    public OperacionAlumno getOperacion() {
+        return operacion;
+    }
+
+    /**
+     * Obtiene la casa que tenía el alumno antes del cambio.
+     *
+     * @return casa anterior, o null si el alumno no existía o el cambio se registró sin ella
+     *
+     * @author Wara
+     */
+    public String getCasaAnterior() {
+        return casaAnterior;
+    }
+}
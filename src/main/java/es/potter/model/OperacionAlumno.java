@@ -0,0 +1,111 @@
+package es.potter.model;
+
+/**
+ * Representa una operación de escritura sobre un alumno pendiente de ejecutar.
+ * Agrupa el tipo de operación, el ID afectado y los datos del alumno
+ * para poder ejecutarla más tarde dentro de una transacción compartida.
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-03
+ */
+public class OperacionAlumno {
+
+    /** Tipo de operación (insertar, modificar o eliminar) */
+    private final TipoOperacion tipo;
+
+    /** ID del alumno afectado por la operación */
+    private final String id;
+
+    /** Datos del alumno; en las eliminaciones solo se usan el ID y la casa */
+    private final Alumno alumno;
+
+    /**
+     * Crea una operación sobre un alumno.
+     *
+     * @param tipo tipo de operación
+     * @param id ID del alumno afectado
+     * @param alumno datos del alumno
+     *
+     * @author Wara
+     */
+    public OperacionAlumno(TipoOperacion tipo, String id, Alumno alumno) {
+        if (tipo == null) {
+            throw new IllegalArgumentException("El tipo de operación no puede ser nulo.");
+        }
+        if (id == null || id.trim().isEmpty()) {
+            throw new IllegalArgumentException("La operación necesita el ID del alumno.");
+        }
+        this.tipo = tipo;
+        this.id = id;
+        this.alumno = alumno;
+    }
+
+    /**
+     * Obtiene el tipo de operación.
+     *
+     * @return tipo de operación
+     *
+     * @author Wara
+     */
+    public TipoOperacion getTipo() {
+        return tipo;
+    }
+
+    /**
+     * Obtiene el ID del alumno afectado.
+     *
+     * @return ID del alumno
+     *
+     * @author Wara
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Obtiene los datos del alumno asociados a la operación.
+     *
+     * @return alumno de la operación
+     *
+     * @author Wara
+     */
+    public Alumno getAlumno() {
+        return alumno;
+    }
+
+    /**
+     * Combina esta operación con otra posterior sobre el mismo alumno en una sola
+     * que deja el mismo resultado final:
+     * - cualquier operación seguida de una eliminación queda en la eliminación
+     * - una inserción seguida de una modificación queda en una inserción con los datos nuevos
+     * - en el resto de casos manda la operación posterior
+     *
+     * @param siguiente operación posterior sobre el mismo ID
+     * @return operación equivalente a aplicar esta y después la siguiente
+     * @throws IllegalArgumentException si las operaciones son de alumnos distintos
+     *
+     * @author Wara
+     */
+    public OperacionAlumno fusionarCon(OperacionAlumno siguiente) {
+        if (!id.equals(siguiente.getId())) {
+            throw new IllegalArgumentException("Solo se pueden fusionar operaciones del mismo alumno.");
+        }
+        if (siguiente.getTipo() != TipoOperacion.ELIMINAR && tipo == TipoOperacion.INSERTAR) {
+            return new OperacionAlumno(TipoOperacion.INSERTAR, id, siguiente.getAlumno());
+        }
+        return siguiente;
+    }
+
+    /**
+     * Representación textual de la operación.
+     *
+     * @return String con el tipo y el ID
+     *
+     * @author Wara
+     */
+    @Override
+    public String toString() {
+        return tipo + " " + id;
+    }
+}
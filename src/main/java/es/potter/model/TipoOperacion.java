@@ -0,0 +1,22 @@
+package es.potter.model;
+
+/**
+ * Tipos de operación de escritura que se pueden realizar sobre un alumno.
+ * Se usa para describir las escrituras pendientes que se agrupan, encolan
+ * o replican entre las distintas bases de datos.
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-03
+ */
+public enum TipoOperacion {
+
+    /** Alta de un alumno nuevo */
+    INSERTAR,
+
+    /** Modificación de los datos de un alumno existente */
+    MODIFICAR,
+
+    /** Baja de un alumno */
+    ELIMINAR
+}
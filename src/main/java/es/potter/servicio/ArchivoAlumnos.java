@@ -0,0 +1,141 @@
+package es.potter.servicio;
+
+import es.potter.dao.DaoArchivo;
+import es.potter.model.Alumno;
+import es.potter.util.Propiedades;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Archivo de alumnos graduados: los saca de las tablas vivas para que las cargas completas
+ * y las réplicas no crezcan con cada promoción.
+ *
+ * FUNCIONAMIENTO:
+ * - Un alumno se archiva cuando está en el último curso y lleva un tiempo sin ningún cambio
+ *   (según la columna alumnos.modificado del MASTER; sin ella, que añade MigracionEsquema, no se archiva)
+ * - Se archivan por lotes: cada lote se copia a alumnos_archivo y se borra de alumnos en una
+ *   transacción del MASTER, ocupando los carriles de sus alumnos ({@link CarrilesAlumno}) para no
+ *   cruzarse con una edición en curso
+ * - Las bajas se encolan para los backends de las casas y SQLite como cualquier otro bloque
+ *   (ver {@link ColaReplicacion}), así que las réplicas y las vistas dejan de tenerlos
+ * - El archivo solo vive en el MASTER y se consulta a petición con {@link #buscar(String)}
+ *
+ * CONFIGURACIÓN (opcional en configuration.properties):
+ * - archivo.curso: curso a partir del cual un alumno está graduado (por defecto 7)
+ * - archivo.antiguedad.dias: días sin cambios para archivar a un graduado (por defecto 365)
+ * - archivo.lote: alumnos por lote (por defecto 200)
+ * - archivo.busqueda.max: resultados máximos de una búsqueda en el archivo (por defecto 200)
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class ArchivoAlumnos {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(ArchivoAlumnos.class);
+
+    /** Curso a partir del cual un alumno está graduado */
+    private static final int CURSO = Propiedades.getEntero("archivo.curso", 7);
+
+    /** Días sin cambios para archivar a un graduado */
+    private static final long ANTIGUEDAD_MS = TimeUnit.DAYS.toMillis(
+            Math.max(0, Propiedades.getEntero("archivo.antiguedad.dias", 365)));
+
+    /** Alumnos por lote */
+    private static final int LOTE = Math.max(1, Propiedades.getEntero("archivo.lote", 200));
+
+    /** Resultados máximos de una búsqueda */
+    private static final int BUSQUEDA_MAX = Math.max(1, Propiedades.getEntero("archivo.busqueda.max", 200));
+
+    /** Indica si hay un archivado en curso */
+    private static final AtomicBoolean enCurso = new AtomicBoolean(false);
+
+    /**
+     * Archiva, lote a lote, todos los alumnos graduados sin cambios desde hace el tiempo configurado.
+     * Si ya hay un archivado en curso, no hace nada.
+     *
+     * @return CompletableFuture con el número de alumnos archivados
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Integer> archivar() {
+        if (ModoSinConexion.isActivo()) {
+            logger.warn("Sin conexión con el MASTER, el archivado se deja para más tarde");
+            return CompletableFuture.completedFuture(0);
+        }
+        if (!enCurso.compareAndSet(false, true)) {
+            logger.info("Ya hay un archivado en curso");
+            return CompletableFuture.completedFuture(0);
+        }
+
+        long limite = System.currentTimeMillis() - ANTIGUEDAD_MS;
+        logger.info("Archivando alumnos de curso {} o más sin cambios en {} días", CURSO,
+                TimeUnit.MILLISECONDS.toDays(ANTIGUEDAD_MS));
+        return archivarDesde(limite, 0).whenComplete((total, ex) -> {
+            enCurso.set(false);
+            if (ex != null) {
+                logger.error("Archivado interrumpido: {}", ex.getMessage());
+            } else {
+                logger.info("Archivado terminado: {} alumnos", total);
+            }
+        });
+    }
+
+    /**
+     * Busca en el archivo por ID exacto o por parte del nombre o de los apellidos.
+     *
+     * @param texto texto a buscar
+     * @return CompletableFuture con los alumnos archivados encontrados
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<List<Alumno>> buscar(String texto) {
+        if (texto == null || texto.isBlank()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        return DaoArchivo.buscar(texto, BUSQUEDA_MAX);
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    /**
+     * Archiva un lote y, si se archivó algo, sigue con el siguiente.
+     *
+     * @param limite instante (ms) desde el que un alumno no debe tener cambios
+     * @param total alumnos archivados hasta ahora
+     * @return CompletableFuture con el total de alumnos archivados
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Integer> archivarDesde(long limite, int total) {
+        return DaoArchivo.buscarArchivables(CURSO, limite, LOTE).thenCompose(candidatos -> {
+            if (candidatos.isEmpty()) {
+                return CompletableFuture.completedFuture(total);
+            }
+
+            List<String> ids = candidatos.stream().map(Alumno::getId).toList();
+            return CarrilesAlumno.enOrden(ids, () -> DaoArchivo.archivar(candidatos, CURSO, limite).thenApply(bajas -> {
+                        // Encolar las bajas dentro del carril, igual que las escrituras normales
+                        if (!bajas.isEmpty()) {
+                            ServicioHogwarts.replicarBloqueEnSlaves(bajas, NivelConsistencia.MASTER_ONLY,
+                                    System.currentTimeMillis());
+                            CacheAlumnos.aplicar(bajas);
+                        }
+                        return bajas;
+                    }))
+                    .thenCompose(bajas -> {
+                        logger.debug("Lote archivado: {} de {} candidatos", bajas.size(), candidatos.size());
+                        // Si ningún candidato se pudo archivar (cambiaron entretanto), parar para no repetir el lote
+                        return bajas.isEmpty()
+                                ? CompletableFuture.completedFuture(total)
+                                : archivarDesde(limite, total + bajas.size());
+                    });
+        });
+    }
+}
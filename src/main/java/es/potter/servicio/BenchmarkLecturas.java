@@ -0,0 +1,108 @@
+package es.potter.servicio;
+
+import es.potter.dao.DaoAlumno;
+import es.potter.database.MapaShards;
+import es.potter.database.TipoBaseDatos;
+import es.potter.model.Alumno;
+import javafx.collections.ObservableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Compara la latencia de la vista completa de Hogwarts leída solo del MASTER
+ * y repartida entre las casas ({@link LecturaRepartida}).
+ * Se ejecuta a mano contra las bases configuradas en configuration.properties:
+ * {@code java es.potter.servicio.BenchmarkLecturas [iteraciones] [calentamiento]}
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class BenchmarkLecturas {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(BenchmarkLecturas.class);
+
+    /**
+     * Ejecuta las dos estrategias alternándolas y registra media, percentiles y máximo.
+     * Todos los hilos del servicio son daemon, así que el proceso termina al volver.
+     *
+     * @param args iteraciones medidas (por defecto 20) e iteraciones de calentamiento (por defecto 3)
+     *
+     * @author Wara
+     */
+    public static void main(String[] args) {
+        int iteraciones = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int calentamiento = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        Supplier<CompletableFuture<ObservableList<Alumno>>> master = () -> DaoAlumno.cargarAlumnos(TipoBaseDatos.MARIADB);
+        Supplier<CompletableFuture<ObservableList<Alumno>>> repartida = LecturaRepartida::cargar;
+
+        for (int i = 0; i < calentamiento; i++) {
+            master.get().join();
+            repartida.get().join();
+        }
+
+        long[] tiemposMaster = new long[iteraciones];
+        long[] tiemposRepartida = new long[iteraciones];
+        int filasMaster = 0;
+        int filasRepartida = 0;
+
+        // Se alternan para que ninguna estrategia se beneficie sola de las cachés calientes
+        for (int i = 0; i < iteraciones; i++) {
+            long inicio = System.nanoTime();
+            filasMaster = master.get().join().size();
+            tiemposMaster[i] = System.nanoTime() - inicio;
+
+            inicio = System.nanoTime();
+            filasRepartida = repartida.get().join().size();
+            tiemposRepartida[i] = System.nanoTime() - inicio;
+        }
+
+        logger.info("Vista de Hogwarts, {} iteraciones ({} de calentamiento)", iteraciones, calentamiento);
+        imprimir("MASTER", tiemposMaster, filasMaster);
+        imprimir("REPARTIDA", tiemposRepartida, filasRepartida);
+        for (TipoBaseDatos backend : MapaShards.getBackends()) {
+            if (!LecturaRepartida.estaSana(backend)) {
+                logger.warn("{} no está sano; la lectura repartida ha usado el MASTER", backend);
+            }
+        }
+    }
+
+    /**
+     * Registra las estadísticas de una estrategia.
+     *
+     * @param nombre nombre de la estrategia
+     * @param tiempos duración de cada iteración en nanosegundos
+     * @param filas alumnos devueltos en la última iteración
+     *
+     * @author Wara
+     */
+    private static void imprimir(String nombre, long[] tiempos, int filas) {
+        long[] ordenados = tiempos.clone();
+        Arrays.sort(ordenados);
+        double media = Arrays.stream(ordenados).average().orElse(0);
+
+        logger.info(String.format("%-10s filas=%d  media=%.1f ms  p50=%.1f ms  p95=%.1f ms  max=%.1f ms",
+                nombre, filas, media / 1e6, percentil(ordenados, 50) / 1e6,
+                percentil(ordenados, 95) / 1e6, ordenados[ordenados.length - 1] / 1e6));
+    }
+
+    /**
+     * Obtiene un percentil de una muestra ordenada (método del rango más cercano).
+     *
+     * @param ordenados muestra ordenada de menor a mayor
+     * @param p percentil entre 1 y 100
+     * @return valor del percentil
+     *
+     * @author Wara
+     */
+    private static long percentil(long[] ordenados, int p) {
+        int indice = (int) Math.ceil(p / 100.0 * ordenados.length) - 1;
+        return ordenados[Math.max(0, Math.min(indice, ordenados.length - 1))];
+    }
+}
@@ -0,0 +1,415 @@
+package es.potter.servicio;
+
+import es.potter.database.MapaShards;
+import es.potter.database.TipoBaseDatos;
+import es.potter.model.Alumno;
+import es.potter.model.OperacionAlumno;
+import es.potter.model.TipoOperacion;
+import es.potter.util.Propiedades;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Caché en memoria de las listas de alumnos de cada vista (Hogwarts, cada casa y SQLite),
+ * para que cambiar de casa en la pantalla principal no vuelva a descargar las mismas filas.
+ *
+ * FUNCIONAMIENTO:
+ * - Lectura a través de la caché: si la lista de una base está y no ha caducado se devuelve
+ *   sin consultar nada; si no, se carga, se guarda y se devuelve
+ * - Refresco anticipado: una lista que ya ha consumido buena parte de su vida se sigue devolviendo,
+ *   pero se recarga en segundo plano para que la siguiente consulta la encuentre fresca
+ * - Dos consultas simultáneas de una base sin lista comparten la misma carga
+ * - Peso: cada lista pesa tantos alumnos como tiene; si el total supera el máximo se descartan
+ *   las listas usadas hace más tiempo
+ * - Cada lista se guarda como un {@link IndiceAlumnos}, así que buscar por ID, casa, curso o apellidos
+ *   dentro de ella no la recorre entera (ver {@link #consultar(TipoBaseDatos, Supplier, Function)})
+ * - Escrituras: las que el MASTER confirma se aplican sobre las listas guardadas, que se actualizan
+ *   alumno a alumno sin recargarse; las que no llegan al MASTER descartan las listas de las bases que
+ *   tocan (el MASTER, SQLite y la casa del alumno; todas las casas si es una modificación, porque el
+ *   alumno puede haber cambiado de casa). En ambos casos una carga que empezó antes no se guarda
+ * - Se descartan todas las listas tras cada sincronización (manual o de una ronda programada que
+ *   aplicó cambios), al sembrar una réplica, al reenviar el diario sin conexión y volver al MASTER,
+ *   y cuando cambia el reparto de las casas en backends (migración confirmada o adoptada)
+ * Cada llamante recibe sus propias copias de la lista y de los alumnos, así que puede modificarlos
+ * sin afectar a la caché.
+ *
+ * CONFIGURACIÓN (opcional en configuration.properties):
+ * - cache.alumnos.activa: usar la caché (por defecto true)
+ * - cache.alumnos.ttl.ms: vida de una lista (por defecto 60000)
+ * - cache.alumnos.refresco.porcentaje: vida consumida a partir de la cual se recarga en segundo plano (por defecto 75)
+ * - cache.alumnos.peso.max: alumnos máximos entre todas las listas (por defecto 100000)
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class CacheAlumnos {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(CacheAlumnos.class);
+
+    /** Indica si la caché está activa */
+    private static final boolean ACTIVA = Boolean.parseBoolean(Propiedades.getValor("cache.alumnos.activa", "true"));
+
+    /** Vida de una lista */
+    private static final long TTL_NS = TimeUnit.MILLISECONDS.toNanos(
+            Math.max(1, Propiedades.getEntero("cache.alumnos.ttl.ms", 60000)));
+
+    /** Edad a partir de la cual una lista se recarga en segundo plano */
+    private static final long REFRESCO_NS = TTL_NS / 100
+            * Math.min(100, Math.max(1, Propiedades.getEntero("cache.alumnos.refresco.porcentaje", 75)));
+
+    /** Alumnos máximos entre todas las listas */
+    private static final long PESO_MAX = Math.max(1, Propiedades.getEntero("cache.alumnos.peso.max", 100000));
+
+    /** Protege las listas, las cargas en curso y las generaciones */
+    private static final Object cerrojo = new Object();
+
+    /** Lista de cada base, en orden de uso (la menos usada primero) */
+    private static final LinkedHashMap<TipoBaseDatos, Entrada> entradas = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Carga en curso de cada base */
+    private static final Map<TipoBaseDatos, CompletableFuture<IndiceAlumnos>> cargando = new EnumMap<>(TipoBaseDatos.class);
+
+    /** Generación de cada base: crece con cada invalidación */
+    private static final Map<TipoBaseDatos, Long> generaciones = new EnumMap<>(TipoBaseDatos.class);
+
+    /** Alumnos guardados entre todas las listas */
+    private static long pesoTotal = 0;
+
+    /** Consultas servidas desde la caché */
+    private static final AtomicLong aciertos = new AtomicLong();
+
+    /** Consultas que tuvieron que esperar a una carga */
+    private static final AtomicLong fallos = new AtomicLong();
+
+    /**
+     * Lista guardada de una base.
+     *
+     * @param alumnos alumnos indexados (solo se tocan con el cerrojo tomado)
+     * @param cargadaEn instante de la carga (System.nanoTime)
+     */
+    private record Entrada(IndiceAlumnos alumnos, long cargadaEn) {}
+
+    /**
+     * Obtiene los alumnos de una base desde la caché o, si no están o han caducado, cargándolos.
+     *
+     * @param tipo base de datos (vista) a leer
+     * @param cargador carga los alumnos de la base sin pasar por la caché
+     * @return CompletableFuture con una copia de la lista de alumnos
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<ObservableList<Alumno>> obtener(
+            TipoBaseDatos tipo, Supplier<CompletableFuture<ObservableList<Alumno>>> cargador) {
+        if (!ACTIVA) {
+            return cargador.get();
+        }
+        return consultar(tipo, cargador, indice -> FXCollections.observableArrayList(indice.todos()));
+    }
+
+    /**
+     * Responde una consulta sobre los alumnos de una base con su índice en memoria, cargándolos
+     * antes si no están o han caducado. Con la caché desactivada, carga y consulta un índice de usar y tirar.
+     *
+     * @param tipo base de datos (vista) a consultar
+     * @param cargador carga los alumnos de la base sin pasar por la caché
+     * @param consulta consulta sobre el índice (se ejecuta con el cerrojo tomado: no debe bloquearse)
+     * @param <T> tipo de la respuesta
+     * @return CompletableFuture con la respuesta
+     *
+     * @author Wara
+     */
+    public static <T> CompletableFuture<T> consultar(TipoBaseDatos tipo,
+                                                     Supplier<CompletableFuture<ObservableList<Alumno>>> cargador,
+                                                     Function<IndiceAlumnos, T> consulta) {
+        if (!ACTIVA) {
+            return cargador.get().thenApply(alumnos -> consulta.apply(new IndiceAlumnos(alumnos)));
+        }
+
+        T respuesta = null;
+        boolean acierto = false;
+        boolean refrescar = false;
+        synchronized (cerrojo) {
+            Entrada entrada = entradas.get(tipo);
+            if (entrada != null) {
+                long edad = System.nanoTime() - entrada.cargadaEn();
+                if (edad < TTL_NS) {
+                    acierto = true;
+                    refrescar = edad >= REFRESCO_NS && !cargando.containsKey(tipo);
+                    respuesta = consulta.apply(entrada.alumnos());
+                }
+            }
+        }
+
+        if (acierto) {
+            aciertos.incrementAndGet();
+            if (refrescar) {
+                logger.debug("Lista de {} a punto de caducar, se recarga en segundo plano", tipo);
+                cargar(tipo, cargador);
+            }
+            return CompletableFuture.completedFuture(respuesta);
+        }
+
+        fallos.incrementAndGet();
+        return cargar(tipo, cargador).thenApply(indice -> {
+            synchronized (cerrojo) {
+                return consulta.apply(indice);
+            }
+        });
+    }
+
+    /**
+     * Aplica sobre las listas guardadas unas escrituras que el MASTER ya ha confirmado.
+     * Cada lista solo recibe los alumnos que le corresponden (los de su casa, o todos).
+     *
+     * @param operaciones operaciones confirmadas, en orden
+     *
+     * @author Wara
+     */
+    public static void aplicar(List<OperacionAlumno> operaciones) {
+        Set<TipoBaseDatos> afectadas = afectadas(operaciones);
+        synchronized (cerrojo) {
+            for (TipoBaseDatos tipo : afectadas) {
+                generaciones.merge(tipo, 1L, Long::sum);
+                cargando.remove(tipo);
+                Entrada entrada = entradas.get(tipo);
+                if (entrada == null) {
+                    continue;
+                }
+                pesoTotal -= entrada.alumnos().tamanio();
+                for (OperacionAlumno operacion : operaciones) {
+                    aplicar(tipo, entrada.alumnos(), operacion);
+                }
+                pesoTotal += entrada.alumnos().tamanio();
+            }
+        }
+        logger.debug("{} escrituras aplicadas sobre las listas guardadas", operaciones.size());
+    }
+
+    /**
+     * Descarta las listas de las bases afectadas por unas escrituras.
+     *
+     * @param operaciones operaciones escritas (o intentadas)
+     *
+     * @author Wara
+     */
+    public static void invalidar(List<OperacionAlumno> operaciones) {
+        Set<TipoBaseDatos> afectadas = afectadas(operaciones);
+        synchronized (cerrojo) {
+            afectadas.forEach(CacheAlumnos::descartar);
+        }
+    }
+
+    /**
+     * Descarta todas las listas, por ejemplo tras una sincronización completa.
+     *
+     * @author Wara
+     */
+    public static void invalidarTodo() {
+        synchronized (cerrojo) {
+            for (TipoBaseDatos tipo : TipoBaseDatos.values()) {
+                descartar(tipo);
+            }
+        }
+    }
+
+    /**
+     * Obtiene la proporción de consultas servidas desde la caché desde el arranque.
+     *
+     * @return aciertos entre consultas totales (0 si aún no hubo ninguna)
+     *
+     * @author Wara
+     */
+    public static double getTasaAciertos() {
+        long a = aciertos.get();
+        long total = a + fallos.get();
+        return total == 0 ? 0.0 : (double) a / total;
+    }
+
+    /**
+     * Obtiene cuántos alumnos guarda la caché entre todas sus listas.
+     *
+     * @return peso total
+     *
+     * @author Wara
+     */
+    public static long getPeso() {
+        synchronized (cerrojo) {
+            return pesoTotal;
+        }
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    /**
+     * Obtiene las bases cuyas listas pueden cambiar con unas escrituras: el MASTER, SQLite y las casas
+     * de los alumnos; todas las casas si es una modificación, porque el alumno puede haber cambiado de casa.
+     *
+     * @param operaciones operaciones
+     * @return bases afectadas
+     *
+     * @author Wara
+     */
+    private static Set<TipoBaseDatos> afectadas(List<OperacionAlumno> operaciones) {
+        Set<TipoBaseDatos> afectadas = EnumSet.of(TipoBaseDatos.MARIADB, TipoBaseDatos.SQLITE);
+        for (OperacionAlumno operacion : operaciones) {
+            Alumno alumno = operacion.getAlumno();
+            TipoBaseDatos casa = alumno == null ? null : IndiceAlumnos.casaDe(alumno);
+            if (operacion.getTipo() == TipoOperacion.MODIFICAR || casa == null) {
+                afectadas.addAll(MapaShards.getCasas());
+                break;
+            }
+            afectadas.add(casa);
+        }
+        return afectadas;
+    }
+
+    /**
+     * Aplica una operación sobre la lista de una base: se quita el alumno y, si no es una baja
+     * y le corresponde a esa lista, se vuelve a poner con los datos nuevos.
+     *
+     * @param tipo base de datos (vista) de la lista
+     * @param indice lista de la base
+     * @param operacion operación a aplicar
+     *
+     * @author Wara
+     */
+    private static void aplicar(TipoBaseDatos tipo, IndiceAlumnos indice, OperacionAlumno operacion) {
+        indice.quitar(operacion.getId());
+        Alumno alumno = operacion.getAlumno();
+        if (operacion.getTipo() == TipoOperacion.ELIMINAR || alumno == null) {
+            return;
+        }
+        if (!tipo.esCasa() || IndiceAlumnos.casaDe(alumno) == tipo) {
+            indice.poner(IndiceAlumnos.copiar(alumno, operacion.getId()));
+        }
+    }
+
+    /**
+     * Carga los alumnos de una base y los guarda, compartiendo la carga si ya hay una en curso.
+     *
+     * @param tipo base de datos
+     * @param cargador carga los alumnos sin pasar por la caché
+     * @return CompletableFuture con los alumnos indexados (compartidos: consultarlos solo con el cerrojo tomado)
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<IndiceAlumnos> cargar(TipoBaseDatos tipo,
+                                                           Supplier<CompletableFuture<ObservableList<Alumno>>> cargador) {
+        CompletableFuture<IndiceAlumnos> carga;
+        long generacion;
+        synchronized (cerrojo) {
+            CompletableFuture<IndiceAlumnos> enCurso = cargando.get(tipo);
+            if (enCurso != null) {
+                return enCurso;
+            }
+            carga = new CompletableFuture<>();
+            cargando.put(tipo, carga);
+            generacion = generaciones.getOrDefault(tipo, 0L);
+        }
+
+        CompletableFuture<IndiceAlumnos> resultado = carga;
+        CompletableFuture<ObservableList<Alumno>> lectura;
+        try {
+            lectura = cargador.get();
+        } catch (RuntimeException e) {
+            lectura = CompletableFuture.failedFuture(e);
+        }
+        lectura.whenComplete((alumnos, ex) -> {
+            IndiceAlumnos indice = null;
+            Throwable error = ex;
+            if (error == null) {
+                try {
+                    indice = new IndiceAlumnos(alumnos);
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+            }
+            synchronized (cerrojo) {
+                cargando.remove(tipo, resultado);
+                if (indice != null && generacion == generaciones.getOrDefault(tipo, 0L)) {
+                    guardar(tipo, indice);
+                }
+            }
+            if (error != null) {
+                resultado.completeExceptionally(error);
+            } else {
+                resultado.complete(indice);
+            }
+        });
+        return resultado;
+    }
+
+    /**
+     * Guarda la lista de una base y descarta las menos usadas si se supera el peso máximo.
+     * Se llama con el cerrojo tomado.
+     *
+     * @param tipo base de datos
+     * @param alumnos alumnos indexados a guardar
+     *
+     * @author Wara
+     */
+    private static void guardar(TipoBaseDatos tipo, IndiceAlumnos alumnos) {
+        quitar(tipo);
+        if (alumnos.tamanio() > PESO_MAX) {
+            logger.debug("Lista de {} demasiado grande para la caché ({} alumnos)", tipo, alumnos.tamanio());
+            return;
+        }
+        entradas.put(tipo, new Entrada(alumnos, System.nanoTime()));
+        pesoTotal += alumnos.tamanio();
+
+        Iterator<Map.Entry<TipoBaseDatos, Entrada>> menosUsadas = entradas.entrySet().iterator();
+        while (pesoTotal > PESO_MAX && menosUsadas.hasNext()) {
+            Map.Entry<TipoBaseDatos, Entrada> descartada = menosUsadas.next();
+            if (descartada.getKey() != tipo) {
+                pesoTotal -= descartada.getValue().alumnos().tamanio();
+                menosUsadas.remove();
+                logger.debug("Lista de {} descartada de la caché por peso", descartada.getKey());
+            }
+        }
+    }
+
+    /**
+     * Descarta la lista de una base y hace que no se guarde la carga que esté en curso.
+     * Se llama con el cerrojo tomado.
+     *
+     * @param tipo base de datos
+     *
+     * @author Wara
+     */
+    private static void descartar(TipoBaseDatos tipo) {
+        generaciones.merge(tipo, 1L, Long::sum);
+        cargando.remove(tipo); // La próxima consulta no debe esperar a una carga que ya es vieja
+        quitar(tipo);
+    }
+
+    /**
+     * Quita la lista de una base y descuenta su peso. Se llama con el cerrojo tomado.
+     *
+     * @param tipo base de datos
+     *
+     * @author Wara
+     */
+    private static void quitar(TipoBaseDatos tipo) {
+        Entrada anterior = entradas.remove(tipo);
+        if (anterior != null) {
+            pesoTotal -= anterior.alumnos().tamanio();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package es.potter.servicio;
+
+import es.potter.dao.DaoCargaMasiva;
+import es.potter.database.TipoBaseDatos;
+import es.potter.util.Propiedades;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Siembra réplicas grandes con una copia completa del MASTER sin pasar alumno a alumno
+ * por la sincronización normal.
+ *
+ * FUNCIONAMIENTO:
+ * Si el motor de la réplica tiene cargador nativo, el MASTER se vuelca en streaming a un
+ * archivo CSV temporal y la réplica lo carga de una vez (ver {@link DaoCargaMasiva}).
+ * Si no lo tiene, o el cargador nativo falla (porque el servidor no ve el
+ * directorio del volcado), se copia leyendo el MASTER en streaming e insertando en lotes JDBC.
+ * El archivo temporal se borra siempre al terminar. El resultado informa del camino usado
+ * y del ritmo en filas por segundo.
+ * Mientras dura la carga, la cola de replicación de la réplica se retiene ({@link ColaReplicacion#retener}):
+ * nada se aplica a medias entre el vaciado y la carga, y lo que estaba pendiente se aplica después,
+ * en orden, sobre la copia ya confirmada. Como las operaciones son idempotentes, repetir las que
+ * ya venían en la copia no cambia el resultado.
+ *
+ * CONFIGURACIÓN (opcional en configuration.properties):
+ * - carga.masiva.nativa: usar los cargadores nativos (por defecto true)
+ * - carga.masiva.directorio: directorio de los volcados (por defecto el temporal del sistema)
+ * - carga.masiva.lote: filas por lote JDBC (por defecto 1000)
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class CargaMasiva {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(CargaMasiva.class);
+
+    /** Indica si se intentan los cargadores nativos */
+    private static final boolean NATIVA = Boolean.parseBoolean(Propiedades.getValor("carga.masiva.nativa", "true"));
+
+    /** Directorio de los volcados */
+    private static final Path DIRECTORIO = Path.of(Propiedades.getValor("carga.masiva.directorio",
+            System.getProperty("java.io.tmpdir")));
+
+    /**
+     * Sustituye el contenido de una réplica por los alumnos del MASTER que le corresponden.
+     *
+     * @param destino réplica a cargar (no puede ser el MASTER)
+     * @return CompletableFuture con el resultado de la carga
+     * @throws IllegalArgumentException si el destino es el MASTER
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<ResultadoCarga> cargar(TipoBaseDatos destino) {
+        if (destino == TipoBaseDatos.MARIADB) {
+            throw new IllegalArgumentException("El MASTER es el origen de la carga, no puede ser el destino");
+        }
+        return ColaReplicacion.retener(destino)
+                .thenCompose(v -> cargarRetenida(destino))
+                .whenComplete((resultado, ex) -> ColaReplicacion.soltar(destino));
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    /**
+     * Carga una réplica con su cola de replicación ya retenida.
+     *
+     * @param destino réplica a cargar
+     * @return CompletableFuture con el resultado de la carga
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<ResultadoCarga> cargarRetenida(TipoBaseDatos destino) {
+        if (!NATIVA || !DaoCargaMasiva.tieneCargaNativa(destino)) {
+            return porLotes(destino);
+        }
+
+        Path archivo;
+        try {
+            Files.createDirectories(DIRECTORIO);
+            archivo = Files.createTempFile(DIRECTORIO, "carga-" + destino.name().toLowerCase() + "-", ".csv");
+        } catch (IOException e) {
+            logger.warn("No se pudo crear el volcado para {} ({}), se carga por lotes", destino, e.getMessage());
+            return porLotes(destino);
+        }
+
+        long inicio = System.currentTimeMillis();
+        return DaoCargaMasiva.volcar(destino, archivo)
+                .thenCompose(filas -> DaoCargaMasiva.cargarArchivo(destino, archivo)
+                        .thenApply(v -> terminar(new ResultadoCarga(destino, filas, true,
+                                System.currentTimeMillis() - inicio))))
+                .exceptionallyCompose(ex -> {
+                    logger.warn("Carga nativa de {} no disponible, se carga por lotes: {}", destino, ex.getMessage());
+                    return porLotes(destino);
+                })
+                .whenComplete((resultado, ex) -> borrar(archivo));
+    }
+
+    /**
+     * Carga una réplica por lotes JDBC.
+     *
+     * @param destino réplica a cargar
+     * @return CompletableFuture con el resultado de la carga
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<ResultadoCarga> porLotes(TipoBaseDatos destino) {
+        long inicio = System.currentTimeMillis();
+        return DaoCargaMasiva.copiarPorLotes(destino)
+                .thenApply(filas -> terminar(new ResultadoCarga(destino, filas, false,
+                        System.currentTimeMillis() - inicio)));
+    }
+
+    /**
+     * Registra el resultado de una carga.
+     *
+     * @param resultado resultado de la carga
+     * @return el mismo resultado
+     *
+     * @author Wara
+     */
+    private static ResultadoCarga terminar(ResultadoCarga resultado) {
+        logger.info("Carga masiva terminada: {}", resultado);
+        return resultado;
+    }
+
+    /**
+     * Borra un volcado temporal.
+     *
+     * @param archivo volcado a borrar
+     *
+     * @author Wara
+     */
+    private static void borrar(Path archivo) {
+        try {
+            Files.deleteIfExists(archivo);
+        } catch (IOException e) {
+            logger.warn("No se pudo borrar el volcado {}: {}", archivo, e.getMessage());
+        }
+    }
+}
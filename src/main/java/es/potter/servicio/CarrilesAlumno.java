@@ -0,0 +1,185 @@
+package es.potter.servicio;
+
+import es.potter.util.Propiedades;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Ordena las escrituras de un mismo alumno sin frenar las de los demás.
+ *
+ * FUNCIONAMIENTO:
+ * Cada alumno cae, según el hash de su ID, en uno de N carriles. Una escritura no empieza hasta
+ * que termina la anterior de su carril, así que dos operaciones sobre el mismo alumno llegan al
+ * MASTER y a la {@link ColaReplicacion} en el orden en que se pidieron (y la cola mantiene ese
+ * orden en cada backend). Alumnos de carriles distintos se escriben en paralelo; dos alumnos que
+ * comparten carril solo se esperan entre sí. No hay ningún cerrojo global: cada carril tiene el suyo
+ * y solo se toma para apuntar cuál es su última tarea, nunca mientras se escribe.
+ * Un bloque de operaciones ocupa todos los carriles de sus alumnos a la vez (tomados siempre en orden
+ * creciente para no bloquearse con otro bloque).
+ * Una tarea que falla no detiene su carril: la siguiente empieza igualmente.
+ *
+ * CONFIGURACIÓN (opcional en configuration.properties):
+ * - carriles.alumno: número de carriles (por defecto 64)
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class CarrilesAlumno {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(CarrilesAlumno.class);
+
+    /** Número de carriles */
+    private static final int CARRILES = Math.max(1, Propiedades.getEntero("carriles.alumno", 64));
+
+    /** Cerrojo de cada carril */
+    private static final Object[] cerrojos = new Object[CARRILES];
+
+    /** Última tarea enganchada en cada carril */
+    private static final CompletableFuture<?>[] ultimas = new CompletableFuture<?>[CARRILES];
+
+    /** Tareas que tuvieron que esperar a otra de su carril */
+    private static final AtomicLong esperas = new AtomicLong();
+
+    static {
+        for (int i = 0; i < CARRILES; i++) {
+            cerrojos[i] = new Object();
+            ultimas[i] = CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Ejecuta una tarea sobre un alumno cuando han terminado las anteriores de su carril.
+     *
+     * @param id ID del alumno
+     * @param tarea tarea a ejecutar; el carril queda libre cuando se completa su futuro
+     * @param <T> tipo del resultado
+     * @return CompletableFuture con el resultado de la tarea
+     *
+     * @author Wara
+     */
+    public static <T> CompletableFuture<T> enOrden(String id, Supplier<CompletableFuture<T>> tarea) {
+        int carril = carril(id);
+        CompletableFuture<T> resultado = new CompletableFuture<>();
+        CompletableFuture<?> anterior;
+        synchronized (cerrojos[carril]) {
+            anterior = ultimas[carril];
+            ultimas[carril] = resultado;
+        }
+        encadenar(anterior, tarea, resultado);
+        return resultado;
+    }
+
+    /**
+     * Ejecuta una tarea sobre varios alumnos cuando han terminado las anteriores de todos sus carriles.
+     *
+     * @param ids IDs de los alumnos
+     * @param tarea tarea a ejecutar; los carriles quedan libres cuando se completa su futuro
+     * @param <T> tipo del resultado
+     * @return CompletableFuture con el resultado de la tarea
+     *
+     * @author Wara
+     */
+    public static <T> CompletableFuture<T> enOrden(Collection<String> ids, Supplier<CompletableFuture<T>> tarea) {
+        TreeSet<Integer> carriles = new TreeSet<>();
+        for (String id : ids) {
+            carriles.add(carril(id));
+        }
+        if (carriles.isEmpty()) {
+            return tarea.get();
+        }
+        if (carriles.size() == 1) {
+            return enOrden(ids.iterator().next(), tarea);
+        }
+        CompletableFuture<T> resultado = new CompletableFuture<>();
+        CompletableFuture<?>[] anteriores = ocupar(carriles.toArray(new Integer[0]), 0, resultado);
+        encadenar(CompletableFuture.allOf(anteriores), tarea, resultado);
+        return resultado;
+    }
+
+    /**
+     * Obtiene cuántas tareas tuvieron que esperar a otra de su carril desde el arranque.
+     *
+     * @return número de esperas
+     *
+     * @author Wara
+     */
+    public static long getEsperas() {
+        return esperas.get();
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    /**
+     * Toma en orden los cerrojos de varios carriles y pone una tarea como la última de todos ellos.
+     *
+     * @param carriles carriles en orden creciente
+     * @param desde primer carril aún no tomado
+     * @param tarea futuro de la tarea que ocupa los carriles
+     * @return últimas tareas que tenían los carriles
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<?>[] ocupar(Integer[] carriles, int desde, CompletableFuture<?> tarea) {
+        if (desde < carriles.length) {
+            synchronized (cerrojos[carriles[desde]]) {
+                return ocupar(carriles, desde + 1, tarea);
+            }
+        }
+
+        // Todos los cerrojos tomados
+        CompletableFuture<?>[] anteriores = new CompletableFuture<?>[carriles.length];
+        for (int i = 0; i < carriles.length; i++) {
+            anteriores[i] = ultimas[carriles[i]];
+            ultimas[carriles[i]] = tarea;
+        }
+        return anteriores;
+    }
+
+    /**
+     * Ejecuta una tarea cuando termina otra, bien o mal, y pasa su resultado al futuro que ocupa el carril.
+     *
+     * @param anterior tarea tras la que se ejecuta
+     * @param tarea tarea a ejecutar
+     * @param resultado futuro que ocupa el carril
+     * @param <T> tipo del resultado
+     *
+     * @author Wara
+     */
+    private static <T> void encadenar(CompletableFuture<?> anterior, Supplier<CompletableFuture<T>> tarea,
+                                      CompletableFuture<T> resultado) {
+        if (!anterior.isDone()) {
+            esperas.incrementAndGet();
+            logger.debug("Escritura en espera de la anterior de su carril");
+        }
+        anterior.handle((r, ex) -> null)
+                .thenCompose(v -> tarea.get())
+                .whenComplete((valor, ex) -> {
+                    if (ex != null) {
+                        resultado.completeExceptionally(ex);
+                    } else {
+                        resultado.complete(valor);
+                    }
+                });
+    }
+
+    /**
+     * Calcula el carril de un alumno.
+     *
+     * @param id ID del alumno
+     * @return índice del carril
+     *
+     * @author Wara
+     */
+    private static int carril(String id) {
+        int h = id.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), CARRILES);
+    }
+}
@@ -0,0 +1,651 @@
+package es.potter.servicio;
+
+import es.potter.dao.DaoAlumno;
+import es.potter.dao.DaoColaReplicacion;
+import es.potter.dao.DaoColaReplicacion.Entrada;
+import es.potter.database.TipoBaseDatos;
+import es.potter.model.OperacionAlumno;
+import es.potter.util.Propiedades;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cola de replicación write-behind hacia los slaves (casas + SQLite).
+ * FUNCIONAMIENTO:
+ * - Tras confirmar en el MASTER, las operaciones para los slaves se entregan a un hilo propio que las
+ *   guarda en disco, en el orden en que llegan; quien escribe en el MASTER no espera al disco local
+ * - Un hilo en segundo plano las aplica por lotes, en orden, en cada destino
+ * - Si un destino no responde, se reintenta con espera exponencial hasta que acepte el lote;
+ *   mientras tanto sus operaciones siguientes esperan detrás para no aplicarse desordenadas
+ * - Si el destino responde pero rechaza el lote, se reintenta operación a operación para dar con la
+ *   culpable; una operación rechazada sola {@code cola.replicacion.intentos.max} veces se aparta a la
+ *   tabla de descartadas para que no bloquee la cola, y la sincronización incremental o la completa la corrige
+ * - Los demás destinos siguen avanzando con normalidad
+ * - Lo pendiente al cerrar la aplicación se reanuda en el siguiente arranque ({@link #iniciar()})
+ * - La cola no es atómica con el commit del MASTER: una operación que no llegue a guardarse (cierre
+ *   brusco, disco lleno) la aplica después la sincronización incremental desde alumnos_cambios
+ * FUSIÓN: si llega una operación para un alumno que ya tiene otra esperando en el mismo destino
+ * (y aún no enviada), ambas se fusionan en una sola ({@link OperacionAlumno#fusionarCon}), así que
+ * varias ediciones rápidas seguidas llegan al slave como una única escritura.
+ * RETENCIÓN: mientras una réplica se vacía y se vuelve a cargar (ver {@link CargaMasiva}) su cola se retiene:
+ * no se le envía nada, y lo pendiente se aplica después, sobre la carga ya confirmada.
+ * MÉTRICAS: profundidad (operaciones pendientes), edad (antigüedad de la más vieja) y escrituras
+ * ahorradas por fusión, por destino y en total.
+ * CONFIGURACIÓN (opcional en configuration.properties):
+ * - cola.replicacion.lote: operaciones por transacción en cada destino (por defecto 100)
+ * - cola.replicacion.reintento.ms: espera tras el primer fallo (por defecto 500)
+ * - cola.replicacion.reintento.max.ms: espera máxima entre reintentos (por defecto 60000)
+ * - cola.replicacion.intentos.max: rechazos de una operación antes de descartarla (por defecto 10)
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-06
+ */
+public class ColaReplicacion {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(ColaReplicacion.class);
+
+    /** Operaciones por transacción en cada destino */
+    private static final int LOTE = Math.max(1, Propiedades.getEntero("cola.replicacion.lote", 100));
+
+    /** Espera tras el primer fallo */
+    private static final long REINTENTO_MS = Math.max(1, Propiedades.getEntero("cola.replicacion.reintento.ms", 500));
+
+    /** Espera máxima entre reintentos */
+    private static final long REINTENTO_MAX_MS = Math.max(REINTENTO_MS,
+            Propiedades.getEntero("cola.replicacion.reintento.max.ms", 60000));
+
+    /** Veces que un destino puede rechazar una operación antes de descartarla */
+    private static final int INTENTOS_MAX = Math.max(1, Propiedades.getEntero("cola.replicacion.intentos.max", 10));
+
+    /** Protege el estado en memoria de la cola */
+    private static final Object cerrojo = new Object();
+
+    /** Operaciones pendientes por destino, por posición y en orden de llegada */
+    private static final Map<TipoBaseDatos, LinkedHashMap<Long, Entrada>> colas = new EnumMap<>(TipoBaseDatos.class);
+
+    /** Por destino, posición de la última entrada aún no enviada de cada alumno (candidata a fusionarse) */
+    private static final Map<TipoBaseDatos, Map<String, Long>> fusionables = new EnumMap<>(TipoBaseDatos.class);
+
+    /** Escrituras ahorradas por fusión en cada destino */
+    private static final Map<TipoBaseDatos, AtomicLong> ahorradas = new ConcurrentHashMap<>();
+
+    /** Destinos con un lote en curso */
+    private static final Set<TipoBaseDatos> enCurso = EnumSet.noneOf(TipoBaseDatos.class);
+
+    /** Destinos cuya cola está retenida (no se les envía nada) */
+    private static final Set<TipoBaseDatos> retenidos = EnumSet.noneOf(TipoBaseDatos.class);
+
+    /** Cada cuánto se comprueba si el lote en curso de un destino retenido ya terminó */
+    private static final long ESPERA_RETENCION_MS = 50;
+
+    /** Destinos que rechazaron el último lote: se les envía una operación cada vez hasta aislar la culpable */
+    private static final Set<TipoBaseDatos> aislando = EnumSet.noneOf(TipoBaseDatos.class);
+
+    /** Fallos consecutivos de cada destino */
+    private static final Map<TipoBaseDatos, Integer> fallosSeguidos = new EnumMap<>(TipoBaseDatos.class);
+
+    /** Instante hasta el que un destino no se vuelve a intentar */
+    private static final Map<TipoBaseDatos, Long> esperarHasta = new EnumMap<>(TipoBaseDatos.class);
+
+    /** Futuros de los llamantes, por posición en la cola */
+    private static final Map<Long, CompletableFuture<Boolean>> esperas = new ConcurrentHashMap<>();
+
+    /** Operaciones aplicadas desde el arranque */
+    private static final AtomicLong aplicadas = new AtomicLong();
+
+    /** Lotes fallidos (y por tanto reintentados) desde el arranque */
+    private static final AtomicLong reintentos = new AtomicLong();
+
+    /** Operaciones descartadas desde el arranque */
+    private static final AtomicLong descartadas = new AtomicLong();
+
+    /** Indica si ya se cargó la cola de disco */
+    private static final AtomicBoolean iniciada = new AtomicBoolean(false);
+
+    /** Hilo que reparte los lotes a los destinos */
+    private static final ScheduledExecutorService ejecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread hilo = new Thread(r, "cola-replicacion");
+        hilo.setDaemon(true);
+        return hilo;
+    });
+
+    /** Hilo que guarda en disco lo que se encola, en orden de llegada */
+    private static final ExecutorService disco = Executors.newSingleThreadExecutor(r -> {
+        Thread hilo = new Thread(r, "cola-replicacion-disco");
+        hilo.setDaemon(true);
+        return hilo;
+    });
+
+    /**
+     * Carga lo que quedara pendiente en disco y empieza a aplicarlo.
+     * Se puede llamar varias veces; solo la primera tiene efecto.
+     *
+     * @author Wara
+     */
+    public static void iniciar() {
+        if (iniciada.get()) {
+            return;
+        }
+
+        // La carga se hace con el cerrojo tomado para que nada se encole antes que lo que ya estaba en disco
+        synchronized (cerrojo) {
+            if (!iniciada.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                List<Entrada> pendientes = DaoColaReplicacion.cargarPendientes();
+                for (Entrada entrada : pendientes) {
+                    anotar(entrada);
+                }
+                if (!pendientes.isEmpty()) {
+                    logger.info("Reanudando {} operaciones de replicación pendientes", pendientes.size());
+                }
+            } catch (SQLException e) {
+                logger.error("No se pudo leer la cola de replicación: {}", e.getMessage());
+            }
+        }
+        ejecutor.execute(ColaReplicacion::procesar);
+    }
+
+    /**
+     * Guarda una operación en la cola de un destino sin esperar al disco: la escritura la hace el hilo
+     * de la cola, en el mismo orden en que se llama a este método.
+     * Si el alumno ya tenía una operación sin enviar para ese destino, se fusiona con ella
+     * y ambos llamantes comparten el mismo resultado.
+     *
+     * @param destino slave al que se replica
+     * @param operacion operación a aplicar
+     * @return CompletableFuture que se completa con true cuando el destino confirma la operación, con false
+     *         si se descarta, o con una excepción si no se pudo guardar en disco
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Boolean> encolar(TipoBaseDatos destino, OperacionAlumno operacion) {
+        iniciar();
+
+        return CompletableFuture.supplyAsync(() -> {
+            CompletableFuture<Boolean> aplicada;
+            try {
+                // Se guarda dentro del cerrojo para que el orden en memoria sea el mismo que en disco
+                synchronized (cerrojo) {
+                    Entrada entrada = fusionar(destino, operacion);
+                    if (entrada == null) {
+                        entrada = DaoColaReplicacion.insertar(destino, operacion, System.currentTimeMillis());
+                        anotar(entrada);
+                    }
+                    aplicada = esperas.computeIfAbsent(entrada.id(), id -> new CompletableFuture<>());
+                }
+            } catch (SQLException e) {
+                logger.error("No se pudo encolar {} para {}: {}", operacion, destino, e.getMessage());
+                throw new IllegalStateException("No se pudo guardar la operación en la cola de replicación", e);
+            }
+            ejecutor.execute(ColaReplicacion::procesar);
+            return aplicada;
+        }, disco).thenCompose(aplicada -> aplicada);
+    }
+
+    /**
+     * Guarda varias operaciones en la cola de un destino con una sola escritura en disco, sin esperarla.
+     * Las que tengan otra operación sin enviar del mismo alumno se fusionan con ella, como en
+     * {@link #encolar}; el resto se añaden al final en el orden dado.
+     *
+     * @param destino slave al que se replica
+     * @param operaciones operaciones a aplicar, en orden
+     * @return CompletableFuture que se completa con true cuando el destino confirma todas, con false si
+     *         alguna se descarta, o con una excepción si no se pudieron guardar en disco
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Boolean> encolarTodas(TipoBaseDatos destino, List<OperacionAlumno> operaciones) {
+        iniciar();
+
+        return CompletableFuture.supplyAsync(() -> {
+            List<CompletableFuture<Boolean>> aplicadas = new ArrayList<>();
+            try {
+                synchronized (cerrojo) {
+                    List<OperacionAlumno> nuevas = new ArrayList<>();
+                    for (OperacionAlumno operacion : operaciones) {
+                        Entrada fusionada = fusionar(destino, operacion);
+                        if (fusionada != null) {
+                            aplicadas.add(esperas.computeIfAbsent(fusionada.id(), id -> new CompletableFuture<>()));
+                        } else {
+                            nuevas.add(operacion);
+                        }
+                    }
+                    for (Entrada entrada : DaoColaReplicacion.insertarTodas(destino, nuevas, System.currentTimeMillis())) {
+                        anotar(entrada);
+                        aplicadas.add(esperas.computeIfAbsent(entrada.id(), id -> new CompletableFuture<>()));
+                    }
+                }
+            } catch (SQLException e) {
+                logger.error("No se pudieron encolar {} operaciones para {}: {}", operaciones.size(), destino, e.getMessage());
+                throw new IllegalStateException("No se pudieron guardar las operaciones en la cola de replicación", e);
+            }
+            ejecutor.execute(ColaReplicacion::procesar);
+            return aplicadas;
+        }, disco).thenCompose(aplicadas -> CompletableFuture.allOf(aplicadas.toArray(new CompletableFuture[0]))
+                .thenApply(v -> aplicadas.stream().allMatch(CompletableFuture::join)));
+    }
+
+    /**
+     * Deja de enviar operaciones a un destino hasta {@link #soltar(TipoBaseDatos)}. Las que lleguen
+     * mientras tanto se siguen guardando en la cola.
+     *
+     * @param destino slave
+     * @return CompletableFuture que se completa cuando el destino ya no tiene ningún lote en curso
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Void> retener(TipoBaseDatos destino) {
+        iniciar();
+        synchronized (cerrojo) {
+            retenidos.add(destino);
+        }
+        logger.info("Cola de {} retenida", destino);
+        return esperarSinLote(destino);
+    }
+
+    /**
+     * Vuelve a enviar operaciones a un destino retenido con {@link #retener(TipoBaseDatos)}.
+     *
+     * @param destino slave
+     *
+     * @author Wara
+     */
+    public static void soltar(TipoBaseDatos destino) {
+        synchronized (cerrojo) {
+            if (!retenidos.remove(destino)) {
+                return;
+            }
+        }
+        logger.info("Cola de {} liberada ({} pendientes)", destino, getProfundidad(destino));
+        ejecutor.execute(ColaReplicacion::procesar);
+    }
+
+    // ==================== MÉTRICAS ====================
+
+    /**
+     * Obtiene el número de operaciones pendientes para un destino.
+     *
+     * @param destino slave
+     * @return operaciones pendientes
+     *
+     * @author Wara
+     */
+    public static int getProfundidad(TipoBaseDatos destino) {
+        synchronized (cerrojo) {
+            Map<Long, Entrada> cola = colas.get(destino);
+            return cola == null ? 0 : cola.size();
+        }
+    }
+
+    /**
+     * Obtiene el número total de operaciones pendientes.
+     *
+     * @return operaciones pendientes en todos los destinos
+     *
+     * @author Wara
+     */
+    public static int getProfundidad() {
+        synchronized (cerrojo) {
+            return colas.values().stream().mapToInt(Map::size).sum();
+        }
+    }
+
+    /**
+     * Obtiene la antigüedad de la operación pendiente más vieja de un destino.
+     *
+     * @param destino slave
+     * @return milisegundos desde que se encoló, o 0 si no hay pendientes
+     *
+     * @author Wara
+     */
+    public static long getEdadMs(TipoBaseDatos destino) {
+        synchronized (cerrojo) {
+            LinkedHashMap<Long, Entrada> cola = colas.get(destino);
+            return cola == null || cola.isEmpty() ? 0 : System.currentTimeMillis() - cola.firstEntry().getValue().creado();
+        }
+    }
+
+    /**
+     * Obtiene la antigüedad de la operación pendiente más vieja de todos los destinos.
+     *
+     * @return milisegundos desde que se encoló, o 0 si no hay pendientes
+     *
+     * @author Wara
+     */
+    public static long getEdadMs() {
+        synchronized (cerrojo) {
+            long ahora = System.currentTimeMillis();
+            return colas.values().stream()
+                    .filter(cola -> !cola.isEmpty())
+                    .mapToLong(cola -> ahora - cola.firstEntry().getValue().creado())
+                    .max()
+                    .orElse(0);
+        }
+    }
+
+    /**
+     * Obtiene el número de operaciones aplicadas desde el arranque.
+     *
+     * @return operaciones aplicadas
+     *
+     * @author Wara
+     */
+    public static long getAplicadas() {
+        return aplicadas.get();
+    }
+
+    /**
+     * Obtiene el número de lotes fallidos desde el arranque.
+     *
+     * @return lotes que hubo que reintentar
+     *
+     * @author Wara
+     */
+    public static long getReintentos() {
+        return reintentos.get();
+    }
+
+    /**
+     * Obtiene el número de operaciones descartadas desde el arranque por rechazarlas su destino
+     * demasiadas veces (ver la tabla de descartadas de {@link DaoColaReplicacion}).
+     *
+     * @return operaciones descartadas
+     *
+     * @author Wara
+     */
+    public static long getDescartadas() {
+        return descartadas.get();
+    }
+
+    /**
+     * Obtiene el número de escrituras que la fusión ha evitado en un destino desde el arranque.
+     *
+     * @param destino slave
+     * @return escrituras ahorradas
+     *
+     * @author Wara
+     */
+    public static long getAhorradas(TipoBaseDatos destino) {
+        AtomicLong contador = ahorradas.get(destino);
+        return contador == null ? 0 : contador.get();
+    }
+
+    /**
+     * Obtiene el número total de escrituras que la fusión ha evitado desde el arranque.
+     *
+     * @return escrituras ahorradas en todos los destinos
+     *
+     * @author Wara
+     */
+    public static long getAhorradas() {
+        return ahorradas.values().stream().mapToLong(AtomicLong::get).sum();
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    /**
+     * Añade una entrada al final de la cola de su destino y la marca como fusionable.
+     * Se llama con el cerrojo tomado.
+     *
+     * @param entrada entrada ya guardada en disco
+     *
+     * @author Wara
+     */
+    private static void anotar(Entrada entrada) {
+        colas.computeIfAbsent(entrada.destino(), d -> new LinkedHashMap<>()).put(entrada.id(), entrada);
+        fusionables.computeIfAbsent(entrada.destino(), d -> new HashMap<>())
+                .put(entrada.operacion().getId(), entrada.id());
+    }
+
+    /**
+     * Intenta fusionar una operación con la última operación sin enviar del mismo alumno en el destino.
+     * La entrada fusionada conserva su posición en la cola. Se llama con el cerrojo tomado.
+     *
+     * @param destino slave
+     * @param operacion operación nueva
+     * @return entrada fusionada, o null si no había con quién fusionar
+     * @throws SQLException Si no se pudo guardar la fusión en disco
+     *
+     * @author Wara
+     */
+    private static Entrada fusionar(TipoBaseDatos destino, OperacionAlumno operacion) throws SQLException {
+        Map<String, Long> porAlumno = fusionables.get(destino);
+        Long posicion = porAlumno == null ? null : porAlumno.get(operacion.getId());
+        if (posicion == null) {
+            return null;
+        }
+
+        Entrada anterior = colas.get(destino).get(posicion);
+        OperacionAlumno fusion = anterior.operacion().fusionarCon(operacion);
+        DaoColaReplicacion.reemplazar(posicion, fusion);
+
+        Entrada entrada = new Entrada(posicion, destino, fusion, anterior.creado(), anterior.intentos());
+        colas.get(destino).put(posicion, entrada); // Mantiene la posición original
+        ahorradas.computeIfAbsent(destino, d -> new AtomicLong()).incrementAndGet();
+        logger.debug("{}: {} + {} fusionadas en {}", destino, anterior.operacion(), operacion, fusion);
+        return entrada;
+    }
+
+    /**
+     * Espera, sin bloquear ningún hilo, a que un destino no tenga ningún lote en curso.
+     *
+     * @param destino slave
+     * @return CompletableFuture que se completa cuando no lo tiene
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Void> esperarSinLote(TipoBaseDatos destino) {
+        synchronized (cerrojo) {
+            if (!enCurso.contains(destino)) {
+                return CompletableFuture.completedFuture(null);
+            }
+        }
+        return CompletableFuture.runAsync(() -> {},
+                        CompletableFuture.delayedExecutor(ESPERA_RETENCION_MS, TimeUnit.MILLISECONDS, ejecutor))
+                .thenCompose(v -> esperarSinLote(destino));
+    }
+
+    /**
+     * Lanza un lote en cada destino que tenga pendientes, no tenga otro lote en curso, no esté retenido
+     * y no esté esperando para reintentar. Se ejecuta siempre en el hilo de la cola.
+     *
+     * @author Wara
+     */
+    private static void procesar() {
+        long ahora = System.currentTimeMillis();
+
+        synchronized (cerrojo) {
+            for (Map.Entry<TipoBaseDatos, LinkedHashMap<Long, Entrada>> cola : colas.entrySet()) {
+                TipoBaseDatos destino = cola.getKey();
+                if (cola.getValue().isEmpty() || enCurso.contains(destino) || retenidos.contains(destino)
+                        || esperarHasta.getOrDefault(destino, 0L) > ahora) {
+                    continue;
+                }
+
+                List<Entrada> lote = new ArrayList<>();
+                Map<String, Long> porAlumno = fusionables.get(destino);
+                int tamanio = aislando.contains(destino) ? 1 : LOTE;
+                for (Entrada entrada : cola.getValue().values()) {
+                    if (lote.size() == tamanio) {
+                        break;
+                    }
+                    lote.add(entrada);
+                    // Una vez enviada ya no se puede tocar: lo siguiente de ese alumno irá en otra entrada
+                    porAlumno.remove(entrada.operacion().getId(), entrada.id());
+                }
+                enCurso.add(destino);
+                aplicar(destino, lote);
+            }
+        }
+    }
+
+    /**
+     * Aplica un lote en su destino y procesa el resultado cuando termine.
+     *
+     * @param destino slave
+     * @param lote entradas a aplicar, en orden
+     *
+     * @author Wara
+     */
+    private static void aplicar(TipoBaseDatos destino, List<Entrada> lote) {
+        List<OperacionAlumno> operaciones = lote.stream().map(Entrada::operacion).toList();
+
+        DaoAlumno.replicar(operaciones, destino)
+                .handle((exito, ex) -> {
+                    if (ex != null) {
+                        logger.warn("No se pudo conectar con {} para replicar: {}", destino, ex.getMessage());
+                        reprogramar(destino, lote, false);
+                    } else if (exito) {
+                        confirmar(destino, lote);
+                    } else {
+                        reprogramar(destino, lote, true);
+                    }
+                    return null;
+                });
+    }
+
+    /**
+     * Quita de la cola un lote confirmado por su destino y avisa a los llamantes.
+     *
+     * @param destino slave
+     * @param lote entradas aplicadas
+     *
+     * @author Wara
+     */
+    private static void confirmar(TipoBaseDatos destino, List<Entrada> lote) {
+        List<Long> ids = lote.stream().map(Entrada::id).toList();
+
+        try {
+            DaoColaReplicacion.eliminar(ids);
+        } catch (SQLException e) {
+            // El destino ya tiene los datos; si se repiten en el próximo arranque no pasa nada (son idempotentes)
+            logger.warn("No se pudieron borrar de disco {} operaciones ya aplicadas en {}: {}",
+                    ids.size(), destino, e.getMessage());
+        }
+
+        synchronized (cerrojo) {
+            ids.forEach(colas.get(destino)::remove);
+            enCurso.remove(destino);
+            aislando.remove(destino);
+            fallosSeguidos.remove(destino);
+            esperarHasta.remove(destino);
+        }
+        aplicadas.addAndGet(lote.size());
+        MonitorReplicacion.registrarAplicacion(destino);
+        logger.debug("Replicadas {} operaciones en {}", lote.size(), destino);
+
+        for (Long id : ids) {
+            CompletableFuture<Boolean> espera = esperas.remove(id);
+            if (espera != null) {
+                espera.complete(true);
+            }
+        }
+        ejecutor.execute(ColaReplicacion::procesar);
+    }
+
+    /**
+     * Deja un destino en espera tras un lote fallido y programa el reintento.
+     * La espera se duplica con cada fallo consecutivo hasta el máximo configurado.
+     * Si el destino rechazó el lote, los siguientes van de uno en uno; solo se anotan intentos
+     * a una operación rechazada sola, y al llegar al máximo se descarta.
+     *
+     * @param destino slave
+     * @param lote entradas que no se pudieron aplicar
+     * @param rechazado true si el destino respondió y rechazó el lote; false si no se pudo conectar
+     *
+     * @author Wara
+     */
+    private static void reprogramar(TipoBaseDatos destino, List<Entrada> lote, boolean rechazado) {
+        int fallos;
+        long espera;
+        Entrada culpable = rechazado && lote.size() == 1 ? lote.getFirst() : null;
+
+        if (culpable != null && culpable.intentos() + 1 >= INTENTOS_MAX) {
+            descartar(destino, culpable);
+            return;
+        }
+
+        synchronized (cerrojo) {
+            fallos = fallosSeguidos.merge(destino, 1, Integer::sum);
+            espera = Math.min(REINTENTO_MAX_MS, REINTENTO_MS << Math.min(fallos - 1, 20));
+            esperarHasta.put(destino, System.currentTimeMillis() + espera);
+            enCurso.remove(destino);
+            if (rechazado) {
+                aislando.add(destino);
+            }
+            if (culpable != null) {
+                colas.get(destino).computeIfPresent(culpable.id(), (id, entrada) -> new Entrada(id, entrada.destino(),
+                        entrada.operacion(), entrada.creado(), entrada.intentos() + 1));
+            }
+        }
+        reintentos.incrementAndGet();
+
+        if (culpable != null) {
+            try {
+                DaoColaReplicacion.anotarIntento(List.of(culpable.id()));
+            } catch (SQLException e) {
+                logger.warn("No se pudo anotar el intento fallido en la cola: {}", e.getMessage());
+            }
+        }
+
+        logger.warn("Replicación en {} fallida ({} seguidos, {} pendientes), se reintenta en {} ms",
+                destino, fallos, getProfundidad(destino), espera);
+        ejecutor.schedule(ColaReplicacion::procesar, espera, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Aparta una operación que su destino rechaza una y otra vez, para que no bloquee las siguientes.
+     * Queda en la tabla de descartadas y su llamante recibe false.
+     *
+     * @param destino slave
+     * @param entrada entrada rechazada
+     *
+     * @author Wara
+     */
+    private static void descartar(TipoBaseDatos destino, Entrada entrada) {
+        try {
+            DaoColaReplicacion.descartar(entrada.id());
+        } catch (SQLException e) {
+            // Si no se aparta en disco volverá a la cola en el próximo arranque y se descartará de nuevo
+            logger.warn("No se pudo apartar en disco la operación {}: {}", entrada.id(), e.getMessage());
+        }
+
+        synchronized (cerrojo) {
+            colas.get(destino).remove(entrada.id());
+            enCurso.remove(destino);
+            fallosSeguidos.remove(destino);
+            esperarHasta.remove(destino);
+        }
+        descartadas.incrementAndGet();
+        logger.error("{} rechazada {} veces por {}: se descarta de la cola (queda en {})",
+                entrada.operacion(), INTENTOS_MAX, destino, DaoColaReplicacion.TABLA_DESCARTADAS);
+
+        CompletableFuture<Boolean> espera = esperas.remove(entrada.id());
+        if (espera != null) {
+            espera.complete(false);
+        }
+        ejecutor.execute(ColaReplicacion::procesar);
+    }
+}
@@ -0,0 +1,312 @@
+package es.potter.servicio;
+
+import es.potter.dao.DaoHuellas;
+import es.potter.dao.DaoHuellas.Resumen;
+import es.potter.database.MapaShards;
+import es.potter.database.TipoBaseDatos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Compara el MASTER con una réplica mediante un árbol de resúmenes por cubos (estilo Merkle).
+ * FUNCIONAMIENTO:
+ * 1. Ambos lados calculan en SQL el resumen (filas + suma de huellas) de los 16 cubos de primer nivel
+ * 2. Solo los cubos distintos se dividen en sus 16 subcubos y se vuelven a comparar
+ * 3. En las hojas distintas se comparan ID a ID las huellas
+ * Así se detectan altas, modificaciones y bajas moviendo una fracción mínima de los datos
+ * cuando la réplica está casi al día.
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-05
+ */
+public class ComparadorMerkle {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(ComparadorMerkle.class);
+
+    /** Longitud del prefijo de las hojas: 2 niveles de 16 cubos = 256 hojas */
+    private static final int NIVELES = 2;
+
+    /**
+     * Qué se compara: la réplica, la casa por la que filtrar y qué cubos le tocan.
+     *
+     * @param replica base de datos réplica
+     * @param casa casa por la que filtrar, o null
+     * @param reparto reparto con el que se decide qué cubos le tocan
+     * @param soloPropios true si los cubos que no le tocan se ignoran
+     */
+    private record Alcance(TipoBaseDatos replica, String casa, MapaShards.Reparto reparto, boolean soloPropios) {
+
+        /**
+         * Indica si un cubo le toca a la réplica.
+         *
+         * @param prefijo prefijo del cubo
+         * @return true si el reparto se lo asigna
+         */
+        boolean esPropio(String prefijo) {
+            return reparto.alojaCubo(replica, prefijo);
+        }
+    }
+
+    /**
+     * Diferencias encontradas entre el MASTER y una réplica.
+     *
+     * @author Wara
+     */
+    public static class Diferencias {
+
+        /** IDs que están en el MASTER y faltan en la réplica */
+        private final Set<String> altas = new TreeSet<>();
+
+        /** IDs presentes en ambos lados con contenido distinto */
+        private final Set<String> modificaciones = new TreeSet<>();
+
+        /** IDs que están en la réplica pero ya no en el MASTER */
+        private final Set<String> bajas = new TreeSet<>();
+
+        /** Número de consultas de resumen y de hoja realizadas */
+        private final AtomicInteger consultas = new AtomicInteger();
+
+        /**
+         * Obtiene los IDs que faltan en la réplica.
+         *
+         * @return IDs a insertar
+         *
+         * @author Wara
+         */
+        public synchronized Set<String> getAltas() {
+            return new TreeSet<>(altas);
+        }
+
+        /**
+         * Obtiene los IDs cuyo contenido difiere.
+         *
+         * @return IDs a modificar
+         *
+         * @author Wara
+         */
+        public synchronized Set<String> getModificaciones() {
+            return new TreeSet<>(modificaciones);
+        }
+
+        /**
+         * Obtiene los IDs que sobran en la réplica.
+         *
+         * @return IDs a eliminar
+         *
+         * @author Wara
+         */
+        public synchronized Set<String> getBajas() {
+            return new TreeSet<>(bajas);
+        }
+
+        /**
+         * Indica si la réplica coincide con el MASTER.
+         *
+         * @return true si no hay ninguna diferencia
+         *
+         * @author Wara
+         */
+        public synchronized boolean estaVacia() {
+            return altas.isEmpty() && modificaciones.isEmpty() && bajas.isEmpty();
+        }
+
+        /**
+         * Obtiene el número de consultas realizadas para encontrar las diferencias.
+         *
+         * @return consultas de resumen y de hoja (contando ambos lados)
+         *
+         * @author Wara
+         */
+        public int getConsultas() {
+            return consultas.get();
+        }
+
+        /**
+         * Clasifica las diferencias de una hoja comparando huellas ID a ID.
+         *
+         * @param master huellas del MASTER
+         * @param replica huellas de la réplica
+         *
+         * @author Wara
+         */
+        private synchronized void registrarHoja(Map<String, Long> master, Map<String, Long> replica) {
+            for (Map.Entry<String, Long> entrada : master.entrySet()) {
+                Long huellaReplica = replica.get(entrada.getKey());
+                if (huellaReplica == null) {
+                    altas.add(entrada.getKey());
+                } else if (huellaReplica == DaoHuellas.SIN_HUELLA
+                        || entrada.getValue() == DaoHuellas.SIN_HUELLA
+                        || !huellaReplica.equals(entrada.getValue())) {
+                    modificaciones.add(entrada.getKey());
+                }
+            }
+            for (String id : replica.keySet()) {
+                if (!master.containsKey(id)) {
+                    bajas.add(id);
+                }
+            }
+        }
+
+        /**
+         * Representación textual con el recuento de cada tipo de diferencia.
+         *
+         * @return String descriptivo
+         *
+         * @author Wara
+         */
+        @Override
+        public synchronized String toString() {
+            return altas.size() + " altas, " + modificaciones.size() + " modificaciones, "
+                    + bajas.size() + " bajas (" + consultas.get() + " consultas)";
+        }
+    }
+
+    /**
+     * Compara una réplica con el MASTER.
+     * Los backends de una casa se comparan solo con los alumnos de su casa y, si la casa está repartida,
+     * solo en los cubos que les tocan (ver {@link MapaShards}); SQLite con todos.
+     *
+     * @param replica base de datos réplica
+     * @return CompletableFuture con las diferencias encontradas
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Diferencias> comparar(TipoBaseDatos replica) {
+        return comparar(replica, MapaShards.getReparto(), false);
+    }
+
+    /**
+     * Compara con el MASTER solo los cubos que un backend guarda en un reparto dado; los demás se ignoran.
+     * Sirve para verificar un backend antes de pasar a ese reparto (ver {@link MigracionShard}).
+     *
+     * @param replica backend a verificar
+     * @param reparto reparto con el que se decide qué cubos le tocan
+     * @return CompletableFuture con las diferencias encontradas en sus cubos
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Diferencias> compararPropios(TipoBaseDatos replica, MapaShards.Reparto reparto) {
+        return comparar(replica, reparto, true);
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    /**
+     * Compara una réplica con el MASTER según un reparto.
+     *
+     * @param replica base de datos réplica
+     * @param reparto reparto de las casas en backends
+     * @param soloPropios true para ignorar los cubos que no le tocan; false para tratarlos como vacíos en el MASTER
+     * @return CompletableFuture con las diferencias encontradas
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Diferencias> comparar(TipoBaseDatos replica, MapaShards.Reparto reparto,
+                                                           boolean soloPropios) {
+        TipoBaseDatos tipoCasa = reparto.casaDe(replica);
+        String casa = tipoCasa != null ? tipoCasa.obtenerNombreCasa() : null;
+        Diferencias diferencias = new Diferencias();
+        Alcance alcance = new Alcance(replica, casa, reparto, soloPropios);
+
+        return explorar(alcance, "", diferencias).thenApply(v -> {
+            logger.info("Comparación MASTER / {}: {}", replica, diferencias);
+            return diferencias;
+        });
+    }
+
+    /**
+     * Compara los subcubos de un cubo y desciende solo por los que difieren.
+     * Los cubos distintos se recorren uno detrás de otro para no abrir decenas
+     * de conexiones a la vez contra el mismo servidor.
+     *
+     * @param alcance qué se compara
+     * @param prefijo prefijo del cubo actual
+     * @param diferencias acumulador de diferencias
+     * @return CompletableFuture que se completa al terminar de explorar el cubo
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Void> explorar(Alcance alcance, String prefijo, Diferencias diferencias) {
+        if (prefijo.length() >= NIVELES) {
+            return compararHoja(alcance, prefijo, diferencias);
+        }
+
+        diferencias.consultas.addAndGet(2);
+        CompletableFuture<Map<String, Resumen>> master =
+                DaoHuellas.resumirCubos(TipoBaseDatos.MARIADB, alcance.casa(), prefijo);
+        CompletableFuture<Map<String, Resumen>> copia = DaoHuellas.resumirCubos(alcance.replica(), alcance.casa(), prefijo);
+
+        return master.thenCombine(copia, (resumenes, resumenesReplica) -> {
+            // Los cubos de otros backends de la casa cuentan como vacíos en el MASTER,
+            // o no se miran si solo se comparan los propios
+            Map<String, Resumen> resumenMaster = new HashMap<>(resumenes);
+            Map<String, Resumen> resumenReplica = new HashMap<>(resumenesReplica);
+            resumenMaster.keySet().removeIf(cubo -> !alcance.esPropio(cubo));
+            if (alcance.soloPropios()) {
+                resumenReplica.keySet().removeIf(cubo -> !alcance.esPropio(cubo));
+            }
+
+            Set<String> cubos = new TreeSet<>(resumenMaster.keySet());
+            cubos.addAll(resumenReplica.keySet());
+
+            CompletableFuture<Void> cadena = CompletableFuture.completedFuture(null);
+            for (String cubo : cubos) {
+                if (Objects.equals(resumenMaster.get(cubo), resumenReplica.get(cubo))) {
+                    continue;
+                }
+                // Si un lado no tiene el cubo no hace falta seguir bajando: todo él es diferencia
+                boolean faltaEnUnLado = !resumenMaster.containsKey(cubo) || !resumenReplica.containsKey(cubo);
+                cadena = cadena.thenCompose(v -> faltaEnUnLado
+                        ? compararHoja(alcance, cubo, diferencias)
+                        : explorar(alcance, cubo, diferencias));
+            }
+            return cadena;
+        }).thenCompose(Function.identity());
+    }
+
+    /**
+     * Compara ID a ID las huellas de una hoja.
+     *
+     * @param alcance qué se compara
+     * @param prefijo prefijo de la hoja
+     * @param diferencias acumulador de diferencias
+     * @return CompletableFuture que se completa al registrar las diferencias de la hoja
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Void> compararHoja(Alcance alcance, String prefijo, Diferencias diferencias) {
+        diferencias.consultas.addAndGet(2);
+        CompletableFuture<Map<String, Long>> master = alcance.esPropio(prefijo)
+                ? DaoHuellas.huellasDeCubo(TipoBaseDatos.MARIADB, alcance.casa(), prefijo)
+                : CompletableFuture.completedFuture(Map.of());
+        CompletableFuture<Map<String, Long>> copia = DaoHuellas.huellasDeCubo(alcance.replica(), alcance.casa(), prefijo);
+
+        return master.thenAcceptBoth(copia, diferencias::registrarHoja);
+    }
+
+    /**
+     * Reúne en un único conjunto los IDs que hay que leer del MASTER (altas y modificaciones).
+     *
+     * @param diferencias diferencias encontradas
+     * @return IDs a cargar desde el MASTER
+     *
+     * @author Wara
+     */
+    static Set<String> idsACopiar(Diferencias diferencias) {
+        Set<String> ids = new HashSet<>(diferencias.getAltas());
+        ids.addAll(diferencias.getModificaciones());
+        return ids;
+    }
+}
@@ -0,0 +1,17 @@
+package es.potter.servicio;
+
+/**
+ * Estrategias para leer la vista completa de Hogwarts (todos los alumnos).
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public enum EstrategiaLectura {
+
+    /** Toda la tabla desde el MASTER */
+    MASTER,
+
+    /** Las cuatro casas en paralelo y unidas en una lista; el MASTER si alguna casa no está sana */
+    REPARTIDA
+}
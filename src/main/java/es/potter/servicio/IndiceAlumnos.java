@@ -0,0 +1,283 @@
+package es.potter.servicio;
+
+import es.potter.database.TipoBaseDatos;
+import es.potter.model.Alumno;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Colección de alumnos en memoria con índices secundarios, para responder consultas
+ * sobre una lista ya cargada sin recorrerla entera ni volver a la base de datos.
+ *
+ * FUNCIONAMIENTO:
+ * - Índice hash por ID: buscar un alumno cuesta O(1)
+ * - Índice por casa (un mapa por cada {@link TipoBaseDatos} de casa): los alumnos de una casa cuestan O(1) más lo que se devuelve
+ * - Índice por curso (un cubo por curso): igual que la casa
+ * - Índice ordenado por apellidos (sin distinguir mayúsculas): buscar por el principio de los apellidos cuesta O(log n)
+ *   más lo que se devuelve, y los resultados salen ya ordenados
+ * - Los índices se mantienen al insertar, modificar o quitar cada alumno, sin reconstruirse
+ * - Guarda sus propias copias de los alumnos y devuelve copias, así que modificar un alumno
+ *   devuelto (por ejemplo al editarlo en pantalla) no desordena los índices
+ * No es segura entre hilos: quien la comparte debe protegerla (ver {@link CacheAlumnos}).
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class IndiceAlumnos {
+
+    /** Alumnos por ID, en el orden en que se añadieron */
+    private final Map<String, Alumno> porId = new LinkedHashMap<>();
+
+    /** Alumnos de cada casa, por ID */
+    private final Map<TipoBaseDatos, Map<String, Alumno>> porCasa = new EnumMap<>(TipoBaseDatos.class);
+
+    /** Alumnos de cada curso, por ID */
+    private final Map<Integer, Map<String, Alumno>> porCurso = new HashMap<>();
+
+    /** Alumnos por apellidos en minúsculas y, dentro de unos mismos apellidos, por ID */
+    private final NavigableMap<String, Map<String, Alumno>> porApellidos = new TreeMap<>();
+
+    /**
+     * Crea el índice con unos alumnos.
+     *
+     * @param alumnos alumnos iniciales (los que no tienen ID se ignoran)
+     *
+     * @author Wara
+     */
+    public IndiceAlumnos(Collection<Alumno> alumnos) {
+        for (Alumno alumno : alumnos) {
+            poner(alumno);
+        }
+    }
+
+    /**
+     * Añade un alumno o, si ya hay uno con su ID, lo sustituye.
+     *
+     * @param alumno alumno a guardar (se guarda una copia)
+     *
+     * @author Wara
+     */
+    public void poner(Alumno alumno) {
+        if (alumno == null || alumno.getId() == null) {
+            return;
+        }
+        quitar(alumno.getId());
+
+        Alumno copia = copiar(alumno);
+        String id = copia.getId();
+        porId.put(id, copia);
+        TipoBaseDatos casa = casaDe(copia);
+        if (casa != null) {
+            porCasa.computeIfAbsent(casa, c -> new LinkedHashMap<>()).put(id, copia);
+        }
+        porCurso.computeIfAbsent(copia.getCurso(), c -> new LinkedHashMap<>()).put(id, copia);
+        porApellidos.computeIfAbsent(claveApellidos(copia.getApellidos()), a -> new TreeMap<>()).put(id, copia);
+    }
+
+    /**
+     * Quita un alumno.
+     *
+     * @param id ID del alumno
+     * @return true si estaba
+     *
+     * @author Wara
+     */
+    public boolean quitar(String id) {
+        Alumno anterior = porId.remove(id);
+        if (anterior == null) {
+            return false;
+        }
+        TipoBaseDatos casa = casaDe(anterior);
+        if (casa != null) {
+            quitarDeCubo(porCasa, casa, id);
+        }
+        quitarDeCubo(porCurso, anterior.getCurso(), id);
+        quitarDeCubo(porApellidos, claveApellidos(anterior.getApellidos()), id);
+        return true;
+    }
+
+    /**
+     * Busca un alumno por su ID.
+     *
+     * @param id ID del alumno
+     * @return copia del alumno, o null si no está
+     *
+     * @author Wara
+     */
+    public Alumno buscar(String id) {
+        Alumno alumno = id == null ? null : porId.get(id);
+        return alumno == null ? null : copiar(alumno);
+    }
+
+    /**
+     * Obtiene los alumnos de una casa.
+     *
+     * @param casa casa
+     * @return copias de los alumnos de la casa
+     *
+     * @author Wara
+     */
+    public List<Alumno> deCasa(TipoBaseDatos casa) {
+        return copias(porCasa.getOrDefault(casa, Map.of()).values());
+    }
+
+    /**
+     * Obtiene los alumnos de un curso.
+     *
+     * @param curso curso
+     * @return copias de los alumnos del curso
+     *
+     * @author Wara
+     */
+    public List<Alumno> deCurso(int curso) {
+        return copias(porCurso.getOrDefault(curso, Map.of()).values());
+    }
+
+    /**
+     * Obtiene los alumnos cuyos apellidos empiezan por un texto, sin distinguir mayúsculas.
+     *
+     * @param prefijo principio de los apellidos
+     * @return copias de los alumnos, ordenados por apellidos
+     *
+     * @author Wara
+     */
+    public List<Alumno> conApellidos(String prefijo) {
+        String desde = claveApellidos(prefijo);
+        List<Alumno> alumnos = new ArrayList<>();
+        for (Map<String, Alumno> mismos : porApellidos.subMap(desde, true, desde + Character.MAX_VALUE, true).values()) {
+            alumnos.addAll(copias(mismos.values()));
+        }
+        return alumnos;
+    }
+
+    /**
+     * Obtiene todos los alumnos.
+     *
+     * @return copias de los alumnos, en el orden en que se añadieron
+     *
+     * @author Wara
+     */
+    public List<Alumno> todos() {
+        return copias(porId.values());
+    }
+
+    /**
+     * Obtiene el número de alumnos.
+     *
+     * @return alumnos guardados
+     *
+     * @author Wara
+     */
+    public int tamanio() {
+        return porId.size();
+    }
+
+    /**
+     * Copia un alumno, opcionalmente con otro ID (al modificar, los datos nuevos llegan sin ID).
+     *
+     * @param alumno alumno a copiar
+     * @param id ID de la copia
+     * @return copia
+     *
+     * @author Wara
+     */
+    public static Alumno copiar(Alumno alumno, String id) {
+        Alumno copia = new Alumno(alumno.getNombre(), alumno.getApellidos(), alumno.getCurso(),
+                alumno.getCasa(), alumno.getPatronus());
+        if (id != null) {
+            copia.setId(id);
+        }
+        return copia;
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    /**
+     * Copia un alumno con su ID.
+     *
+     * @param alumno alumno a copiar
+     * @return copia
+     *
+     * @author Wara
+     */
+    private static Alumno copiar(Alumno alumno) {
+        return copiar(alumno, alumno.getId());
+    }
+
+    /**
+     * Copia los alumnos de un cubo.
+     *
+     * @param alumnos alumnos del cubo
+     * @return lista con sus copias
+     *
+     * @author Wara
+     */
+    private static List<Alumno> copias(Collection<Alumno> alumnos) {
+        List<Alumno> lista = new ArrayList<>(alumnos.size());
+        for (Alumno alumno : alumnos) {
+            lista.add(copiar(alumno));
+        }
+        return lista;
+    }
+
+    /**
+     * Obtiene la casa de un alumno.
+     *
+     * @param alumno alumno
+     * @return casa, o null si no tiene o no es una casa conocida
+     *
+     * @author Wara
+     */
+    static TipoBaseDatos casaDe(Alumno alumno) {
+        if (alumno.getCasa() == null) {
+            return null;
+        }
+        try {
+            TipoBaseDatos casa = TipoBaseDatos.obtenerTipoBaseDatosPorCasa(alumno.getCasa());
+            return casa.esCasa() ? casa : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Normaliza unos apellidos para el índice ordenado.
+     *
+     * @param apellidos apellidos
+     * @return apellidos en minúsculas y sin espacios alrededor
+     *
+     * @author Wara
+     */
+    private static String claveApellidos(String apellidos) {
+        return apellidos == null ? "" : apellidos.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Quita un alumno del cubo de un índice y borra el cubo si se queda vacío.
+     *
+     * @param indice índice
+     * @param clave clave del cubo
+     * @param id ID del alumno
+     *
+     * @author Wara
+     */
+    private static <K> void quitarDeCubo(Map<K, Map<String, Alumno>> indice, K clave, String id) {
+        Map<String, Alumno> cubo = indice.get(clave);
+        if (cubo != null) {
+            cubo.remove(id);
+            if (cubo.isEmpty()) {
+                indice.remove(clave);
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package es.potter.servicio;
+
+import es.potter.database.SQLiteManager;
+import es.potter.database.TipoBaseDatos;
+import es.potter.model.Alumno;
+import es.potter.util.Propiedades;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Instantánea binaria de la última lista de alumnos cargada, para que al arrancar la tabla
+ * se pinte al momento sin esperar al MASTER.
+ *
+ * FUNCIONAMIENTO:
+ * - Cada vez que se carga la vista que muestra el arranque, se guarda en segundo plano en la
+ *   carpeta de datos de la aplicación (la de hogwarts.db, ver {@link SQLiteManager})
+ * - Se escribe entera en un archivo temporal de la misma carpeta y se mueve sobre la anterior
+ *   de forma atómica: quien la lea verá la anterior o la nueva, nunca una a medias
+ * - Se lee entera a un búfer en memoria y se decodifica desde ahí, sin dejar el archivo abierto ni
+ *   mapeado, para que el siguiente guardado pueda sustituirlo en cualquier sistema
+ * - Formato: cabecera (marca, versión, vista, instante de guardado, número de alumnos) y los alumnos
+ *   seguidos, con los textos en UTF-8 precedidos de su longitud (-1 si no hay texto)
+ * - Una instantánea de otra vista, de otra versión o dañada se ignora: solo se pierde el pintado rápido
+ * La instantánea puede estar atrasada; quien la muestra debe sustituirla por la lista fresca en cuanto llegue.
+ *
+ * CONFIGURACIÓN (opcional en configuration.properties):
+ * - instantanea.activa: guardar y leer la instantánea (por defecto true)
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class InstantaneaAlumnos {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(InstantaneaAlumnos.class);
+
+    /** Indica si la instantánea está activa */
+    private static final boolean ACTIVA = Boolean.parseBoolean(Propiedades.getValor("instantanea.activa", "true"));
+
+    /** Nombre del archivo en la carpeta de datos */
+    private static final String ARCHIVO = "alumnos.snap";
+
+    /** Marca del formato ("HGWS") */
+    private static final int MARCA = 0x48475753;
+
+    /** Versión del formato */
+    private static final short VERSION = 1;
+
+    /** Vista que se guarda: la que muestra la pantalla principal al arrancar */
+    public static final TipoBaseDatos VISTA = TipoBaseDatos.MARIADB;
+
+    /**
+     * Guarda en segundo plano la lista de una vista como nueva instantánea.
+     * Si la vista no es la que se guarda, no hace nada.
+     *
+     * @param tipo vista de la que se cargó la lista
+     * @param alumnos alumnos cargados (se copian antes de volver)
+     * @return CompletableFuture que se completa al terminar de guardarla (nunca excepcionalmente)
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Void> guardar(TipoBaseDatos tipo, List<Alumno> alumnos) {
+        if (!ACTIVA || tipo != VISTA) {
+            return CompletableFuture.completedFuture(null);
+        }
+        List<Alumno> copia = List.copyOf(alumnos);
+        long guardadaEn = System.currentTimeMillis();
+
+        return CompletableFuture.runAsync(() -> {
+            Path destino = null;
+            Path temporal = null;
+            try {
+                destino = SQLiteManager.getArchivoDatos(ARCHIVO);
+                temporal = Files.createTempFile(destino.getParent(), ARCHIVO, ".tmp");
+                try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.WRITE)) {
+                    ByteBuffer contenido = ByteBuffer.wrap(codificar(tipo, guardadaEn, copia));
+                    while (contenido.hasRemaining()) {
+                        canal.write(contenido);
+                    }
+                    canal.force(true); // En disco antes de sustituir la anterior
+                }
+                mover(temporal, destino);
+                logger.debug("Instantánea de {} guardada: {} alumnos", tipo, copia.size());
+            } catch (IOException | RuntimeException e) {
+                logger.warn("No se pudo guardar la instantánea de alumnos en {}: {}", destino, e.getMessage());
+                if (temporal != null) {
+                    try {
+                        Files.deleteIfExists(temporal);
+                    } catch (IOException ex) {
+                        logger.debug("No se pudo borrar {}: {}", temporal, ex.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Lee la última instantánea de una vista.
+     *
+     * @param tipo vista que se va a mostrar
+     * @return alumnos de la instantánea, o null si no hay una válida de esa vista
+     *
+     * @author Wara
+     */
+    public static List<Alumno> leer(TipoBaseDatos tipo) {
+        if (!ACTIVA || tipo != VISTA) {
+            return null;
+        }
+
+        Path archivo;
+        try {
+            archivo = SQLiteManager.getArchivoDatos(ARCHIVO);
+        } catch (RuntimeException e) {
+            return null;
+        }
+
+        try {
+            return decodificar(tipo, ByteBuffer.wrap(Files.readAllBytes(archivo)));
+        } catch (NoSuchFileException e) {
+            logger.debug("Aún no hay instantánea de alumnos");
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Instantánea de alumnos no válida, se ignora: {}", e.getMessage());
+        }
+        return null;
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    /**
+     * Codifica una lista de alumnos en el formato de la instantánea.
+     *
+     * @param tipo vista
+     * @param guardadaEn instante del guardado (ms)
+     * @param alumnos alumnos
+     * @return bytes de la instantánea
+     * @throws IOException si falla la escritura en memoria
+     *
+     * @author Wara
+     */
+    private static byte[] codificar(TipoBaseDatos tipo, long guardadaEn, List<Alumno> alumnos) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + alumnos.size() * 64);
+        try (DataOutputStream salida = new DataOutputStream(bytes)) {
+            salida.writeInt(MARCA);
+            salida.writeShort(VERSION);
+            escribirTexto(salida, tipo.name());
+            salida.writeLong(guardadaEn);
+            salida.writeInt(alumnos.size());
+            for (Alumno alumno : alumnos) {
+                escribirTexto(salida, alumno.getId());
+                escribirTexto(salida, alumno.getNombre());
+                escribirTexto(salida, alumno.getApellidos());
+                salida.writeByte(alumno.getCurso());
+                escribirTexto(salida, alumno.getCasa());
+                escribirTexto(salida, alumno.getPatronus());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodifica una instantánea.
+     *
+     * @param tipo vista esperada
+     * @param datos contenido del archivo
+     * @return alumnos, o null si la instantánea es de otra vista o de otra versión
+     * @throws IllegalArgumentException si el contenido está dañado
+     *
+     * @author Wara
+     */
+    private static List<Alumno> decodificar(TipoBaseDatos tipo, ByteBuffer datos) {
+        try {
+            if (datos.getInt() != MARCA || datos.getShort() != VERSION) {
+                logger.info("Instantánea de alumnos de otro formato, se ignora");
+                return null;
+            }
+            String vista = leerTexto(datos);
+            long guardadaEn = datos.getLong();
+            if (!tipo.name().equals(vista)) {
+                return null;
+            }
+
+            int total = datos.getInt();
+            if (total < 0 || total > datos.remaining()) {
+                throw new IllegalArgumentException("número de alumnos imposible: " + total);
+            }
+            List<Alumno> alumnos = new ArrayList<>(total);
+            for (int i = 0; i < total; i++) {
+                String id = leerTexto(datos);
+                String nombre = leerTexto(datos);
+                String apellidos = leerTexto(datos);
+                int curso = datos.get();
+                String casa = leerTexto(datos);
+                String patronus = leerTexto(datos);
+                Alumno alumno = new Alumno(nombre, apellidos, curso, casa, patronus);
+                alumno.setId(id);
+                alumnos.add(alumno);
+            }
+            logger.info("Instantánea de {} leída: {} alumnos guardados hace {} s", tipo, alumnos.size(),
+                    (System.currentTimeMillis() - guardadaEn) / 1000);
+            return alumnos;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("archivo truncado", e);
+        }
+    }
+
+    /**
+     * Escribe un texto en UTF-8 precedido de su longitud en bytes (-1 si es null).
+     *
+     * @param salida salida
+     * @param texto texto
+     * @throws IOException si falla la escritura
+     *
+     * @author Wara
+     */
+    private static void escribirTexto(DataOutputStream salida, String texto) throws IOException {
+        if (texto == null) {
+            salida.writeInt(-1);
+            return;
+        }
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        salida.writeInt(bytes.length);
+        salida.write(bytes);
+    }
+
+    /**
+     * Lee un texto escrito con {@link #escribirTexto(DataOutputStream, String)}.
+     *
+     * @param datos contenido
+     * @return texto, o null
+     * @throws IllegalArgumentException si la longitud no cabe en lo que queda
+     *
+     * @author Wara
+     */
+    private static String leerTexto(ByteBuffer datos) {
+        int longitud = datos.getInt();
+        if (longitud == -1) {
+            return null;
+        }
+        if (longitud < 0 || longitud > datos.remaining()) {
+            throw new IllegalArgumentException("texto de longitud imposible: " + longitud);
+        }
+        byte[] bytes = new byte[longitud];
+        datos.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Mueve la instantánea recién escrita sobre la anterior, de forma atómica si el sistema de archivos lo permite.
+     *
+     * @param temporal archivo escrito
+     * @param destino archivo de la instantánea
+     * @throws IOException si no se puede mover
+     *
+     * @author Wara
+     */
+    private static void mover(Path temporal, Path destino) throws IOException {
+        try {
+            Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
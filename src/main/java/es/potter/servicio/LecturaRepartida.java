@@ -0,0 +1,155 @@
+package es.potter.servicio;
+
+import es.potter.dao.DaoAlumno;
+import es.potter.database.MapaShards;
+import es.potter.database.TipoBaseDatos;
+import es.potter.model.Alumno;
+import es.potter.util.Propiedades;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lectura de todos los alumnos repartida entre las casas (scatter-gather).
+ * FUNCIONAMIENTO:
+ * - Se leen en paralelo todos los backends de las casas (ver {@link MapaShards}) y se unen en una
+ *   sola lista ordenada por ID, el mismo orden en que devuelve las filas el MASTER (por clave primaria)
+ * - Cada backend incluye las escrituras propias que aún no ha confirmado (ver {@link SesionEscrituras})
+ * - Un backend no está sano si falló hace poco o si su cola de replicación va demasiado atrasada;
+ *   en ese caso, o si falla durante la lectura, se lee todo del MASTER para no mostrar
+ *   una vista incompleta
+ * - La vista de una casa repartida en varios backends se lee igual, de los backends de esa casa
+ * CONFIGURACIÓN (opcional en configuration.properties):
+ * - lectura.repartida.retraso.max.ms: antigüedad máxima de lo pendiente en la cola de un backend (por defecto 5000)
+ * - lectura.repartida.pausa.ms: tiempo que un backend que falló queda fuera de las lecturas (por defecto 30000)
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class LecturaRepartida {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(LecturaRepartida.class);
+
+    /** Antigüedad máxima de lo pendiente en la cola de un backend para leer de él */
+    private static final long RETRASO_MAX_MS = Math.max(0, Propiedades.getEntero("lectura.repartida.retraso.max.ms", 5000));
+
+    /** Tiempo que un backend que falló queda fuera de las lecturas */
+    private static final long PAUSA_MS = Math.max(0, Propiedades.getEntero("lectura.repartida.pausa.ms", 30000));
+
+    /** Instante (ms) hasta el que cada backend queda fuera por un fallo reciente */
+    private static final Map<TipoBaseDatos, Long> fueraHasta = new ConcurrentHashMap<>();
+
+    /**
+     * Carga todos los alumnos desde los backends de las casas en paralelo o, si alguno no está sano,
+     * desde el MASTER.
+     *
+     * @return CompletableFuture con todos los alumnos ordenados por ID
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<ObservableList<Alumno>> cargar() {
+        List<TipoBaseDatos> backends = MapaShards.getBackends();
+        for (TipoBaseDatos backend : backends) {
+            if (!estaSana(backend)) {
+                logger.debug("{} no está sano, la vista de Hogwarts se lee del MASTER", backend);
+                return DaoAlumno.cargarAlumnos(TipoBaseDatos.MARIADB);
+            }
+        }
+
+        return leer(backends)
+                .exceptionallyCompose(ex -> {
+                    logger.warn("Lectura repartida incompleta, se lee del MASTER: {}", ex.getMessage());
+                    return DaoAlumno.cargarAlumnos(TipoBaseDatos.MARIADB);
+                });
+    }
+
+    /**
+     * Carga los alumnos de una casa leyendo en paralelo todos sus backends.
+     * Si alguno falla, la lectura falla entera para que el llamante decida de dónde leer.
+     *
+     * @param casa casa de Hogwarts
+     * @return CompletableFuture con los alumnos de la casa ordenados por ID
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<ObservableList<Alumno>> cargarCasa(TipoBaseDatos casa) {
+        List<TipoBaseDatos> backends = MapaShards.getBackends(casa);
+        if (backends.size() == 1) {
+            TipoBaseDatos backend = backends.getFirst();
+            return DaoAlumno.cargarAlumnos(backend).thenApply(alumnos -> SesionEscrituras.superponer(backend, alumnos));
+        }
+        return leer(backends);
+    }
+
+    /**
+     * Indica si un backend está sano para leer de él.
+     *
+     * @param backend backend de una casa
+     * @return true si no falló hace poco y su cola de replicación está al día
+     *
+     * @author Wara
+     */
+    public static boolean estaSana(TipoBaseDatos backend) {
+        Long hasta = fueraHasta.get(backend);
+        if (hasta != null && hasta > System.currentTimeMillis()) {
+            return false;
+        }
+        return ColaReplicacion.getEdadMs(backend) <= RETRASO_MAX_MS;
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    /**
+     * Lee varios backends en paralelo, cada uno con las escrituras propias sin confirmar,
+     * y une el resultado. El backend que falla queda fuera de las lecturas repartidas un tiempo.
+     *
+     * @param backends backends a leer
+     * @return CompletableFuture con los alumnos de todos ellos ordenados por ID
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<ObservableList<Alumno>> leer(List<TipoBaseDatos> backends) {
+        List<CompletableFuture<ObservableList<Alumno>>> lecturas = new ArrayList<>();
+        for (TipoBaseDatos backend : backends) {
+            lecturas.add(DaoAlumno.cargarAlumnos(backend)
+                    .thenApply(alumnos -> SesionEscrituras.superponer(backend, alumnos))
+                    .whenComplete((alumnos, ex) -> {
+                        if (ex != null) {
+                            logger.warn("{} falló en la lectura repartida, queda fuera {} ms", backend, PAUSA_MS);
+                            fueraHasta.put(backend, System.currentTimeMillis() + PAUSA_MS);
+                        }
+                    }));
+        }
+
+        return CompletableFuture.allOf(lecturas.toArray(new CompletableFuture[0]))
+                .thenApply(v -> unir(lecturas));
+    }
+
+    /**
+     * Une las lecturas de los backends en una lista ordenada por ID.
+     *
+     * @param lecturas lecturas terminadas de cada backend
+     * @return lista con todos los alumnos
+     *
+     * @author Wara
+     */
+    private static ObservableList<Alumno> unir(List<CompletableFuture<ObservableList<Alumno>>> lecturas) {
+        List<Alumno> todos = new ArrayList<>();
+        for (CompletableFuture<ObservableList<Alumno>> lectura : lecturas) {
+            todos.addAll(lectura.join());
+        }
+        todos.sort(Comparator.comparing(Alumno::getId));
+        logger.info("Cargados {} alumnos desde {} backends", todos.size(), lecturas.size());
+        return FXCollections.observableArrayList(todos);
+    }
+}
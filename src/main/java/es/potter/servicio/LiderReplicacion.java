@@ -0,0 +1,285 @@
+package es.potter.servicio;
+
+import es.potter.dao.DaoCambios;
+import es.potter.dao.DaoLiderazgo;
+import es.potter.util.Propiedades;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Elige entre todas las instancias de la aplicación un único líder que ejecuta la sincronización
+ * de fondo, para que la carga de las réplicas no crezca con el número de equipos abiertos.
+ *
+ * FUNCIONAMIENTO:
+ * - El liderazgo es un arrendamiento con vencimiento guardado en el MASTER (ver {@link DaoLiderazgo})
+ * - Cada instancia late cada {@code lider.latido.ms}: el líder renueva el arrendamiento y publica su
+ *   progreso; las demás intentan tomarlo por si ha vencido
+ * - Esta instancia solo se considera líder hasta el vencimiento que calculó al renovar (contado desde
+ *   antes de pedir la renovación), así que deja de actuar antes de que otra pueda tomar el relevo
+ * - Cada arrendamiento trae un token creciente que se comprueba y se guarda en cada réplica con cada
+ *   escritura de sincronización (marcas de agua, diferencias, cargas masivas): un líder que se quedó
+ *   colgado y despierta tarde, o una instancia que nunca fue líder, no puede pisar lo que escribió el nuevo
+ * - Solo el líder sincroniza los backends compartidos de las casas en las rondas programadas
+ *   ({@link ProgramadorSincronizacion}); una sincronización completa pedida en otra instancia se deja
+ *   como petición y la hace el líder, mientras la instancia que la pidió observa el arrendamiento
+ *   hasta ver el resultado. SQLite es local de cada equipo: cada instancia sincroniza el suyo, sin token
+ * - Al cerrar la aplicación el líder libera el arrendamiento para que otro lo tome enseguida
+ *
+ * CONFIGURACIÓN (opcional en configuration.properties):
+ * - lider.activo: elegir líder (por defecto true); con false cada instancia sincroniza por su cuenta
+ * - lider.arrendamiento.ms: duración del arrendamiento (por defecto 15000)
+ * - lider.latido.ms: intervalo entre latidos (por defecto 5000; como mucho un tercio del arrendamiento)
+ * - lider.peticion.espera.s: tiempo máximo, en segundos, esperando a que el líder atienda una petición
+ *   (por defecto 120, como mucho 900)
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class LiderReplicacion {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(LiderReplicacion.class);
+
+    /** Nombre del trabajo en la tabla de arrendamientos */
+    private static final String TRABAJO = "replicacion";
+
+    /** Indica si se elige líder */
+    private static final boolean ACTIVO = Boolean.parseBoolean(Propiedades.getValor("lider.activo", "true"));
+
+    /** Duración del arrendamiento */
+    private static final long ARRENDAMIENTO_MS = Math.max(3000, Propiedades.getEntero("lider.arrendamiento.ms", 15000));
+
+    /** Intervalo entre latidos */
+    private static final long LATIDO_MS = Math.min(ARRENDAMIENTO_MS / 3,
+            Math.max(500, Propiedades.getEntero("lider.latido.ms", 5000)));
+
+    /** Tiempo máximo esperando a que el líder atienda una petición */
+    private static final long ESPERA_PETICION_MS = Math.max(LATIDO_MS, TimeUnit.SECONDS.toMillis(
+            Math.min(900, Propiedades.getEntero("lider.peticion.espera.s", 120))));
+
+    /** Margen que se resta al vencimiento local por si los relojes avanzan distinto */
+    private static final long MARGEN_MS = ARRENDAMIENTO_MS / 5;
+
+    /** Identificador de esta instancia: equipo, proceso y un sufijo aleatorio */
+    private static final String TITULAR = crearTitular();
+
+    /** Hilo de los latidos */
+    private static final ScheduledExecutorService ejecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread hilo = new Thread(r, "lider-replicacion");
+        hilo.setDaemon(true);
+        return hilo;
+    });
+
+    /** Indica si ya se iniciaron los latidos */
+    private static final AtomicBoolean iniciado = new AtomicBoolean(false);
+
+    /** Indica si hay una petición en curso */
+    private static final AtomicBoolean atendiendo = new AtomicBoolean(false);
+
+    /** Token del arrendamiento de esta instancia, o {@link DaoLiderazgo#SIN_TOKEN} si no es líder */
+    private static volatile long token = DaoLiderazgo.SIN_TOKEN;
+
+    /** Instante (System.nanoTime) hasta el que esta instancia puede actuar como líder */
+    private static volatile long valeHasta = 0;
+
+    /** Último progreso a publicar con el siguiente latido */
+    private static volatile String progreso;
+
+    /**
+     * Empieza a latir. Se puede llamar varias veces; solo la primera tiene efecto.
+     *
+     * @author Wara
+     */
+    public static void iniciar() {
+        if (!ACTIVO || !iniciado.compareAndSet(false, true)) {
+            return;
+        }
+        logger.info("Elección de líder iniciada como {} (arrendamiento {} ms, latido {} ms)",
+                TITULAR, ARRENDAMIENTO_MS, LATIDO_MS);
+        ejecutor.scheduleWithFixedDelay(LiderReplicacion::latir, 0, LATIDO_MS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            long actual = token;
+            if (actual != DaoLiderazgo.SIN_TOKEN) {
+                DaoLiderazgo.liberar(TRABAJO, TITULAR, actual);
+            }
+        }, "lider-replicacion-cierre"));
+    }
+
+    /**
+     * Indica si esta instancia debe ejecutar la sincronización de fondo.
+     *
+     * @return true si tiene un arrendamiento vigente, o si la elección de líder está desactivada
+     *
+     * @author Wara
+     */
+    public static boolean isLider() {
+        return !ACTIVO || (token != DaoLiderazgo.SIN_TOKEN && System.nanoTime() - valeHasta < 0);
+    }
+
+    /**
+     * Obtiene el identificador de esta instancia en la tabla de arrendamientos.
+     *
+     * @return identificador del titular
+     *
+     * @author Wara
+     */
+    public static String getTitular() {
+        return TITULAR;
+    }
+
+    /**
+     * Deja el progreso del líder para publicarlo con el siguiente latido.
+     *
+     * @param texto progreso legible (por ejemplo, el resultado de la última ronda)
+     *
+     * @author Wara
+     */
+    public static void publicarProgreso(String texto) {
+        progreso = texto;
+    }
+
+    /**
+     * Lee quién es el líder y su último progreso publicado.
+     *
+     * @return CompletableFuture con el estado del arrendamiento, o null si aún no ha habido ningún líder
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<DaoLiderazgo.Estado> getEstado() {
+        return DaoLiderazgo.leer(TRABAJO);
+    }
+
+    /**
+     * Pide al líder una sincronización completa y espera a que la haga.
+     * Si no hay ningún líder, esta instancia tomará el arrendamiento y la hará ella misma.
+     *
+     * @return CompletableFuture con el resultado de la sincronización, o false si no se atendió a tiempo
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Boolean> pedirSincronizacionCompleta() {
+        iniciar();
+        long limite = System.currentTimeMillis() + ESPERA_PETICION_MS;
+        return DaoLiderazgo.pedir(TRABAJO).thenCompose(peticion -> esperarAtencion(peticion, limite));
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    /**
+     * Un latido: renueva el arrendamiento si esta instancia es líder o intenta tomarlo si no,
+     * y como líder atiende las peticiones pendientes.
+     *
+     * @author Wara
+     */
+    private static void latir() {
+        long inicio = System.nanoTime();
+        try {
+            if (token != DaoLiderazgo.SIN_TOKEN) {
+                boolean renovado = DaoLiderazgo.renovar(TRABAJO, TITULAR, token, ARRENDAMIENTO_MS, progreso)
+                        .orTimeout(LATIDO_MS, TimeUnit.MILLISECONDS).join();
+                if (!renovado) {
+                    logger.warn("Arrendamiento de líder perdido (token {})", token);
+                    token = DaoLiderazgo.SIN_TOKEN;
+                    return;
+                }
+            } else {
+                long nuevo = DaoLiderazgo.adquirir(TRABAJO, TITULAR, ARRENDAMIENTO_MS)
+                        .orTimeout(LATIDO_MS, TimeUnit.MILLISECONDS).join();
+                if (nuevo == DaoLiderazgo.SIN_TOKEN) {
+                    return;
+                }
+                DaoCambios.setTokenLider(nuevo);
+                token = nuevo;
+                logger.info("Esta instancia es ahora la líder de la replicación (token {})", nuevo);
+            }
+            valeHasta = inicio + TimeUnit.MILLISECONDS.toNanos(ARRENDAMIENTO_MS - MARGEN_MS);
+            atenderPeticiones();
+        } catch (RuntimeException e) {
+            // Sin respuesta del MASTER: el liderazgo local vence solo en valeHasta
+            logger.debug("Latido de líder fallido: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Atiende, si las hay, las peticiones de sincronización completa de otras instancias.
+     * Todas las pendientes se atienden con una sola sincronización.
+     *
+     * @author Wara
+     */
+    private static void atenderPeticiones() {
+        if (atendiendo.get()) {
+            return;
+        }
+        DaoLiderazgo.Estado estado = DaoLiderazgo.leer(TRABAJO).orTimeout(LATIDO_MS, TimeUnit.MILLISECONDS).join();
+        if (estado == null || estado.peticion() <= estado.atendida() || !atendiendo.compareAndSet(false, true)) {
+            return;
+        }
+
+        long peticion = estado.peticion();
+        long tokenPeticion = token;
+        logger.info("Atendiendo la petición {} de sincronización completa", peticion);
+        ServicioHogwarts.sincronizarCompleta()
+                .thenCompose(exito -> DaoLiderazgo.atender(TRABAJO, TITULAR, tokenPeticion, peticion, exito))
+                .whenComplete((marcada, ex) -> {
+                    atendiendo.set(false);
+                    if (ex != null) {
+                        logger.error("Error atendiendo la petición {}: {}", peticion, ex.getMessage());
+                    }
+                });
+    }
+
+    /**
+     * Observa el arrendamiento hasta que el líder marque atendida una petición.
+     *
+     * @param peticion número de la petición
+     * @param limite instante (ms) a partir del cual se deja de esperar
+     * @return CompletableFuture con el resultado de la petición, o false si no se atendió a tiempo
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Boolean> esperarAtencion(long peticion, long limite) {
+        return DaoLiderazgo.leer(TRABAJO).thenCompose(estado -> {
+            if (estado != null && estado.atendida() >= peticion) {
+                logger.info("Petición {} atendida por {}: {}", peticion, estado.titular(),
+                        estado.exitoAtendida() ? "completa" : "con errores");
+                return CompletableFuture.completedFuture(estado.exitoAtendida());
+            }
+            if (System.currentTimeMillis() > limite) {
+                logger.warn("El líder no atendió la petición {} a tiempo", peticion);
+                return CompletableFuture.completedFuture(false);
+            }
+            if (estado != null && estado.vigente()) {
+                logger.debug("Esperando al líder {}: {}", estado.titular(), estado.progreso());
+            }
+            return CompletableFuture.runAsync(() -> {},
+                            CompletableFuture.delayedExecutor(LATIDO_MS, TimeUnit.MILLISECONDS))
+                    .thenCompose(v -> esperarAtencion(peticion, limite));
+        });
+    }
+
+    /**
+     * Crea el identificador de esta instancia.
+     *
+     * @return equipo, proceso y sufijo aleatorio
+     *
+     * @author Wara
+     */
+    private static String crearTitular() {
+        String equipo;
+        try {
+            equipo = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            equipo = "desconocido";
+        }
+        return equipo + ":" + ProcessHandle.current().pid() + ":" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
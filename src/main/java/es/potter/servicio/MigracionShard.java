@@ -0,0 +1,609 @@
+package es.potter.servicio;
+
+import es.potter.dao.DaoAlumno;
+import es.potter.dao.DaoCambios;
+import es.potter.dao.DaoHuellas;
+import es.potter.dao.DaoMapaShards;
+import es.potter.database.MapaShards;
+import es.potter.database.TipoBaseDatos;
+import es.potter.model.Alumno;
+import es.potter.model.OperacionAlumno;
+import es.potter.model.TipoOperacion;
+import es.potter.util.Propiedades;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Migración en marcha de una casa a otros backends (resharding), sin parar la aplicación.
+ * FUNCIONAMIENTO:
+ * 1. Se prepara el reparto de destino en el {@link MapaShards}; desde ese momento cada escritura
+ *    de la casa se encola también para su backend nuevo (escritura doble)
+ * 2. Se copian por lotes, del backend antiguo al nuevo, los alumnos de los cubos que cambian
+ *    de backend, a un ritmo máximo de filas por segundo
+ * 3. Se compara cada backend nuevo con el MASTER por huellas ({@link ComparadorMerkle}) y se corrige
+ *    lo que difiera (lo que se copió mientras cambiaba), hasta que coincida
+ * 4. Se guarda el reparto nuevo en el MASTER (tabla mapa_shards), se cambia de reparto de una sola vez
+ *    y, solo con el reparto ya guardado, se borra de los backends antiguos lo que ya no les toca
+ * Hasta el paso 4 la migración se puede cancelar y todo sigue como estaba. Los demás equipos adoptan
+ * el reparto guardado al arrancar y en cada ronda programada (ver {@link #cargarReparto()}).
+ * El ritmo se puede cambiar y la copia se puede pausar en cualquier momento; el avance se consulta
+ * con {@link #getProgreso()}.
+ * CONFIGURACIÓN (opcional en configuration.properties):
+ * - migracion.filas.segundo: ritmo máximo inicial de la copia, 0 sin límite (por defecto 1000)
+ * - migracion.lote: alumnos por lote (por defecto 200)
+ * - migracion.verificaciones: comparaciones con el MASTER antes de dar un backend por fallido (por defecto 3)
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class MigracionShard {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(MigracionShard.class);
+
+    /** Alumnos por lote */
+    private static final int LOTE = Math.max(1, Propiedades.getEntero("migracion.lote", 200));
+
+    /** Comparaciones con el MASTER por backend antes de abandonar */
+    private static final int VERIFICACIONES = Math.max(1, Propiedades.getEntero("migracion.verificaciones", 3));
+
+    /** Cada cuánto se comprueba si la copia sigue en pausa */
+    private static final long ESPERA_PAUSA_MS = 250;
+
+    /** Número de cubos de primer nivel (uno por carácter hexadecimal) */
+    private static final int CUBOS = 16;
+
+    /** Hilo en el que se reanuda la copia tras cada espera */
+    private static final ScheduledExecutorService ejecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread hilo = new Thread(r, "migracion-shards");
+        hilo.setDaemon(true);
+        return hilo;
+    });
+
+    /** Ritmo máximo de la copia en filas por segundo; 0 o menos, sin límite */
+    private static volatile int filasPorSegundo = Propiedades.getEntero("migracion.filas.segundo", 1000);
+
+    /** Indica si la copia está en pausa */
+    private static volatile boolean pausada = false;
+
+    /** Indica si se pidió cancelar la migración en curso */
+    private static volatile boolean cancelada = false;
+
+    /** Instante (ms) a partir del cual puede salir el siguiente lote */
+    private static volatile long siguienteTurno = 0;
+
+    /** Progreso de la última migración */
+    private static volatile ProgresoMigracion progreso;
+
+    /** Migración en curso, o null */
+    private static CompletableFuture<Boolean> enCurso;
+
+    /**
+     * Trozo de la copia: un cubo de primer nivel que pasa de un backend a otro.
+     *
+     * @param origen backend que guarda ahora el cubo
+     * @param destino backend que lo guardará
+     * @param cubo carácter hexadecimal del cubo
+     */
+    private record Tramo(TipoBaseDatos origen, TipoBaseDatos destino, String cubo) {}
+
+    /**
+     * Migra una casa a otros backends sin parar la aplicación.
+     *
+     * @param casa casa a migrar
+     * @param backends backends nuevos de la casa
+     * @return CompletableFuture con true si la casa quedó en los backends nuevos; false si la migración
+     *         falló o se canceló y la casa sigue donde estaba
+     * @throws IllegalStateException si ya hay una migración en curso
+     * @throws IllegalArgumentException si no es una casa o el reparto resultante no es válido
+     *
+     * @author Wara
+     */
+    public static synchronized CompletableFuture<Boolean> migrar(TipoBaseDatos casa, List<TipoBaseDatos> backends) {
+        if (!casa.esCasa()) {
+            throw new IllegalArgumentException(casa + " no es una casa");
+        }
+        if (enCurso != null && !enCurso.isDone()) {
+            throw new IllegalStateException("Ya hay una migración en curso: " + progreso);
+        }
+
+        MapaShards.Reparto anterior = MapaShards.getReparto();
+        MapaShards.Reparto nuevo = MapaShards.prepararMigracion(casa, backends);
+        List<Tramo> tramos = planificar(casa, anterior, nuevo);
+        Set<TipoBaseDatos> destinos = new LinkedHashSet<>();
+        tramos.forEach(tramo -> destinos.add(tramo.destino()));
+
+        ProgresoMigracion actual = new ProgresoMigracion(casa, anterior.getBackends(casa), nuevo.getBackends(casa));
+        progreso = actual;
+        cancelada = false;
+        pausada = false;
+        siguienteTurno = 0;
+        String nombre = casa.obtenerNombreCasa();
+        logger.info("Migrando {}: {} cubos pasan a {}", nombre, tramos.size(), destinos);
+
+        enCurso = DaoCambios.ultimoSeq().thenCompose(seq -> contar(nombre, tramos)
+                        .thenCompose(total -> {
+                            actual.setTotal(total);
+                            actual.setFase(ProgresoMigracion.Fase.COPIANDO);
+                            return copiar(nombre, tramos, 0, actual);
+                        })
+                        .thenCompose(v -> {
+                            actual.setFase(ProgresoMigracion.Fase.VERIFICANDO);
+                            return verificar(new ArrayList<>(destinos), 0, nuevo, actual);
+                        })
+                        .thenCompose(v -> fijarMarcas(destinos, seq)))
+                .thenCompose(v -> guardarReparto(nuevo))
+                .thenCompose(v -> {
+                    cortar();
+                    actual.setFase(ProgresoMigracion.Fase.LIMPIANDO);
+                    return limpiar(casa, tramos, nuevo);
+                })
+                .handle((v, ex) -> terminar(actual, ex));
+        return enCurso;
+    }
+
+    /**
+     * Obtiene el progreso de la última migración (en curso o terminada).
+     *
+     * @return progreso, o null si no ha habido ninguna en esta ejecución
+     *
+     * @author Wara
+     */
+    public static ProgresoMigracion getProgreso() {
+        return progreso;
+    }
+
+    /**
+     * Cambia el ritmo máximo de la copia. Se aplica desde el siguiente lote.
+     *
+     * @param filas filas por segundo; 0 o menos para copiar sin límite
+     *
+     * @author Wara
+     */
+    public static void setFilasPorSegundo(int filas) {
+        filasPorSegundo = filas;
+        logger.info("Ritmo de migración: {}", filas > 0 ? filas + " filas/s" : "sin límite");
+    }
+
+    /**
+     * Obtiene el ritmo máximo de la copia.
+     *
+     * @return filas por segundo; 0 o menos si no hay límite
+     *
+     * @author Wara
+     */
+    public static int getFilasPorSegundo() {
+        return filasPorSegundo;
+    }
+
+    /**
+     * Pausa la copia al terminar el lote en curso. Las escrituras dobles siguen.
+     *
+     * @author Wara
+     */
+    public static void pausar() {
+        pausada = true;
+        logger.info("Migración en pausa");
+    }
+
+    /**
+     * Reanuda la copia tras una pausa.
+     *
+     * @author Wara
+     */
+    public static void reanudar() {
+        pausada = false;
+        logger.info("Migración reanudada");
+    }
+
+    /**
+     * Indica si la copia está en pausa.
+     *
+     * @return true si está en pausa
+     *
+     * @author Wara
+     */
+    public static boolean isPausada() {
+        return pausada;
+    }
+
+    /**
+     * Pide cancelar la migración en curso. Solo tiene efecto antes del cambio de reparto;
+     * los alumnos ya copiados a los backends nuevos se quedan allí.
+     *
+     * @author Wara
+     */
+    public static void cancelar() {
+        cancelada = true;
+        logger.info("Cancelación de la migración solicitada");
+    }
+
+    /**
+     * Lee el reparto guardado en el MASTER por la última migración y, si difiere, pasa a usarlo
+     * (ver {@link MapaShards#adoptar(Map)}).
+     *
+     * @return CompletableFuture con true si el reparto cambió (nunca se completa excepcionalmente)
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Boolean> cargarReparto() {
+        return DaoMapaShards.leer()
+                .thenApply(guardado -> {
+                    boolean cambiado = MapaShards.adoptar(guardado);
+                    if (cambiado) {
+                        // Las listas de las casas se leyeron de los backends anteriores
+                        CacheAlumnos.invalidarTodo();
+                    }
+                    return cambiado;
+                })
+                .exceptionally(ex -> {
+                    logger.debug("No se pudo leer el mapa de shards del MASTER, se sigue con {}: {}",
+                            MapaShards.getReparto(), ex.getMessage());
+                    return false;
+                });
+    }
+
+    /**
+     * Encola también para su backend nuevo las operaciones de alumnos cuya casa se está migrando.
+     * No se espera a la confirmación: lo que no llegue lo corrige la verificación.
+     *
+     * @param operaciones operaciones ya confirmadas en el MASTER
+     *
+     * @author Wara
+     */
+    static void duplicar(List<OperacionAlumno> operaciones) {
+        Map<TipoBaseDatos, List<OperacionAlumno>> porBackend = new EnumMap<>(TipoBaseDatos.class);
+        for (OperacionAlumno operacion : operaciones) {
+            if (operacion.getAlumno() == null) {
+                continue;
+            }
+            TipoBaseDatos nuevo = MapaShards.resolverEnMigracion(operacion.getAlumno().getCasa(), operacion.getId());
+            if (nuevo != null) {
+                porBackend.computeIfAbsent(nuevo, b -> new ArrayList<>()).add(operacion);
+            }
+        }
+
+        porBackend.forEach((backend, grupo) -> ColaReplicacion.encolarTodas(backend, grupo)
+                .exceptionally(ex -> {
+                    logger.warn("No se pudo duplicar {} operaciones para {}: {}", grupo.size(), backend, ex.getMessage());
+                    return false;
+                }));
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    /**
+     * Calcula qué cubos de primer nivel cambian de backend.
+     *
+     * @param casa casa a migrar
+     * @param anterior reparto actual
+     * @param nuevo reparto de destino
+     * @return tramos a copiar, agrupados por backend de origen
+     *
+     * @author Wara
+     */
+    private static List<Tramo> planificar(TipoBaseDatos casa, MapaShards.Reparto anterior, MapaShards.Reparto nuevo) {
+        List<Tramo> tramos = new ArrayList<>();
+        for (TipoBaseDatos origen : anterior.getBackends(casa)) {
+            for (int ranura = 0; ranura < CUBOS; ranura++) {
+                String cubo = Integer.toHexString(ranura);
+                if (!anterior.alojaCubo(origen, cubo)) {
+                    continue;
+                }
+                for (TipoBaseDatos destino : nuevo.getBackends(casa)) {
+                    if (destino != origen && nuevo.alojaCubo(destino, cubo)) {
+                        tramos.add(new Tramo(origen, destino, cubo));
+                    }
+                }
+            }
+        }
+        return tramos;
+    }
+
+    /**
+     * Cuenta los alumnos a copiar a partir de los resúmenes de primer nivel de cada origen.
+     *
+     * @param casa nombre de la casa
+     * @param tramos tramos a copiar
+     * @return CompletableFuture con el número total de alumnos
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Long> contar(String casa, List<Tramo> tramos) {
+        Map<TipoBaseDatos, Set<String>> cubosPorOrigen = new EnumMap<>(TipoBaseDatos.class);
+        tramos.forEach(tramo -> cubosPorOrigen.computeIfAbsent(tramo.origen(), o -> new LinkedHashSet<>()).add(tramo.cubo()));
+
+        List<CompletableFuture<Long>> cuentas = new ArrayList<>();
+        cubosPorOrigen.forEach((origen, cubos) -> cuentas.add(DaoHuellas.resumirCubos(origen, casa, "")
+                .thenApply(resumenes -> cubos.stream()
+                        .map(resumenes::get)
+                        .filter(Objects::nonNull)
+                        .mapToLong(DaoHuellas.Resumen::filas)
+                        .sum())));
+
+        return CompletableFuture.allOf(cuentas.toArray(new CompletableFuture[0]))
+                .thenApply(v -> cuentas.stream().mapToLong(CompletableFuture::join).sum());
+    }
+
+    /**
+     * Copia los tramos uno detrás de otro, desde el indicado.
+     *
+     * @param casa nombre de la casa
+     * @param tramos tramos a copiar
+     * @param indice tramo por el que seguir
+     * @param actual progreso de la migración
+     * @return CompletableFuture que se completa al copiar todos los tramos
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Void> copiar(String casa, List<Tramo> tramos, int indice, ProgresoMigracion actual) {
+        if (indice >= tramos.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Tramo tramo = tramos.get(indice);
+
+        return DaoHuellas.huellasDeCubo(tramo.origen(), casa, tramo.cubo())
+                .thenCompose(huellas -> copiarLotes(tramo, new ArrayList<>(huellas.keySet()), 0, actual))
+                .thenCompose(v -> {
+                    logger.debug("Cubo {} copiado de {} a {}: {}", tramo.cubo(), tramo.origen(), tramo.destino(), actual);
+                    return copiar(casa, tramos, indice + 1, actual);
+                });
+    }
+
+    /**
+     * Copia por lotes los alumnos de un tramo, esperando su turno antes de cada lote.
+     *
+     * @param tramo tramo que se copia
+     * @param ids IDs del cubo en el origen
+     * @param desde posición del siguiente lote
+     * @param actual progreso de la migración
+     * @return CompletableFuture que se completa al copiar el tramo
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Void> copiarLotes(Tramo tramo, List<String> ids, int desde, ProgresoMigracion actual) {
+        if (desde >= ids.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        List<String> lote = ids.subList(desde, Math.min(desde + LOTE, ids.size()));
+
+        return esperarTurno(lote.size())
+                .thenCompose(v -> DaoAlumno.cargarAlumnosPorId(lote, tramo.origen()))
+                .thenCompose(alumnos -> {
+                    List<OperacionAlumno> copias = new ArrayList<>();
+                    for (Alumno alumno : alumnos) {
+                        copias.add(new OperacionAlumno(TipoOperacion.INSERTAR, alumno.getId(), alumno));
+                    }
+                    return DaoAlumno.replicar(copias, tramo.destino());
+                })
+                .thenCompose(exito -> {
+                    if (!exito) {
+                        return CompletableFuture.failedFuture(new IllegalStateException(
+                                "No se pudo copiar un lote del cubo " + tramo.cubo() + " en " + tramo.destino()));
+                    }
+                    actual.sumarCopiados(lote.size());
+                    return copiarLotes(tramo, ids, desde + LOTE, actual);
+                });
+    }
+
+    /**
+     * Espera hasta que pueda salir el siguiente lote: respeta la pausa, la cancelación
+     * y el ritmo máximo vigente en ese momento.
+     *
+     * @param filas alumnos del lote
+     * @return CompletableFuture que se completa cuando el lote puede salir
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Void> esperarTurno(int filas) {
+        if (cancelada) {
+            return CompletableFuture.failedFuture(new CancellationException("Migración cancelada"));
+        }
+        if (pausada) {
+            return esperar(ESPERA_PAUSA_MS).thenCompose(v -> esperarTurno(filas));
+        }
+
+        long ahora = System.currentTimeMillis();
+        int ritmo = filasPorSegundo;
+        if (ritmo <= 0) {
+            siguienteTurno = ahora;
+            return CompletableFuture.completedFuture(null);
+        }
+        long espera = Math.max(0, siguienteTurno - ahora);
+        siguienteTurno = Math.max(siguienteTurno, ahora) + filas * 1000L / ritmo;
+        return espera == 0 ? CompletableFuture.completedFuture(null) : esperar(espera);
+    }
+
+    /**
+     * Devuelve un CompletableFuture que se completa pasado un tiempo, sin bloquear ningún hilo.
+     *
+     * @param ms milisegundos a esperar
+     * @return CompletableFuture que se completa tras la espera
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Void> esperar(long ms) {
+        return CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(ms, TimeUnit.MILLISECONDS, ejecutor));
+    }
+
+    /**
+     * Compara uno a uno los backends nuevos con el MASTER en los cubos que les tocan
+     * y corrige las diferencias, hasta que coincidan.
+     *
+     * @param destinos backends que reciben cubos
+     * @param indice backend por el que seguir
+     * @param nuevo reparto de destino
+     * @param actual progreso de la migración
+     * @return CompletableFuture que se completa si todos coinciden; falla si alguno no llega a coincidir
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Void> verificar(List<TipoBaseDatos> destinos, int indice, MapaShards.Reparto nuevo,
+                                                     ProgresoMigracion actual) {
+        if (indice >= destinos.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return verificarBackend(destinos.get(indice), nuevo, 1, actual)
+                .thenCompose(v -> verificar(destinos, indice + 1, nuevo, actual));
+    }
+
+    /**
+     * Compara un backend con el MASTER y, si difiere, lo corrige y vuelve a comparar.
+     *
+     * @param backend backend nuevo
+     * @param nuevo reparto de destino
+     * @param intento número de comparación
+     * @param actual progreso de la migración
+     * @return CompletableFuture que se completa cuando el backend coincide con el MASTER
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Void> verificarBackend(TipoBaseDatos backend, MapaShards.Reparto nuevo, int intento,
+                                                            ProgresoMigracion actual) {
+        if (cancelada) {
+            return CompletableFuture.failedFuture(new CancellationException("Migración cancelada"));
+        }
+        return ComparadorMerkle.compararPropios(backend, nuevo).thenCompose(diferencias -> {
+            if (diferencias.estaVacia()) {
+                logger.info("{} coincide con el MASTER en sus cubos", backend);
+                return CompletableFuture.completedFuture(null);
+            }
+            if (intento >= VERIFICACIONES) {
+                return CompletableFuture.failedFuture(new IllegalStateException(
+                        backend + " sigue difiriendo del MASTER tras " + intento + " comparaciones: " + diferencias));
+            }
+            actual.sumarCorregidos(ComparadorMerkle.idsACopiar(diferencias).size() + diferencias.getBajas().size());
+            // Sin vallar: como la escritura doble, la copia no es trabajo del líder y la verificación la comprueba
+            return PipelineSincronizacion.ejecutar(backend, diferencias, false)
+                    .thenCompose(exito -> verificarBackend(backend, nuevo, intento + 1, actual));
+        });
+    }
+
+    /**
+     * Deja la marca de agua de los backends nuevos como mucho en el último cambio anterior a la copia,
+     * para que la sincronización incremental vuelva a aplicar todo lo que entró durante la migración.
+     *
+     * @param destinos backends que reciben cubos
+     * @param seq último seq del MASTER al empezar
+     * @return CompletableFuture que se completa al guardar las marcas; falla si alguna no se pudo guardar
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Void> fijarMarcas(Set<TipoBaseDatos> destinos, long seq) {
+        List<CompletableFuture<Boolean>> marcas = new ArrayList<>();
+        for (TipoBaseDatos destino : destinos) {
+            marcas.add(DaoCambios.bajarMarca(destino, seq));
+        }
+        return CompletableFuture.allOf(marcas.toArray(new CompletableFuture[0])).thenCompose(v ->
+                marcas.stream().allMatch(CompletableFuture::join)
+                        ? CompletableFuture.completedFuture(null)
+                        : CompletableFuture.failedFuture(new IllegalStateException("No se pudieron fijar las marcas de agua")));
+    }
+
+    /**
+     * Guarda el reparto de destino en el MASTER antes de cambiar a él, salvo que se haya pedido cancelar.
+     * Sin el reparto guardado no se cambia ni se limpia nada: los demás equipos seguirían escribiendo
+     * en los backends antiguos.
+     *
+     * @param nuevo reparto de destino
+     * @return CompletableFuture que se completa al guardarlo; falla si no quedó confirmado
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Void> guardarReparto(MapaShards.Reparto nuevo) {
+        if (cancelada) {
+            return CompletableFuture.failedFuture(new CancellationException("Migración cancelada"));
+        }
+        return DaoMapaShards.guardar(nuevo.getMapa()).thenCompose(exito -> exito
+                ? CompletableFuture.completedFuture(null)
+                : CompletableFuture.failedFuture(new IllegalStateException("No se pudo guardar el reparto nuevo en el MASTER")));
+    }
+
+    /**
+     * Cambia al reparto de destino, ya guardado en el MASTER. Desde que se guardó la migración
+     * ya no se puede cancelar: los demás equipos pueden haberlo adoptado.
+     *
+     * @author Wara
+     */
+    private static void cortar() {
+        MapaShards.confirmarMigracion();
+        // Las listas de las casas se leyeron de los backends anteriores
+        CacheAlumnos.invalidarTodo();
+    }
+
+    /**
+     * Borra de los backends de origen que siguen en la casa los alumnos que ya no les tocan.
+     * Los backends que salen de la casa conservan sus filas, pero ya no se leen.
+     *
+     * @param casa casa migrada
+     * @param tramos tramos copiados
+     * @param nuevo reparto ya en uso
+     * @return CompletableFuture que se completa al terminar (un fallo solo deja filas sobrantes)
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Void> limpiar(TipoBaseDatos casa, List<Tramo> tramos, MapaShards.Reparto nuevo) {
+        Set<TipoBaseDatos> origenes = new LinkedHashSet<>();
+        tramos.forEach(tramo -> origenes.add(tramo.origen()));
+
+        CompletableFuture<Void> cadena = CompletableFuture.completedFuture(null);
+        for (TipoBaseDatos origen : origenes) {
+            if (!nuevo.getBackends(casa).contains(origen)) {
+                logger.info("{} ya no guarda alumnos de {}; sus filas se pueden borrar", origen, casa.obtenerNombreCasa());
+                continue;
+            }
+            cadena = cadena.thenCompose(v -> ServicioHogwarts.sincronizarSlave(origen).thenAccept(exito -> {
+                if (!exito) {
+                    logger.warn("{} no se pudo limpiar; la próxima sincronización completa lo hará", origen);
+                }
+            }));
+        }
+        return cadena.exceptionally(ex -> {
+            logger.warn("Error limpiando los backends antiguos de {}: {}", casa.obtenerNombreCasa(), ex.getMessage());
+            return null;
+        });
+    }
+
+    /**
+     * Cierra la migración: fija la fase final y, si no llegó a cambiar de reparto, lo deja como estaba.
+     *
+     * @param actual progreso de la migración
+     * @param ex error, o null si terminó bien
+     * @return true si la casa quedó en los backends nuevos
+     *
+     * @author Wara
+     */
+    private static boolean terminar(ProgresoMigracion actual, Throwable ex) {
+        if (ex == null) {
+            actual.setFase(ProgresoMigracion.Fase.TERMINADA);
+            logger.info("Migración terminada: {}", actual);
+            return true;
+        }
+
+        Throwable causa = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+        MapaShards.cancelarMigracion();
+        if (causa instanceof CancellationException) {
+            actual.setFase(ProgresoMigracion.Fase.CANCELADA);
+            logger.info("Migración cancelada: {}", actual);
+        } else {
+            actual.fallar(causa.getMessage());
+            logger.error("Migración fallida, se sigue con el reparto anterior: {}", actual);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,287 @@
+package es.potter.servicio;
+
+import es.potter.dao.DaoDiarioSinConexion;
+import es.potter.database.ConexionFactory;
+import es.potter.database.MapaShards;
+import es.potter.database.TipoBaseDatos;
+import es.potter.model.OperacionAlumno;
+import es.potter.util.Propiedades;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Modo sin conexión: mantiene la aplicación usable mientras el MASTER no responde.
+ * FUNCIONAMIENTO:
+ * - Se activa cuando no se puede conectar con el MASTER (al leer o al escribir)
+ * - Mientras está activo, las lecturas del MASTER se hacen de SQLite y las escrituras se
+ *   aplican en SQLite y se anotan en su diario (ver {@link DaoDiarioSinConexion})
+ * - Cada pocos segundos se comprueba si el MASTER ha vuelto; al volver, el diario se reenvía
+ *   por lotes con detección de conflictos y solo entonces se vuelve al modo normal
+ * - Si hubo conflictos gana el MASTER y SQLite se vuelve a sincronizar con él
+ * - Si al arrancar quedan entradas en el diario de una sesión anterior, se empieza en este modo
+ *   para que las escrituras nuevas no se adelanten a las antiguas
+ * CONFIGURACIÓN (opcional en configuration.properties):
+ * - sin.conexion.sondeo.ms: intervalo entre comprobaciones del MASTER (por defecto 5000)
+ * - sin.conexion.lote: entradas del diario por transacción al reenviar (por defecto 100)
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class ModoSinConexion {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(ModoSinConexion.class);
+
+    /** Intervalo entre comprobaciones del MASTER */
+    private static final long SONDEO_MS = Math.max(100, Propiedades.getEntero("sin.conexion.sondeo.ms", 5000));
+
+    /** Entradas del diario por transacción al reenviar */
+    private static final int LOTE = Math.max(1, Propiedades.getEntero("sin.conexion.lote", 100));
+
+    /** Hilo que comprueba el MASTER y reenvía el diario */
+    private static final ScheduledExecutorService ejecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread hilo = new Thread(r, "modo-sin-conexion");
+        hilo.setDaemon(true);
+        return hilo;
+    });
+
+    /** Indica si el modo sin conexión está activo */
+    private static volatile boolean activo = false;
+
+    /** Indica si hay una comprobación o un reenvío en marcha */
+    private static boolean reconectando = false;
+
+    /** Escrituras al diario en curso */
+    private static int enVuelo = 0;
+
+    /** Escrituras al diario terminadas (para detectar las que llegan durante el reenvío) */
+    private static long registradas = 0;
+
+    /**
+     * Comprueba si quedó diario de una sesión anterior y, en ese caso, empieza en modo sin conexión
+     * hasta reenviarlo. Se puede llamar varias veces.
+     *
+     * @author Wara
+     */
+    public static void iniciar() {
+        DaoDiarioSinConexion.contarPendientes()
+                .thenAccept(pendientes -> {
+                    if (pendientes > 0) {
+                        logger.info("Quedan {} escrituras sin enviar al MASTER de la sesión anterior", pendientes);
+                        activar(null);
+                    }
+                })
+                .exceptionally(ex -> {
+                    logger.warn("No se pudo consultar el diario sin conexión: {}", ex.getMessage());
+                    return null;
+                });
+    }
+
+    /**
+     * Activa el modo sin conexión y empieza a comprobar cuándo vuelve el MASTER.
+     *
+     * @param causa error que indica que el MASTER no responde, o null
+     *
+     * @author Wara
+     */
+    public static synchronized void activar(Throwable causa) {
+        if (!activo) {
+            activo = true;
+            logger.warn("MASTER no disponible, se trabaja sin conexión contra SQLite{}",
+                    causa == null ? "" : ": " + causa.getMessage());
+        }
+        if (!reconectando) {
+            reconectando = true;
+            ejecutor.schedule(ModoSinConexion::sondear, SONDEO_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Indica si el modo sin conexión está activo.
+     *
+     * @return true si las lecturas y escrituras van a SQLite
+     *
+     * @author Wara
+     */
+    public static boolean isActivo() {
+        return activo;
+    }
+
+    /**
+     * Obtiene el número de escrituras del diario pendientes de enviar al MASTER.
+     *
+     * @return CompletableFuture con las entradas pendientes
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Integer> getPendientes() {
+        return DaoDiarioSinConexion.contarPendientes();
+    }
+
+    /**
+     * Guarda una escritura en SQLite y en el diario para reenviarla al MASTER más tarde.
+     *
+     * @param operacion operación a guardar; las altas deben llevar ya el ID asignado
+     * @param nivel nivel de consistencia solicitado
+     * @param inicio instante de la llamada (ms)
+     * @return CompletableFuture con el resultado; {@link ResultadoEscritura#isEnDiario()} indica si se guardó
+     *
+     * @author Wara
+     */
+    static CompletableFuture<ResultadoEscritura> escribir(OperacionAlumno operacion, NivelConsistencia nivel, long inicio) {
+        return escribir(List.of(operacion), nivel, inicio);
+    }
+
+    /**
+     * Guarda varias escrituras en SQLite y en el diario, en una transacción, para reenviarlas
+     * al MASTER más tarde.
+     *
+     * @param operaciones operaciones a guardar, en orden; las altas deben llevar ya el ID asignado
+     * @param nivel nivel de consistencia solicitado
+     * @param inicio instante de la llamada (ms)
+     * @return CompletableFuture con el resultado; {@link ResultadoEscritura#isEnDiario()} indica si se guardaron
+     *
+     * @author Wara
+     */
+    static CompletableFuture<ResultadoEscritura> escribir(List<OperacionAlumno> operaciones, NivelConsistencia nivel,
+                                                          long inicio) {
+        synchronized (ModoSinConexion.class) {
+            enVuelo++;
+        }
+
+        return DaoDiarioSinConexion.registrar(operaciones)
+                .exceptionally(ex -> {
+                    logger.error("No se pudieron guardar {} operaciones sin conexión: {}", operaciones.size(), ex.getMessage());
+                    return false;
+                })
+                .thenApply(guardada -> {
+                    synchronized (ModoSinConexion.class) {
+                        enVuelo--;
+                        registradas++;
+                        if (guardada && !activo) {
+                            // El modo terminó mientras se guardaba: hay que reenviar esta también
+                            activar(null);
+                        }
+                    }
+                    return new ResultadoEscritura(nivel, null, System.currentTimeMillis() - inicio, guardada);
+                });
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    /**
+     * Comprueba si el MASTER responde; si es así reenvía el diario, y si no vuelve a programarse.
+     *
+     * @author Wara
+     */
+    private static void sondear() {
+        try (Connection conn = ConexionFactory.getConnection(TipoBaseDatos.MARIADB)) {
+            logger.info("El MASTER vuelve a responder, reenviando el diario sin conexión");
+        } catch (SQLException e) {
+            logger.debug("El MASTER sigue sin responder: {}", e.getMessage());
+            ejecutor.schedule(ModoSinConexion::sondear, SONDEO_MS, TimeUnit.MILLISECONDS);
+            return;
+        }
+        reenviar(0, 0);
+    }
+
+    /**
+     * Reenvía el diario lote a lote hasta vaciarlo y entonces vuelve al modo normal.
+     *
+     * @param aplicadas entradas aplicadas en lotes anteriores
+     * @param conflictos conflictos en lotes anteriores
+     *
+     * @author Wara
+     */
+    private static void reenviar(int aplicadas, int conflictos) {
+        long antes;
+        synchronized (ModoSinConexion.class) {
+            antes = registradas;
+        }
+
+        DaoDiarioSinConexion.cargarPendientes(LOTE)
+                .thenCompose(entradas -> {
+                    if (entradas.isEmpty()) {
+                        terminar(antes, aplicadas, conflictos);
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    return DaoDiarioSinConexion.reenviar(entradas).thenAccept(reenvio -> {
+                        reenvio.aplicadas().forEach(ModoSinConexion::replicarEnCasa);
+                        // Las listas guardadas del MASTER y las casas no tienen lo que se acaba de reenviar
+                        CacheAlumnos.invalidarTodo();
+                        logger.info("Reenviado un lote del diario: {} aplicadas, {} conflictos",
+                                reenvio.aplicadas().size(), reenvio.conflictos());
+                        ejecutor.execute(() -> reenviar(aplicadas + reenvio.aplicadas().size(),
+                                conflictos + reenvio.conflictos()));
+                    });
+                })
+                .exceptionally(ex -> {
+                    logger.warn("Reenvío del diario interrumpido, se reintentará: {}", ex.getMessage());
+                    ejecutor.schedule(ModoSinConexion::sondear, SONDEO_MS, TimeUnit.MILLISECONDS);
+                    return null;
+                });
+    }
+
+    /**
+     * Vuelve al modo normal si no han entrado escrituras al diario desde la última lectura;
+     * si han entrado, sigue reenviando.
+     *
+     * @param antes escrituras registradas al leer el diario
+     * @param aplicadas entradas aplicadas en total
+     * @param conflictos conflictos en total
+     *
+     * @author Wara
+     */
+    private static void terminar(long antes, int aplicadas, int conflictos) {
+        synchronized (ModoSinConexion.class) {
+            if (enVuelo > 0 || registradas != antes) {
+                ejecutor.execute(() -> reenviar(aplicadas, conflictos));
+                return;
+            }
+            activo = false;
+            reconectando = false;
+        }
+        // Lo leído mientras tanto salió de SQLite o de bases que el MASTER ha podido cambiar
+        CacheAlumnos.invalidarTodo();
+        logger.info("Diario sin conexión reenviado: {} aplicadas, {} conflictos. Se vuelve a trabajar con el MASTER",
+                aplicadas, conflictos);
+
+        if (conflictos > 0) {
+            // En los conflictos gana el MASTER: SQLite tiene que volver a su versión
+            ServicioHogwarts.sincronizarSlave(TipoBaseDatos.SQLITE)
+                    .exceptionally(ex -> {
+                        logger.error("No se pudo resincronizar SQLite tras los conflictos: {}", ex.getMessage());
+                        return false;
+                    });
+        }
+    }
+
+    /**
+     * Encola para el backend de la casa del alumno una operación reenviada al MASTER.
+     * SQLite no la necesita: la operación se hizo allí.
+     *
+     * @param operacion operación ya confirmada en el MASTER
+     *
+     * @author Wara
+     */
+    private static void replicarEnCasa(OperacionAlumno operacion) {
+        if (operacion.getAlumno() == null) {
+            return; // Sin casa conocida; la sincronización incremental la lleva a la casa anterior del alumno
+        }
+        ColaReplicacion.encolar(MapaShards.resolver(operacion.getAlumno().getCasa(), operacion.getId()), operacion)
+                .exceptionally(ex -> {
+                    logger.warn("No se pudo encolar {} para su casa: {}", operacion, ex.getMessage());
+                    return false;
+                });
+        MigracionShard.duplicar(List.of(operacion));
+    }
+}
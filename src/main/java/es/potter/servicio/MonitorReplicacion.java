@@ -0,0 +1,130 @@
+package es.potter.servicio;
+
+import es.potter.dao.DaoCambios;
+import es.potter.database.MapaShards;
+import es.potter.database.TipoBaseDatos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Mide el retraso de cada réplica (backends de las casas + SQLite) respecto al MASTER.
+ * FUENTES:
+ * - Operaciones pendientes en {@link ColaReplicacion}
+ * - Cambios del registro del MASTER posteriores a la marca de agua de la réplica
+ * - Instante de la última aplicación confirmada (por la cola o por la sincronización incremental)
+ * Las marcas de agua se recuerdan en memoria al avanzar, así que una medición solo consulta
+ * el MASTER (una conexión para todas las réplicas); una réplica cuya marca aún no se conoce
+ * se lee una sola vez.
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class MonitorReplicacion {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(MonitorReplicacion.class);
+
+    /** Instante (ms) de la última aplicación confirmada en cada réplica */
+    private static final Map<TipoBaseDatos, Long> ultimaAplicacion = new ConcurrentHashMap<>();
+
+    /** Última marca de agua conocida de cada réplica */
+    private static final Map<TipoBaseDatos, Long> marcas = new ConcurrentHashMap<>();
+
+    /**
+     * Anota que una réplica acaba de confirmar una aplicación.
+     *
+     * @param replica réplica
+     *
+     * @author Wara
+     */
+    static void registrarAplicacion(TipoBaseDatos replica) {
+        ultimaAplicacion.put(replica, System.currentTimeMillis());
+    }
+
+    /**
+     * Anota la marca de agua de una réplica. Nunca retrocede.
+     *
+     * @param replica réplica
+     * @param seq último cambio aplicado
+     *
+     * @author Wara
+     */
+    static void registrarMarca(TipoBaseDatos replica, long seq) {
+        if (seq != DaoCambios.SIN_MARCA) {
+            marcas.merge(replica, seq, Math::max);
+        }
+    }
+
+    /**
+     * Mide el retraso de todas las réplicas.
+     *
+     * @return CompletableFuture con el retraso de cada réplica, en el orden de las casas y SQLite al final
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Map<TipoBaseDatos, RetrasoReplica>> medir() {
+        List<TipoBaseDatos> replicas = MapaShards.getBackends();
+        replicas.add(TipoBaseDatos.SQLITE);
+
+        return conocerMarcas(replicas)
+                .thenCompose(DaoCambios::contarPosteriores)
+                .exceptionally(ex -> {
+                    logger.warn("No se pudieron contar los cambios pendientes: {}", ex.getMessage());
+                    return Map.of();
+                })
+                .thenApply(sinAplicar -> {
+                    long ahora = System.currentTimeMillis();
+                    Map<TipoBaseDatos, RetrasoReplica> retrasos = new EnumMap<>(TipoBaseDatos.class);
+                    for (TipoBaseDatos replica : replicas) {
+                        Long ultima = ultimaAplicacion.get(replica);
+                        retrasos.put(replica, new RetrasoReplica(replica,
+                                ColaReplicacion.getProfundidad(replica),
+                                sinAplicar.getOrDefault(replica, -1L),
+                                ultima == null ? -1 : ahora - ultima));
+                    }
+                    return retrasos;
+                });
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    /**
+     * Obtiene la marca de agua de cada réplica, leyendo de la réplica solo las que aún no se conocen.
+     * Las réplicas sin marca (o inaccesibles) no se incluyen.
+     *
+     * @param replicas réplicas a medir
+     * @return CompletableFuture con las marcas conocidas
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Map<TipoBaseDatos, Long>> conocerMarcas(List<TipoBaseDatos> replicas) {
+        List<CompletableFuture<Void>> lecturas = new ArrayList<>();
+        for (TipoBaseDatos replica : replicas) {
+            if (!marcas.containsKey(replica)) {
+                lecturas.add(DaoCambios.leerMarca(replica)
+                        .thenAccept(seq -> registrarMarca(replica, seq))
+                        .exceptionally(ex -> null));
+            }
+        }
+
+        return CompletableFuture.allOf(lecturas.toArray(new CompletableFuture[0]))
+                .thenApply(v -> {
+                    Map<TipoBaseDatos, Long> conocidas = new EnumMap<>(TipoBaseDatos.class);
+                    for (TipoBaseDatos replica : replicas) {
+                        Long marca = marcas.get(replica);
+                        if (marca != null) {
+                            conocidas.put(replica, marca);
+                        }
+                    }
+                    return conocidas;
+                });
+    }
+}
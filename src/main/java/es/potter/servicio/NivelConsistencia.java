@@ -0,0 +1,34 @@
+package es.potter.servicio;
+
+/**
+ * Niveles de consistencia de una escritura en el sistema Master-Slave.
+ * Indican qué bases deben haber confirmado la operación antes de devolver el resultado.
+ * Los niveles están ordenados de menos a más estricto.
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-07
+ */
+public enum NivelConsistencia {
+
+    /** Solo el MASTER; la casa y SQLite se replican en segundo plano */
+    MASTER_ONLY,
+
+    /** El MASTER y la casa del alumno; SQLite se replica en segundo plano */
+    MASTER_PLUS_HOUSE,
+
+    /** El MASTER, la casa del alumno y SQLite */
+    ALL;
+
+    /**
+     * Indica si este nivel cumple (es igual o más estricto que) otro.
+     *
+     * @param otro nivel exigido
+     * @return true si este nivel es suficiente
+     *
+     * @author Wara
+     */
+    public boolean cumple(NivelConsistencia otro) {
+        return ordinal() >= otro.ordinal();
+    }
+}
@@ -0,0 +1,218 @@
+package es.potter.servicio;
+
+import es.potter.dao.DaoAlumno;
+import es.potter.database.MapaShards;
+import es.potter.database.TipoBaseDatos;
+import es.potter.model.Alumno;
+import es.potter.model.OperacionAlumno;
+import es.potter.model.TipoOperacion;
+import es.potter.util.Propiedades;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pipeline que aplica en un slave las diferencias encontradas con el MASTER.
+ * FUNCIONAMIENTO:
+ * - Los IDs a copiar y a borrar se dividen en trozos de tamaño fijo
+ * - Un número limitado de trabajadores recorre los trozos: cada uno lee su trozo del MASTER
+ *   y lo escribe en el slave en una sola transacción antes de pedir el siguiente
+ * - Así nunca hay más de N conexiones abiertas contra el slave ni más de N trozos leídos
+ *   esperando a escribirse (el lector no puede adelantarse a los escritores)
+ * - En la sincronización, cada trozo comprueba en su transacción el token de líder del slave: un líder
+ *   depuesto no puede aplicar diferencias ya viejas sobre el trabajo del nuevo
+ * - El progreso y el ritmo de cada slave se pueden consultar con {@link #getProgreso(TipoBaseDatos)}
+ * CONFIGURACIÓN (opcional en configuration.properties):
+ * - sincronizacion.concurrencia: trabajadores por slave (por defecto 4)
+ * - sincronizacion.trozo: alumnos por trozo (por defecto 200)
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-07
+ */
+public class PipelineSincronizacion {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(PipelineSincronizacion.class);
+
+    /** Trabajadores simultáneos por slave */
+    private static final int CONCURRENCIA = Math.max(1, Propiedades.getEntero("sincronizacion.concurrencia", 4));
+
+    /** Alumnos por trozo */
+    private static final int TROZO = Math.max(1, Propiedades.getEntero("sincronizacion.trozo", 200));
+
+    /** Último progreso de cada slave */
+    private static final Map<TipoBaseDatos, ProgresoSincronizacion> progresos = new ConcurrentHashMap<>();
+
+    /**
+     * Trozo de trabajo: IDs a copiar desde el MASTER o IDs a borrar del slave.
+     *
+     * @param ids IDs del trozo
+     * @param borrar true si los IDs se deben borrar del slave
+     */
+    private record Trozo(List<String> ids, boolean borrar) {}
+
+    /**
+     * Aplica en un slave las diferencias con el MASTER.
+     *
+     * @param slave slave destino
+     * @param diferencias diferencias encontradas por {@link ComparadorMerkle}
+     * @param vallado true para rechazar los trozos si el slave lo sincroniza un líder posterior
+     *                (ver {@link DaoAlumno#replicarVallado(List, TipoBaseDatos)})
+     * @return CompletableFuture con true si se aplicaron todos los trozos
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Boolean> ejecutar(TipoBaseDatos slave, ComparadorMerkle.Diferencias diferencias,
+                                                      boolean vallado) {
+        List<Trozo> trozos = new ArrayList<>();
+        trocear(new ArrayList<>(ComparadorMerkle.idsACopiar(diferencias)), false, trozos);
+        trocear(new ArrayList<>(diferencias.getBajas()), true, trozos);
+
+        long total = trozos.stream().mapToLong(t -> t.ids().size()).sum();
+        ProgresoSincronizacion progreso = new ProgresoSincronizacion(slave, total);
+        progresos.put(slave, progreso);
+        logger.info("Aplicando en {}: {} en {} trozos con {} trabajadores",
+                slave, diferencias, trozos.size(), Math.min(CONCURRENCIA, trozos.size()));
+
+        AtomicInteger siguiente = new AtomicInteger();
+        AtomicBoolean todoOk = new AtomicBoolean(true);
+        List<CompletableFuture<Void>> trabajadores = new ArrayList<>();
+        for (int i = 0; i < Math.min(CONCURRENCIA, trozos.size()); i++) {
+            trabajadores.add(trabajar(slave, trozos, siguiente, todoOk, progreso, vallado));
+        }
+
+        return CompletableFuture.allOf(trabajadores.toArray(new CompletableFuture[0]))
+                .thenApply(v -> {
+                    progreso.terminar();
+                    if (todoOk.get()) {
+                        logger.info("{} sincronizado: {}", slave, progreso);
+                    } else {
+                        logger.warn("{} parcialmente sincronizado: {}", slave, progreso);
+                    }
+                    return todoOk.get();
+                });
+    }
+
+    /**
+     * Obtiene el progreso de la última sincronización de un slave (en curso o terminada).
+     *
+     * @param slave slave
+     * @return progreso, o null si no se ha sincronizado en esta ejecución
+     *
+     * @author Wara
+     */
+    public static ProgresoSincronizacion getProgreso(TipoBaseDatos slave) {
+        return progresos.get(slave);
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    /**
+     * Divide una lista de IDs en trozos.
+     *
+     * @param ids IDs a dividir
+     * @param borrar tipo de los trozos
+     * @param trozos lista donde se añaden
+     *
+     * @author Wara
+     */
+    private static void trocear(List<String> ids, boolean borrar, List<Trozo> trozos) {
+        for (int desde = 0; desde < ids.size(); desde += TROZO) {
+            trozos.add(new Trozo(ids.subList(desde, Math.min(desde + TROZO, ids.size())), borrar));
+        }
+    }
+
+    /**
+     * Bucle de un trabajador: toma el siguiente trozo libre, lo aplica y repite hasta que no quedan.
+     *
+     * @param slave slave destino
+     * @param trozos todos los trozos
+     * @param siguiente índice del siguiente trozo libre (compartido entre trabajadores)
+     * @param todoOk se pone a false si algún trozo falla
+     * @param progreso progreso del slave
+     * @param vallado true para comprobar el token de líder en cada trozo
+     * @return CompletableFuture que se completa cuando no quedan trozos
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Void> trabajar(TipoBaseDatos slave, List<Trozo> trozos, AtomicInteger siguiente,
+                                                    AtomicBoolean todoOk, ProgresoSincronizacion progreso,
+                                                    boolean vallado) {
+        int indice = siguiente.getAndIncrement();
+        if (indice >= trozos.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Trozo trozo = trozos.get(indice);
+
+        return aplicarTrozo(slave, trozo, vallado)
+                .exceptionally(ex -> {
+                    logger.error("Error aplicando trozo {} en {}: {}", indice, slave, ex.getMessage());
+                    return false;
+                })
+                .thenCompose(exito -> {
+                    if (exito) {
+                        progreso.sumarAplicados(trozo.ids().size());
+                    } else {
+                        progreso.sumarFallidos(trozo.ids().size());
+                        todoOk.set(false);
+                    }
+                    logger.debug("{}", progreso);
+                    return trabajar(slave, trozos, siguiente, todoOk, progreso, vallado);
+                });
+    }
+
+    /**
+     * Lee del MASTER los alumnos de un trozo (si hay que copiarlos) y los escribe en el slave
+     * en una transacción.
+     *
+     * @param slave slave destino
+     * @param trozo trozo a aplicar
+     * @param vallado true para comprobar el token de líder en la transacción
+     * @return CompletableFuture con true si el slave confirmó el trozo
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Boolean> aplicarTrozo(TipoBaseDatos slave, Trozo trozo, boolean vallado) {
+        if (trozo.borrar()) {
+            List<OperacionAlumno> bajas = trozo.ids().stream()
+                    .map(id -> new OperacionAlumno(TipoOperacion.ELIMINAR, id, null))
+                    .toList();
+            return escribir(bajas, slave, vallado);
+        }
+
+        // Acotar la lectura a la casa del slave permite al MASTER particionado leer solo su partición
+        TipoBaseDatos casa = MapaShards.casaDe(slave);
+        String nombreCasa = casa != null ? casa.obtenerNombreCasa() : null;
+        return DaoAlumno.cargarAlumnosPorId(trozo.ids(), nombreCasa, TipoBaseDatos.MARIADB).thenCompose(alumnos -> {
+            // Las altas y modificaciones se aplican igual en la réplica: borrar e insertar
+            List<OperacionAlumno> copias = new ArrayList<>();
+            for (Alumno alumno : alumnos) {
+                copias.add(new OperacionAlumno(TipoOperacion.INSERTAR, alumno.getId(), alumno));
+            }
+            return escribir(copias, slave, vallado);
+        });
+    }
+
+    /**
+     * Escribe un trozo en el slave, vallado o no por el token de líder.
+     *
+     * @param operaciones operaciones del trozo
+     * @param slave slave destino
+     * @param vallado true para comprobar el token de líder en la transacción
+     * @return CompletableFuture con true si el slave confirmó el trozo
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Boolean> escribir(List<OperacionAlumno> operaciones, TipoBaseDatos slave,
+                                                       boolean vallado) {
+        return vallado ? DaoAlumno.replicarVallado(operaciones, slave) : DaoAlumno.replicar(operaciones, slave);
+    }
+}
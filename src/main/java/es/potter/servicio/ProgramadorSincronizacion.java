@@ -0,0 +1,281 @@
+package es.potter.servicio;
+
+import es.potter.util.Propiedades;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Programa en segundo plano rondas de sincronización incremental de todas las réplicas.
+ * INTERVALO ADAPTATIVO:
+ * - Si la última ronda aplicó cambios, el intervalo se reduce a la mitad (hay actividad)
+ * - Si no aplicó ninguno, crece un 50% (el colegio está tranquilo)
+ * - Si falló, se duplica para no insistir contra una base caída
+ * - Nunca baja de varias veces lo que tardó la última ronda, para que la sincronización
+ *   no acapare las bases aunque estén lentas
+ * - Siempre entre el mínimo y el máximo configurados, con un margen aleatorio (jitter)
+ *   para que varias instancias no sincronicen a la vez
+ * LÍDER: todas las instancias ejecutan rondas para su SQLite, que es un archivo local de cada equipo;
+ * los backends compartidos de las casas solo entran en la ronda de la instancia líder (ver {@link LiderReplicacion}).
+ * RETENCIÓN: tras una ronda completa del líder, como mucho una vez por intervalo de recorte, se borra del registro
+ * de cambios lo que ya tienen todas las réplicas (ver {@link SincronizadorIncremental#recortarRegistro()}).
+ * REPARTO: en cada ronda programada, sea o no líder, el equipo adopta el mapa de shards guardado
+ * en el MASTER por la última migración (ver {@link MigracionShard#cargarReparto()}).
+ * CONTROL: {@link #pausar()}, {@link #reanudar()} y {@link #sincronizarAhora()}.
+ * CONFIGURACIÓN (opcional en configuration.properties):
+ * - sincronizacion.programada.min.ms: intervalo mínimo (por defecto 2000)
+ * - sincronizacion.programada.max.ms: intervalo máximo (por defecto 60000)
+ * - sincronizacion.programada.jitter: margen aleatorio en % del intervalo (por defecto 20)
+ * - cambios.recorte.minutos: intervalo mínimo entre recortes del registro de cambios (por defecto 60)
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class ProgramadorSincronizacion {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(ProgramadorSincronizacion.class);
+
+    /** Intervalo mínimo entre rondas */
+    private static final long MIN_MS = Math.max(100, Propiedades.getEntero("sincronizacion.programada.min.ms", 2000));
+
+    /** Intervalo máximo entre rondas */
+    private static final long MAX_MS = Math.max(MIN_MS, Propiedades.getEntero("sincronizacion.programada.max.ms", 60000));
+
+    /** Margen aleatorio, en tanto por uno del intervalo */
+    private static final double JITTER = Math.min(90, Math.max(0,
+            Propiedades.getEntero("sincronizacion.programada.jitter", 20))) / 100.0;
+
+    /** Veces lo que tardó la última ronda que hay que esperar como mínimo */
+    private static final int FACTOR_LATENCIA = 4;
+
+    /** Intervalo mínimo entre recortes del registro de cambios */
+    private static final long RECORTE_MS = TimeUnit.MINUTES.toMillis(
+            Math.max(1, Propiedades.getEntero("cambios.recorte.minutos", 60)));
+
+    /** Hilo que programa las rondas */
+    private static final ScheduledExecutorService ejecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread hilo = new Thread(r, "sincronizacion-programada");
+        hilo.setDaemon(true);
+        return hilo;
+    });
+
+    /** Intervalo actual, sin jitter */
+    private static long intervaloMs = MIN_MS;
+
+    /** Indica si el programador está iniciado */
+    private static boolean iniciado = false;
+
+    /** Indica si las rondas automáticas están en pausa */
+    private static boolean pausado = false;
+
+    /** Próxima ronda programada */
+    private static ScheduledFuture<?> proxima;
+
+    /** Ronda en curso, o null si no hay ninguna */
+    private static CompletableFuture<Boolean> enCurso;
+
+    /** Instante de fin de la última ronda (ms), o 0 si aún no ha habido ninguna */
+    private static long ultimaRonda = 0;
+
+    /** Instante del último recorte del registro de cambios (ms), o 0 si aún no ha habido ninguno */
+    private static long ultimoRecorte = 0;
+
+    /**
+     * Inicia las rondas automáticas. Se puede llamar varias veces; solo la primera tiene efecto.
+     *
+     * @author Wara
+     */
+    public static synchronized void iniciar() {
+        if (iniciado) {
+            return;
+        }
+        iniciado = true;
+        logger.info("Sincronización programada iniciada (entre {} y {} ms)", MIN_MS, MAX_MS);
+        programar();
+    }
+
+    /**
+     * Pausa las rondas automáticas. La ronda en curso, si la hay, termina con normalidad
+     * y {@link #sincronizarAhora()} sigue funcionando.
+     *
+     * @author Wara
+     */
+    public static synchronized void pausar() {
+        pausado = true;
+        if (proxima != null) {
+            proxima.cancel(false);
+            proxima = null;
+        }
+        logger.info("Sincronización programada en pausa");
+    }
+
+    /**
+     * Reanuda las rondas automáticas tras una pausa.
+     *
+     * @author Wara
+     */
+    public static synchronized void reanudar() {
+        if (!pausado) {
+            return;
+        }
+        pausado = false;
+        logger.info("Sincronización programada reanudada");
+        programar();
+    }
+
+    /**
+     * Lanza una ronda ya, sin esperar al intervalo. Si ya hay una en curso, devuelve esa.
+     *
+     * @return CompletableFuture con true si todas las réplicas quedaron al día
+     *
+     * @author Wara
+     */
+    public static synchronized CompletableFuture<Boolean> sincronizarAhora() {
+        if (enCurso != null) {
+            return enCurso;
+        }
+        if (proxima != null) {
+            proxima.cancel(false);
+            proxima = null;
+        }
+        return lanzarRonda();
+    }
+
+    /**
+     * Indica si las rondas automáticas están en pausa.
+     *
+     * @return true si están en pausa
+     *
+     * @author Wara
+     */
+    public static synchronized boolean isPausado() {
+        return pausado;
+    }
+
+    /**
+     * Obtiene el intervalo actual entre rondas (sin jitter).
+     *
+     * @return intervalo en milisegundos
+     *
+     * @author Wara
+     */
+    public static synchronized long getIntervaloMs() {
+        return intervaloMs;
+    }
+
+    /**
+     * Obtiene el instante en que terminó la última ronda.
+     *
+     * @return instante en milisegundos, o 0 si aún no ha habido ninguna
+     *
+     * @author Wara
+     */
+    public static synchronized long getUltimaRonda() {
+        return ultimaRonda;
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    /**
+     * Programa la siguiente ronda automática con el intervalo actual más jitter.
+     * Se llama con el cerrojo de la clase tomado.
+     *
+     * @author Wara
+     */
+    private static void programar() {
+        if (!iniciado || pausado || enCurso != null) {
+            return;
+        }
+        double margen = JITTER == 0 ? 0 : ThreadLocalRandom.current().nextDouble(-JITTER, JITTER);
+        long espera = Math.max(1, Math.round(intervaloMs * (1 + margen)));
+
+        proxima = ejecutor.schedule(() -> {
+            MigracionShard.cargarReparto();
+            synchronized (ProgramadorSincronizacion.class) {
+                proxima = null;
+                if (!pausado && enCurso == null) {
+                    // Todas las instancias ponen al día su SQLite; las casas solo las sincroniza el líder
+                    lanzarRonda();
+                }
+            }
+        }, espera, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Ejecuta una ronda y, al terminar, ajusta el intervalo y programa la siguiente.
+     * Se llama con el cerrojo de la clase tomado.
+     *
+     * @return CompletableFuture con true si todas las réplicas quedaron al día
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Boolean> lanzarRonda() {
+        long inicio = System.currentTimeMillis();
+
+        CompletableFuture<Boolean> ronda = SincronizadorIncremental.ejecutarRonda()
+                .exceptionally(ex -> {
+                    logger.error("Error en la sincronización programada: {}", ex.getMessage());
+                    return new SincronizadorIncremental.Ronda(0, false);
+                })
+                .thenApply(resultado -> {
+                    terminarRonda(resultado, System.currentTimeMillis() - inicio);
+                    return resultado.completa();
+                });
+
+        enCurso = ronda.isDone() ? null : ronda;
+        return ronda;
+    }
+
+    /**
+     * Ajusta el intervalo según el resultado de la ronda y programa la siguiente.
+     *
+     * @param resultado resultado de la ronda
+     * @param duracionMs lo que tardó la ronda
+     *
+     * @author Wara
+     */
+    private static synchronized void terminarRonda(SincronizadorIncremental.Ronda resultado, long duracionMs) {
+        enCurso = null;
+        ultimaRonda = System.currentTimeMillis();
+        if (resultado.aplicados() > 0 || !resultado.completa()) {
+            // Las réplicas han cambiado (o pueden haberlo hecho antes del fallo)
+            CacheAlumnos.invalidarTodo();
+        }
+
+        long nuevo;
+        if (!resultado.completa()) {
+            nuevo = intervaloMs * 2;
+        } else if (resultado.aplicados() > 0) {
+            nuevo = intervaloMs / 2;
+        } else {
+            nuevo = intervaloMs + intervaloMs / 2;
+        }
+        nuevo = Math.max(nuevo, duracionMs * FACTOR_LATENCIA);
+        intervaloMs = Math.min(MAX_MS, Math.max(MIN_MS, nuevo));
+
+        logger.debug("Ronda programada: {} cambios en {} ms, completa: {}; siguiente en ~{} ms",
+                resultado.aplicados(), duracionMs, resultado.completa(), intervaloMs);
+        if (!LiderReplicacion.isLider()) {
+            programar();
+            return;
+        }
+        LiderReplicacion.publicarProgreso(String.format("Ronda incremental: %d cambios en %d ms, %s",
+                resultado.aplicados(), duracionMs, resultado.completa() ? "al día" : "incompleta"));
+        if (resultado.completa() && ultimaRonda - ultimoRecorte >= RECORTE_MS) {
+            ultimoRecorte = ultimaRonda;
+            SincronizadorIncremental.recortarRegistro().exceptionally(ex -> {
+                logger.warn("No se pudo recortar el registro de cambios: {}", ex.getMessage());
+                return 0;
+            });
+        }
+        programar();
+    }
+}
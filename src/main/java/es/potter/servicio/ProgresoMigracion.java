@@ -0,0 +1,288 @@
+package es.potter.servicio;
+
+import es.potter.database.TipoBaseDatos;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progreso de la migración de una casa a otros backends: fase, alumnos copiados y ritmo.
+ * Lo actualiza {@link MigracionShard} a medida que avanza; se puede consultar en cualquier
+ * momento desde otro hilo.
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class ProgresoMigracion {
+
+    /**
+     * Fases de una migración, en el orden en que se recorren.
+     *
+     * @author Wara
+     */
+    public enum Fase {
+
+        /** Contando los alumnos que hay que mover */
+        PREPARANDO,
+
+        /** Copiando alumnos por lotes a los backends nuevos */
+        COPIANDO,
+
+        /** Comparando los backends nuevos con el MASTER y corrigiendo diferencias */
+        VERIFICANDO,
+
+        /** Ya se usa el reparto nuevo; borrando de los backends antiguos lo que ya no les toca */
+        LIMPIANDO,
+
+        /** Migración completa */
+        TERMINADA,
+
+        /** Migración abandonada por un error; se sigue usando el reparto anterior */
+        FALLIDA,
+
+        /** Migración cancelada a petición; se sigue usando el reparto anterior */
+        CANCELADA
+    }
+
+    /** Casa que se migra */
+    private final TipoBaseDatos casa;
+
+    /** Backends de la casa antes de la migración */
+    private final List<TipoBaseDatos> origen;
+
+    /** Backends de la casa después de la migración */
+    private final List<TipoBaseDatos> destino;
+
+    /** Instante de inicio (ms) */
+    private final long inicio = System.currentTimeMillis();
+
+    /** Alumnos copiados a los backends nuevos */
+    private final AtomicLong copiados = new AtomicLong();
+
+    /** Alumnos corregidos durante la verificación */
+    private final AtomicLong corregidos = new AtomicLong();
+
+    /** Número total de alumnos a copiar (se conoce al terminar la preparación) */
+    private volatile long total = 0;
+
+    /** Fase actual */
+    private volatile Fase fase = Fase.PREPARANDO;
+
+    /** Motivo del fallo, o null */
+    private volatile String error;
+
+    /** Instante de fin (ms), o 0 mientras sigue en curso */
+    private volatile long fin = 0;
+
+    /**
+     * Crea el progreso de una migración.
+     *
+     * @param casa casa que se migra
+     * @param origen backends actuales de la casa
+     * @param destino backends nuevos de la casa
+     *
+     * @author Wara
+     */
+    public ProgresoMigracion(TipoBaseDatos casa, List<TipoBaseDatos> origen, List<TipoBaseDatos> destino) {
+        this.casa = casa;
+        this.origen = List.copyOf(origen);
+        this.destino = List.copyOf(destino);
+    }
+
+    /**
+     * Fija el número total de alumnos a copiar.
+     *
+     * @param total alumnos de los cubos que cambian de backend
+     *
+     * @author Wara
+     */
+    void setTotal(long total) {
+        this.total = total;
+    }
+
+    /**
+     * Pasa a otra fase. Las fases finales fijan el instante de fin.
+     *
+     * @param fase fase nueva
+     *
+     * @author Wara
+     */
+    void setFase(Fase fase) {
+        this.fase = fase;
+        if (fase == Fase.TERMINADA || fase == Fase.FALLIDA || fase == Fase.CANCELADA) {
+            fin = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Marca la migración como fallida.
+     *
+     * @param error motivo del fallo
+     *
+     * @author Wara
+     */
+    void fallar(String error) {
+        this.error = error;
+        setFase(Fase.FALLIDA);
+    }
+
+    /**
+     * Suma alumnos copiados.
+     *
+     * @param filas alumnos del lote confirmado
+     *
+     * @author Wara
+     */
+    void sumarCopiados(long filas) {
+        copiados.addAndGet(filas);
+    }
+
+    /**
+     * Suma alumnos corregidos en la verificación.
+     *
+     * @param filas alumnos que diferían del MASTER
+     *
+     * @author Wara
+     */
+    void sumarCorregidos(long filas) {
+        corregidos.addAndGet(filas);
+    }
+
+    /**
+     * Obtiene la casa que se migra.
+     *
+     * @return casa
+     *
+     * @author Wara
+     */
+    public TipoBaseDatos getCasa() {
+        return casa;
+    }
+
+    /**
+     * Obtiene los backends de la casa antes de la migración.
+     *
+     * @return backends de origen
+     *
+     * @author Wara
+     */
+    public List<TipoBaseDatos> getOrigen() {
+        return origen;
+    }
+
+    /**
+     * Obtiene los backends de la casa después de la migración.
+     *
+     * @return backends de destino
+     *
+     * @author Wara
+     */
+    public List<TipoBaseDatos> getDestino() {
+        return destino;
+    }
+
+    /**
+     * Obtiene la fase actual.
+     *
+     * @return fase
+     *
+     * @author Wara
+     */
+    public Fase getFase() {
+        return fase;
+    }
+
+    /**
+     * Obtiene el motivo del fallo.
+     *
+     * @return motivo, o null si no ha fallado
+     *
+     * @author Wara
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Indica si la migración ya terminó (bien, mal o cancelada).
+     *
+     * @return true si terminó
+     *
+     * @author Wara
+     */
+    public boolean isTerminada() {
+        return fin != 0;
+    }
+
+    /**
+     * Obtiene el número total de alumnos a copiar.
+     *
+     * @return total de alumnos, o 0 mientras se prepara
+     *
+     * @author Wara
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Obtiene los alumnos copiados hasta ahora.
+     *
+     * @return alumnos copiados
+     *
+     * @author Wara
+     */
+    public long getCopiados() {
+        return copiados.get();
+    }
+
+    /**
+     * Obtiene los alumnos corregidos en la verificación.
+     *
+     * @return alumnos corregidos
+     *
+     * @author Wara
+     */
+    public long getCorregidos() {
+        return corregidos.get();
+    }
+
+    /**
+     * Obtiene el porcentaje de la copia completado.
+     *
+     * @return porcentaje entre 0 y 100
+     *
+     * @author Wara
+     */
+    public double getPorcentaje() {
+        return total == 0 ? (fase == Fase.PREPARANDO ? 0.0 : 100.0) : Math.min(100.0, 100.0 * copiados.get() / total);
+    }
+
+    /**
+     * Obtiene el ritmo medio de la copia.
+     *
+     * @return alumnos copiados por segundo
+     *
+     * @author Wara
+     */
+    public double getFilasPorSegundo() {
+        long hasta = fin != 0 ? fin : System.currentTimeMillis();
+        long ms = Math.max(1, hasta - inicio);
+        return copiados.get() * 1000.0 / ms;
+    }
+
+    /**
+     * Representación textual del progreso.
+     *
+     * @return String con la casa, la fase, el avance y el ritmo
+     *
+     * @author Wara
+     */
+    @Override
+    public String toString() {
+        return String.format("%s %s -> %s: %s, %d/%d alumnos (%.0f%%), %d corregidos, %.1f filas/s%s",
+                casa.obtenerNombreCasa(), origen, destino, fase, copiados.get(), total, getPorcentaje(),
+                corregidos.get(), getFilasPorSegundo(), error != null ? " (" + error + ")" : "");
+    }
+}
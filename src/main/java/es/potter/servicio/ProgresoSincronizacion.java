@@ -0,0 +1,171 @@
+package es.potter.servicio;
+
+import es.potter.database.TipoBaseDatos;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progreso de la sincronización de un slave: alumnos aplicados, fallidos y ritmo.
+ * Lo actualiza {@link PipelineSincronizacion} a medida que confirma cada trozo;
+ * se puede consultar en cualquier momento desde otro hilo.
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-07
+ */
+public class ProgresoSincronizacion {
+
+    /** Slave que se sincroniza */
+    private final TipoBaseDatos slave;
+
+    /** Número total de alumnos a aplicar */
+    private final long total;
+
+    /** Instante de inicio (ms) */
+    private final long inicio = System.currentTimeMillis();
+
+    /** Alumnos aplicados correctamente */
+    private final AtomicLong aplicados = new AtomicLong();
+
+    /** Alumnos de trozos que fallaron */
+    private final AtomicLong fallidos = new AtomicLong();
+
+    /** Instante de fin (ms), o 0 mientras sigue en curso */
+    private volatile long fin = 0;
+
+    /**
+     * Crea el progreso de una sincronización.
+     *
+     * @param slave slave que se sincroniza
+     * @param total número total de alumnos a aplicar
+     *
+     * @author Wara
+     */
+    public ProgresoSincronizacion(TipoBaseDatos slave, long total) {
+        this.slave = slave;
+        this.total = total;
+    }
+
+    /**
+     * Suma alumnos aplicados correctamente.
+     *
+     * @param filas alumnos del trozo confirmado
+     *
+     * @author Wara
+     */
+    void sumarAplicados(long filas) {
+        aplicados.addAndGet(filas);
+    }
+
+    /**
+     * Suma alumnos de un trozo que no se pudo aplicar.
+     *
+     * @param filas alumnos del trozo fallido
+     *
+     * @author Wara
+     */
+    void sumarFallidos(long filas) {
+        fallidos.addAndGet(filas);
+    }
+
+    /**
+     * Marca la sincronización como terminada.
+     *
+     * @author Wara
+     */
+    void terminar() {
+        fin = System.currentTimeMillis();
+    }
+
+    /**
+     * Obtiene el slave que se sincroniza.
+     *
+     * @return slave
+     *
+     * @author Wara
+     */
+    public TipoBaseDatos getSlave() {
+        return slave;
+    }
+
+    /**
+     * Obtiene el número total de alumnos a aplicar.
+     *
+     * @return total de alumnos
+     *
+     * @author Wara
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Obtiene los alumnos aplicados hasta ahora.
+     *
+     * @return alumnos aplicados
+     *
+     * @author Wara
+     */
+    public long getAplicados() {
+        return aplicados.get();
+    }
+
+    /**
+     * Obtiene los alumnos de trozos fallidos.
+     *
+     * @return alumnos fallidos
+     *
+     * @author Wara
+     */
+    public long getFallidos() {
+        return fallidos.get();
+    }
+
+    /**
+     * Indica si la sincronización ya terminó.
+     *
+     * @return true si terminó (con o sin errores)
+     *
+     * @author Wara
+     */
+    public boolean isTerminado() {
+        return fin != 0;
+    }
+
+    /**
+     * Obtiene el porcentaje completado (aplicados + fallidos sobre el total).
+     *
+     * @return porcentaje entre 0 y 100
+     *
+     * @author Wara
+     */
+    public double getPorcentaje() {
+        return total == 0 ? 100.0 : 100.0 * (aplicados.get() + fallidos.get()) / total;
+    }
+
+    /**
+     * Obtiene el ritmo medio de la sincronización.
+     *
+     * @return alumnos aplicados por segundo
+     *
+     * @author Wara
+     */
+    public double getFilasPorSegundo() {
+        long hasta = fin != 0 ? fin : System.currentTimeMillis();
+        long ms = Math.max(1, hasta - inicio);
+        return aplicados.get() * 1000.0 / ms;
+    }
+
+    /**
+     * Representación textual del progreso.
+     *
+     * @return String con el slave, el avance y el ritmo
+     *
+     * @author Wara
+     */
+    @Override
+    public String toString() {
+        return String.format("%s: %d/%d alumnos (%.0f%%), %d fallidos, %.1f filas/s",
+                slave, aplicados.get(), total, getPorcentaje(), fallidos.get(), getFilasPorSegundo());
+    }
+}
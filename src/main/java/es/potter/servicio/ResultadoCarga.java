@@ -0,0 +1,111 @@
+package es.potter.servicio;
+
+import es.potter.database.TipoBaseDatos;
+
+/**
+ * Resultado de una carga masiva del MASTER en una réplica: cuántos alumnos se cargaron,
+ * por qué camino (cargador nativo del motor o lotes JDBC) y a qué ritmo.
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class ResultadoCarga {
+
+    /** Réplica cargada */
+    private final TipoBaseDatos destino;
+
+    /** Alumnos cargados */
+    private final long filas;
+
+    /** Indica si se usó el cargador nativo del motor */
+    private final boolean nativa;
+
+    /** Duración de la carga en milisegundos (incluye el volcado) */
+    private final long milisegundos;
+
+    /**
+     * Crea un resultado de carga.
+     *
+     * @param destino réplica cargada
+     * @param filas alumnos cargados
+     * @param nativa true si se usó el cargador nativo, false si fue por lotes JDBC
+     * @param milisegundos duración de la carga
+     *
+     * @author Wara
+     */
+    public ResultadoCarga(TipoBaseDatos destino, long filas, boolean nativa, long milisegundos) {
+        this.destino = destino;
+        this.filas = filas;
+        this.nativa = nativa;
+        this.milisegundos = milisegundos;
+    }
+
+    /**
+     * Obtiene la réplica cargada.
+     *
+     * @return réplica destino
+     *
+     * @author Wara
+     */
+    public TipoBaseDatos getDestino() {
+        return destino;
+    }
+
+    /**
+     * Obtiene el número de alumnos cargados.
+     *
+     * @return alumnos cargados
+     *
+     * @author Wara
+     */
+    public long getFilas() {
+        return filas;
+    }
+
+    /**
+     * Indica si se usó el cargador nativo del motor.
+     *
+     * @return true si fue nativa, false si fue por lotes JDBC
+     *
+     * @author Wara
+     */
+    public boolean isNativa() {
+        return nativa;
+    }
+
+    /**
+     * Obtiene la duración de la carga.
+     *
+     * @return milisegundos
+     *
+     * @author Wara
+     */
+    public long getMilisegundos() {
+        return milisegundos;
+    }
+
+    /**
+     * Obtiene el ritmo medio de la carga.
+     *
+     * @return alumnos cargados por segundo
+     *
+     * @author Wara
+     */
+    public double getFilasPorSegundo() {
+        return filas * 1000.0 / Math.max(1, milisegundos);
+    }
+
+    /**
+     * Representación textual del resultado.
+     *
+     * @return String con el destino, el camino usado y el ritmo
+     *
+     * @author Wara
+     */
+    @Override
+    public String toString() {
+        return String.format("ResultadoCarga{%s, %s, %d alumnos, %d ms, %.1f filas/s}",
+                destino, nativa ? "nativa" : "lotes", filas, milisegundos, getFilasPorSegundo());
+    }
+}
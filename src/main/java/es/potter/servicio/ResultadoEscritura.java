@@ -0,0 +1,198 @@
+package es.potter.servicio;
+
+/**
+ * Resultado de una escritura en el sistema Master-Slave.
+ * Informa del nivel de consistencia pedido, del que realmente se alcanzó antes de
+ * devolver el control y del tiempo que tardó la llamada.
+ * Sin conexión con el MASTER la escritura no alcanza ningún nivel, pero puede quedar guardada
+ * en el diario local para reenviarse después (ver {@link ModoSinConexion}).
+ * Si el MASTER confirmó pero la operación no se pudo encolar para los slaves, la escritura sigue
+ * confirmada y el fallo se informa aparte ({@link #getErrorReplicacion()}).
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-07
+ */
+public class ResultadoEscritura {
+
+    /** Nivel pedido por el llamante */
+    private final NivelConsistencia solicitado;
+
+    /** Nivel confirmado al devolver el resultado, o null si la escritura falló */
+    private final NivelConsistencia alcanzado;
+
+    /** Duración de la llamada en milisegundos */
+    private final long milisegundos;
+
+    /** Indica si la escritura quedó en el diario local, pendiente de enviar al MASTER */
+    private final boolean enDiario;
+
+    /** Motivo por el que no se pudo encolar para los slaves tras confirmar en el MASTER, o null */
+    private final String errorReplicacion;
+
+    /**
+     * Crea un resultado de escritura.
+     *
+     * @param solicitado nivel pedido
+     * @param alcanzado nivel confirmado, o null si no se confirmó en el MASTER
+     * @param milisegundos duración de la llamada
+     *
+     * @author Wara
+     */
+    public ResultadoEscritura(NivelConsistencia solicitado, NivelConsistencia alcanzado, long milisegundos) {
+        this(solicitado, alcanzado, milisegundos, false);
+    }
+
+    /**
+     * Crea un resultado de escritura indicando si quedó en el diario local.
+     *
+     * @param solicitado nivel pedido
+     * @param alcanzado nivel confirmado, o null si no llegó al MASTER
+     * @param milisegundos duración de la llamada
+     * @param enDiario true si se guardó en el diario local para reenviarla al MASTER
+     *
+     * @author Wara
+     */
+    public ResultadoEscritura(NivelConsistencia solicitado, NivelConsistencia alcanzado, long milisegundos,
+                              boolean enDiario) {
+        this(solicitado, alcanzado, milisegundos, enDiario, null);
+    }
+
+    /**
+     * Crea un resultado de escritura confirmada en el MASTER cuya replicación no se pudo encolar.
+     *
+     * @param solicitado nivel pedido
+     * @param alcanzado nivel confirmado, o null si no llegó al MASTER
+     * @param milisegundos duración de la llamada
+     * @param enDiario true si se guardó en el diario local para reenviarla al MASTER
+     * @param errorReplicacion motivo del fallo al encolar para los slaves, o null si no lo hubo
+     *
+     * @author Wara
+     */
+    public ResultadoEscritura(NivelConsistencia solicitado, NivelConsistencia alcanzado, long milisegundos,
+                              boolean enDiario, String errorReplicacion) {
+        this.solicitado = solicitado;
+        this.alcanzado = alcanzado;
+        this.milisegundos = milisegundos;
+        this.enDiario = enDiario;
+        this.errorReplicacion = errorReplicacion;
+    }
+
+    /**
+     * Indica si la escritura alcanzó el nivel pedido.
+     *
+     * @return true si se alcanzó el nivel solicitado
+     *
+     * @author Wara
+     */
+    public boolean isExito() {
+        return alcanzado != null && alcanzado.cumple(solicitado);
+    }
+
+    /**
+     * Indica si la escritura quedó confirmada al menos en el MASTER.
+     * Si es así, los slaves que falten la recibirán por la cola de replicación.
+     *
+     * @return true si el MASTER confirmó
+     *
+     * @author Wara
+     */
+    public boolean isEnMaster() {
+        return alcanzado != null;
+    }
+
+    /**
+     * Indica si la escritura se hizo sin conexión con el MASTER y quedó guardada en el diario local.
+     * El usuario la ve ya en SQLite; llegará al MASTER y al resto de slaves al reconectar.
+     *
+     * @return true si quedó en el diario
+     *
+     * @author Wara
+     */
+    public boolean isEnDiario() {
+        return enDiario;
+    }
+
+    /**
+     * Indica si la escritura se puede dar por aceptada: alcanzó el nivel pedido o,
+     * sin conexión con el MASTER, quedó guardada en el diario local.
+     *
+     * @return true si la escritura no se perdió
+     *
+     * @author Wara
+     */
+    public boolean isAceptada() {
+        return isExito() || enDiario;
+    }
+
+    /**
+     * Indica si, tras confirmar en el MASTER, la operación no se pudo encolar para los slaves.
+     * La escritura no se pierde: la sincronización incremental la llevará a los slaves.
+     *
+     * @return true si falló el encolado
+     *
+     * @author Wara
+     */
+    public boolean isReplicacionFallida() {
+        return errorReplicacion != null;
+    }
+
+    /**
+     * Obtiene el motivo por el que no se pudo encolar para los slaves.
+     *
+     * @return motivo, o null si se encoló bien (o aún no se sabía al devolver el resultado)
+     *
+     * @author Wara
+     */
+    public String getErrorReplicacion() {
+        return errorReplicacion;
+    }
+
+    /**
+     * Obtiene el nivel pedido.
+     *
+     * @return nivel solicitado
+     *
+     * @author Wara
+     */
+    public NivelConsistencia getSolicitado() {
+        return solicitado;
+    }
+
+    /**
+     * Obtiene el nivel confirmado al devolver el resultado.
+     *
+     * @return nivel alcanzado, o null si la escritura falló
+     *
+     * @author Wara
+     */
+    public NivelConsistencia getAlcanzado() {
+        return alcanzado;
+    }
+
+    /**
+     * Obtiene la duración de la llamada.
+     *
+     * @return milisegundos desde la llamada hasta el resultado
+     *
+     * @author Wara
+     */
+    public long getMilisegundos() {
+        return milisegundos;
+    }
+
+    /**
+     * Representación textual del resultado.
+     *
+     * @return String con los niveles y la duración
+     *
+     * @author Wara
+     */
+    @Override
+    public String toString() {
+        return "ResultadoEscritura{solicitado=" + solicitado + ", alcanzado=" + alcanzado
+                + (enDiario ? ", en diario" : "")
+                + (errorReplicacion != null ? ", replicación fallida: " + errorReplicacion : "")
+                + ", " + milisegundos + " ms}";
+    }
+}
@@ -0,0 +1,43 @@
+package es.potter.servicio;
+
+import es.potter.database.TipoBaseDatos;
+
+/**
+ * Retraso de una réplica (una casa o SQLite) respecto al MASTER.
+ * Las operaciones en la cola de replicación y los cambios del registro posteriores a la
+ * marca de agua se solapan (una misma escritura suele estar en los dos sitios), por eso
+ * {@link #pendientes()} toma el mayor de ambos en lugar de sumarlos.
+ *
+ * @param replica réplica medida
+ * @param enCola operaciones esperando en la cola de replicación
+ * @param sinAplicar cambios del MASTER posteriores a la marca de agua, o -1 si no se pudo contar
+ * @param msDesdeUltimaAplicacion milisegundos desde la última aplicación confirmada, o -1 si aún no ha habido ninguna
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public record RetrasoReplica(TipoBaseDatos replica, long enCola, long sinAplicar, long msDesdeUltimaAplicacion) {
+
+    /**
+     * Obtiene las operaciones pendientes de llegar a la réplica.
+     *
+     * @return operaciones pendientes
+     *
+     * @author Wara
+     */
+    public long pendientes() {
+        return Math.max(enCola, sinAplicar);
+    }
+
+    /**
+     * Indica si la réplica está al día.
+     *
+     * @return true si no tiene operaciones pendientes
+     *
+     * @author Wara
+     */
+    public boolean alDia() {
+        return pendientes() == 0;
+    }
+}
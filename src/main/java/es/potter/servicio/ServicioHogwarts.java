@@ -1,28 +1,47 @@
 package es.potter.servicio;
 
 import es.potter.dao.DaoAlumno;
+import es.potter.dao.DaoCambios;
+import es.potter.dao.DaoLiderazgo;
+import es.potter.dao.FiltroIds;
 import es.potter.model.Alumno;
+import es.potter.model.OperacionAlumno;
+import es.potter.model.TipoOperacion;
+import es.potter.database.MapaShards;
 import es.potter.database.TipoBaseDatos;
+import es.potter.util.Propiedades;
+import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Servicio de alumnos con arquitectura Master-Slave.
  * ARQUITECTURA:
  * - MariaDB = MASTER (fuente de verdad única)
- * - Casas (Gryffindor, Slytherin, Ravenclaw, Hufflepuff) = SLAVES
+ * - Casas (Gryffindor, Slytherin, Ravenclaw, Hufflepuff) = SLAVES, cada una en uno o varios
+ *   backends según el {@link MapaShards}
  * - SQLite = SLAVE (backup local completo)
  * GARANTÍAS:
- * - Consistencia: Todas las operaciones se completan en las 3 bases o ninguna
+ * - Consistencia: Una operación se da por buena cuando la confirman las bases que exige su
+ *   {@link NivelConsistencia} (solo MASTER, MASTER + Casa o todas); el resto de slaves la reciben
+ *   después a través de la cola de replicación (ver {@link ColaReplicacion})
  * - Persistencia: Los datos se mantienen en MASTER + 2 SLAVES
- * - Recuperación: Metodo de sincronización desde MASTER
+ * - Orden: las escrituras de un mismo alumno llegan a cada base en el orden en que se pidieron
+ *   (ver {@link CarrilesAlumno}); las de alumnos distintos van en paralelo
+ * - Recuperación: La cola reintenta los slaves caídos; además existe el metodo de sincronización desde MASTER
+ * - Sin conexión: si el MASTER no responde se lee y escribe en SQLite y las escrituras se reenvían
+ *   al volver (ver {@link ModoSinConexion})
  *
  * @author Wara
  * @version 1.0
@@ -33,29 +52,40 @@ public class ServicioHogwarts {
     /** Logger para registrar eventos y errores de la conexión */
     private static final Logger logger = LoggerFactory.getLogger(ServicioHogwarts.class);
 
-    // Casas de Hogwarts (SLAVES)
-    private static final TipoBaseDatos[] CASAS = {
-            TipoBaseDatos.GRYFFINDOR,
-            TipoBaseDatos.SLYTHERIN,
-            TipoBaseDatos.RAVENCLAW,
-            TipoBaseDatos.HUFFLEPUFF
-    };
+    /** Nivel de consistencia de las escrituras que no indican uno (consistencia.nivel) */
+    private static final NivelConsistencia NIVEL_POR_DEFECTO = leerNivelPorDefecto();
+
+    /** Tiempo máximo que una escritura espera a los slaves que exige su nivel */
+    private static final long ESPERA_SLAVES_MS = Math.max(1, Propiedades.getEntero("consistencia.espera.ms", 5000));
+
+    /** Estrategia para leer la vista completa de Hogwarts (lectura.hogwarts) */
+    private static final EstrategiaLectura ESTRATEGIA_LECTURA = leerEstrategiaLectura();
 
 
     // ==================== CARGAR ====================
     /**
      * Carga todos los alumnos desde la base de datos MASTER (MariaDB).
+     * Sin conexión con el MASTER se cargan desde SQLite (ver {@link ModoSinConexion}).
      *
      * @return CompletableFuture con la lista observable de alumnos cargada desde MariaDB.
      *
      * @author Wara
      */
     public static CompletableFuture<ObservableList<Alumno>> cargarAlumnos() {
-        return DaoAlumno.cargarAlumnos(TipoBaseDatos.MARIADB);
+        return cargarAlumnosDesde(TipoBaseDatos.MARIADB);
     }
 
     /**
      * Carga todos los alumnos desde una base de datos específica.
+     * Si es un slave, incluye las escrituras de esta sesión que aún no ha confirmado
+     * (ver {@link SesionEscrituras}). Una casa se lee de todos sus backends (ver {@link MapaShards}).
+     * Si una casa no responde, sus alumnos se leen del MASTER (solo su partición si está particionado)
+     * y, si tampoco responde, de SQLite. Si el que no responde es el MASTER, se leen de SQLite
+     * y además se activa el {@link ModoSinConexion}.
+     * Con {@code lectura.hogwarts=REPARTIDA}, la lectura del MASTER se reparte entre las casas
+     * (ver {@link LecturaRepartida}).
+     * Las listas se guardan un tiempo en memoria (ver {@link CacheAlumnos}): volver a una casa
+     * recién vista no vuelve a consultarla.
      *
      * @param tipo Tipo de base de datos desde la que se cargan los alumnos.
      * @return CompletableFuture con la lista observable de alumnos.
@@ -63,127 +93,502 @@ public class ServicioHogwarts {
      * @author Wara
      */
     public static CompletableFuture<ObservableList<Alumno>> cargarAlumnosDesde(TipoBaseDatos tipo) {
-        return DaoAlumno.cargarAlumnos(tipo);
+        return CacheAlumnos.obtener(tipo, () -> leerAlumnosDesde(tipo));
+    }
+
+    /**
+     * Obtiene la última lista de una vista guardada en disco (ver {@link InstantaneaAlumnos}), para
+     * pintarla al arrancar mientras llega la lista fresca de {@link #cargarAlumnosDesde(TipoBaseDatos)}.
+     * No consulta ninguna base de datos.
+     *
+     * @param tipo Vista que se va a mostrar.
+     * @return Lista observable con los alumnos guardados (puede estar atrasada), o null si no hay instantánea de esa vista.
+     *
+     * @author Wara
+     */
+    public static ObservableList<Alumno> cargarInstantanea(TipoBaseDatos tipo) {
+        List<Alumno> alumnos = InstantaneaAlumnos.leer(tipo);
+        return alumnos == null ? null : FXCollections.observableArrayList(alumnos);
+    }
+
+    /**
+     * Obtiene la proporción de cargas de alumnos servidas desde la caché (ver {@link CacheAlumnos}).
+     *
+     * @return aciertos entre cargas totales desde el arranque.
+     *
+     * @author Wara
+     */
+    public static double getTasaAciertosCache() {
+        return CacheAlumnos.getTasaAciertos();
+    }
+
+    /**
+     * Busca un alumno por su ID entre los alumnos de todo el colegio que ya están en memoria
+     * (ver {@link IndiceAlumnos}); solo se consulta la base si aún no se han cargado o han caducado.
+     *
+     * @param id ID del alumno.
+     * @return CompletableFuture con una copia del alumno, o null si no existe.
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Alumno> buscarAlumno(String id) {
+        return consultarColegio(indice -> indice.buscar(id));
+    }
+
+    /**
+     * Obtiene los alumnos de una casa a partir de los alumnos de todo el colegio en memoria,
+     * sin recorrerlos todos.
+     *
+     * @param casa Casa de Hogwarts.
+     * @return CompletableFuture con copias de los alumnos de la casa.
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<List<Alumno>> filtrarPorCasa(TipoBaseDatos casa) {
+        return consultarColegio(indice -> indice.deCasa(casa));
+    }
+
+    /**
+     * Obtiene los alumnos de un curso a partir de los alumnos de todo el colegio en memoria.
+     *
+     * @param curso Curso (1-7).
+     * @return CompletableFuture con copias de los alumnos del curso.
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<List<Alumno>> filtrarPorCurso(int curso) {
+        return consultarColegio(indice -> indice.deCurso(curso));
+    }
+
+    /**
+     * Busca los alumnos cuyos apellidos empiezan por un texto (sin distinguir mayúsculas)
+     * entre los alumnos de todo el colegio en memoria.
+     *
+     * @param prefijo Principio de los apellidos.
+     * @return CompletableFuture con copias de los alumnos encontrados, ordenados por apellidos.
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<List<Alumno>> buscarPorApellidos(String prefijo) {
+        return consultarColegio(indice -> indice.conApellidos(prefijo));
+    }
+
+    /**
+     * Responde una consulta con el índice en memoria de los alumnos de todo el colegio (la vista del MASTER).
+     *
+     * @param consulta consulta sobre el índice.
+     * @param <T> tipo de la respuesta.
+     * @return CompletableFuture con la respuesta.
+     *
+     * @author Wara
+     */
+    private static <T> CompletableFuture<T> consultarColegio(Function<IndiceAlumnos, T> consulta) {
+        return CacheAlumnos.consultar(TipoBaseDatos.MARIADB, () -> leerAlumnosDesde(TipoBaseDatos.MARIADB), consulta);
+    }
+
+    /**
+     * Lee los alumnos de una base sin pasar por la caché (ver {@link #cargarAlumnosDesde(TipoBaseDatos)}).
+     *
+     * @param tipo Tipo de base de datos desde la que se cargan los alumnos.
+     * @return CompletableFuture con la lista observable de alumnos.
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<ObservableList<Alumno>> leerAlumnosDesde(TipoBaseDatos tipo) {
+        if (tipo == TipoBaseDatos.MARIADB && ModoSinConexion.isActivo()) {
+            return cargarDesdeSqlite(tipo);
+        }
+
+        CompletableFuture<ObservableList<Alumno>> lectura;
+        if (tipo.esCasa()) {
+            lectura = LecturaRepartida.cargarCasa(tipo);
+        } else {
+            lectura = (tipo == TipoBaseDatos.MARIADB && ESTRATEGIA_LECTURA == EstrategiaLectura.REPARTIDA
+                    ? LecturaRepartida.cargar()
+                    : DaoAlumno.cargarAlumnos(tipo))
+                    .thenApply(alumnos -> SesionEscrituras.superponer(tipo, alumnos));
+        }
+
+        return lectura
+                .whenComplete((alumnos, ex) -> {
+                    if (ex == null) {
+                        InstantaneaAlumnos.guardar(tipo, alumnos);
+                    }
+                })
+                .exceptionallyCompose(ex -> {
+                    if (tipo != TipoBaseDatos.MARIADB && !tipo.esCasa()) {
+                        return CompletableFuture.failedFuture(ex);
+                    }
+                    if (tipo == TipoBaseDatos.MARIADB) {
+                        ModoSinConexion.activar(ex);
+                    } else if (!ModoSinConexion.isActivo()) {
+                        logger.warn("{} no responde, se cargan sus alumnos desde el MASTER", tipo);
+                        return cargarCasaDesdeMaster(tipo).exceptionallyCompose(exMaster -> {
+                            logger.warn("El MASTER tampoco responde, se cargan los alumnos de {} desde SQLite", tipo);
+                            return cargarDesdeSqlite(tipo);
+                        });
+                    }
+                    logger.warn("{} no responde, se cargan los alumnos desde SQLite", tipo);
+                    return cargarDesdeSqlite(tipo);
+                });
+    }
+
+    /**
+     * Carga los alumnos de una casa directamente del MASTER, filtrando por casa para que
+     * el MASTER particionado solo lea la partición de esa casa.
+     *
+     * @param casa Casa de Hogwarts.
+     * @return CompletableFuture con la lista observable de alumnos de la casa.
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<ObservableList<Alumno>> cargarCasaDesdeMaster(TipoBaseDatos casa) {
+        return DaoAlumno.cargarAlumnosDeCasa(casa.obtenerNombreCasa(), TipoBaseDatos.MARIADB);
+    }
+
+    /**
+     * Cuenta en el MASTER los alumnos de cada casa. Cada recuento filtra por su casa, así que
+     * con el MASTER particionado el coste de cada uno depende del tamaño de la casa, no del colegio.
+     *
+     * @return CompletableFuture con el número de alumnos de cada casa.
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Map<TipoBaseDatos, Long>> contarAlumnosPorCasa() {
+        Map<TipoBaseDatos, CompletableFuture<Long>> recuentos = new EnumMap<>(TipoBaseDatos.class);
+        for (TipoBaseDatos casa : MapaShards.getCasas()) {
+            recuentos.put(casa, DaoAlumno.contarAlumnosDeCasa(casa.obtenerNombreCasa(), TipoBaseDatos.MARIADB));
+        }
+        return CompletableFuture.allOf(recuentos.values().toArray(new CompletableFuture[0])).thenApply(v -> {
+            Map<TipoBaseDatos, Long> totales = new EnumMap<>(TipoBaseDatos.class);
+            recuentos.forEach((casa, recuento) -> totales.put(casa, recuento.join()));
+            return totales;
+        });
+    }
+
+    /**
+     * Carga todos los alumnos leyendo las cuatro casas en paralelo, sea cual sea la estrategia
+     * configurada. Si alguna casa no está sana, se leen del MASTER.
+     *
+     * @return CompletableFuture con todos los alumnos ordenados por ID.
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<ObservableList<Alumno>> cargarAlumnosRepartido() {
+        return LecturaRepartida.cargar();
+    }
+
+    /**
+     * Obtiene la estrategia con la que se lee la vista completa de Hogwarts.
+     *
+     * @return estrategia configurada en lectura.hogwarts
+     *
+     * @author Wara
+     */
+    public static EstrategiaLectura getEstrategiaLectura() {
+        return ESTRATEGIA_LECTURA;
     }
 
-    
     // ==================== CRUD ====================
 
     /**
-     * Crea un alumno en 3 bases: MASTER + Casa + SQLite.
-     * Solo retorna true si se guarda en TODAS.
+     * Crea un alumno en 3 bases: MASTER + Casa + SQLite, con el nivel de consistencia por defecto.
      *
      * @param alumno Alumno a crear
-     * @return CompletableFuture que indica true si se guardó correctamente en todas las bases.
+     * @return CompletableFuture que indica true si se alcanzó el nivel de consistencia por defecto
+     *         o, sin conexión con el MASTER, si quedó guardado para reenviarlo.
      *
      * @author Wara
      */
     public static CompletableFuture<Boolean> nuevoAlumno(Alumno alumno) {
-        logger.info("Creando alumno '{}' en sistema Master-Slave", alumno.getNombre());
+        return nuevoAlumno(alumno, NIVEL_POR_DEFECTO).thenApply(ResultadoEscritura::isAceptada);
+    }
 
-        return DaoAlumno.nuevoAlumno(alumno, TipoBaseDatos.MARIADB)
-                .thenCompose(exitoMaster -> {
-                    if (!exitoMaster) {
-                        logger.error("Falló en MASTER, operación abortada");
-                        return CompletableFuture.completedFuture(false);
-                    }
+    /**
+     * Crea un alumno en 3 bases: MASTER + Casa + SQLite.
+     * Retorna cuando lo han confirmado las bases que exige el nivel; el resto se replica en segundo plano.
+     *
+     * @param alumno Alumno a crear
+     * @param nivel Nivel de consistencia exigido
+     * @return CompletableFuture con el resultado y el nivel alcanzado.
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<ResultadoEscritura> nuevoAlumno(Alumno alumno, NivelConsistencia nivel) {
+        logger.info("Creando alumno '{}' en sistema Master-Slave ({})", alumno.getNombre(), nivel);
+        long inicio = System.currentTimeMillis();
+        DaoAlumno.asignarId(alumno);
+        OperacionAlumno operacion = new OperacionAlumno(TipoOperacion.INSERTAR, alumno.getId(), alumno);
 
-                    logger.info("Guardado en MASTER, sincronizando slaves...");
-                    return copiarASlaves(alumno);
-                });
+        return enCarril(List.of(operacion), () -> {
+            if (ModoSinConexion.isActivo()) {
+                return terminada(ModoSinConexion.escribir(operacion, nivel, inicio));
+            }
+
+            return trasMaster(DaoAlumno.nuevoAlumno(alumno, TipoBaseDatos.MARIADB), operacion, nivel, inicio,
+                    () -> replicarEnSlaves(operacion, alumno, nivel, inicio));
+        });
     }
 
     /**
-     * Elimina un alumno de 3 bases: MASTER + Casa + SQLite.
-     * Solo retorna true si se elimina de TODAS.
+     * Elimina un alumno de 3 bases: MASTER + Casa + SQLite, con el nivel de consistencia por defecto.
      *
      * @param alumno Alumno a eliminar.
-     * @return CompletableFuture que indica true si se eliminó correctamente en todas las bases.
+     * @return CompletableFuture que indica true si se alcanzó el nivel de consistencia por defecto
+     *         o, sin conexión con el MASTER, si quedó guardado para reenviarlo.
      *
      * @author Wara
      */
     public static CompletableFuture<Boolean> eliminarAlumno(Alumno alumno) {
-        logger.info("Eliminando alumno '{}' del sistema Master-Slave", alumno.getNombre());
+        return eliminarAlumno(alumno, NIVEL_POR_DEFECTO).thenApply(ResultadoEscritura::isAceptada);
+    }
 
-        return DaoAlumno.eliminarAlumno(alumno, TipoBaseDatos.MARIADB)
-                .thenCompose(exitoMaster -> {
-                    if (!exitoMaster) {
-                        logger.error("Falló eliminar de MASTER, operación abortada");
-                        return CompletableFuture.completedFuture(false);
-                    }
+    /**
+     * Elimina un alumno de 3 bases: MASTER + Casa + SQLite.
+     * Retorna cuando lo han confirmado las bases que exige el nivel; el resto se replica en segundo plano.
+     *
+     * @param alumno Alumno a eliminar.
+     * @param nivel Nivel de consistencia exigido.
+     * @return CompletableFuture con el resultado y el nivel alcanzado.
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<ResultadoEscritura> eliminarAlumno(Alumno alumno, NivelConsistencia nivel) {
+        logger.info("Eliminando alumno '{}' del sistema Master-Slave ({})", alumno.getNombre(), nivel);
+        long inicio = System.currentTimeMillis();
+        OperacionAlumno operacion = new OperacionAlumno(TipoOperacion.ELIMINAR, alumno.getId(), alumno);
 
-                    logger.info("Eliminado de MASTER, sincronizando slaves...");
-                    return eliminarDeSlaves(alumno);
-                });
+        return enCarril(List.of(operacion), () -> {
+            if (ModoSinConexion.isActivo()) {
+                return terminada(ModoSinConexion.escribir(operacion, nivel, inicio));
+            }
+
+            return trasMaster(DaoAlumno.eliminarAlumno(alumno, TipoBaseDatos.MARIADB), operacion, nivel, inicio,
+                    () -> replicarEnSlaves(operacion, alumno, nivel, inicio));
+        });
     }
 
     /**
-     * Modifica un alumno en las tres bases: MASTER + Casa + SQLite.
+     * Modifica un alumno en las tres bases: MASTER + Casa + SQLite, con el nivel de consistencia por defecto.
      *
      * @param id Identificador del alumno a modificar.
      * @param alumno Datos nuevos del alumno.
-     * @return CompletableFuture que indica true si la modificación fue exitosa en todas las bases.
+     * @return CompletableFuture que indica true si se alcanzó el nivel de consistencia por defecto
+     *         o, sin conexión con el MASTER, si quedó guardado para reenviarlo.
      *
      * @author Wara
      */
     public static CompletableFuture<Boolean> modificarAlumno(String id, Alumno alumno) {
-        logger.info("Modificando alumno '{}' en sistema Master-Slave", alumno.getNombre());
+        return modificarAlumno(id, alumno, NIVEL_POR_DEFECTO).thenApply(ResultadoEscritura::isAceptada);
+    }
 
-        return DaoAlumno.modificarAlumno(id, alumno, TipoBaseDatos.MARIADB)
-                .thenCompose(exitoMaster -> {
-                    if (!exitoMaster) {
-                        logger.error("Falló modificar en MASTER, operación abortada");
-                        return CompletableFuture.completedFuture(false);
-                    }
+    /**
+     * Modifica un alumno en las tres bases: MASTER + Casa + SQLite.
+     * Retorna cuando lo han confirmado las bases que exige el nivel; el resto se replica en segundo plano.
+     *
+     * @param id Identificador del alumno a modificar.
+     * @param alumno Datos nuevos del alumno.
+     * @param nivel Nivel de consistencia exigido.
+     * @return CompletableFuture con el resultado y el nivel alcanzado.
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<ResultadoEscritura> modificarAlumno(String id, Alumno alumno,
+                                                                        NivelConsistencia nivel) {
+        logger.info("Modificando alumno '{}' en sistema Master-Slave ({})", alumno.getNombre(), nivel);
+        long inicio = System.currentTimeMillis();
+        OperacionAlumno operacion = new OperacionAlumno(TipoOperacion.MODIFICAR, id, alumno);
 
-                    logger.info("Modificado en MASTER, sincronizando slaves...");
-                    return modificarEnSlaves(id, alumno);
-                });
+        return enCarril(List.of(operacion), () -> {
+            if (ModoSinConexion.isActivo()) {
+                return terminada(ModoSinConexion.escribir(operacion, nivel, inicio));
+            }
+
+            return trasMaster(DaoAlumno.modificarAlumno(id, alumno, TipoBaseDatos.MARIADB), operacion, nivel, inicio,
+                    () -> replicarEnSlaves(operacion, alumno, nivel, inicio));
+        });
+    }
+
+    /**
+     * Obtiene el nivel de consistencia que usan las escrituras que no indican uno.
+     *
+     * @return nivel configurado en consistencia.nivel
+     *
+     * @author Wara
+     */
+    public static NivelConsistencia getNivelPorDefecto() {
+        return NIVEL_POR_DEFECTO;
+    }
+
+    // ==================== OPERACIONES EN BLOQUE ====================
+
+    /**
+     * Crea varios alumnos con el nivel de consistencia por defecto (ver {@link #nuevosAlumnos(List, NivelConsistencia)}).
+     *
+     * @param alumnos Alumnos a crear.
+     * @return CompletableFuture que indica true si se crearon todos.
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Boolean> nuevosAlumnos(List<Alumno> alumnos) {
+        return nuevosAlumnos(alumnos, NIVEL_POR_DEFECTO).thenApply(ResultadoEscritura::isAceptada);
+    }
+
+    /**
+     * Crea varios alumnos: una transacción en el MASTER para todos y, en los slaves, una entrada
+     * en la cola por casa y otra para SQLite, que avanzan en paralelo.
+     *
+     * @param alumnos Alumnos a crear.
+     * @param nivel Nivel de consistencia exigido.
+     * @return CompletableFuture con el resultado del bloque (o todos o ninguno en el MASTER).
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<ResultadoEscritura> nuevosAlumnos(List<Alumno> alumnos, NivelConsistencia nivel) {
+        List<OperacionAlumno> operaciones = new ArrayList<>();
+        for (Alumno alumno : alumnos) {
+            DaoAlumno.asignarId(alumno);
+            operaciones.add(new OperacionAlumno(TipoOperacion.INSERTAR, alumno.getId(), alumno));
+        }
+        return escribirEnBloque(operaciones, nivel);
+    }
+
+    /**
+     * Elimina varios alumnos con el nivel de consistencia por defecto (ver {@link #eliminarAlumnos(List, NivelConsistencia)}).
+     *
+     * @param alumnos Alumnos a eliminar.
+     * @return CompletableFuture que indica true si se eliminaron todos.
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Boolean> eliminarAlumnos(List<Alumno> alumnos) {
+        return eliminarAlumnos(alumnos, NIVEL_POR_DEFECTO).thenApply(ResultadoEscritura::isAceptada);
+    }
+
+    /**
+     * Elimina varios alumnos: una transacción en el MASTER para todos y, en los slaves, una entrada
+     * en la cola por casa y otra para SQLite, que avanzan en paralelo.
+     *
+     * @param alumnos Alumnos a eliminar.
+     * @param nivel Nivel de consistencia exigido.
+     * @return CompletableFuture con el resultado del bloque (o todos o ninguno en el MASTER).
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<ResultadoEscritura> eliminarAlumnos(List<Alumno> alumnos, NivelConsistencia nivel) {
+        List<OperacionAlumno> operaciones = alumnos.stream()
+                .map(alumno -> new OperacionAlumno(TipoOperacion.ELIMINAR, alumno.getId(), alumno))
+                .toList();
+        return escribirEnBloque(operaciones, nivel);
+    }
+
+    /**
+     * Cambia el curso de varios alumnos con el nivel de consistencia por defecto
+     * (ver {@link #cambiarCurso(List, int, NivelConsistencia)}).
+     *
+     * @param alumnos Alumnos a modificar.
+     * @param curso Curso nuevo (1-7).
+     * @return CompletableFuture que indica true si se modificaron todos.
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Boolean> cambiarCurso(List<Alumno> alumnos, int curso) {
+        return cambiarCurso(alumnos, curso, NIVEL_POR_DEFECTO).thenApply(ResultadoEscritura::isAceptada);
+    }
+
+    /**
+     * Cambia el curso de varios alumnos: una transacción en el MASTER para todos y, en los slaves,
+     * una entrada en la cola por casa y otra para SQLite, que avanzan en paralelo.
+     * Los alumnos recibidos no se modifican; si la escritura se acepta, el llamante debe recargarlos
+     * o actualizar su curso.
+     *
+     * @param alumnos Alumnos a modificar.
+     * @param curso Curso nuevo (1-7).
+     * @param nivel Nivel de consistencia exigido.
+     * @return CompletableFuture con el resultado del bloque (o todos o ninguno en el MASTER).
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<ResultadoEscritura> cambiarCurso(List<Alumno> alumnos, int curso,
+                                                                     NivelConsistencia nivel) {
+        List<OperacionAlumno> operaciones = new ArrayList<>();
+        for (Alumno alumno : alumnos) {
+            Alumno modificado = new Alumno(alumno.getNombre(), alumno.getApellidos(), curso,
+                    alumno.getCasa(), alumno.getPatronus());
+            operaciones.add(new OperacionAlumno(TipoOperacion.MODIFICAR, alumno.getId(), modificado));
+        }
+        return escribirEnBloque(operaciones, nivel);
     }
 
     // ==================== SINCRONIZACIÓN ====================
 
     /**
      * Sincroniza todas las bases de datos desde MASTER.
-     * Cada casa recibe solo sus alumnos; SQLite recibe todos.
+     * Cada backend de una casa recibe solo los alumnos que le asigna el {@link MapaShards}; SQLite recibe todos.
+     * Solo se transfieren los alumnos que difieren (ver {@link ComparadorMerkle}).
+     * Si otra instancia es la líder de la replicación, los backends de las casas se le piden a ella y se
+     * espera su resultado (ver {@link LiderReplicacion}), para que varios equipos no los sincronicen a la vez;
+     * SQLite, que es local de cada equipo, se sincroniza siempre aquí.
      *
      * @return CompletableFuture indicando si todas las sincronizaciones fueron exitosas.
      *
      * @author Wara
      */
     public static CompletableFuture<Boolean> sincronizarDesdeMaster() {
-        logger.info("🔄 Iniciando sincronización completa desde MASTER...");
+        if (!LiderReplicacion.isLider()) {
+            logger.info("🔄 Pidiendo la sincronización completa al líder de la replicación...");
+            return LiderReplicacion.pedirSincronizacionCompleta()
+                    .thenCombine(sincronizarSlave(TipoBaseDatos.SQLITE), (casas, sqlite) -> casas && sqlite);
+        }
+        return sincronizarCompleta();
+    }
 
-        return DaoAlumno.cargarAlumnos(TipoBaseDatos.MARIADB)
-                .thenCompose(alumnosMaster -> {
-                    logger.info("Cargados {} alumnos desde MASTER", alumnosMaster.size());
+    /**
+     * Obtiene qué instancia es la líder de la replicación y su último progreso publicado.
+     *
+     * @return CompletableFuture con el estado del arrendamiento, o null si aún no ha habido ningún líder.
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<DaoLiderazgo.Estado> getEstadoLider() {
+        return LiderReplicacion.getEstado();
+    }
 
-                    List<CompletableFuture<Boolean>> sincronizaciones = new ArrayList<>();
+    /**
+     * Ejecuta en esta instancia la sincronización completa de todas las bases desde el MASTER.
+     *
+     * @return CompletableFuture indicando si todas las sincronizaciones fueron exitosas.
+     *
+     * @author Wara
+     */
+    static CompletableFuture<Boolean> sincronizarCompleta() {
+        logger.info("🔄 Iniciando sincronización completa desde MASTER...");
+        LiderReplicacion.publicarProgreso("Sincronización completa en curso");
 
-                    // Sincronizar cada casa con SUS alumnos
-                    for (TipoBaseDatos casa : CASAS) {
-                        List<Alumno> alumnosCasa = filtrarPorCasa(alumnosMaster, casa.obtenerNombreCasa());
-                        logger.info("{}: {} alumnos", casa, alumnosCasa.size());
-                        sincronizaciones.add(sincronizarSlave(alumnosCasa, casa));
-                    }
+        List<CompletableFuture<Boolean>> sincronizaciones = new ArrayList<>();
 
-                    // SQLite recibe TODOS
-                    logger.info("SQLite: {} alumnos (todos)", alumnosMaster.size());
-                    sincronizaciones.add(sincronizarSlave(alumnosMaster, TipoBaseDatos.SQLITE));
+        // Cada backend se compara solo con SUS alumnos
+        for (TipoBaseDatos backend : MapaShards.getBackends()) {
+            sincronizaciones.add(sincronizarSlave(backend));
+        }
 
-                    // Esperar a que todas terminen
-                    return CompletableFuture.allOf(sincronizaciones.toArray(new CompletableFuture[0]))
-                            .thenApply(v -> {
-                                boolean todoOk = sincronizaciones.stream().allMatch(CompletableFuture::join);
+        // SQLite se compara con TODOS
+        sincronizaciones.add(sincronizarSlave(TipoBaseDatos.SQLITE));
 
-                                if (todoOk) {
-                                    logger.info("Sincronización completa exitosa");
-                                } else {
-                                    logger.warn("Sincronización completada con algunos errores");
-                                }
+        // Esperar a que todas terminen
+        return CompletableFuture.allOf(sincronizaciones.toArray(new CompletableFuture[0]))
+                .thenApply(v -> {
+                    boolean todoOk = sincronizaciones.stream().allMatch(CompletableFuture::join);
 
-                                return todoOk;
-                            });
+                    if (todoOk) {
+                        logger.info("Sincronización completa exitosa");
+                    } else {
+                        logger.warn("Sincronización completada con algunos errores");
+                    }
+                    LiderReplicacion.publicarProgreso(todoOk ? "Sincronización completa exitosa"
+                            : "Sincronización completa con errores");
+
+                    return todoOk;
                 })
                 .exceptionally(ex -> {
                     logger.error("Error en sincronización: {}", ex.getMessage());
@@ -191,6 +596,21 @@ public class ServicioHogwarts {
                 });
     }
 
+    /**
+     * Sincroniza todas las réplicas aplicando solo los cambios del MASTER posteriores
+     * a la marca de agua de cada una. Mucho más barato que {@link #sincronizarDesdeMaster()}
+     * cuando las réplicas están casi al día.
+     *
+     * @return CompletableFuture indicando si todas las réplicas quedaron al día.
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Boolean> sincronizarIncremental() {
+        logger.info("🔄 Iniciando sincronización incremental desde MASTER...");
+        return SincronizadorIncremental.sincronizarTodas()
+                .whenComplete((exito, ex) -> CacheAlumnos.invalidarTodo());
+    }
+
     /**
      * Sincroniza una base específica desde el MASTER.
      *
@@ -203,22 +623,7 @@ public class ServicioHogwarts {
     public static CompletableFuture<Boolean> sincronizarBaseDesdeMaster(TipoBaseDatos tipo) {
         logger.info("🔄 Sincronizando {} desde MASTER...", tipo);
 
-        return DaoAlumno.cargarAlumnos(TipoBaseDatos.MARIADB)
-                .thenCompose(alumnosMaster -> {
-                    List<Alumno> alumnosFiltrados;
-
-                    if (tipo.esCasa()) {
-                        // Filtrar solo alumnos de esta casa
-                        alumnosFiltrados = filtrarPorCasa(alumnosMaster, tipo.obtenerNombreCasa());
-                        logger.info("Filtrando {} alumnos de {}", alumnosFiltrados.size(), tipo.obtenerNombreCasa());
-                    } else {
-                        // SQLite u otro recibe todos
-                        alumnosFiltrados = alumnosMaster;
-                        logger.info("Sincronizando {} alumnos (todos)", alumnosFiltrados.size());
-                    }
-
-                    return sincronizarSlave(alumnosFiltrados, tipo);
-                })
+        return sincronizarSlave(tipo)
                 .thenApply(exito -> {
                     if (exito) {
                         logger.info("{} sincronizado correctamente", tipo);
@@ -229,158 +634,576 @@ public class ServicioHogwarts {
                 });
     }
 
+    /**
+     * Obtiene el progreso de la última sincronización de un slave (en curso o terminada).
+     *
+     * @param tipo Slave del que se quiere el progreso.
+     * @return progreso con alumnos aplicados y ritmo, o null si no se ha sincronizado en esta ejecución.
+     *
+     * @author Wara
+     */
+    public static ProgresoSincronizacion getProgresoSincronizacion(TipoBaseDatos tipo) {
+        return PipelineSincronizacion.getProgreso(tipo);
+    }
+
+    /**
+     * Mide el retraso de cada slave respecto al MASTER: operaciones pendientes y tiempo
+     * desde la última aplicación confirmada.
+     *
+     * @return CompletableFuture con el retraso de las casas y de SQLite.
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Map<TipoBaseDatos, RetrasoReplica>> medirRetrasoReplicas() {
+        return MonitorReplicacion.medir();
+    }
+
+    /**
+     * Migra una casa a otros backends sin parar la aplicación (ver {@link MigracionShard}).
+     * El avance se consulta con {@link #getProgresoMigracion()} y el ritmo se ajusta con
+     * {@link MigracionShard#setFilasPorSegundo(int)}.
+     *
+     * @param casa Casa a migrar.
+     * @param backends Backends nuevos de la casa.
+     * @return CompletableFuture con true si la casa quedó en los backends nuevos.
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Boolean> migrarCasa(TipoBaseDatos casa, List<TipoBaseDatos> backends) {
+        logger.info("🔄 Migrando {} a {}...", casa.obtenerNombreCasa(), backends);
+        return MigracionShard.migrar(casa, backends);
+    }
+
+    /**
+     * Archiva los alumnos graduados que llevan tiempo sin cambios (ver {@link ArchivoAlumnos}):
+     * salen de alumnos en el MASTER, las casas y SQLite, y quedan en el archivo del MASTER.
+     *
+     * @return CompletableFuture con el número de alumnos archivados.
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Integer> archivarGraduados() {
+        return ArchivoAlumnos.archivar();
+    }
+
+    /**
+     * Busca alumnos en el archivo por ID o por parte del nombre o de los apellidos.
+     *
+     * @param texto Texto a buscar.
+     * @return CompletableFuture con los alumnos archivados encontrados.
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<List<Alumno>> buscarEnArchivo(String texto) {
+        return ArchivoAlumnos.buscar(texto);
+    }
+
+    /**
+     * Obtiene el progreso de la última migración de una casa (en curso o terminada).
+     *
+     * @return progreso con la fase, los alumnos copiados y el ritmo, o null si no ha habido ninguna.
+     *
+     * @author Wara
+     */
+    public static ProgresoMigracion getProgresoMigracion() {
+        return MigracionShard.getProgreso();
+    }
+
+    /**
+     * Siembra una réplica con una copia completa del MASTER usando el cargador nativo de su motor
+     * o, si no lo tiene, lotes JDBC (ver {@link CargaMasiva}). Deja su marca de agua en el último
+     * cambio anterior a la copia, así que la sincronización incremental sigue desde ahí.
+     *
+     * @param tipo Réplica a sembrar.
+     * @return CompletableFuture con los alumnos cargados, el camino usado y el ritmo.
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<ResultadoCarga> sembrarReplica(TipoBaseDatos tipo) {
+        logger.info("🔄 Sembrando {} desde MASTER...", tipo);
+        return DaoCambios.ultimoSeq().thenCompose(seq -> CargaMasiva.cargar(tipo)
+                .thenCompose(resultado -> DaoCambios.fijarMarca(tipo, seq)
+                        .thenApply(marcada -> {
+                            if (!marcada) {
+                                logger.warn("{} sembrada pero sin marca; se reinicializará en la próxima sincronización", tipo);
+                            }
+                            return resultado;
+                        })))
+                .whenComplete((resultado, ex) -> CacheAlumnos.invalidarTodo());
+    }
+
     // ==================== MÉTODOS PRIVADOS ====================
 
     /**
-     * Copia un alumno a su casa correspondiente y a SQLite.
+     * Guarda en la cola de replicación la operación para el backend de la casa del alumno
+     * (ver {@link MapaShards}) y para SQLite y espera a las confirmaciones que exija el nivel de consistencia.
+     * Una modificación encola además la baja del alumno en los demás backends que puedan tenerlo
+     * (ver {@link FiltroIds}), por si cambió de casa.
+     * Si un slave no confirma a tiempo, el resultado informa del nivel realmente alcanzado;
+     * la operación sigue en la cola y se aplicará igualmente.
      *
-     * @param alumno alumno a copiar.
-     * @return CompletableFuture que indica true si se copió correctamente en ambas bases.
+     * @param operacion operación ya confirmada en el MASTER.
+     * @param alumno alumno afectado (para saber su casa y su backend).
+     * @param nivel nivel de consistencia exigido.
+     * @param inicio instante de la llamada (ms).
+     * @return CompletableFuture con el resultado de la escritura.
      *
      * @author Wara
      */
-    private static CompletableFuture<Boolean> copiarASlaves(Alumno alumno) {
-        TipoBaseDatos casa = TipoBaseDatos.obtenerTipoBaseDatosPorCasa(alumno.getCasa());
+    private static CompletableFuture<ResultadoEscritura> replicarEnSlaves(OperacionAlumno operacion, Alumno alumno,
+                                                                          NivelConsistencia nivel, long inicio) {
+        TipoBaseDatos casa = MapaShards.resolver(alumno.getCasa(), operacion.getId());
+        CompletableFuture<Boolean> enDestino = ColaReplicacion.encolar(casa, operacion);
+        CompletableFuture<Boolean> enSqlite = ColaReplicacion.encolar(TipoBaseDatos.SQLITE, operacion);
+        logger.info("{} encolado para {} y SQLite", operacion, casa);
+        SesionEscrituras.registrar(operacion, Map.of(casa, enDestino, TipoBaseDatos.SQLITE, enSqlite));
+        MigracionShard.duplicar(List.of(operacion));
 
-        CompletableFuture<Boolean> copiarCasa = DaoAlumno.nuevoAlumno(alumno, casa);
-        CompletableFuture<Boolean> copiarSqlite = DaoAlumno.nuevoAlumno(alumno, TipoBaseDatos.SQLITE);
+        List<CompletableFuture<Boolean>> enCasas = new ArrayList<>(List.of(enDestino));
+        for (TipoBaseDatos otro : backendsConBaja(operacion, casa)) {
+            enCasas.add(ColaReplicacion.encolar(otro, new OperacionAlumno(TipoOperacion.ELIMINAR, operacion.getId(), null)));
+            logger.debug("Baja de {} encolada para {} por si cambió de casa", operacion.getId(), otro);
+        }
+        CompletableFuture<Boolean> enCasa = CompletableFuture.allOf(enCasas.toArray(new CompletableFuture[0]))
+                .thenApply(v -> enCasas.stream().allMatch(CompletableFuture::join));
 
-        return copiarCasa.thenCombine(copiarSqlite, (okCasa, okSqlite) -> {
-            boolean exito = okCasa && okSqlite;
+        return esperarNivel(operacion.toString(), enCasa, enSqlite, nivel, inicio);
+    }
 
-            if (exito) {
-                logger.info("Copiado a {} y SQLite", casa);
-            } else {
-                logger.error("Error copiando - {}: {}, SQLite: {}", casa, okCasa, okSqlite);
+    /**
+     * Encola un bloque de operaciones ya confirmado en el MASTER: una entrada en la cola por backend
+     * de casa con las operaciones de sus alumnos y otra para SQLite con todas. Cada destino las aplica en
+     * orden y por lotes, y los destinos avanzan en paralelo. Las modificaciones llevan además la baja del
+     * alumno a los demás backends que puedan tenerlo, en su sitio dentro del orden del bloque.
+     *
+     * @param operaciones operaciones confirmadas en el MASTER (todas con alumno).
+     * @param nivel nivel de consistencia exigido.
+     * @param inicio instante de la llamada (ms).
+     * @return CompletableFuture con el resultado del bloque.
+     *
+     * @author Wara
+     */
+    static CompletableFuture<ResultadoEscritura> replicarBloqueEnSlaves(List<OperacionAlumno> operaciones,
+                                                                        NivelConsistencia nivel, long inicio) {
+        Map<TipoBaseDatos, List<OperacionAlumno>> porCasa = new EnumMap<>(TipoBaseDatos.class);
+        for (OperacionAlumno operacion : operaciones) {
+            TipoBaseDatos casa = MapaShards.resolver(operacion.getAlumno().getCasa(), operacion.getId());
+            porCasa.computeIfAbsent(casa, c -> new ArrayList<>()).add(operacion);
+            for (TipoBaseDatos otro : backendsConBaja(operacion, casa)) {
+                porCasa.computeIfAbsent(otro, c -> new ArrayList<>())
+                        .add(new OperacionAlumno(TipoOperacion.ELIMINAR, operacion.getId(), null));
             }
+        }
 
-            return exito;
-        });
+        Map<TipoBaseDatos, CompletableFuture<Boolean>> enCasas = new EnumMap<>(TipoBaseDatos.class);
+        porCasa.forEach((casa, grupo) -> enCasas.put(casa, ColaReplicacion.encolarTodas(casa, grupo)));
+        CompletableFuture<Boolean> enSqlite = ColaReplicacion.encolarTodas(TipoBaseDatos.SQLITE, operaciones);
+        MigracionShard.duplicar(operaciones);
+        logger.info("{} operaciones encoladas para {} y SQLite", operaciones.size(), porCasa.keySet());
+
+        for (OperacionAlumno operacion : operaciones) {
+            TipoBaseDatos casa = MapaShards.resolver(operacion.getAlumno().getCasa(), operacion.getId());
+            SesionEscrituras.registrar(operacion, Map.of(casa, enCasas.get(casa), TipoBaseDatos.SQLITE, enSqlite));
+        }
+
+        CompletableFuture<Boolean> enCasa = CompletableFuture.allOf(enCasas.values().toArray(new CompletableFuture[0]))
+                .thenApply(v -> enCasas.values().stream().allMatch(CompletableFuture::join));
+        return esperarNivel("Bloque de " + operaciones.size() + " operaciones", enCasa, enSqlite, nivel, inicio);
+    }
+
+    /**
+     * Obtiene los backends, aparte del de su casa, de los que hay que dar de baja a un alumno
+     * modificado: puede haber cambiado de casa y seguir en el backend de la anterior.
+     * Solo se descartan los backends cuyo {@link FiltroIds} asegura que no lo tienen.
+     *
+     * @param operacion operación confirmada en el MASTER
+     * @param casa backend que recibe la operación
+     * @return backends que pueden tener al alumno (vacío si no es una modificación)
+     *
+     * @author Wara
+     */
+    private static List<TipoBaseDatos> backendsConBaja(OperacionAlumno operacion, TipoBaseDatos casa) {
+        if (operacion.getTipo() != TipoOperacion.MODIFICAR) {
+            return List.of();
+        }
+        return MapaShards.getBackends().stream()
+                .filter(backend -> backend != casa && FiltroIds.puedeExistir(backend, operacion.getId()))
+                .toList();
     }
 
     /**
-     * Elimina un alumno de su casa y de SQLite.
+     * Espera a las confirmaciones de los slaves que exija el nivel de consistencia, como mucho
+     * {@code consistencia.espera.ms}, y calcula el nivel alcanzado.
      *
-     * @param alumno alumno que se debe eliminar.
-     * @return CompletableFuture con true si se eliminó correctamente en ambas bases.
+     * @param descripcion qué se escribió (para el log).
+     * @param enCasa confirmación de la(s) casa(s).
+     * @param enSqlite confirmación de SQLite.
+     * @param nivel nivel de consistencia exigido.
+     * @param inicio instante de la llamada (ms).
+     * @return CompletableFuture con el resultado de la escritura.
      *
      * @author Wara
      */
-    private static CompletableFuture<Boolean> eliminarDeSlaves(Alumno alumno) {
-        TipoBaseDatos casa = TipoBaseDatos.obtenerTipoBaseDatosPorCasa(alumno.getCasa());
+    private static CompletableFuture<ResultadoEscritura> esperarNivel(String descripcion, CompletableFuture<Boolean> enCasa,
+                                                                      CompletableFuture<Boolean> enSqlite,
+                                                                      NivelConsistencia nivel, long inicio) {
+        if (nivel == NivelConsistencia.MASTER_ONLY) {
+            // No espera al encolado: si falla después, lo registra la cola y lo corrige la sincronización incremental
+            return CompletableFuture.completedFuture(new ResultadoEscritura(nivel, NivelConsistencia.MASTER_ONLY,
+                    System.currentTimeMillis() - inicio, false, errorEncolado(enCasa, enSqlite)));
+        }
 
-        CompletableFuture<Boolean> eliminarCasa = DaoAlumno.eliminarAlumno(alumno, casa);
-        CompletableFuture<Boolean> eliminarSqlite = DaoAlumno.eliminarAlumno(alumno, TipoBaseDatos.SQLITE);
+        // Aquí solo se limita lo que espera el llamante; si no se pudo encolar, la sincronización incremental lo llevará
+        CompletableFuture<Boolean> esperaCasa = enCasa.exceptionally(ex -> false)
+                .completeOnTimeout(false, ESPERA_SLAVES_MS, TimeUnit.MILLISECONDS);
+        CompletableFuture<Boolean> esperaSqlite = nivel == NivelConsistencia.ALL
+                ? enSqlite.exceptionally(ex -> false).completeOnTimeout(false, ESPERA_SLAVES_MS, TimeUnit.MILLISECONDS)
+                : CompletableFuture.completedFuture(false);
 
-        return eliminarCasa.thenCombine(eliminarSqlite, (okCasa, okSqlite) -> {
-            boolean exito = okCasa && okSqlite;
+        return esperaCasa.thenCombine(esperaSqlite, (okCasa, okSqlite) -> {
+            NivelConsistencia alcanzado = !okCasa ? NivelConsistencia.MASTER_ONLY
+                    : okSqlite ? NivelConsistencia.ALL
+                    : NivelConsistencia.MASTER_PLUS_HOUSE;
+            ResultadoEscritura resultado = new ResultadoEscritura(nivel, alcanzado, System.currentTimeMillis() - inicio,
+                    false, errorEncolado(enCasa, enSqlite));
 
-            if (exito) {
-                logger.info("Eliminado de {} y SQLite", casa);
+            if (resultado.isReplicacionFallida()) {
+                logger.error("{} confirmado en el MASTER pero sin encolar para los slaves: {}",
+                        descripcion, resultado.getErrorReplicacion());
+            } else if (resultado.isExito()) {
+                logger.info("{} confirmado con nivel {}", descripcion, alcanzado);
             } else {
-                logger.error("Error eliminando - {}: {}, SQLite: {}", casa, okCasa, okSqlite);
+                logger.warn("{} sin confirmar a tiempo en los slaves (casa: {}, SQLite: {}); queda en la cola",
+                        descripcion, okCasa, okSqlite);
+            }
+            return resultado;
+        });
+    }
+
+    /**
+     * Escribe un bloque de operaciones: una transacción en el MASTER y, si se confirma,
+     * una entrada en la cola por destino. Sin conexión con el MASTER el bloque va al diario local.
+     *
+     * @param operaciones operaciones a escribir, en orden.
+     * @param nivel nivel de consistencia exigido.
+     * @return CompletableFuture con el resultado del bloque.
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<ResultadoEscritura> escribirEnBloque(List<OperacionAlumno> operaciones,
+                                                                          NivelConsistencia nivel) {
+        long inicio = System.currentTimeMillis();
+        if (operaciones.isEmpty()) {
+            return CompletableFuture.completedFuture(new ResultadoEscritura(nivel, nivel, 0));
+        }
+        logger.info("Escribiendo bloque de {} operaciones en sistema Master-Slave ({})", operaciones.size(), nivel);
+
+        return enCarril(operaciones, () -> {
+            if (ModoSinConexion.isActivo()) {
+                return terminada(ModoSinConexion.escribir(operaciones, nivel, inicio));
             }
 
-            return exito;
+            String descripcion = "el bloque de " + operaciones.size() + " operaciones";
+            return trasMaster(DaoAlumno.ejecutarEnBloque(operaciones, TipoBaseDatos.MARIADB), descripcion, nivel, inicio,
+                    ex -> {
+                        logger.warn("No se pudo conectar con el MASTER para {}, se guarda sin conexión", descripcion);
+                        ModoSinConexion.activar(ex);
+                        return ModoSinConexion.escribir(operaciones, nivel, inicio);
+                    },
+                    () -> replicarBloqueEnSlaves(operaciones, nivel, inicio));
         });
     }
 
     /**
-     * Modifica los datos de un alumno en su casa y en SQLite.
+     * Ejecuta una escritura en los carriles de sus alumnos (ver {@link CarrilesAlumno}).
+     * La escritura devuelve, al terminar su parte ordenada (MASTER y encolado para los slaves),
+     * la espera a las confirmaciones que exige su nivel; esa espera ya se hace fuera del carril,
+     * para que la siguiente escritura del mismo alumno no tenga que aguardar a los slaves.
+     * Al terminar la parte ordenada, si llegó al MASTER se aplica sobre las listas de la {@link CacheAlumnos};
+     * si no, se descartan las listas afectadas.
      *
-     * @param id identificador del alumno.
-     * @param alumno datos nuevos del alumno.
-     * @return CompletableFuture con true si la modificación fue exitosa en ambas bases.
+     * @param operaciones operaciones que escribe.
+     * @param escritura escritura a ejecutar en orden.
+     * @return CompletableFuture con el resultado de la escritura.
      *
      * @author Wara
      */
-    private static CompletableFuture<Boolean> modificarEnSlaves(String id, Alumno alumno) {
-        TipoBaseDatos casa = TipoBaseDatos.obtenerTipoBaseDatosPorCasa(alumno.getCasa());
+    private static CompletableFuture<ResultadoEscritura> enCarril(
+            List<OperacionAlumno> operaciones, Supplier<CompletableFuture<CompletableFuture<ResultadoEscritura>>> escritura) {
+        List<String> ids = operaciones.stream().map(OperacionAlumno::getId).toList();
+        return CarrilesAlumno.enOrden(ids, escritura)
+                .whenComplete((espera, ex) -> {
+                    if (ex == null && llegoAlMaster(espera)) {
+                        CacheAlumnos.aplicar(operaciones);
+                    } else {
+                        CacheAlumnos.invalidar(operaciones);
+                    }
+                })
+                .thenCompose(Function.identity());
+    }
 
-        CompletableFuture<Boolean> modificarCasa = DaoAlumno.modificarAlumno(id, alumno, casa);
-        CompletableFuture<Boolean> modificarSqlite = DaoAlumno.modificarAlumno(id, alumno, TipoBaseDatos.SQLITE);
+    /**
+     * Indica si una escritura ha terminado su parte ordenada habiendo llegado al MASTER. Si la espera
+     * sigue en curso es porque se está replicando, lo que solo ocurre tras confirmar el MASTER.
+     *
+     * @param espera espera devuelta por la parte ordenada de la escritura.
+     * @return true si el MASTER tiene la escritura.
+     *
+     * @author Wara
+     */
+    private static boolean llegoAlMaster(CompletableFuture<ResultadoEscritura> espera) {
+        if (!espera.isDone()) {
+            return true;
+        }
+        return !espera.isCompletedExceptionally() && espera.join().isEnMaster();
+    }
 
-        return modificarCasa.thenCombine(modificarSqlite, (okCasa, okSqlite) -> {
-            boolean exito = okCasa && okSqlite;
+    /**
+     * Continúa una escritura según lo que respondió el MASTER:
+     * - Si no se pudo conectar (antes de enviar nada), la escritura va al diario sin conexión
+     * - Si el MASTER la rechazó o falló por otro motivo, la escritura falla
+     * - Si la confirmó, se replica en los slaves; un error a partir de aquí ya no la lleva al diario,
+     *   porque el MASTER la tiene: se informa como fallo de replicación
+     *
+     * @param enMaster escritura en el MASTER (true si confirmó, false si la rechazó).
+     * @param operacion operación escrita.
+     * @param nivel nivel solicitado.
+     * @param inicio instante de la llamada (ms).
+     * @param replicar replicación en los slaves tras confirmar.
+     * @return CompletableFuture con la espera de la escritura, para {@link #enCarril}.
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<CompletableFuture<ResultadoEscritura>> trasMaster(
+            CompletableFuture<Boolean> enMaster, OperacionAlumno operacion, NivelConsistencia nivel, long inicio,
+            Supplier<CompletableFuture<ResultadoEscritura>> replicar) {
+        return trasMaster(enMaster, operacion, nivel, inicio,
+                ex -> escribirSinConexion(operacion, nivel, inicio, ex), replicar);
+    }
 
-            if (exito) {
-                logger.info("Modificado en {} y SQLite", casa);
-            } else {
-                logger.error("Error modificando - {}: {}, SQLite: {}", casa, okCasa, okSqlite);
+    /**
+     * Continúa una escritura según lo que respondió el MASTER, como
+     * {@link #trasMaster(CompletableFuture, OperacionAlumno, NivelConsistencia, long, Supplier)},
+     * con la escritura sin conexión indicada por quien llama (por ejemplo, la de un bloque entero).
+     *
+     * @param enMaster escritura en el MASTER (true si confirmó, false si la rechazó).
+     * @param operacion operación o bloque escrito, para el log.
+     * @param nivel nivel solicitado.
+     * @param inicio instante de la llamada (ms).
+     * @param sinConexion escritura en el diario sin conexión, con el error al conectar.
+     * @param replicar replicación en los slaves tras confirmar.
+     * @return CompletableFuture con la espera de la escritura, para {@link #enCarril}.
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<CompletableFuture<ResultadoEscritura>> trasMaster(
+            CompletableFuture<Boolean> enMaster, Object operacion, NivelConsistencia nivel, long inicio,
+            Function<Throwable, CompletableFuture<ResultadoEscritura>> sinConexion,
+            Supplier<CompletableFuture<ResultadoEscritura>> replicar) {
+        return enMaster.handle((exitoMaster, ex) -> {
+            if (ex != null) {
+                if (esFalloDeConexion(ex)) {
+                    return terminada(sinConexion.apply(ex));
+                }
+                logger.error("Error en MASTER para {}, operación abortada: {}", operacion, ex.getMessage());
+                return terminada(CompletableFuture.completedFuture(fallida(nivel, inicio)));
+            }
+            if (!exitoMaster) {
+                logger.error("Falló {} en MASTER, operación abortada", operacion);
+                return terminada(CompletableFuture.completedFuture(fallida(nivel, inicio)));
             }
 
-            return exito;
-        });
+            logger.info("{} confirmado en MASTER, replicando en slaves...", operacion);
+            return CompletableFuture.completedFuture(replicarTrasCommit(replicar, nivel, inicio));
+        }).thenCompose(Function.identity());
     }
 
     /**
-     * Sincroniza un slave con los datos del MASTER, insertando los alumnos faltantes.
+     * Lanza la replicación de una escritura ya confirmada en el MASTER. Si falla al lanzarla,
+     * la escritura sigue confirmada y el fallo se informa aparte.
      *
-     * @param alumnosMaster lista de alumnos en MASTER.
-     * @param slave base de datos slave a sincronizar.
-     * @return CompletableFuture con true si la sincronización fue completa.
+     * @param replicar replicación en los slaves.
+     * @param nivel nivel solicitado.
+     * @param inicio instante de la llamada (ms).
+     * @return CompletableFuture con el resultado de la escritura.
      *
      * @author Wara
      */
-    private static CompletableFuture<Boolean> sincronizarSlave(List<Alumno> alumnosMaster, TipoBaseDatos slave) {
-        logger.debug("Sincronizando {} con {} alumnos del MASTER", slave, alumnosMaster.size());
+    private static CompletableFuture<ResultadoEscritura> replicarTrasCommit(
+            Supplier<CompletableFuture<ResultadoEscritura>> replicar, NivelConsistencia nivel, long inicio) {
+        try {
+            return replicar.get();
+        } catch (RuntimeException e) {
+            logger.error("Escritura confirmada en el MASTER pero no se pudo replicar: {}", e.getMessage(), e);
+            return CompletableFuture.completedFuture(new ResultadoEscritura(nivel, NivelConsistencia.MASTER_ONLY,
+                    System.currentTimeMillis() - inicio, false, e.getMessage()));
+        }
+    }
 
-        return DaoAlumno.cargarAlumnos(slave)
-                .thenCompose(alumnosSlave -> {
-                    // IDs que ya tiene el slave
-                    Set<String> idsSlave = alumnosSlave.stream()
-                            .map(Alumno::getId)
-                            .collect(Collectors.toSet());
+    /**
+     * Indica si un error del MASTER es un fallo al conectar. El commit agrupado solo termina con
+     * excepción cuando no pudo abrir la conexión, es decir, antes de enviar nada; los fallos a mitad
+     * de una transacción los devuelve como escritura rechazada.
+     *
+     * @param ex error devuelto por la escritura en el MASTER.
+     * @return true si en la cadena de causas hay un error de JDBC al conectar.
+     *
+     * @author Wara
+     */
+    private static boolean esFalloDeConexion(Throwable ex) {
+        for (Throwable causa = ex; causa != null; causa = causa.getCause()) {
+            if (causa instanceof SQLException) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-                    // Alumnos que faltan en el slave
-                    List<Alumno> faltantes = alumnosMaster.stream()
-                            .filter(alumno -> !idsSlave.contains(alumno.getId()))
-                            .collect(Collectors.toList());
+    /**
+     * Adapta una escritura que ya no tiene nada que esperar fuera del carril.
+     *
+     * @param escritura escritura completa (sin conexión o fallida).
+     * @return CompletableFuture con la escritura ya resuelta como espera.
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<CompletableFuture<ResultadoEscritura>> terminada(
+            CompletableFuture<ResultadoEscritura> escritura) {
+        return escritura.thenApply(CompletableFuture::completedFuture);
+    }
 
-                    if (faltantes.isEmpty()) {
-                        logger.debug("{} ya está sincronizado", slave);
-                        return CompletableFuture.completedFuture(true);
-                    }
+    /**
+     * Guarda en SQLite y en el diario una escritura que no pudo llegar al MASTER porque
+     * no se pudo conectar con él (antes de enviarla), y activa el modo sin conexión.
+     *
+     * @param operacion operación a guardar.
+     * @param nivel nivel solicitado.
+     * @param inicio instante de la llamada (ms).
+     * @param causa error de conexión con el MASTER.
+     * @return CompletableFuture con el resultado de la escritura.
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<ResultadoEscritura> escribirSinConexion(OperacionAlumno operacion,
+                                                                             NivelConsistencia nivel, long inicio,
+                                                                             Throwable causa) {
+        logger.warn("No se pudo conectar con el MASTER para {}, se guarda sin conexión", operacion);
+        ModoSinConexion.activar(causa);
+        return ModoSinConexion.escribir(operacion, nivel, inicio);
+    }
 
-                    logger.info("Insertando {} alumnos faltantes en {}", faltantes.size(), slave);
+    /**
+     * Carga desde SQLite los alumnos que corresponden a otra base: todos si es el MASTER,
+     * solo los de la casa si es una casa.
+     *
+     * @param tipo base que no se pudo leer.
+     * @return CompletableFuture con la lista observable de alumnos.
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<ObservableList<Alumno>> cargarDesdeSqlite(TipoBaseDatos tipo) {
+        return DaoAlumno.cargarAlumnos(TipoBaseDatos.SQLITE).thenApply(alumnos -> {
+            SesionEscrituras.superponer(TipoBaseDatos.SQLITE, alumnos);
+            if (tipo.esCasa()) {
+                alumnos.removeIf(alumno -> !tipo.obtenerNombreCasa().equalsIgnoreCase(alumno.getCasa()));
+            }
+            return alumnos;
+        });
+    }
 
-                    // Insertar todos los faltantes en paralelo
-                    List<CompletableFuture<Boolean>> inserts = faltantes.stream()
-                            .map(alumno -> DaoAlumno.nuevoAlumno(alumno, slave))
-                            .collect(Collectors.toList());
+    /**
+     * Obtiene el motivo por el que no se pudo encolar una operación para los slaves, si ya se sabe.
+     *
+     * @param encolados confirmaciones devueltas por la cola de replicación.
+     * @return motivo del primer encolado fallido, o null si ninguno ha fallado todavía.
+     *
+     * @author Wara
+     */
+    @SafeVarargs
+    private static String errorEncolado(CompletableFuture<Boolean>... encolados) {
+        for (CompletableFuture<Boolean> encolado : encolados) {
+            if (encolado.isCompletedExceptionally()) {
+                Throwable causa = encolado.exceptionNow();
+                return causa.getCause() != null ? causa.getCause().getMessage() : causa.getMessage();
+            }
+        }
+        return null;
+    }
 
-                    return CompletableFuture.allOf(inserts.toArray(new CompletableFuture[0]))
-                            .thenApply(v -> {
-                                long exitosos = inserts.stream().filter(CompletableFuture::join).count();
+    /**
+     * Crea el resultado de una escritura que no llegó a confirmarse en el MASTER.
+     *
+     * @param nivel nivel solicitado.
+     * @param inicio instante de la llamada (ms).
+     * @return resultado fallido.
+     *
+     * @author Wara
+     */
+    private static ResultadoEscritura fallida(NivelConsistencia nivel, long inicio) {
+        return new ResultadoEscritura(nivel, null, System.currentTimeMillis() - inicio);
+    }
 
-                                if (exitosos == faltantes.size()) {
-                                    logger.info("{} sincronizado: {}/{} alumnos", slave, exitosos, faltantes.size());
-                                } else {
-                                    logger.warn("{} parcialmente sincronizado: {}/{} alumnos",
-                                            slave, exitosos, faltantes.size());
-                                }
+    /**
+     * Lee de configuration.properties el nivel de consistencia por defecto.
+     *
+     * @return nivel configurado, o MASTER_ONLY si no está definido o no es válido.
+     *
+     * @author Wara
+     */
+    private static NivelConsistencia leerNivelPorDefecto() {
+        String valor = Propiedades.getValor("consistencia.nivel", NivelConsistencia.MASTER_ONLY.name());
+        try {
+            return NivelConsistencia.valueOf(valor.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.warn("Nivel de consistencia desconocido '{}', se usa MASTER_ONLY", valor);
+            return NivelConsistencia.MASTER_ONLY;
+        }
+    }
 
-                                return exitosos == faltantes.size();
-                            });
-                })
-                .exceptionally(ex -> {
-                    logger.error("Error sincronizando {}: {}", slave, ex.getMessage());
-                    return false;
-                });
+    /**
+     * Lee de configuration.properties la estrategia de lectura de la vista de Hogwarts.
+     *
+     * @return estrategia configurada, o MASTER si no está definida o no es válida.
+     *
+     * @author Wara
+     */
+    private static EstrategiaLectura leerEstrategiaLectura() {
+        String valor = Propiedades.getValor("lectura.hogwarts", EstrategiaLectura.MASTER.name());
+        try {
+            return EstrategiaLectura.valueOf(valor.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.warn("Estrategia de lectura desconocida '{}', se usa MASTER", valor);
+            return EstrategiaLectura.MASTER;
+        }
     }
 
     /**
-     * Filtra los alumnos por nombre de casa.
+     * Sincroniza un slave con los datos del MASTER.
+     * Compara ambos lados por cubos de huellas y solo lee y escribe los alumnos que difieren:
+     * inserta los que faltan, actualiza los modificados y elimina los que ya no están en el MASTER.
+     * Las escrituras van por trozos y con concurrencia limitada (ver {@link PipelineSincronizacion}).
      *
-     * @param alumnos lista de alumnos a filtrar.
-     * @param casa nombre de la casa.
-     * @return lista filtrada de alumnos de la casa especificada.
+     * @param slave base de datos slave a sincronizar.
+     * @return CompletableFuture con true si la sincronización fue completa.
      *
      * @author Wara
      */
-    private static List<Alumno> filtrarPorCasa(List<Alumno> alumnos, String casa) {
-        return alumnos.stream()
-                .filter(alumno -> casa.equalsIgnoreCase(alumno.getCasa()))
-                .collect(Collectors.toList());
+    static CompletableFuture<Boolean> sincronizarSlave(TipoBaseDatos slave) {
+        logger.debug("Comparando {} con el MASTER", slave);
+
+        return ComparadorMerkle.comparar(slave)
+                .thenCompose(diferencias -> {
+                    if (diferencias.estaVacia()) {
+                        logger.debug("{} ya está sincronizado", slave);
+                        return CompletableFuture.completedFuture(true);
+                    }
+
+                    return PipelineSincronizacion.ejecutar(slave, diferencias, true)
+                            .whenComplete((exito, ex) -> CacheAlumnos.invalidarTodo());
+                })
+                .exceptionally(ex -> {
+                    logger.error("Error sincronizando {}: {}", slave, ex.getMessage());
+                    return false;
+                });
     }
-}
\ No newline at end of file
+}
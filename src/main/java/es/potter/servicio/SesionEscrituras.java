@@ -0,0 +1,164 @@
+package es.potter.servicio;
+
+import es.potter.database.TipoBaseDatos;
+import es.potter.model.Alumno;
+import es.potter.model.OperacionAlumno;
+import es.potter.model.TipoOperacion;
+import javafx.collections.ObservableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Escrituras propias de la sesión que aún no han confirmado todos los slaves (read-your-writes).
+ * FUNCIONAMIENTO:
+ * - Cada escritura confirmada en el MASTER se anota junto con los slaves a los que se ha encolado
+ * - Al leer de un slave, las escrituras que ese slave aún no ha confirmado se superponen
+ *   a lo leído: altas y modificaciones sustituyen la fila, las bajas la quitan
+ * - Cuando la cola de replicación confirma un slave, deja de superponerse en él; cuando
+ *   lo han confirmado todos, la escritura se olvida
+ * Así el usuario ve siempre sus propios cambios al cambiar de casa, sin esperar a los slaves.
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-08
+ */
+public class SesionEscrituras {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(SesionEscrituras.class);
+
+    /** Última escritura pendiente de cada alumno, por ID */
+    private static final Map<String, Pendiente> pendientes = new ConcurrentHashMap<>();
+
+    /** Contador para distinguir escrituras sucesivas sobre el mismo alumno */
+    private static final AtomicLong versiones = new AtomicLong();
+
+    /**
+     * Escritura de la sesión pendiente de confirmar en algunos slaves.
+     *
+     * @param operacion operación confirmada en el MASTER
+     * @param alumno alumno resultante (con su ID), o null si es una baja
+     * @param sinConfirmar slaves que aún no la han confirmado
+     * @param version versión de la escritura
+     */
+    private record Pendiente(OperacionAlumno operacion, Alumno alumno, Set<TipoBaseDatos> sinConfirmar, long version) {}
+
+    /**
+     * Anota una escritura de la sesión hasta que la confirmen los slaves indicados.
+     *
+     * @param operacion operación ya confirmada en el MASTER
+     * @param confirmaciones confirmación de la cola de replicación para cada slave
+     *
+     * @author Wara
+     */
+    static void registrar(OperacionAlumno operacion, Map<TipoBaseDatos, CompletableFuture<Boolean>> confirmaciones) {
+        long version = versiones.incrementAndGet();
+        Alumno alumno = operacion.getTipo() == TipoOperacion.ELIMINAR ? null : conId(operacion);
+        pendientes.put(operacion.getId(), new Pendiente(operacion, alumno,
+                EnumSet.copyOf(confirmaciones.keySet()), version));
+
+        confirmaciones.forEach((slave, confirmacion) -> confirmacion.thenAccept(exito -> {
+            if (exito) {
+                confirmar(operacion.getId(), slave, version);
+            }
+        }));
+    }
+
+    /**
+     * Superpone a una lectura las escrituras de la sesión que su base aún no ha confirmado.
+     *
+     * @param tipo base de la que se leyó
+     * @param alumnos alumnos leídos; se modifica en el sitio
+     * @return la misma lista, con las escrituras propias aplicadas
+     *
+     * @author Wara
+     */
+    static ObservableList<Alumno> superponer(TipoBaseDatos tipo, ObservableList<Alumno> alumnos) {
+        if (pendientes.isEmpty()) {
+            return alumnos;
+        }
+
+        Map<String, Pendiente> aplicables = new HashMap<>();
+        for (Pendiente pendiente : pendientes.values()) {
+            synchronized (pendiente) {
+                if (pendiente.sinConfirmar().contains(tipo)) {
+                    aplicables.put(pendiente.operacion().getId(), pendiente);
+                }
+            }
+        }
+        if (aplicables.isEmpty()) {
+            return alumnos;
+        }
+
+        alumnos.removeIf(alumno -> aplicables.containsKey(alumno.getId()));
+        for (Pendiente pendiente : aplicables.values()) {
+            if (pendiente.alumno() != null) {
+                alumnos.add(pendiente.alumno());
+            }
+        }
+        logger.debug("Superpuestas {} escrituras propias en la lectura de {}", aplicables.size(), tipo);
+        return alumnos;
+    }
+
+    /**
+     * Obtiene el número de escrituras de la sesión pendientes de algún slave.
+     *
+     * @return escrituras pendientes
+     *
+     * @author Wara
+     */
+    public static int getPendientes() {
+        return pendientes.size();
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    /**
+     * Anota que un slave confirmó una escritura. Si es una versión antigua del alumno, se ignora.
+     *
+     * @param id ID del alumno
+     * @param slave slave que confirmó
+     * @param version versión confirmada
+     *
+     * @author Wara
+     */
+    private static void confirmar(String id, TipoBaseDatos slave, long version) {
+        pendientes.computeIfPresent(id, (clave, pendiente) -> {
+            if (pendiente.version() != version) {
+                return pendiente;
+            }
+            synchronized (pendiente) {
+                pendiente.sinConfirmar().remove(slave);
+                return pendiente.sinConfirmar().isEmpty() ? null : pendiente;
+            }
+        });
+    }
+
+    /**
+     * Obtiene el alumno de una operación con el ID de la operación
+     * (al modificar, los datos nuevos llegan sin ID).
+     *
+     * @param operacion operación
+     * @return alumno con su ID
+     *
+     * @author Wara
+     */
+    private static Alumno conId(OperacionAlumno operacion) {
+        Alumno alumno = operacion.getAlumno();
+        if (operacion.getId().equals(alumno.getId())) {
+            return alumno;
+        }
+        Alumno copia = new Alumno(alumno.getNombre(), alumno.getApellidos(), alumno.getCurso(),
+                alumno.getCasa(), alumno.getPatronus());
+        copia.setId(operacion.getId());
+        return copia;
+    }
+}
@@ -0,0 +1,390 @@
+package es.potter.servicio;
+
+import es.potter.dao.DaoCambios;
+import es.potter.dao.DaoHuellas;
+import es.potter.database.MapaShards;
+import es.potter.database.TipoBaseDatos;
+import es.potter.model.CambioAlumno;
+import es.potter.model.OperacionAlumno;
+import es.potter.model.TipoOperacion;
+import es.potter.util.Propiedades;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sincronización incremental de las réplicas a partir del registro de cambios del MASTER.
+ * FUNCIONAMIENTO:
+ * - Cada réplica (casas + SQLite) guarda su marca de agua: el último cambio del MASTER aplicado
+ * - Solo se leen los cambios posteriores a la marca, en orden y por lotes
+ * - Cada lote se aplica en una transacción junto con el avance de la marca
+ * - La marca no salta un hueco de la secuencia hasta que tiene cierta antigüedad: el seq se asigna al
+ *   insertar pero solo se ve al confirmar, así que un hueco reciente puede ser una transacción aún
+ *   abierta. Mientras tanto los cambios posteriores se aplican igualmente y se vuelven a leer en la
+ *   siguiente ronda (aplicar un cambio es idempotente); un hueco antiguo es una transacción deshecha
+ * - Una réplica con la marca por debajo de lo que conserva el registro (ver {@link #recortarRegistro()})
+ *   se vuelve a inicializar
+ * - El backend de una casa repartida solo aplica los cambios de sus alumnos (ver {@link MapaShards}),
+ *   pero avanza la marca por todo el lote
+ * - El backend de una casa lee también los cambios de los alumnos que estaban en ella (columna
+ *   casa_anterior del registro); si el alumno se fue a otra casa, lo aplica como una baja
+ * - Una réplica sin marca se inicializa con una sincronización completa la primera vez;
+ *   si además está vacía, con una carga masiva (ver {@link CargaMasiva})
+ * El coste de una sincronización rutinaria depende del número de cambios, no del tamaño del colegio.
+ *
+ * CONFIGURACIÓN (opcional en configuration.properties):
+ * - sincronizacion.incremental.lote: cambios por transacción (por defecto 500)
+ * - sincronizacion.incremental.hueco.ms: antigüedad a partir de la cual un hueco se salta; debe superar
+ *   la transacción más larga contra el MASTER (por defecto 60000)
+ * - cambios.retencion.horas: antigüedad mínima de un cambio para recortarlo del registro (por defecto 24)
+ *
+ * @author Wara
+ * @version 1.0
+ * @since 2025-11-04
+ */
+public class SincronizadorIncremental {
+
+    /** Logger para registrar eventos y errores */
+    private static final Logger logger = LoggerFactory.getLogger(SincronizadorIncremental.class);
+
+    /** Número máximo de cambios que se aplican por transacción */
+    private static final int LOTE = Math.max(1, Propiedades.getEntero("sincronizacion.incremental.lote", 500));
+
+    /** Antigüedad a partir de la cual un hueco de la secuencia se considera una transacción deshecha */
+    private static final long HUECO_MS = Math.max(1, Propiedades.getEntero("sincronizacion.incremental.hueco.ms", 60000));
+
+    /** Antigüedad mínima de un cambio para recortarlo del registro */
+    private static final long RETENCION_MS = TimeUnit.HOURS.toMillis(
+            Math.max(0, Propiedades.getEntero("cambios.retencion.horas", 24)));
+
+    /** Cambios borrados por cada DELETE al recortar el registro */
+    private static final int TANDA_RECORTE = 5000;
+
+    /** Marca interna de una réplica que no se pudo sincronizar */
+    private static final int FALLIDA = -1;
+
+    /** Huecos de la secuencia vistos y el instante (ms, reloj local) en que se vieron por primera vez */
+    private static final Map<Long, Long> huecos = new ConcurrentHashMap<>();
+
+    /** Último seq aplicado en cada réplica en esta ejecución, para no contar dos veces lo que se relee */
+    private static final Map<TipoBaseDatos, Long> aplicadosHasta = new ConcurrentHashMap<>();
+
+    /**
+     * Resultado de una ronda de sincronización incremental de todas las réplicas.
+     *
+     * @param aplicados cambios aplicados en total
+     * @param completa true si todas las réplicas quedaron al día
+     */
+    public record Ronda(int aplicados, boolean completa) {}
+
+    /**
+     * Sincroniza incrementalmente todas las réplicas en paralelo.
+     *
+     * @return CompletableFuture con true si todas las réplicas quedaron al día
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Boolean> sincronizarTodas() {
+        return ejecutarRonda().thenApply(Ronda::completa);
+    }
+
+    /**
+     * Sincroniza incrementalmente todas las réplicas en paralelo y cuenta los cambios aplicados.
+     *
+     * @return CompletableFuture con el resultado de la ronda
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Ronda> ejecutarRonda() {
+        List<TipoBaseDatos> replicas = replicas();
+        olvidarHuecosAntiguos();
+
+        List<CompletableFuture<Integer>> sincronizaciones = new ArrayList<>();
+        for (TipoBaseDatos replica : replicas) {
+            sincronizaciones.add(sincronizar(replica)
+                    .exceptionally(ex -> {
+                        logger.error("Error en sincronización incremental de {}: {}", replica, ex.getMessage());
+                        return FALLIDA;
+                    }));
+        }
+
+        return CompletableFuture.allOf(sincronizaciones.toArray(new CompletableFuture[0]))
+                .thenApply(v -> {
+                    int aplicados = 0;
+                    boolean completa = true;
+                    for (CompletableFuture<Integer> sincronizacion : sincronizaciones) {
+                        int resultado = sincronizacion.join();
+                        if (resultado == FALLIDA) {
+                            completa = false;
+                        } else {
+                            aplicados += resultado;
+                        }
+                    }
+                    return new Ronda(aplicados, completa);
+                });
+    }
+
+    /**
+     * Sincroniza incrementalmente una réplica.
+     *
+     * @param replica base de datos réplica (un backend de una casa o SQLite)
+     * @return CompletableFuture con el número de cambios aplicados
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Integer> sincronizar(TipoBaseDatos replica) {
+        TipoBaseDatos tipoCasa = MapaShards.casaDe(replica);
+        String casa = tipoCasa != null ? tipoCasa.obtenerNombreCasa() : null;
+
+        return DaoCambios.leerMarca(replica).thenCompose(marca -> {
+            MonitorReplicacion.registrarMarca(replica, marca);
+            if (marca == DaoCambios.SIN_MARCA) {
+                logger.info("{} no tiene marca de agua, se inicializa con sincronización completa", replica);
+                return inicializar(replica, casa);
+            }
+            return DaoCambios.primerSeq().thenCompose(primero -> {
+                if (primero > marca + 1) {
+                    logger.warn("{} tiene la marca en {} pero el registro empieza en {}: se reinicializa",
+                            replica, marca, primero);
+                    return inicializar(replica, casa);
+                }
+                return aplicarDesde(replica, casa, marca, marca, 0);
+            });
+        });
+    }
+
+    /**
+     * Borra del registro de cambios del MASTER lo que ya tienen todas las réplicas de esta instancia
+     * (la marca más baja) y es más antiguo que la retención configurada. Si alguna réplica no responde
+     * no se borra nada. Una réplica de otra instancia que se quede por debajo se reinicializa al sincronizar.
+     *
+     * @return CompletableFuture con el número de cambios borrados
+     *
+     * @author Wara
+     */
+    public static CompletableFuture<Integer> recortarRegistro() {
+        List<TipoBaseDatos> replicas = replicas();
+        List<CompletableFuture<Long>> marcas = replicas.stream().map(DaoCambios::leerMarca).toList();
+
+        return CompletableFuture.allOf(marcas.toArray(new CompletableFuture[0])).thenCompose(v -> {
+            long minima = Long.MAX_VALUE;
+            for (CompletableFuture<Long> marca : marcas) {
+                long valor = marca.join();
+                if (valor != DaoCambios.SIN_MARCA) { // Sin marca se inicializa con una copia completa
+                    minima = Math.min(minima, valor);
+                }
+            }
+            if (minima == Long.MAX_VALUE) {
+                return CompletableFuture.completedFuture(0);
+            }
+            return DaoCambios.recortar(minima, System.currentTimeMillis() - RETENCION_MS, TANDA_RECORTE);
+        });
+    }
+
+    // ==================== MÉTODOS PRIVADOS ====================
+
+    /**
+     * Aplica lotes de cambios desde una marca hasta alcanzar el final del registro.
+     * La lectura avanza por el cursor; la marca que se guarda solo avanza hasta el primer hueco reciente.
+     *
+     * @param replica base de datos réplica
+     * @param casa casa de la réplica, o null si recibe todos los cambios
+     * @param marca marca guardada: todo lo anterior está aplicado
+     * @param cursor último seq leído (igual o mayor que la marca)
+     * @param acumulado cambios nuevos aplicados en lotes anteriores
+     * @return CompletableFuture con el total de cambios nuevos aplicados
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Integer> aplicarDesde(TipoBaseDatos replica, String casa, long marca, long cursor,
+                                                           int acumulado) {
+        return DaoCambios.leerCambios(cursor, casa, LOTE).thenCompose(cambios -> {
+            if (cambios.isEmpty()) {
+                MonitorReplicacion.registrarAplicacion(replica);
+                if (acumulado > 0) {
+                    logger.info("{} al día: {} cambios aplicados", replica, acumulado);
+                }
+                return CompletableFuture.completedFuture(acumulado);
+            }
+
+            long hasta = cambios.getLast().getSeq();
+            List<CambioAlumno> propios = cambios.stream()
+                    .filter(cambio -> MapaShards.aloja(replica, cambio.getOperacion().getId()))
+                    .map(cambio -> salidaDeCasa(cambio, casa))
+                    .toList();
+
+            // Si un hueco ya paró la marca en esta ronda, se queda ahí hasta la siguiente
+            CompletableFuture<Long> marcaNueva = marca < cursor
+                    ? CompletableFuture.completedFuture(marca)
+                    : DaoCambios.leerSecuencias(marca, hasta).thenApply(visibles -> marcaSegura(marca, visibles));
+
+            return marcaNueva.thenCompose(nuevaMarca -> DaoCambios.aplicarCambios(propios, replica, nuevaMarca)
+                    .thenCompose(exito -> {
+                        if (!exito) {
+                            return CompletableFuture.failedFuture(
+                                    new IllegalStateException("No se pudo aplicar el lote de cambios en " + replica));
+                        }
+                        long anterior = aplicadosHasta.getOrDefault(replica, marca);
+                        int nuevos = (int) propios.stream().filter(cambio -> cambio.getSeq() > anterior).count();
+                        aplicadosHasta.merge(replica, hasta, Math::max);
+                        int total = acumulado + nuevos;
+                        MonitorReplicacion.registrarMarca(replica, nuevaMarca);
+                        if (nuevaMarca < hasta) {
+                            logger.debug("{}: la marca espera en {} a un hueco reciente (leído hasta {})",
+                                    replica, nuevaMarca, hasta);
+                        }
+
+                        // Un lote incompleto indica que no quedan más cambios
+                        if (cambios.size() < LOTE) {
+                            MonitorReplicacion.registrarAplicacion(replica);
+                            if (total > 0) {
+                                logger.info("{} al día: {} cambios aplicados (marca {})", replica, total, nuevaMarca);
+                            }
+                            return CompletableFuture.completedFuture(total);
+                        }
+                        return aplicarDesde(replica, casa, nuevaMarca, hasta, total);
+                    }));
+        });
+    }
+
+    /**
+     * Convierte en baja el cambio de un alumno que se va de la casa de la réplica: el backend de la
+     * casa anterior ya no debe guardarlo, aunque en el MASTER siga existiendo.
+     *
+     * @param cambio cambio leído del registro
+     * @param casa casa de la réplica, o null si recibe todos los cambios
+     * @return el mismo cambio, o un ELIMINAR del alumno si salió de la casa
+     *
+     * @author Wara
+     */
+    private static CambioAlumno salidaDeCasa(CambioAlumno cambio, String casa) {
+        OperacionAlumno operacion = cambio.getOperacion();
+        if (casa == null || !casa.equals(cambio.getCasaAnterior()) || operacion.getAlumno() == null
+                || casa.equals(operacion.getAlumno().getCasa())) {
+            return cambio;
+        }
+        return new CambioAlumno(cambio.getSeq(), cambio.getFecha(),
+                new OperacionAlumno(TipoOperacion.ELIMINAR, operacion.getId(), null), cambio.getCasaAnterior());
+    }
+
+    /**
+     * Calcula hasta dónde puede avanzar una marca: recorre los seq visibles tras ella y se para en el
+     * primer hueco que todavía no tiene la antigüedad configurada.
+     *
+     * @param marca marca actual
+     * @param visibles seq visibles tras la marca, ordenados
+     * @return nueva marca
+     *
+     * @author Wara
+     */
+    private static long marcaSegura(long marca, List<Long> visibles) {
+        long segura = marca;
+        for (long seq : visibles) {
+            for (long hueco = segura + 1; hueco < seq; hueco++) {
+                if (!huecoAntiguo(hueco)) {
+                    return segura;
+                }
+            }
+            segura = seq;
+        }
+        return segura;
+    }
+
+    /**
+     * Indica si un hueco de la secuencia se vio por primera vez hace más de la antigüedad configurada.
+     * La primera vez que se consulta se anota con la hora local, así que no depende del reloj de otros equipos.
+     *
+     * @param seq seq que falta
+     * @return true si ya se puede saltar
+     *
+     * @author Wara
+     */
+    private static boolean huecoAntiguo(long seq) {
+        long ahora = System.currentTimeMillis();
+        return ahora - huecos.computeIfAbsent(seq, hueco -> ahora) >= HUECO_MS;
+    }
+
+    /**
+     * Olvida los huecos vistos hace mucho: ya se saltaron, y si alguna réplica vuelve a encontrarlos
+     * solo esperará otra vez la antigüedad configurada.
+     *
+     * @author Wara
+     */
+    private static void olvidarHuecosAntiguos() {
+        long limite = System.currentTimeMillis() - HUECO_MS * 10;
+        huecos.values().removeIf(visto -> visto < limite);
+    }
+
+    /**
+     * Obtiene las réplicas que sincroniza esta instancia: su SQLite, que es un archivo local de cada
+     * equipo, y, solo si es la líder de la replicación, los backends compartidos de las casas.
+     *
+     * @return lista de réplicas
+     *
+     * @author Wara
+     */
+    private static List<TipoBaseDatos> replicas() {
+        List<TipoBaseDatos> replicas = LiderReplicacion.isLider() ? MapaShards.getBackends() : new ArrayList<>();
+        replicas.add(TipoBaseDatos.SQLITE);
+        return replicas;
+    }
+
+    /**
+     * Inicializa una réplica sin marca: sincronización completa (o carga masiva si está vacía)
+     * y marca en el último cambio.
+     * La marca se toma antes de leer el MASTER; los cambios que entren mientras tanto
+     * se vuelven a aplicar después, lo que es seguro porque aplicar un cambio es idempotente.
+     *
+     * @param replica base de datos réplica
+     * @param casa casa de la réplica, o null si recibe todos los alumnos
+     * @return CompletableFuture con el número de cambios aplicados tras la inicialización
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Integer> inicializar(TipoBaseDatos replica, String casa) {
+        return DaoCambios.ultimoSeq().thenCompose(seq ->
+                copiarMaster(replica, casa)
+                        .thenCompose(exito -> exito
+                                ? DaoCambios.fijarMarca(replica, seq)
+                                : CompletableFuture.completedFuture(false))
+                        .thenCompose(exito -> {
+                            if (!exito) {
+                                return CompletableFuture.failedFuture(
+                                        new IllegalStateException("No se pudo inicializar " + replica));
+                            }
+                            MonitorReplicacion.registrarMarca(replica, seq);
+                            return aplicarDesde(replica, casa, seq, seq, 0);
+                        }));
+    }
+
+    /**
+     * Copia el MASTER en una réplica sin marca. Una réplica vacía no tiene nada que comparar,
+     * así que se siembra con una carga masiva; si ya tiene alumnos se sincroniza por diferencias.
+     *
+     * @param replica base de datos réplica
+     * @param casa casa de la réplica, o null si recibe todos los alumnos
+     * @return CompletableFuture con true si la réplica quedó igual que el MASTER
+     *
+     * @author Wara
+     */
+    private static CompletableFuture<Boolean> copiarMaster(TipoBaseDatos replica, String casa) {
+        return DaoHuellas.resumirCubos(replica, casa, "").thenCompose(cubos -> {
+            if (!cubos.isEmpty()) {
+                return ServicioHogwarts.sincronizarSlave(replica);
+            }
+            logger.info("{} está vacía, se siembra con una carga masiva", replica);
+            return CargaMasiva.cargar(replica)
+                    .thenApply(resultado -> true)
+                    .exceptionally(ex -> {
+                        logger.error("Error sembrando {}: {}", replica, ex.getMessage());
+                        return false;
+                    });
+        });
+    }
+}
@@ -79,4 +79,45 @@ public abstract class Propiedades {
         }
         return props.getProperty(clave).trim();
     }
-}
\ No newline at end of file
+
+    /**
+     * Obtiene el valor de una propiedad o un valor por defecto si no está definida.
+     * Pensado para parámetros de ajuste opcionales que no tienen por qué aparecer
+     * en todos los configuration.properties desplegados.
+     *
+     * @param clave La clave de la propiedad a buscar
+     * @param porDefecto Valor devuelto si la clave no existe o está vacía
+     * @return El valor de la propiedad o {@code porDefecto}
+     *
+     * @author Wara
+     */
+    public static String getValor(String clave, String porDefecto) {
+        String valor = props.getProperty(clave);
+        if (valor == null || valor.trim().isEmpty()) {
+            return porDefecto;
+        }
+        return valor.trim();
+    }
+
+    /**
+     * Obtiene una propiedad numérica entera o un valor por defecto.
+     *
+     * @param clave La clave de la propiedad a buscar
+     * @param porDefecto Valor devuelto si la clave no existe o no es un número válido
+     * @return El valor entero de la propiedad o {@code porDefecto}
+     *
+     * @author Wara
+     */
+    public static int getEntero(String clave, int porDefecto) {
+        String valor = getValor(clave, null);
+        if (valor == null) {
+            return porDefecto;
+        }
+        try {
+            return Integer.parseInt(valor);
+        } catch (NumberFormatException e) {
+            logger.warn("Valor no numérico para '{}': '{}'. Se usa {}", clave, valor, porDefecto);
+            return porDefecto;
+        }
+    }
+}
@@ -93,6 +93,21 @@ CREATE TABLE alumnos (
     patronus VARCHAR(100)
 );
 
+-- Registro de cambios para la sincronizacion incremental
+-- (la aplicacion la crea sola si no existe)
+CREATE TABLE alumnos_cambios (
+    seq BIGINT AUTO_INCREMENT PRIMARY KEY,
+    id_alumno VARCHAR(12) NOT NULL,
+    operacion VARCHAR(10) NOT NULL,
+    nombre VARCHAR(100),
+    apellidos VARCHAR(100),
+    curso INT,
+    casa VARCHAR(50),
+    patronus VARCHAR(100),
+    fecha BIGINT NOT NULL,
+    INDEX idx_cambios_casa_seq (casa, seq)
+);
+
 -- Datos consolidados
 INSERT INTO alumnos (id,nombre,apellidos,curso,casa,patronus) VALUES
 	 ('GRY-a1b2c3d4','Harry','Potter',5,'Gryffindor','Ciervo'),